@@ -1,6 +1,7 @@
 package com.example.android.inventoryappstage2;
 
 import android.content.ContentValues;
+import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.database.Cursor;
@@ -22,21 +23,42 @@ import android.widget.EditText;
 import android.widget.Toast;
 import android.app.AlertDialog;
 
+import com.example.android.inventoryappstage2.data.InventoryContract;
 import com.example.android.inventoryappstage2.data.InventoryContract.InventoryEntry;
+import com.example.android.inventoryappstage2.data.InventoryFormat;
+import com.example.android.inventoryappstage2.data.InventoryWriteQueue;
 
 public class EditorActivity extends AppCompatActivity
-        implements LoaderManager.LoaderCallbacks<Cursor> {
+        implements LoaderManager.LoaderCallbacks<Cursor>, InventoryWriteQueue.WriteCallback {
 
     private static final int EXISTING_INVENTORY_LOADER = 0;
 
+    /**
+     * Tokens identifying the writes started from the editor
+     */
+    private static final int TOKEN_INSERT = 1;
+    private static final int TOKEN_UPDATE = 2;
+    private static final int TOKEN_DELETE = 3;
+
     private Uri mCurrentItemUri;
     private EditText mNameEditText;
     private EditText mPriceEditText;
     private EditText mQuantityEditText;
+    private EditText mReorderThresholdEditText;
     private EditText mSupplierNameEditText;
     private EditText mSupplierPhoneEditText;
     private Uri mPhoneUri;
 
+    /**
+     * The stored item as last loaded: each field's text, and the item's version
+     * - a save sends only the fields whose text differs, with the version as the expected
+     *   one, so it fails instead of overwriting a write made since (a sale, another station)
+     * - when the item is reloaded, fields the user hasn't edited show the new values and
+     *   edited ones keep their text
+     */
+    private final ContentValues mLoadedValues = new ContentValues();
+    private long mLoadedVersion;
+
     /**
      * Boolean flag that keeps track of whether the item has been edited (true) or not (false)
      */
@@ -89,6 +111,7 @@ public class EditorActivity extends AppCompatActivity
         mNameEditText = (EditText) findViewById(R.id.edit_item_name);
         mPriceEditText = (EditText) findViewById(R.id.edit_price);
         mQuantityEditText = (EditText) findViewById(R.id.edit_quantity);
+        mReorderThresholdEditText = (EditText) findViewById(R.id.edit_reorder_threshold);
         mSupplierNameEditText = (EditText) findViewById(R.id.edit_supplier_name);
         mSupplierPhoneEditText = (EditText) findViewById(R.id.edit_supplier_phone);
 
@@ -99,6 +122,7 @@ public class EditorActivity extends AppCompatActivity
         mNameEditText.setOnTouchListener(mTouchListener);
         mPriceEditText.setOnTouchListener(mTouchListener);
         mQuantityEditText.setOnTouchListener(mTouchListener);
+        mReorderThresholdEditText.setOnTouchListener(mTouchListener);
         mSupplierNameEditText.setOnTouchListener(mTouchListener);
         mSupplierPhoneEditText.setOnTouchListener(mTouchListener);
 
@@ -165,6 +189,7 @@ public class EditorActivity extends AppCompatActivity
         String nameString = mNameEditText.getText().toString().trim();
         String priceString = mPriceEditText.getText().toString().trim();
         String quantityString = mQuantityEditText.getText().toString().trim();
+        String reorderThresholdString = mReorderThresholdEditText.getText().toString().trim();
         String supplierNameString = mSupplierNameEditText.getText().toString().trim();
         String supplierPhoneString = mSupplierPhoneEditText.getText().toString().trim();
 
@@ -189,6 +214,11 @@ public class EditorActivity extends AppCompatActivity
             mPriceEditText.setError(getString(R.string.error_required));
             return;
         }
+        long priceCents = InventoryFormat.parsePrice(priceString);
+        if (priceCents < 0) {
+            mPriceEditText.setError(getString(R.string.error_invalid_price));
+            return;
+        }
 
         if (TextUtils.isEmpty(quantityString)) {
             mQuantityEditText.setError(getString(R.string.error_required));
@@ -204,49 +234,119 @@ public class EditorActivity extends AppCompatActivity
             mSupplierPhoneEditText.setError(getString(R.string.error_required));
             return;
         }
+        String supplierPhone = InventoryFormat.normalizePhone(supplierPhoneString);
+        if (supplierPhone == null) {
+            mSupplierPhoneEditText.setError(getString(R.string.error_invalid_phone));
+            return;
+        }
+
+        InventoryWriteQueue writeQueue = InventoryWriteQueue.getInstance(this);
+        if (mCurrentItemUri != null) {
+            updateItem(writeQueue, nameString, priceCents, quantityString, reorderThresholdString,
+                    supplierNameString, supplierPhone);
+            return;
+        }
 
         // Create a ContentValues object where column names are the keys
         // and item attributes from the editor are the values
         ContentValues values = new ContentValues();
         values.put(InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME, nameString);
-        values.put(InventoryEntry.COLUMN_INVENTORY_PRICE, priceString);
+        values.put(InventoryEntry.COLUMN_INVENTORY_PRICE, priceCents);
         values.put(InventoryEntry.COLUMN_INVENTORY_QUANTITY, quantityString);
+        // The threshold is optional, new items without one get the default
+        if (!TextUtils.isEmpty(reorderThresholdString)) {
+            values.put(InventoryEntry.COLUMN_INVENTORY_REORDER_THRESHOLD, reorderThresholdString);
+        }
         values.put(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME, supplierNameString);
-        values.put(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_PHONE, supplierPhoneString);
+        values.put(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_PHONE, supplierPhone);
 
-        // Determine if this is a new or existing item by checking mCurrentItemUri is null or not
-        if (mCurrentItemUri == null) {
-            // This is a new item
-            Uri newUri = getContentResolver().insert(InventoryEntry.CONTENT_URI, values);
+        // This is a new item
+        // The write runs in the background, the result toast is shown after the editor is gone
+        writeQueue.startInsert(TOKEN_INSERT, new ResultToast(this), InventoryEntry.CONTENT_URI,
+                values);
+        finish();
+    }
 
-            // Add toast message
-            if (newUri == null) {
-                // null means error
-                Toast.makeText(this, getString(R.string.editor_insert_item_failed),
-                        Toast.LENGTH_SHORT).show();
-            } else {
-                // Successful insertion
-                Toast.makeText(this, getString(R.string.editor_insert_item_successful),
-                        Toast.LENGTH_SHORT).show();
-            }
-        } else {
-            int rowsAffected = getContentResolver().update(
-                    mCurrentItemUri, values, null, null);
-
-            // Add toast messages
-            if (rowsAffected == 0) {
-                // Failed to updated
-                Toast.makeText(this, getString(R.string.editor_update_item_failed),
-                        Toast.LENGTH_SHORT).show();
-            } else {
-                // Success
-                Toast.makeText(this, getString(R.string.editor_update_item_successful),
-                        Toast.LENGTH_SHORT).show();
-            }
+    /**
+     * Saves the fields that differ from the loaded item, if its version is still the loaded one
+     * The editor stays open until onWriteComplete() reports the outcome
+     */
+    private void updateItem(InventoryWriteQueue writeQueue, String nameString, long priceCents,
+                            String quantityString, String reorderThresholdString,
+                            String supplierNameString, String supplierPhone) {
+        ContentValues values = new ContentValues();
+        putIfChanged(values, InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME, nameString);
+        // Compared as cents, so "12.5" is no change from a loaded "12.50"
+        if (priceCents != InventoryFormat.parsePrice(
+                mLoadedValues.getAsString(InventoryEntry.COLUMN_INVENTORY_PRICE))) {
+            values.put(InventoryEntry.COLUMN_INVENTORY_PRICE, priceCents);
+        }
+        putIfChanged(values, InventoryEntry.COLUMN_INVENTORY_QUANTITY, quantityString);
+        if (!TextUtils.isEmpty(reorderThresholdString)) {
+            putIfChanged(values, InventoryEntry.COLUMN_INVENTORY_REORDER_THRESHOLD,
+                    reorderThresholdString);
+        }
+        // The supplier is found by name and phone together, so both are sent if either changed
+        if (!supplierNameString.equals(mLoadedValues.getAsString(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME))
+                || !supplierPhone.equals(mLoadedValues.getAsString(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_PHONE))) {
+            values.put(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME, supplierNameString);
+            values.put(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_PHONE, supplierPhone);
+        }
+
+        if (values.size() == 0) {
+            finish();
+            return;
+        }
+        Uri uri = mCurrentItemUri.buildUpon()
+                .appendQueryParameter(InventoryContract.QUERY_PARAMETER_EXPECTED_VERSION,
+                        String.valueOf(mLoadedVersion))
+                .build();
+        writeQueue.startUpdate(TOKEN_UPDATE, this, uri, values, null, null);
+    }
+
+    private void putIfChanged(ContentValues values, String column, String text) {
+        if (!text.equals(mLoadedValues.getAsString(column))) {
+            values.put(column, text);
+        }
+    }
+
+    /**
+     * Drops the outcome of an update still in the queue, the editor can't show it anymore
+     */
+    @Override
+    protected void onDestroy() {
+        InventoryWriteQueue.getInstance(this).removeCallbacks(this);
+        super.onDestroy();
+    }
+
+    /**
+     * Show the outcome of an update once the write queue has applied it, the editor is still
+     * open. Inserts and deletes report to a ResultToast
+     */
+    @Override
+    public void onWriteComplete(int token, Object result) {
+        if (token != TOKEN_UPDATE) {
+            return;
         }
+        if (result != null && (Integer) result == 0) {
+            // The item was written since it was loaded, its reload shows the changes
+            Toast.makeText(this, R.string.editor_update_item_conflict, Toast.LENGTH_LONG).show();
+            return;
+        }
+        Toast.makeText(getApplicationContext(), result == null
+                ? R.string.editor_update_item_failed
+                : R.string.editor_update_item_successful, Toast.LENGTH_SHORT).show();
         finish();
     }
 
+    /**
+     * An update was refused by a restore, the editor stays open so it can be saved again
+     */
+    @Override
+    public void onWriteRefused(int token) {
+        Toast.makeText(this, R.string.write_refused_restore, Toast.LENGTH_LONG).show();
+    }
+
     /**
      * Inflate menu options from res/menu/menu_editor.xml
      * Add menu items to the app bar
@@ -300,7 +400,6 @@ public class EditorActivity extends AppCompatActivity
 
                 // Save item to database
                 saveItem();
-                finish();
                 return true;
             // Respond to a click on the "Delete" menu option
             case R.id.action_delete:
@@ -348,6 +447,8 @@ public class EditorActivity extends AppCompatActivity
                 InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME,
                 InventoryEntry.COLUMN_INVENTORY_PRICE,
                 InventoryEntry.COLUMN_INVENTORY_QUANTITY,
+                InventoryEntry.COLUMN_INVENTORY_REORDER_THRESHOLD,
+                InventoryEntry.COLUMN_INVENTORY_VERSION,
                 InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME,
                 InventoryEntry.COLUMN_INVENTORY_SUPPLIER_PHONE};
 
@@ -376,24 +477,32 @@ public class EditorActivity extends AppCompatActivity
             int nameColumnIndex = data.getColumnIndex(InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME);
             int priceColumnIndex = data.getColumnIndex(InventoryEntry.COLUMN_INVENTORY_PRICE);
             int quantityColumnIndex = data.getColumnIndex(InventoryEntry.COLUMN_INVENTORY_QUANTITY);
+            int reorderThresholdColumnIndex =
+                    data.getColumnIndex(InventoryEntry.COLUMN_INVENTORY_REORDER_THRESHOLD);
             int supplierNameColumnIndex = data.getColumnIndex(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME);
             int supplierPhoneColumnIndex = data.getColumnIndex(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_PHONE);
 
             // Extract out the value from the cursor for the given column index
             final int id = data.getInt(idColumnIndex);
             String name = data.getString(nameColumnIndex);
-            int price = data.getInt(priceColumnIndex);
+            long price = data.getLong(priceColumnIndex);
             final int quantity = data.getInt(quantityColumnIndex);
+            int reorderThreshold = data.getInt(reorderThresholdColumnIndex);
             String supplier = data.getString(supplierNameColumnIndex);
-            int phone = data.getInt(supplierPhoneColumnIndex);
+            String phone = data.getString(supplierPhoneColumnIndex);
 
             // Update the views on the screen with the values from the database
-            mNameEditText.setText(name);
-            mPriceEditText.setText(Integer.toString(price));
-            mQuantityEditText.setText(Integer.toString(quantity));
-            mSupplierNameEditText.setText(supplier);
-            mSupplierPhoneEditText.setText(Integer.toString(phone));
-            mPhoneUri = Uri.parse(Integer.toString(phone));
+            showLoadedValue(mNameEditText, InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME, name);
+            showLoadedValue(mPriceEditText, InventoryEntry.COLUMN_INVENTORY_PRICE,
+                    InventoryFormat.formatPrice(price));
+            showLoadedValue(mQuantityEditText, InventoryEntry.COLUMN_INVENTORY_QUANTITY,
+                    Integer.toString(quantity));
+            showLoadedValue(mReorderThresholdEditText, InventoryEntry.COLUMN_INVENTORY_REORDER_THRESHOLD,
+                    Integer.toString(reorderThreshold));
+            showLoadedValue(mSupplierNameEditText, InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME, supplier);
+            showLoadedValue(mSupplierPhoneEditText, InventoryEntry.COLUMN_INVENTORY_SUPPLIER_PHONE, phone);
+            mLoadedVersion = data.getLong(data.getColumnIndex(InventoryEntry.COLUMN_INVENTORY_VERSION));
+            mPhoneUri = Uri.parse(phone);
 
             // Setup button to call supplier
             Button button = (Button) findViewById(R.id.call_supplier);
@@ -408,14 +517,27 @@ public class EditorActivity extends AppCompatActivity
         }
     }
 
+    /**
+     * Shows a loaded value in field, unless the user has edited the field since the last load
+     */
+    private void showLoadedValue(EditText field, String column, String value) {
+        String loaded = mLoadedValues.getAsString(column);
+        if (loaded == null || loaded.equals(field.getText().toString().trim())) {
+            field.setText(value);
+        }
+        mLoadedValues.put(column, value);
+    }
+
     @Override
     public void onLoaderReset(Loader<Cursor> loader) {
         // If the loader is invalidated, clear out all the data from the input fields
         mNameEditText.setText("");
         mPriceEditText.setText("");
         mQuantityEditText.setText("");
+        mReorderThresholdEditText.setText("");
         mSupplierNameEditText.setText("");
         mSupplierPhoneEditText.setText("");
+        mLoadedValues.clear();
     }
 
     /**
@@ -504,24 +626,48 @@ public class EditorActivity extends AppCompatActivity
     private void deleteItem() {
         // Only perform the delete if this is an existing item
         if (mCurrentItemUri != null) {
-            // Call the ContentResolver to delete the item at the given content URI.
+            // Queue the delete of the item at the given content URI.
             // Pass in null for the selection and selection args because the mCurrentItemUri
             // content URI already identifies the item that we want.
-            int rowsDeleted = getContentResolver().delete(mCurrentItemUri, null, null);
+            // The result toast is shown after the editor is gone
+            InventoryWriteQueue.getInstance(this)
+                    .startDelete(TOKEN_DELETE, new ResultToast(this), mCurrentItemUri, null, null);
+        }
+        // Close the activity
+        finish();
+    }
+
+    /**
+     * Shows the outcome of an insert or delete, which finish the editor right away
+     * Holds only the application context, so the queue never keeps a finished editor
+     */
+    private static class ResultToast implements InventoryWriteQueue.WriteCallback {
+        private final Context mContext;
 
-            // Show a toast depending on what happened
-            if (rowsDeleted == 0) {
-                // If no rows were deleted, then there was an error with the delete.
-                Toast.makeText(this, getString(R.string.editor_delete_item_failed),
-                        Toast.LENGTH_SHORT).show();
+        ResultToast(Context context) {
+            mContext = context.getApplicationContext();
+        }
+
+        @Override
+        public void onWriteComplete(int token, Object result) {
+            int messageId;
+            if (token == TOKEN_INSERT) {
+                // null means error
+                messageId = result == null
+                        ? R.string.editor_insert_item_failed
+                        : R.string.editor_insert_item_successful;
             } else {
-                // Otherwise, the delete was successful and we can display a toast.
-                Toast.makeText(this, getString(R.string.editor_delete_item_successful),
-                        Toast.LENGTH_SHORT).show();
+                messageId = result == null || (Integer) result == 0
+                        ? R.string.editor_delete_item_failed
+                        : R.string.editor_delete_item_successful;
             }
+            Toast.makeText(mContext, messageId, Toast.LENGTH_SHORT).show();
+        }
+
+        @Override
+        public void onWriteRefused(int token) {
+            Toast.makeText(mContext, R.string.write_refused_restore, Toast.LENGTH_LONG).show();
         }
-        // Close the activity
-        finish();
     }
 }
 
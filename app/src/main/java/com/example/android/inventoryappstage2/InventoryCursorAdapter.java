@@ -1,88 +1,426 @@
 package com.example.android.inventoryappstage2;
 
-import android.content.Context;
+import android.database.CharArrayBuffer;
 import android.database.Cursor;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.util.ListUpdateCallback;
+import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.Button;
-import android.widget.CursorAdapter;
 import android.widget.TextView;
 
 import com.example.android.inventoryappstage2.data.InventoryContract;
+import com.example.android.inventoryappstage2.data.InventoryFormat;
 
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
 
-public class InventoryCursorAdapter extends CursorAdapter {
+/**
+ * RecyclerView adapter for the inventory list
+ * - views are found once per ViewHolder, column indexes once per cursor
+ * - a single click listener is shared by every row
+ * - when a new cursor has as many rows as the last one, only the window of rows on screen
+ *   is diffed, keyed by _id: the rows as bound, kept in their holders, against the same
+ *   positions of the new cursor, read on a background thread. So a sale rebinds only the
+ *   row that changed, however long the paged list is. Rows off screen are marked changed,
+ *   which costs nothing until they are scrolled back in
+ * - a new or deleted item moves every position after it, so it rebinds the whole list
+ */
+public class InventoryCursorAdapter extends RecyclerView.Adapter<InventoryCursorAdapter.ViewHolder> {
 
-    public InventoryCursorAdapter(Context context, Cursor c) {
-        super(context, c, 0 /* flags */);
+    /**
+     * Receives clicks on a row, or on its sale button
+     */
+    public interface OnItemClickListener {
+        void onItemClick(long id);
+
+        void onSaleClick(long id);
+    }
+
+    /**
+     * Diffs run one at a time, off the main thread
+     */
+    private static final Executor DIFF_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    private final OnItemClickListener mListener;
+    private final Executor mDiffExecutor;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Guards reads of mCursor, a diff reads the window of a new cursor off the main thread
+     * while rows scrolled in are bound from it
+     */
+    private final Object mCursorLock = new Object();
+    private Cursor mCursor;
+    private int mCount;
+    private int mIdColumnIndex;
+    private int mNameColumnIndex;
+    private int mPriceColumnIndex;
+    private int mQuantityColumnIndex;
+    private RecyclerView mRecyclerView;
+
+    /**
+     * Incremented on every swap, so a diff that finishes after a newer swap is dropped
+     */
+    private int mGeneration;
+
+    /**
+     * Shared by every row and sale button, the row is found from the view's tag
+     */
+    private final View.OnClickListener mClickListener = new View.OnClickListener() {
+        @Override
+        public void onClick(View v) {
+            ViewHolder holder = (ViewHolder) v.getTag();
+            long id = holder.getItemId();
+            if (id == RecyclerView.NO_ID) {
+                return;
+            }
+            if (v == holder.saleButton) {
+                mListener.onSaleClick(id);
+            } else {
+                mListener.onItemClick(id);
+            }
+        }
+    };
+
+    public InventoryCursorAdapter(OnItemClickListener listener) {
+        this(listener, DIFF_EXECUTOR);
+    }
+
+    /**
+     * @param diffExecutor runs the diffs, tests pass one that runs them right away
+     */
+    InventoryCursorAdapter(OnItemClickListener listener, Executor diffExecutor) {
+        mListener = listener;
+        mDiffExecutor = diffExecutor;
+        setHasStableIds(true);
     }
 
-//    public int itemId;
-//    public String itemName;
-//    public int itemPrice;
-//    public int itemQuantity;
+    /**
+     * Cached views of a list item, plus buffers the name is copied and the numbers are
+     * formatted into, so binding a row doesn't allocate Strings
+     * The values last bound are kept, they are the old side of the next diff
+     */
+    static class ViewHolder extends RecyclerView.ViewHolder {
+        final TextView nameTextView;
+        final TextView priceTextView;
+        final TextView quantityTextView;
+        final Button saleButton;
+        final char[] priceBuffer = new char[12];
+        final char[] quantityBuffer = new char[11];
+        final CharArrayBuffer nameBuffer = new CharArrayBuffer(32);
+        long boundId = RecyclerView.NO_ID;
+        int boundPrice;
+        int boundQuantity;
+
+        ViewHolder(View view) {
+            super(view);
+            nameTextView = (TextView) view.findViewById(R.id.text_view_name);
+            priceTextView = (TextView) view.findViewById(R.id.text_view_price);
+            quantityTextView = (TextView) view.findViewById(R.id.text_view_quantity);
+            saleButton = (Button) view.findViewById(R.id.button_sale);
+        }
+    }
+
+    @Override
+    public void onAttachedToRecyclerView(RecyclerView recyclerView) {
+        mRecyclerView = recyclerView;
+    }
+
+    @Override
+    public void onDetachedFromRecyclerView(RecyclerView recyclerView) {
+        mRecyclerView = null;
+    }
 
     /**
-     * Create new blank list item view
-     *
-     * @param context app context
-     * @param cursor  cursor from where we get data - cursor is already at correct position
-     * @param parent  parent to which the new view is attached to
-     * @return newly created list item view
+     * Create new list item view and its holder, and hook up the shared click listener
      */
     @Override
-    public View newView(Context context, Cursor cursor, ViewGroup parent) {
-        // Layout inflater for list_item
-        return LayoutInflater.from(context).inflate(R.layout.list_item, parent, false);
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext())
+                .inflate(R.layout.list_item, parent, false);
+        ViewHolder holder = new ViewHolder(view);
+        view.setTag(holder);
+        view.setOnClickListener(mClickListener);
+        holder.saleButton.setTag(holder);
+        holder.saleButton.setOnClickListener(mClickListener);
+        return holder;
     }
 
     /**
-     * Method binds inventory data (in the current row pointed to by cursor)
-     * to given list item layout. For example, the name for the current item can bet set on the
-     * name TextView in the list item layout
-     *
-     * @param view    Existing view, returned earlier by newView() method
-     * @param context app context
-     * @param cursor  The cursor from which to get the data - cursor already at correct row
+     * Binds the item at position to the cached views of the holder
      */
     @Override
-    public void bindView(View view, final Context context, Cursor cursor) {
-
-        // Find fields to populate in inflated template
-        TextView nameTextView = (TextView) view.findViewById(R.id.text_view_name);
-        TextView priceTextView = (TextView) view.findViewById(R.id.text_view_price);
-        TextView quantityTextView = (TextView) view.findViewById(R.id.text_view_quantity);
-        Button saleButton = (Button) view.findViewById(R.id.button_sale);
-
-        // Find columns of item attribute we're interested in
-        int idColumnIndex =
-                cursor.getColumnIndex(InventoryContract.InventoryEntry._ID);
-        int nameColumnIndex =
-                cursor.getColumnIndex(InventoryContract.InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME);
-        int priceColumnIndex =
-                cursor.getColumnIndex(InventoryContract.InventoryEntry.COLUMN_INVENTORY_PRICE);
-        int quantityColumnIndex =
-                cursor.getColumnIndex(InventoryContract.InventoryEntry.COLUMN_INVENTORY_QUANTITY);
-
-        // Read the item attributes from the cursor for the current item
-        final int itemId = cursor.getInt(idColumnIndex);
-        String itemName = cursor.getString(nameColumnIndex);
-        int itemPrice = cursor.getInt(priceColumnIndex);
-        final int itemQuantity = cursor.getInt(quantityColumnIndex);
+    public void onBindViewHolder(ViewHolder holder, int position) {
+        synchronized (mCursorLock) {
+            mCursor.moveToPosition(position);
+            holder.boundId = mCursor.getLong(mIdColumnIndex);
+            // Copied into the holder's buffer, the cursor never builds a String for it
+            mCursor.copyStringToBuffer(mNameColumnIndex, holder.nameBuffer);
+            holder.boundPrice = mCursor.getInt(mPriceColumnIndex);
+            holder.boundQuantity = mCursor.getInt(mQuantityColumnIndex);
+        }
 
         // Update text views with attributes
-        nameTextView.setText(itemName);
-        priceTextView.setText(Integer.toString(itemPrice));
-        quantityTextView.setText(Integer.toString(itemQuantity));
+        holder.nameTextView.setText(holder.nameBuffer.data, 0, holder.nameBuffer.sizeCopied);
+        holder.priceTextView.setText(holder.priceBuffer, 0,
+                InventoryFormat.formatPrice(holder.boundPrice, holder.priceBuffer));
+        holder.quantityTextView.setText(holder.quantityBuffer, 0,
+                formatInt(holder.boundQuantity, holder.quantityBuffer));
+    }
+
+    @Override
+    public int getItemCount() {
+        return mCount;
+    }
+
+    @Override
+    public long getItemId(int position) {
+        synchronized (mCursorLock) {
+            mCursor.moveToPosition(position);
+            return mCursor.getLong(mIdColumnIndex);
+        }
+    }
+
+    /**
+     * Show a new cursor from the loader
+     * It is bound from right away, as the loader closes the previous one once this returns.
+     * Rows on screen keep what they show until the diff of their window tells which changed
+     */
+    public void swapCursor(Cursor cursor) {
+        final int generation = ++mGeneration;
+        int oldCount = mCount;
+        int count = cursor == null ? 0 : cursor.getCount();
+
+        synchronized (mCursorLock) {
+            mCursor = cursor;
+            if (cursor != null) {
+                mIdColumnIndex = cursor.getColumnIndexOrThrow(InventoryContract.InventoryEntry._ID);
+                mNameColumnIndex = cursor.getColumnIndexOrThrow(
+                        InventoryContract.InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME);
+                mPriceColumnIndex = cursor.getColumnIndexOrThrow(
+                        InventoryContract.InventoryEntry.COLUMN_INVENTORY_PRICE);
+                mQuantityColumnIndex = cursor.getColumnIndexOrThrow(
+                        InventoryContract.InventoryEntry.COLUMN_INVENTORY_QUANTITY);
+            }
+        }
+        mCount = count;
+
+        final RowWindow shown = count == oldCount ? shownWindow() : null;
+        if (shown == null) {
+            notifyDataSetChanged();
+            return;
+        }
+
+        final Cursor diffCursor = cursor;
+        mDiffExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                RowWindow loaded = loadWindow(diffCursor, shown.start, shown.ids.length);
+                if (loaded == null) {
+                    // A newer cursor was swapped in, and this one may be closed already
+                    return;
+                }
+                final DiffUtil.DiffResult result =
+                        DiffUtil.calculateDiff(new WindowDiff(shown, loaded), true);
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation != mGeneration) {
+                            return;
+                        }
+                        dispatchWindowUpdates(shown.start, shown.ids.length, result);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * The rows on screen, as their holders last bound them
+     * return: the window, or null if there is none to diff, e.g. before the first layout
+     */
+    private RowWindow shownWindow() {
+        if (mRecyclerView == null || mCount == 0) {
+            return null;
+        }
+        int childCount = mRecyclerView.getChildCount();
+        int first = Integer.MAX_VALUE;
+        int last = -1;
+        for (int i = 0; i < childCount; i++) {
+            int position = mRecyclerView.getChildViewHolder(mRecyclerView.getChildAt(i))
+                    .getAdapterPosition();
+            if (position != RecyclerView.NO_POSITION) {
+                first = Math.min(first, position);
+                last = Math.max(last, position);
+            }
+        }
+        if (last == -1) {
+            return null;
+        }
+
+        RowWindow window = new RowWindow(first, last - first + 1);
+        for (int i = 0; i < childCount; i++) {
+            ViewHolder holder = (ViewHolder) mRecyclerView.getChildViewHolder(
+                    mRecyclerView.getChildAt(i));
+            int position = holder.getAdapterPosition();
+            if (position == RecyclerView.NO_POSITION) {
+                continue;
+            }
+            int row = position - first;
+            window.ids[row] = holder.boundId;
+            window.names[row] = new String(holder.nameBuffer.data, 0, holder.nameBuffer.sizeCopied);
+            window.prices[row] = holder.boundPrice;
+            window.quantities[row] = holder.boundQuantity;
+        }
+        return window;
+    }
+
+    /**
+     * Reads count rows of cursor from position start, on the diff executor
+     * return: the rows, or null if cursor is no longer the one shown
+     */
+    private RowWindow loadWindow(Cursor cursor, int start, int count) {
+        RowWindow window = new RowWindow(start, count);
+        synchronized (mCursorLock) {
+            if (cursor != mCursor) {
+                return null;
+            }
+            for (int i = 0; i < count && cursor.moveToPosition(start + i); i++) {
+                window.ids[i] = cursor.getLong(mIdColumnIndex);
+                window.names[i] = cursor.getString(mNameColumnIndex);
+                window.prices[i] = cursor.getInt(mPriceColumnIndex);
+                window.quantities[i] = cursor.getInt(mQuantityColumnIndex);
+            }
+        }
+        return window;
+    }
+
+    /**
+     * Applies the diff of the window at its place in the list, and marks every row outside
+     * it changed, so views cached off screen are rebound before they are shown again
+     */
+    private void dispatchWindowUpdates(final int start, int rows, DiffUtil.DiffResult result) {
+        if (start > 0) {
+            notifyItemRangeChanged(0, start);
+        }
+        int end = start + rows;
+        if (end < mCount) {
+            notifyItemRangeChanged(end, mCount - end);
+        }
+        result.dispatchUpdatesTo(new ListUpdateCallback() {
+            @Override
+            public void onInserted(int position, int count) {
+                notifyItemRangeInserted(start + position, count);
+            }
+
+            @Override
+            public void onRemoved(int position, int count) {
+                notifyItemRangeRemoved(start + position, count);
+            }
+
+            @Override
+            public void onMoved(int fromPosition, int toPosition) {
+                notifyItemMoved(start + fromPosition, start + toPosition);
+            }
 
-        saleButton.setOnClickListener(new View.OnClickListener() {
             @Override
-            public void onClick(View v) {
-                MainActivity Activity = (MainActivity) context;
-                Activity.sellItem(itemId, itemQuantity);
+            public void onChanged(int position, int count, Object payload) {
+                notifyItemRangeChanged(start + position, count, payload);
             }
         });
     }
+
+    /**
+     * Writes the decimal digits of value to the start of buffer
+     * return: number of chars written
+     */
+    static int formatInt(int value, char[] buffer) {
+        long remaining = value;
+        int length = 0;
+        if (remaining < 0) {
+            buffer[length++] = '-';
+            remaining = -remaining;
+        }
+        int start = length;
+        do {
+            buffer[length++] = (char) ('0' + remaining % 10);
+            remaining /= 10;
+        } while (remaining != 0);
+
+        // Digits were written lowest first, reverse them
+        for (int i = start, j = length - 1; i < j; i++, j--) {
+            char digit = buffer[i];
+            buffer[i] = buffer[j];
+            buffer[j] = digit;
+        }
+        return length;
+    }
+
+    /**
+     * Copy of the shown columns of count rows from position start, safe to diff on another
+     * thread. A row the window has no holder for keeps NO_ID, and is diffed as changed
+     */
+    static class RowWindow {
+        final int start;
+        final long[] ids;
+        final String[] names;
+        final int[] prices;
+        final int[] quantities;
+
+        RowWindow(int start, int count) {
+            this.start = start;
+            ids = new long[count];
+            names = new String[count];
+            prices = new int[count];
+            quantities = new int[count];
+            Arrays.fill(ids, RecyclerView.NO_ID);
+        }
+    }
+
+    /**
+     * Rows are the same item when the _id matches, and unchanged when every shown column matches
+     */
+    private static class WindowDiff extends DiffUtil.Callback {
+        private final RowWindow mOld;
+        private final RowWindow mNew;
+
+        WindowDiff(RowWindow oldWindow, RowWindow newWindow) {
+            mOld = oldWindow;
+            mNew = newWindow;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOld.ids.length;
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNew.ids.length;
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOld.ids[oldItemPosition] != RecyclerView.NO_ID
+                    && mOld.ids[oldItemPosition] == mNew.ids[newItemPosition];
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOld.prices[oldItemPosition] == mNew.prices[newItemPosition]
+                    && mOld.quantities[oldItemPosition] == mNew.quantities[newItemPosition]
+                    && equals(mOld.names[oldItemPosition], mNew.names[newItemPosition]);
+        }
+
+        private static boolean equals(String a, String b) {
+            return a == null ? b == null : a.equals(b);
+        }
+    }
 }
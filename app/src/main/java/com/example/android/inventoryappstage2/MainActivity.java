@@ -1,39 +1,140 @@
 package com.example.android.inventoryappstage2;
 
 
+import android.app.AlertDialog;
+import android.content.DialogInterface;
+import android.os.Handler;
 import android.support.v4.app.LoaderManager;
 import android.support.v4.content.CursorLoader;
 import android.support.v4.content.Loader;
+import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.Context;
 import android.content.Intent;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.provider.BaseColumns;
 import android.support.design.widget.FloatingActionButton;
 import android.support.v7.app.AppCompatActivity;
 import android.os.Bundle;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
+import android.text.TextUtils;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
-import android.widget.AdapterView;
-import android.widget.ListView;
 import android.widget.RelativeLayout;
+import android.widget.TextView;
 import android.widget.Toast;
 
+import com.example.android.inventoryappstage2.data.InventoryContract;
 import com.example.android.inventoryappstage2.data.InventoryContract.InventoryEntry;
+import com.example.android.inventoryappstage2.data.InventoryContract.SummaryEntry;
+import com.example.android.inventoryappstage2.data.InventoryContract.SupplierEntry;
+import com.example.android.inventoryappstage2.data.InventoryCsv;
+import com.example.android.inventoryappstage2.data.InventoryFormat;
+import com.example.android.inventoryappstage2.data.InventoryWriteQueue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
 
 public class MainActivity extends AppCompatActivity
-        implements LoaderManager.LoaderCallbacks<Cursor> {
+        implements LoaderManager.LoaderCallbacks<Cursor>, InventoryWriteQueue.WriteCallback {
 
     private static final int INVENTORY_LOADER = 0;
+    private static final int SUMMARY_LOADER = 1;
 
-    // Adapter for ListView
+    /**
+     * Tokens identifying the writes started from the list
+     */
+    private static final int TOKEN_SELL = 1;
+    private static final int TOKEN_INSERT = 2;
+    private static final int TOKEN_DELETE_ALL = 3;
+
+    /**
+     * How long typing has to pause before the search box re-queries the list
+     */
+    private static final long SEARCH_DEBOUNCE_MS = 300;
+
+    /**
+     * Rows loaded per page as the list scrolls
+     */
+    private static final int PAGE_SIZE = 100;
+
+    /**
+     * Request code for picking the CSV file to import
+     */
+    private static final int REQUEST_IMPORT_CSV = 1;
+
+    /**
+     * File name the inventory is exported to, in the app's external files directory
+     */
+    private static final String EXPORT_FILE_NAME = "inventory.csv";
+
+    /**
+     * Sort orders of the sort menu, in the order of R.array.sort_options
+     * Each is one the provider accepts, see InventoryEntry.SORT_COLUMNS
+     */
+    private static final String[] SORT_ORDERS = {
+            null,
+            InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME,
+            InventoryEntry.COLUMN_INVENTORY_PRICE,
+            InventoryEntry.COLUMN_INVENTORY_PRICE + InventoryEntry.SORT_DESCENDING,
+            InventoryEntry.COLUMN_INVENTORY_QUANTITY,
+            InventoryEntry.COLUMN_INVENTORY_QUANTITY + InventoryEntry.SORT_DESCENDING};
+
+    /**
+     * mSupplierId of a list that isn't filtered by supplier
+     */
+    private static final long ALL_SUPPLIERS = -1;
+
+    // Adapter for the RecyclerView
     InventoryCursorAdapter mCursorAdapter;
 
    RelativeLayout emptyView;
 
+    /**
+     * Header showing the inventory totals
+     */
+    private TextView mSummaryHeader;
+
+    /**
+     * Text the list is currently filtered by, empty for the whole inventory
+     */
+    private String mSearchQuery = "";
+
+    /**
+     * Latest text typed in the search box, applied once typing pauses
+     */
+    private String mPendingSearchQuery = "";
+
+    /**
+     * Index into SORT_ORDERS of the list's order, and the supplier it is filtered to
+     * Both are applied by the provider, from an index. A search lists its matches by
+     * relevance instead, over every supplier
+     */
+    private int mSortIndex;
+    private long mSupplierId = ALL_SUPPLIERS;
+
+    private final Handler mSearchHandler = new Handler();
+
+    private final Runnable mApplySearch = new Runnable() {
+        @Override
+        public void run() {
+            // Only re-query if the search actually changed
+            if (!mPendingSearchQuery.equals(mSearchQuery)) {
+                mSearchQuery = mPendingSearchQuery;
+                getSupportLoaderManager().restartLoader(INVENTORY_LOADER, null, MainActivity.this);
+            }
+        }
+    };
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -50,22 +151,21 @@ public class MainActivity extends AppCompatActivity
         });
 
 
-        // Find the ListView which will be populated with item data
-        ListView itemListView = (ListView) findViewById(R.id.list);
+        // Find the RecyclerView which will be populated with item data
+        RecyclerView itemListView = (RecyclerView) findViewById(R.id.list);
+        itemListView.setLayoutManager(new LinearLayoutManager(this));
+        itemListView.setHasFixedSize(true);
 
-        // Find and set emptyView on the ListView, so that it only shows when the list has 0 items
+        // Find the emptyView, shown from onLoadFinished() when the list has 0 items
         emptyView = findViewById(R.id.empty_view);
-        itemListView.setEmptyView(emptyView);
 
-        // Setup an Adapter to create a list item for each row of item data
-        // There is no item data yet, so pass in null for the Cursor
-        mCursorAdapter = new InventoryCursorAdapter(this, null);
-        itemListView.setAdapter(mCursorAdapter);
+        mSummaryHeader = (TextView) findViewById(R.id.summary_header);
 
-        // Setup item click listener
-        itemListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+        // Setup an Adapter to create a list item for each row of item data
+        // There is no item data yet, it arrives through swapCursor()
+        mCursorAdapter = new InventoryCursorAdapter(new InventoryCursorAdapter.OnItemClickListener() {
             @Override
-            public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
+            public void onItemClick(long id) {
                 // Will need id to ID which item was clicked on
                 Intent intent = new Intent(MainActivity.this, EditorActivity.class);
 
@@ -78,37 +178,34 @@ public class MainActivity extends AppCompatActivity
                 Log.v("MainActivity", "Intent has been selected");
                 startActivity(intent);
             }
+
+            @Override
+            public void onSaleClick(long id) {
+                sellItem(id);
+            }
         });
+        itemListView.setAdapter(mCursorAdapter);
 
 
-        // Initialize loader
+        // Initialize loaders
         getSupportLoaderManager().initLoader(INVENTORY_LOADER, null, this);
+        getSupportLoaderManager().initLoader(SUMMARY_LOADER, null, this);
+
+        // Check for items to reorder in the background, also while the app isn't open
+        ReorderWorker.schedule();
     }
 
     /**
-     * Sell item count - call this in InventoryCursorAdapter.class - > bindView()
-     * Use ContentValues to update quantity count
-     * Use ContentResolver() to verify changes
+     * Sell one unit of an item - called from the sale button of a row
+     * The provider decrements the quantity in a single statement, so rapid taps or
+     * a stale list can't lose a sale or sell stock that isn't there
      */
-    public void sellItem(int id, int quantity) {
-        if (quantity > 0) {
-            quantity -= 1;
-            ContentValues values = new ContentValues();
-
-            // Update values
-            values.put(InventoryEntry.COLUMN_INVENTORY_QUANTITY, quantity);
-
-            // Get URI
-            Uri uri = ContentUris.withAppendedId(InventoryEntry.CONTENT_URI, id);
+    public void sellItem(long id) {
+        Bundle extras = new Bundle();
+        extras.putInt(InventoryContract.EXTRA_COUNT, 1);
 
-            // Get value of rows affected
-            int rowsAffected = getContentResolver().update(uri, values, null, null);
-            Toast.makeText(this, "Sale made", Toast.LENGTH_SHORT).show();
-            Log.d("MainActivity", "Rows affected :" + rowsAffected + ", with item ID: " + id);
-        } else {
-            Toast.makeText(this, "Product no longer in stock - please order more",
-                    Toast.LENGTH_SHORT).show();
-        }
+        InventoryWriteQueue.getInstance(this).startCall(TOKEN_SELL, this,
+                InventoryContract.METHOD_SELL, String.valueOf(id), extras);
     }
 
 
@@ -119,23 +216,52 @@ public class MainActivity extends AppCompatActivity
         // Create a new map of values, where column names are keys
         ContentValues values = new ContentValues();
         values.put(InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME, "PRODUCT NAME");
-        values.put(InventoryEntry.COLUMN_INVENTORY_PRICE, 10);
+        values.put(InventoryEntry.COLUMN_INVENTORY_PRICE, 1000);
         values.put(InventoryEntry.COLUMN_INVENTORY_QUANTITY, 100);
         values.put(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME, "SUPPLIER NAME");
         values.put(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_PHONE, 1234);
 
-        // Insert new row, returning the primary key value of the new row
-        Uri uri = getContentResolver().insert(InventoryEntry.CONTENT_URI, values);
+        // Queue the insert of the new row
+        InventoryWriteQueue.getInstance(this)
+                .startInsert(TOKEN_INSERT, null, InventoryEntry.CONTENT_URI, values);
     }
 
     /**
      * Helper method to delete all items in the inventory
      */
     private void deleteAllItems() {
-        // get int for rows deleted, and pass to a Log.v
-        int rowsDeleted = getContentResolver().delete(
+        InventoryWriteQueue.getInstance(this).startDelete(TOKEN_DELETE_ALL, this,
                 InventoryEntry.CONTENT_URI, null, null);
-        Log.v("MainActivity", rowsDeleted + " rows deleted from inventory");
+    }
+
+    /**
+     * Handles the results of writes queued from this activity, on the main thread
+     */
+    @Override
+    public void onWriteComplete(int token, Object result) {
+        switch (token) {
+            case TOKEN_SELL:
+                Bundle bundle = (Bundle) result;
+                if (bundle != null && bundle.getInt(InventoryContract.EXTRA_QUANTITY, -1) >= 0) {
+                    Toast.makeText(this, "Sale made", Toast.LENGTH_SHORT).show();
+                } else {
+                    Toast.makeText(this, "Product no longer in stock - please order more",
+                            Toast.LENGTH_SHORT).show();
+                }
+                break;
+            case TOKEN_DELETE_ALL:
+                // pass rows deleted to a Log.v
+                Log.v("MainActivity", result + " rows deleted from inventory");
+                break;
+        }
+    }
+
+    /**
+     * A sale or delete was refused by a restore, nothing was sold or deleted
+     */
+    @Override
+    public void onWriteRefused(int token) {
+        Toast.makeText(this, R.string.write_refused_restore, Toast.LENGTH_LONG).show();
     }
 
     /**
@@ -144,9 +270,85 @@ public class MainActivity extends AppCompatActivity
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         getMenuInflater().inflate(R.menu.menu_main, menu);
+
+        // Search as the user types, debounced so a burst of keystrokes runs one query
+        SearchView searchView = (SearchView) menu.findItem(R.id.action_search).getActionView();
+        searchView.setQueryHint(getString(R.string.search_hint));
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                mPendingSearchQuery = query.trim();
+                mSearchHandler.removeCallbacks(mApplySearch);
+                mApplySearch.run();
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                mPendingSearchQuery = newText.trim();
+                mSearchHandler.removeCallbacks(mApplySearch);
+                mSearchHandler.postDelayed(mApplySearch, SEARCH_DEBOUNCE_MS);
+                return true;
+            }
+        });
         return super.onCreateOptionsMenu(menu);
     }
 
+    /**
+     * Sorts and filters the list, re-querying only if either actually changed
+     */
+    private void setListQuery(int sortIndex, long supplierId) {
+        if (sortIndex != mSortIndex || supplierId != mSupplierId) {
+            mSortIndex = sortIndex;
+            mSupplierId = supplierId;
+            getSupportLoaderManager().restartLoader(INVENTORY_LOADER, null, this);
+        }
+    }
+
+    private void showSortDialog() {
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.action_sort)
+                .setSingleChoiceItems(R.array.sort_options, mSortIndex,
+                        new DialogInterface.OnClickListener() {
+                            @Override
+                            public void onClick(DialogInterface dialog, int which) {
+                                dialog.dismiss();
+                                setListQuery(which, mSupplierId);
+                            }
+                        })
+                .show();
+    }
+
+    /**
+     * Shows the suppliers to filter the list by, the first choice lists every supplier
+     */
+    private void showSupplierDialog(String[] labels, final long[] supplierIds) {
+        int checked = 0;
+        for (int i = 0; i < supplierIds.length; i++) {
+            if (supplierIds[i] == mSupplierId) {
+                checked = i;
+            }
+        }
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.action_filter_supplier)
+                .setSingleChoiceItems(labels, checked, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        dialog.dismiss();
+                        setListQuery(mSortIndex, supplierIds[which]);
+                    }
+                })
+                .show();
+    }
+
+    @Override
+    protected void onDestroy() {
+        mSearchHandler.removeCallbacks(mApplySearch);
+        // Sales and deletes still in the queue complete without this activity
+        InventoryWriteQueue.getInstance(this).removeCallbacks(this);
+        super.onDestroy();
+    }
+
     /**
      * Switch attached to two cases
      * - insert dummy data - insertItem()
@@ -160,6 +362,26 @@ public class MainActivity extends AppCompatActivity
             case R.id.action_insert_dummy_data:
                 insertItem();
                 return true;
+            case R.id.action_sort:
+                showSortDialog();
+                return true;
+            case R.id.action_filter_supplier:
+                new SupplierChoiceTask(this).executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+                return true;
+            case R.id.action_import_csv:
+                Intent intent = new Intent(Intent.ACTION_GET_CONTENT);
+                intent.setType("text/*");
+                intent.addCategory(Intent.CATEGORY_OPENABLE);
+                startActivityForResult(intent, REQUEST_IMPORT_CSV);
+                return true;
+            case R.id.action_export_csv:
+                File directory = getExternalFilesDir(null);
+                if (directory == null) {
+                    directory = getFilesDir();
+                }
+                new CsvTask(this, null, new File(directory, EXPORT_FILE_NAME))
+                        .executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+                return true;
             case R.id.action_delete_all_entries:
                 deleteAllItems();
                 return true;
@@ -167,25 +389,183 @@ public class MainActivity extends AppCompatActivity
         return super.onOptionsItemSelected(item);
     }
 
+    /**
+     * Starts importing the CSV file the user picked
+     */
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        if (requestCode == REQUEST_IMPORT_CSV) {
+            if (resultCode == RESULT_OK && data != null && data.getData() != null) {
+                new CsvTask(this, data.getData(), null)
+                        .executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+            }
+            return;
+        }
+        super.onActivityResult(requestCode, resultCode, data);
+    }
+
+    /**
+     * Imports from importUri, or exports to exportFile, in the background
+     * Import progress is shown as the app bar subtitle, and a toast reports the totals
+     */
+    private static class CsvTask extends AsyncTask<Void, Long, String> {
+        private final WeakReference<MainActivity> mActivity;
+        private final Context mContext;
+        private final Uri mImportUri;
+        private final File mExportFile;
+
+        CsvTask(MainActivity activity, Uri importUri, File exportFile) {
+            mActivity = new WeakReference<>(activity);
+            mContext = activity.getApplicationContext();
+            mImportUri = importUri;
+            mExportFile = exportFile;
+        }
+
+        @Override
+        protected String doInBackground(Void... params) {
+            ContentResolver resolver = mContext.getContentResolver();
+            try {
+                if (mImportUri != null) {
+                    InputStream in = resolver.openInputStream(mImportUri);
+                    if (in == null) {
+                        return mContext.getString(R.string.csv_failed);
+                    }
+                    InventoryCsv.ImportResult result = InventoryCsv.importCsv(resolver, in,
+                            new InventoryCsv.ProgressListener() {
+                                @Override
+                                public void onProgress(long rowsRead, long rowsImported,
+                                                       long rowsRejected) {
+                                    publishProgress(rowsImported);
+                                }
+                            });
+                    return mContext.getString(R.string.csv_import_done,
+                            result.rowsImported, result.rowsRejected);
+                } else {
+                    long rowsWritten = InventoryCsv.exportCsv(resolver,
+                            new FileOutputStream(mExportFile));
+                    return mContext.getString(R.string.csv_export_done,
+                            rowsWritten, mExportFile.getPath());
+                }
+            } catch (Exception e) {
+                Log.e("MainActivity", "CSV transfer failed", e);
+                return mContext.getString(R.string.csv_failed);
+            }
+        }
+
+        @Override
+        protected void onProgressUpdate(Long... rowsImported) {
+            MainActivity activity = mActivity.get();
+            if (activity != null && activity.getSupportActionBar() != null) {
+                activity.getSupportActionBar().setSubtitle(
+                        activity.getString(R.string.csv_import_progress, rowsImported[0]));
+            }
+        }
+
+        @Override
+        protected void onPostExecute(String message) {
+            MainActivity activity = mActivity.get();
+            if (activity != null && activity.getSupportActionBar() != null) {
+                activity.getSupportActionBar().setSubtitle(null);
+            }
+            Toast.makeText(mContext, message, Toast.LENGTH_LONG).show();
+        }
+    }
+
+    /**
+     * Reads the suppliers in the background, then shows them to filter the list by
+     */
+    private static class SupplierChoiceTask extends AsyncTask<Void, Void, Cursor> {
+        private final WeakReference<MainActivity> mActivity;
+        private final Context mContext;
+
+        SupplierChoiceTask(MainActivity activity) {
+            mActivity = new WeakReference<>(activity);
+            mContext = activity.getApplicationContext();
+        }
+
+        @Override
+        protected Cursor doInBackground(Void... params) {
+            Cursor cursor = mContext.getContentResolver().query(SupplierEntry.CONTENT_URI,
+                    new String[]{SupplierEntry._ID, SupplierEntry.COLUMN_SUPPLIER_NAME,
+                            SupplierEntry.COLUMN_SUPPLIER_PHONE},
+                    null, null, SupplierEntry.COLUMN_SUPPLIER_NAME);
+            if (cursor != null) {
+                // Fill the cursor's window here, off the main thread
+                cursor.getCount();
+            }
+            return cursor;
+        }
+
+        @Override
+        protected void onPostExecute(Cursor cursor) {
+            if (cursor == null) {
+                return;
+            }
+            try {
+                MainActivity activity = mActivity.get();
+                if (activity == null || activity.isFinishing()) {
+                    return;
+                }
+                String[] labels = new String[cursor.getCount() + 1];
+                long[] supplierIds = new long[cursor.getCount() + 1];
+                labels[0] = activity.getString(R.string.filter_all_suppliers);
+                supplierIds[0] = ALL_SUPPLIERS;
+                for (int i = 1; cursor.moveToNext(); i++) {
+                    supplierIds[i] = cursor.getLong(0);
+                    labels[i] = activity.getString(R.string.filter_supplier,
+                            cursor.getString(1), cursor.getString(2));
+                }
+                activity.showSupplierDialog(labels, supplierIds);
+            } finally {
+                cursor.close();
+            }
+        }
+    }
+
     /**
      * Performs two actions
      * - Creates projection with name, price, quantity
-     * - returns CursorLoader
+     * - returns CursorLoader, paged over the inventory or over the search results
+     * - the inventory is sorted and filtered by the provider, see setListQuery()
+     * The summary loader reads the single summary row instead, which the provider keeps
+     * up to date on every write, so reloading it never scans the inventory
      */
     @Override
     public Loader<Cursor> onCreateLoader(int id, Bundle args) {
+        if (id == SUMMARY_LOADER) {
+            return new CursorLoader(this, SummaryEntry.CONTENT_URI, null, null, null, null);
+        }
+
         String[] projection = {
                 BaseColumns._ID,
                 InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME,
                 InventoryEntry.COLUMN_INVENTORY_PRICE,
                 InventoryEntry.COLUMN_INVENTORY_QUANTITY};
 
+        // Page through the inventory, so only the rows near the screen are ever loaded
+        Uri uri = InventoryEntry.CONTENT_URI.buildUpon()
+                .appendQueryParameter(InventoryContract.QUERY_PARAMETER_PAGE_SIZE,
+                        String.valueOf(PAGE_SIZE))
+                .build();
+        String selection = null;
+        String[] selectionArgs = null;
+        String sortOrder = SORT_ORDERS[mSortIndex];
+        if (!TextUtils.isEmpty(mSearchQuery)) {
+            uri = InventoryEntry.SEARCH_URI.buildUpon()
+                    .appendQueryParameter(InventoryContract.QUERY_PARAMETER_SEARCH, mSearchQuery)
+                    .build();
+            sortOrder = null;
+        } else if (mSupplierId != ALL_SUPPLIERS) {
+            selection = InventoryEntry.SELECTION_SUPPLIER;
+            selectionArgs = new String[]{String.valueOf(mSupplierId)};
+        }
+
         return new CursorLoader(this,
-                InventoryEntry.CONTENT_URI,
+                uri,
                 projection,
-                null,
-                null,
-                null);
+                selection,
+                selectionArgs,
+                sortOrder);
     }
 
     /**
@@ -194,7 +574,12 @@ public class MainActivity extends AppCompatActivity
      */
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
+        if (loader.getId() == SUMMARY_LOADER) {
+            showSummary(data);
+            return;
+        }
         mCursorAdapter.swapCursor(data);
+        emptyView.setVisibility(data == null || data.getCount() == 0 ? View.VISIBLE : View.GONE);
     }
 
     /**
@@ -202,8 +587,29 @@ public class MainActivity extends AppCompatActivity
      */
     @Override
     public void onLoaderReset(Loader<Cursor> loader) {
+        if (loader.getId() == SUMMARY_LOADER) {
+            showSummary(null);
+            return;
+        }
         mCursorAdapter.swapCursor(null);
     }
+
+    /**
+     * Shows the totals of the summary row, or hides the header without one
+     */
+    private void showSummary(Cursor summary) {
+        if (summary == null || !summary.moveToFirst()) {
+            mSummaryHeader.setVisibility(View.GONE);
+            return;
+        }
+        mSummaryHeader.setVisibility(View.VISIBLE);
+        mSummaryHeader.setText(getString(R.string.summary_header,
+                summary.getLong(summary.getColumnIndexOrThrow(SummaryEntry.COLUMN_ITEM_COUNT)),
+                summary.getLong(summary.getColumnIndexOrThrow(SummaryEntry.COLUMN_UNITS_ON_HAND)),
+                InventoryFormat.formatPrice(
+                        summary.getLong(summary.getColumnIndexOrThrow(SummaryEntry.COLUMN_STOCK_VALUE))),
+                summary.getLong(summary.getColumnIndexOrThrow(SummaryEntry.COLUMN_LOW_STOCK_COUNT))));
+    }
 }
 
 
@@ -0,0 +1,196 @@
+package com.example.android.inventoryappstage2;
+
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.Intent;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.support.annotation.NonNull;
+import android.support.v4.app.NotificationCompat;
+
+import androidx.work.ExistingPeriodicWorkPolicy;
+import androidx.work.PeriodicWorkRequest;
+import androidx.work.WorkManager;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+import com.example.android.inventoryappstage2.data.InventoryContract;
+import com.example.android.inventoryappstage2.data.InventoryContract.InventoryEntry;
+import com.example.android.inventoryappstage2.data.InventoryContract.ReorderEntry;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodic background check for items that fell below their reorder threshold
+ * - reads only the items the database flagged since the last run, see ReorderEntry, and
+ *   at most MAX_ITEMS_PER_RUN of them, the oldest
+ * - posts one notification per run, with a line per supplier listing up to
+ *   MAX_ITEMS_PER_SUPPLIER of its items and "+N more" for the others
+ * - then clears the flags it read. Flags it didn't read, or added while it ran, are left
+ *   for the next run
+ */
+public class ReorderWorker extends Worker {
+
+    private static final String WORK_NAME = "reorderCheck";
+
+    private static final long CHECK_INTERVAL_HOURS = 1;
+
+    private static final String CHANNEL_ID = "reorder";
+
+    /** Most flagged items read per run */
+    static final int MAX_ITEMS_PER_RUN = 100;
+
+    /** Most items named on a supplier's line */
+    static final int MAX_ITEMS_PER_SUPPLIER = 5;
+
+    public ReorderWorker(@NonNull Context context, @NonNull WorkerParameters params) {
+        super(context, params);
+    }
+
+    /**
+     * Schedules the check, keeping the existing schedule if there is one
+     * WorkManager runs it through JobScheduler from API 23 and AlarmManager before
+     */
+    public static void schedule() {
+        PeriodicWorkRequest request = new PeriodicWorkRequest.Builder(ReorderWorker.class,
+                CHECK_INTERVAL_HOURS, TimeUnit.HOURS).build();
+        WorkManager.getInstance().enqueueUniquePeriodicWork(WORK_NAME,
+                ExistingPeriodicWorkPolicy.KEEP, request);
+    }
+
+    @NonNull
+    @Override
+    public Result doWork() {
+        checkReorders(getApplicationContext());
+        return Result.success();
+    }
+
+    /**
+     * Notifies the flagged items, grouped by supplier, and clears their flags
+     * return: number of items notified
+     */
+    public static int checkReorders(Context context) {
+        ContentResolver resolver = context.getContentResolver();
+        Uri flags = ReorderEntry.CONTENT_URI.buildUpon()
+                .appendQueryParameter(InventoryContract.QUERY_PARAMETER_LIMIT,
+                        String.valueOf(MAX_ITEMS_PER_RUN))
+                .build();
+        Cursor cursor = resolver.query(flags, null, null, null, null);
+        if (cursor == null) {
+            return 0;
+        }
+
+        ArrayList<String> supplierLines = new ArrayList<>();
+        int items = 0;
+        long lastFlagId = -1;
+        try {
+            int flagIdColumn = cursor.getColumnIndexOrThrow(ReorderEntry._ID);
+            int nameColumn = cursor.getColumnIndexOrThrow(InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME);
+            int quantityColumn = cursor.getColumnIndexOrThrow(InventoryEntry.COLUMN_INVENTORY_QUANTITY);
+            int supplierIdColumn = cursor.getColumnIndexOrThrow(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_ID);
+            int supplierNameColumn = cursor.getColumnIndexOrThrow(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME);
+            int supplierPhoneColumn = cursor.getColumnIndexOrThrow(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_PHONE);
+
+            // Rows come ordered by supplier, so each supplier's items are consecutive
+            StringBuilder supplierItems = null;
+            int supplierItemCount = 0;
+            long supplierId = -1;
+            String supplierName = null;
+            String supplierPhone = null;
+            while (cursor.moveToNext()) {
+                lastFlagId = Math.max(lastFlagId, cursor.getLong(flagIdColumn));
+                if (supplierItems == null || cursor.getLong(supplierIdColumn) != supplierId) {
+                    if (supplierItems != null) {
+                        supplierLines.add(supplierLine(context, supplierName, supplierPhone,
+                                supplierItems, supplierItemCount));
+                    }
+                    supplierItems = new StringBuilder();
+                    supplierItemCount = 0;
+                    supplierId = cursor.getLong(supplierIdColumn);
+                    supplierName = cursor.getString(supplierNameColumn);
+                    supplierPhone = cursor.getString(supplierPhoneColumn);
+                }
+                supplierItemCount++;
+                items++;
+                // The others are only counted, no String is built for them
+                if (supplierItemCount > MAX_ITEMS_PER_SUPPLIER) {
+                    continue;
+                }
+                if (supplierItemCount > 1) {
+                    supplierItems.append("; ");
+                }
+                supplierItems.append(context.getString(R.string.reorder_item,
+                        cursor.getString(nameColumn), cursor.getInt(quantityColumn)));
+            }
+            if (supplierItems != null) {
+                supplierLines.add(supplierLine(context, supplierName, supplierPhone,
+                        supplierItems, supplierItemCount));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        if (items == 0) {
+            return 0;
+        }
+        postNotification(context, items, supplierLines, (int) lastFlagId);
+
+        // Flags added since the query have a greater _id and stay for the next run
+        resolver.delete(ReorderEntry.CONTENT_URI, ReorderEntry._ID + " <= ?",
+                new String[]{String.valueOf(lastFlagId)});
+        return items;
+    }
+
+    /**
+     * A supplier's line, with "+N more" for the items past MAX_ITEMS_PER_SUPPLIER
+     */
+    private static String supplierLine(Context context, String name, String phone,
+                                       StringBuilder items, int itemCount) {
+        if (itemCount > MAX_ITEMS_PER_SUPPLIER) {
+            items.append("; ").append(context.getString(R.string.reorder_more,
+                    itemCount - MAX_ITEMS_PER_SUPPLIER));
+        }
+        return context.getString(R.string.reorder_supplier, name, phone, items);
+    }
+
+    /**
+     * Posts the run's notification
+     * Each run uses its own notification id, so it never replaces one that wasn't read yet
+     */
+    private static void postNotification(Context context, int items, ArrayList<String> supplierLines,
+                                         int notificationId) {
+        NotificationManager manager =
+                (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+        if (manager == null) {
+            return;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            manager.createNotificationChannel(new NotificationChannel(CHANNEL_ID,
+                    context.getString(R.string.reorder_channel_name),
+                    NotificationManager.IMPORTANCE_DEFAULT));
+        }
+
+        String title = context.getString(R.string.reorder_title, items);
+        NotificationCompat.InboxStyle style = new NotificationCompat.InboxStyle().setBigContentTitle(title);
+        for (String line : supplierLines) {
+            style.addLine(line);
+        }
+        PendingIntent openList = PendingIntent.getActivity(context, 0,
+                new Intent(context, MainActivity.class), 0);
+
+        manager.notify(notificationId, new NotificationCompat.Builder(context, CHANNEL_ID)
+                .setSmallIcon(R.drawable.baseline_view_module_white_24)
+                .setContentTitle(title)
+                .setContentText(supplierLines.get(0))
+                .setStyle(style)
+                .setNumber(items)
+                .setContentIntent(openList)
+                .setAutoCancel(true)
+                .build());
+    }
+}
@@ -0,0 +1,119 @@
+package com.example.android.inventoryappstage2.data;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.example.android.inventoryappstage2.data.InventoryContract.InventoryEntry;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+
+/**
+ * Coalesces the provider's change notifications
+ * - changes are collected for a window starting at the first one, then each distinct URI
+ *   is notified once, however many times it changed in between
+ * - once more than MAX_PENDING_URIS distinct URIs are waiting they collapse into a single
+ *   notification for the whole inventory
+ * - a window of 0 notifies straight away
+ */
+class ChangeNotifier {
+
+    /**
+     * Default coalescing window, short enough that the UI still feels immediate
+     */
+    static final long DEFAULT_WINDOW_MS = 50;
+
+    private static final int MAX_PENDING_URIS = 32;
+
+    private final ContentResolver mResolver;
+    private final ProviderMetrics mMetrics;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * URIs waiting for the window to end, guarded by "this"
+     */
+    private final LinkedHashSet<Uri> mPending = new LinkedHashSet<>();
+
+    private volatile long mWindowMs = DEFAULT_WINDOW_MS;
+
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    ChangeNotifier(ContentResolver resolver, ProviderMetrics metrics) {
+        mResolver = resolver;
+        mMetrics = metrics;
+    }
+
+    /**
+     * Sets how long changes are collected before they are notified, in milliseconds
+     */
+    void setWindow(long windowMs) {
+        if (windowMs < 0) {
+            throw new IllegalArgumentException("Window can't be negative");
+        }
+        mWindowMs = windowMs;
+    }
+
+    void notifyChange(Uri uri) {
+        boolean startWindow;
+        synchronized (this) {
+            startWindow = mPending.isEmpty();
+            mPending.add(uri);
+        }
+        schedule(startWindow);
+    }
+
+    void notifyChange(Collection<Uri> uris) {
+        if (uris.isEmpty()) {
+            return;
+        }
+        boolean startWindow;
+        synchronized (this) {
+            startWindow = mPending.isEmpty();
+            mPending.addAll(uris);
+        }
+        schedule(startWindow);
+    }
+
+    private void schedule(boolean startWindow) {
+        long windowMs = mWindowMs;
+        if (windowMs == 0) {
+            flush();
+        } else if (startWindow) {
+            mHandler.postDelayed(mFlush, windowMs);
+        }
+    }
+
+    /**
+     * Sends everything that is waiting
+     */
+    void flush() {
+        // Cancel the pending flush first, so a change arriving while we flush starts a new window
+        mHandler.removeCallbacks(mFlush);
+        ArrayList<Uri> uris;
+        synchronized (this) {
+            if (mPending.isEmpty()) {
+                return;
+            }
+            if (mPending.size() > MAX_PENDING_URIS || mPending.contains(InventoryEntry.CONTENT_URI)) {
+                // The whole inventory is notified anyway, which reaches every item URI too
+                uris = new ArrayList<>(1);
+                uris.add(InventoryEntry.CONTENT_URI);
+            } else {
+                uris = new ArrayList<>(mPending);
+            }
+            mPending.clear();
+        }
+        for (Uri uri : uris) {
+            mResolver.notifyChange(uri, null);
+        }
+        mMetrics.recordNotificationsSent(uris.size());
+    }
+}
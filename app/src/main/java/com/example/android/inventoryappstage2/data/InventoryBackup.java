@@ -0,0 +1,460 @@
+package com.example.android.inventoryappstage2.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseErrorHandler;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import com.example.android.inventoryappstage2.data.InventoryContract.InventoryEntry;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Online backup and offline restore of the whole database
+ * - backup checkpoints the write-ahead log, pauses checkpoints and copies the database file
+ *   COPY_CHUNK_BYTES at a time. Writers keep committing to the log meanwhile, and only wait
+ *   for the checkpoint, so the copy is one consistent snapshot without a long write lock
+ * - restore copies the backup next to the database, checks it and upgrades it to the
+ *   current schema on its own while the app keeps selling. Then it replaces every table's
+ *   rows in one transaction, reading the staged copy APPLY_CHUNK_ROWS at a time. Readers
+ *   see the old rows until it commits
+ * - that last step is a write outage, for as long as it takes to copy every row: the
+ *   provider wraps each write in beginWrite() and endWrite(), and beginWrite() throws
+ *   WritesRefusedException until the rows are in, rather than have the write wait. The
+ *   write queue reports it to the write's callback with onWriteRefused()
+ * - both write a copy that is checked with quick_check before it is used, so a torn or
+ *   corrupt file never replaces a good one
+ * - one operation at a time, its progress is read with getStep(), getDone() and getTotal()
+ * Call both off the main thread
+ */
+final class InventoryBackup {
+
+    private static final String LOG_TAG = InventoryBackup.class.getSimpleName();
+
+    /** The staged copy of a backup being restored, in the databases directory */
+    static final String RESTORE_DATABASE_NAME = "Inventory-restore.db";
+
+    /** Bytes copied per transferTo(), a whole number of pages for any page size */
+    private static final int COPY_CHUNK_BYTES = 1024 * 1024;
+
+    /** Rows copied per query of the staged database */
+    private static final int APPLY_CHUNK_ROWS = 500;
+
+    /** Tries at the checkpoint before a backup, readers can keep it from finishing */
+    private static final int CHECKPOINT_ATTEMPTS = 5;
+    private static final long CHECKPOINT_RETRY_MS = 50;
+
+    /** Opens a file without deleting it if it is corrupt, as the default handler would */
+    private static final DatabaseErrorHandler KEEP_CORRUPT_FILE = new DatabaseErrorHandler() {
+        @Override
+        public void onCorruption(SQLiteDatabase db) {
+        }
+    };
+
+    private final Context mContext;
+    private final InventoryDbHelper mDbHelper;
+
+    /** Whether a backup or restore is running, guarded by "this" */
+    private boolean mRunning;
+
+    /**
+     * Held shared by every provider write, and exclusively while a restore replaces the rows
+     * Fair, so writes coming in can't keep a restore waiting for the ones in progress
+     */
+    private final ReentrantReadWriteLock mWriteGate = new ReentrantReadWriteLock(true);
+
+    private volatile String mStep;
+    private volatile long mDone;
+    private volatile long mTotal;
+
+    InventoryBackup(Context context, InventoryDbHelper dbHelper) {
+        mContext = context;
+        mDbHelper = dbHelper;
+    }
+
+    /**
+     * The step running, InventoryContract.BACKUP_STEP_COPY or BACKUP_STEP_APPLY, or null
+     */
+    String getStep() {
+        return mStep;
+    }
+
+    /** Bytes copied, or rows applied, so far in the current step */
+    long getDone() {
+        return mDone;
+    }
+
+    /** Bytes, or rows, the current step has in all */
+    long getTotal() {
+        return mTotal;
+    }
+
+    /**
+     * Lets a provider write in, call endWrite() after it. Throws WritesRefusedException
+     * while a restore replaces the rows, or is waiting for the writes in progress to do so
+     */
+    void beginWrite() {
+        boolean entered;
+        try {
+            // Unlike tryLock(), a timed tryLock doesn't cut in front of a waiting restore
+            entered = mWriteGate.readLock().tryLock(0, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            entered = false;
+        }
+        if (!entered) {
+            throw new WritesRefusedException();
+        }
+    }
+
+    void endWrite() {
+        mWriteGate.readLock().unlock();
+    }
+
+    /**
+     * Writes a snapshot of the database to destination, through a temporary file next to it
+     * return: true if destination holds a checked backup, false if it failed (and is unchanged)
+     */
+    boolean backup(File destination) {
+        start();
+        File copy = new File(destination.getPath() + ".tmp");
+        try {
+            SQLiteDatabase database = mDbHelper.getWritableDatabase();
+            File file = new File(database.getPath());
+            if ("wal".equalsIgnoreCase(DatabaseUtils.stringForQuery(database,
+                    "PRAGMA journal_mode", null))) {
+                try {
+                    if (!pauseCheckpoints()) {
+                        Log.e(LOG_TAG, "Readers kept the checkpoint before the backup from finishing");
+                        return false;
+                    }
+                    copy(file, copy);
+                } finally {
+                    mDbHelper.resumeCheckpoints();
+                }
+            } else {
+                // Without a write-ahead log commits write to the file, hold them off instead
+                database.beginTransactionNonExclusive();
+                try {
+                    copy(file, copy);
+                } finally {
+                    database.endTransaction();
+                }
+            }
+            if (!verify(copy) || !copy.renameTo(destination)) {
+                Log.e(LOG_TAG, "Backup to " + destination + " failed its check");
+                return false;
+            }
+            return true;
+        } catch (IOException | SQLiteException e) {
+            Log.e(LOG_TAG, "Backup to " + destination + " failed", e);
+            return false;
+        } finally {
+            // Gone once renamed, but checking it may have left a journal next to it
+            delete(copy);
+            finish();
+        }
+    }
+
+    /**
+     * Replaces the rows of every table with the backup's, see the class comment
+     * return: true if the backup was restored, false if it failed and nothing was changed
+     */
+    boolean restore(File source) {
+        start();
+        File staged = mContext.getDatabasePath(RESTORE_DATABASE_NAME);
+        InventoryDbHelper stagedHelper = null;
+        try {
+            copy(source, staged);
+            if (!verify(staged)) {
+                Log.e(LOG_TAG, source + " is not an inventory backup");
+                return false;
+            }
+            // Upgraded like any older database when it is opened
+            stagedHelper = new InventoryDbHelper(mContext, RESTORE_DATABASE_NAME);
+            SQLiteDatabase stagedDatabase = stagedHelper.getReadableDatabase();
+            // Waits for the writes in progress, and refuses new ones until the rows are in
+            mWriteGate.writeLock().lock();
+            try {
+                apply(stagedDatabase);
+            } finally {
+                mWriteGate.writeLock().unlock();
+            }
+            return true;
+        } catch (IOException | SQLiteException e) {
+            Log.e(LOG_TAG, "Restore from " + source + " failed", e);
+            return false;
+        } finally {
+            if (stagedHelper != null) {
+                stagedHelper.close();
+            }
+            delete(staged);
+            finish();
+        }
+    }
+
+    private synchronized void start() {
+        if (mRunning) {
+            throw new IllegalStateException("A backup or restore is already running");
+        }
+        mRunning = true;
+    }
+
+    private synchronized void finish() {
+        mStep = null;
+        mDone = 0;
+        mTotal = 0;
+        mRunning = false;
+    }
+
+    /**
+     * Tries the checkpoint a few times, as a reader still on older log frames stops it
+     * Checkpoints stay paused either way
+     */
+    private boolean pauseCheckpoints() {
+        for (int attempt = 1; ; attempt++) {
+            if (mDbHelper.pauseCheckpoints()) {
+                return true;
+            }
+            if (attempt == CHECKPOINT_ATTEMPTS) {
+                return false;
+            }
+            try {
+                Thread.sleep(CHECKPOINT_RETRY_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Copies from to to, COPY_CHUNK_BYTES at a time, and syncs it to disk
+     */
+    private void copy(File from, File to) throws IOException {
+        FileInputStream in = new FileInputStream(from);
+        try {
+            FileOutputStream out = new FileOutputStream(to);
+            try {
+                FileChannel source = in.getChannel();
+                FileChannel target = out.getChannel();
+                long size = source.size();
+                progress(InventoryContract.BACKUP_STEP_COPY, 0, size);
+                long position = 0;
+                while (position < size) {
+                    position += source.transferTo(position,
+                            Math.min(COPY_CHUNK_BYTES, size - position), target);
+                    mDone = position;
+                }
+                out.getFD().sync();
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Whether file is an intact inventory database, of this version or an older one
+     */
+    private static boolean verify(File file) {
+        SQLiteDatabase database = SQLiteDatabase.openDatabase(file.getPath(), null,
+                SQLiteDatabase.OPEN_READWRITE, KEEP_CORRUPT_FILE);
+        try {
+            int version = database.getVersion();
+            return "ok".equals(DatabaseUtils.stringForQuery(database, "PRAGMA quick_check", null))
+                    && version >= 1 && version <= InventoryDbHelper.DATABASE_VERSION
+                    && DatabaseUtils.longForQuery(database, "SELECT COUNT(*) FROM sqlite_master"
+                    + " WHERE type = 'table' AND name = ?", new String[]{InventoryEntry.TABLE_NAME}) == 1;
+        } finally {
+            database.close();
+        }
+    }
+
+    /**
+     * Replaces the rows of every table with the staged database's, in one transaction
+     * - triggers are dropped first, so the copied ledger, summary and search rows aren't
+     *   written twice, and created again from the staged schema at the end
+     * - foreign keys are checked at commit, so tables can be copied in any order
+     * - a full-text table is copied through its own columns, its shadow tables follow
+     * - sqlite_sequence last, as copying rows with their ids moves it. Each table is emptied
+     *   just before its rows are copied
+     */
+    private void apply(SQLiteDatabase staged) {
+        ArrayList<String> tables = new ArrayList<>();
+        ArrayList<String> virtualTables = new ArrayList<>();
+        Cursor cursor = staged.rawQuery("SELECT name, sql FROM sqlite_master WHERE type = 'table'"
+                + " AND name NOT LIKE 'sqlite\\_%' ESCAPE '\\' AND name != 'android_metadata'", null);
+        try {
+            while (cursor.moveToNext()) {
+                tables.add(cursor.getString(0));
+                if (cursor.getString(1).startsWith("CREATE VIRTUAL TABLE")) {
+                    virtualTables.add(cursor.getString(0));
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        for (int i = tables.size() - 1; i >= 0; i--) {
+            for (String virtualTable : virtualTables) {
+                if (tables.get(i).startsWith(virtualTable + "_")) {
+                    tables.remove(i);
+                    break;
+                }
+            }
+        }
+        if (DatabaseUtils.longForQuery(staged, "SELECT COUNT(*) FROM sqlite_master"
+                + " WHERE name = 'sqlite_sequence'", null) == 1) {
+            tables.add("sqlite_sequence");
+        }
+
+        long total = 0;
+        for (String table : tables) {
+            total += DatabaseUtils.queryNumEntries(staged, table);
+        }
+        progress(InventoryContract.BACKUP_STEP_APPLY, 0, total);
+
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        database.beginTransactionNonExclusive();
+        try {
+            database.execSQL("PRAGMA defer_foreign_keys = ON");
+            for (String trigger : column(database, "SELECT name FROM sqlite_master"
+                    + " WHERE type = 'trigger'")) {
+                database.execSQL("DROP TRIGGER " + trigger);
+            }
+            for (String table : tables) {
+                database.execSQL("DELETE FROM " + table);
+                copyRows(staged, database, table);
+            }
+            for (String sql : column(staged, "SELECT sql FROM sqlite_master"
+                    + " WHERE type = 'trigger'")) {
+                database.execSQL(sql);
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    /**
+     * Copies every row of table, with its rowid, APPLY_CHUNK_ROWS at a time
+     */
+    private void copyRows(SQLiteDatabase from, SQLiteDatabase to, String table) {
+        SQLiteStatement insert = null;
+        long lastRowId = Long.MIN_VALUE;
+        try {
+            while (true) {
+                // rowid is renamed, or it would take the name of an INTEGER PRIMARY KEY
+                Cursor cursor = from.rawQuery("SELECT rowid AS r, * FROM " + table
+                        + " WHERE rowid > " + lastRowId + " ORDER BY rowid LIMIT " + APPLY_CHUNK_ROWS,
+                        null);
+                try {
+                    if (insert == null) {
+                        insert = to.compileStatement(insertSql(table, cursor.getColumnNames()));
+                    }
+                    while (cursor.moveToNext()) {
+                        for (int i = 0; i < cursor.getColumnCount(); i++) {
+                            bind(insert, i + 1, cursor, i);
+                        }
+                        insert.executeInsert();
+                        lastRowId = cursor.getLong(0);
+                        mDone++;
+                    }
+                    if (cursor.getCount() < APPLY_CHUNK_ROWS) {
+                        return;
+                    }
+                } finally {
+                    cursor.close();
+                }
+            }
+        } finally {
+            if (insert != null) {
+                insert.close();
+            }
+        }
+    }
+
+    private static String insertSql(String table, String[] columns) {
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(table).append(" (rowid");
+        StringBuilder values = new StringBuilder("?");
+        for (int i = 1; i < columns.length; i++) {
+            sql.append(", ").append(columns[i]);
+            values.append(", ?");
+        }
+        return sql.append(") VALUES (").append(values).append(')').toString();
+    }
+
+    /**
+     * Binds column i of the cursor with the type it is stored as
+     */
+    private static void bind(SQLiteStatement statement, int index, Cursor cursor, int i) {
+        switch (cursor.getType(i)) {
+            case Cursor.FIELD_TYPE_NULL:
+                statement.bindNull(index);
+                break;
+            case Cursor.FIELD_TYPE_INTEGER:
+                statement.bindLong(index, cursor.getLong(i));
+                break;
+            case Cursor.FIELD_TYPE_FLOAT:
+                statement.bindDouble(index, cursor.getDouble(i));
+                break;
+            case Cursor.FIELD_TYPE_BLOB:
+                statement.bindBlob(index, cursor.getBlob(i));
+                break;
+            default:
+                statement.bindString(index, cursor.getString(i));
+                break;
+        }
+    }
+
+    private static ArrayList<String> column(SQLiteDatabase database, String sql) {
+        ArrayList<String> values = new ArrayList<>();
+        Cursor cursor = database.rawQuery(sql, null);
+        try {
+            while (cursor.moveToNext()) {
+                values.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return values;
+    }
+
+    /**
+     * Deletes a database file with its journal, log and shared memory files
+     * SQLiteDatabase.deleteDatabase() does the same from API 16
+     */
+    private static void delete(File file) {
+        file.delete();
+        new File(file.getPath() + "-journal").delete();
+        new File(file.getPath() + "-wal").delete();
+        new File(file.getPath() + "-shm").delete();
+    }
+
+    private void progress(String step, long done, long total) {
+        mTotal = total;
+        mDone = done;
+        mStep = step;
+    }
+
+    /**
+     * Thrown by a provider write while a restore replaces the rows, the write changed nothing
+     */
+    static final class WritesRefusedException extends IllegalStateException {
+        WritesRefusedException() {
+            super("Writes are refused while the inventory is restored");
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.example.android.inventoryappstage2.data;
 
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.net.Uri;
 import android.provider.BaseColumns;
 
@@ -16,11 +17,163 @@ public final class InventoryContract {
 
     public static final String PATH_INVENTORY = "inventoryappstage2";
 
+    public static final String PATH_SEARCH = "search";
+
+    public static final String PATH_SALES = "sales";
+
+    public static final String PATH_RECONCILE = "reconcile";
+
+    public static final String PATH_SUMMARY = "summary";
+
+    public static final String PATH_SUPPLIERS = "suppliers";
+
+    public static final String PATH_REORDER = "reorder";
+
+    /** Query parameter holding the text typed into a search, see InventoryEntry.SEARCH_URI */
+    public static final String QUERY_PARAMETER_SEARCH = "q";
+
+    /**
+     * Keyset paging query parameters for InventoryEntry.CONTENT_URI
+     * - QUERY_PARAMETER_LIMIT and QUERY_PARAMETER_AFTER_ID return one page: up to limit rows
+     *   with an _id greater than after_id (after_id can be left out for the first page).
+     *   These pages are ordered by _id and can't be sorted
+     * - QUERY_PARAMETER_PAGE_SIZE returns a cursor over every row that loads pages of that size
+     *   as it is moved, keeping only the pages near its position in memory. A projection of
+     *   only _id, product name, price and quantity holds those pages in compact arrays
+     *   instead of CursorWindows. It takes any sort order of InventoryEntry.SORT_COLUMNS
+     */
+    public static final String QUERY_PARAMETER_LIMIT = "limit";
+    public static final String QUERY_PARAMETER_AFTER_ID = "after_id";
+    public static final String QUERY_PARAMETER_PAGE_SIZE = "page_size";
+
+    /**
+     * Compare-and-set query parameter for updates of a single item's URI
+     * The update is applied only if the item's COLUMN_INVENTORY_VERSION still equals this
+     * value, otherwise nothing is written and update() returns 0. Re-read the item and retry
+     */
+    public static final String QUERY_PARAMETER_EXPECTED_VERSION = "expected_version";
+
+    /**
+     * Provider call() method that atomically sells stock of one item
+     * - arg: the item _id
+     * - extras: EXTRA_COUNT, the number of units sold (defaults to 1)
+     * - result: EXTRA_QUANTITY, the quantity left, or -1 if there was not enough stock
+     */
+    public static final String METHOD_SELL = "sell";
+
+    /**
+     * Provider call() method that sells a whole basket in one transaction
+     * - extras: EXTRA_ITEM_IDS and EXTRA_COUNTS, parallel arrays of item ids and units sold
+     * - result: EXTRA_QUANTITIES, the quantity left per item, or -1 for an item without
+     *   enough stock. If any entry is -1 the basket was rolled back and nothing was sold
+     */
+    public static final String METHOD_SELL_BASKET = "sellBasket";
+
+    /**
+     * Provider call() method that checkpoints the write-ahead log into the database file
+     * - arg: the checkpoint mode, "PASSIVE" (the default), "FULL" or "RESTART"
+     * - result: EXTRA_CHECKPOINT_COMPLETE, false if readers or a writer kept it from finishing
+     */
+    public static final String METHOD_CHECKPOINT = "checkpoint";
+
+    /**
+     * Provider call() method that reads the provider's metrics
+     * - result: EXTRA_METRICS_ENABLED, the notification and item cache counts,
+     *   and one Bundle per operation
+     *   and URI match that has run, keyed like "query/item", holding EXTRA_METRICS_CALLS,
+     *   EXTRA_METRICS_TOTAL_NANOS, EXTRA_METRICS_ROWS and EXTRA_METRICS_LATENCY_HISTOGRAM
+     *   (bucket 0 is under 1us, bucket i is 2^(i-1) to 2^i microseconds)
+     */
+    public static final String METHOD_GET_METRICS = "getMetrics";
+
+    /**
+     * Provider call() method that switches metrics on or off
+     * - arg: "true" or "false"
+     */
+    public static final String METHOD_SET_METRICS_ENABLED = "setMetricsEnabled";
+
+    /**
+     * Provider call() method that sets every metric back to 0
+     */
+    public static final String METHOD_RESET_METRICS = "resetMetrics";
+
+    /**
+     * Provider call() method that writes a snapshot of the whole database to a file, while
+     * writes go on. Call it off the main thread, it returns once the copy is checked
+     * - arg: the name of the backup file in the app's files directory, not a path. It is
+     *   replaced only if the backup succeeds
+     * - result: EXTRA_BACKUP_COMPLETE, false if the backup failed
+     */
+    public static final String METHOD_BACKUP = "backup";
+
+    /**
+     * Provider call() method that replaces every item, supplier and sale with a backup's
+     * Call it off the main thread. Reads see the old data until it is done
+     * - it is offline for writes: for the whole of BACKUP_STEP_APPLY, which copies every row,
+     *   every insert, update, delete and sale throws IllegalStateException at once instead of
+     *   waiting, and changes nothing. Writes through InventoryWriteQueue are reported to
+     *   WriteCallback.onWriteRefused(), and can be made again once the restore returns
+     * - arg: the name of a file METHOD_BACKUP wrote to the app's files directory, of this
+     *   or an older version
+     * - result: EXTRA_RESTORE_COMPLETE, false if the file isn't a valid backup or the
+     *   restore failed, and nothing was changed
+     */
+    public static final String METHOD_RESTORE = "restore";
+
+    /**
+     * Provider call() method that reads how far a running backup or restore has got
+     * - result: EXTRA_BACKUP_STEP, BACKUP_STEP_COPY or BACKUP_STEP_APPLY, or null if none is
+     *   running, and EXTRA_BACKUP_DONE out of EXTRA_BACKUP_TOTAL bytes or rows of that step
+     */
+    public static final String METHOD_GET_BACKUP_PROGRESS = "getBackupProgress";
+
+    /** Backup step that copies the database file, counted in bytes */
+    public static final String BACKUP_STEP_COPY = "copy";
+
+    /** Restore step that writes the backup's rows into the database, counted in rows */
+    public static final String BACKUP_STEP_APPLY = "apply";
+
+    /**
+     * Provider call() method that removes deleted items now, on the calling thread, instead
+     * of waiting for the background purge. Reads and writes go on between its transactions
+     * - result: EXTRA_PURGED_ROWS, the number of deleted items removed
+     */
+    public static final String METHOD_PURGE = "purge";
+
+    public static final String EXTRA_CHECKPOINT_COMPLETE = "checkpointComplete";
+    public static final String EXTRA_BACKUP_COMPLETE = "backupComplete";
+    public static final String EXTRA_RESTORE_COMPLETE = "restoreComplete";
+    public static final String EXTRA_BACKUP_STEP = "backupStep";
+    public static final String EXTRA_BACKUP_DONE = "backupDone";
+    public static final String EXTRA_BACKUP_TOTAL = "backupTotal";
+    public static final String EXTRA_PURGED_ROWS = "purgedRows";
+    public static final String EXTRA_COUNT = "count";
+    public static final String EXTRA_COUNTS = "counts";
+    public static final String EXTRA_ITEM_IDS = "itemIds";
+    public static final String EXTRA_QUANTITY = "quantity";
+    public static final String EXTRA_QUANTITIES = "quantities";
+    public static final String EXTRA_METRICS_ENABLED = "metricsEnabled";
+    public static final String EXTRA_METRICS_NOTIFICATIONS_REQUESTED = "notificationsRequested";
+    public static final String EXTRA_METRICS_NOTIFICATIONS_SENT = "notificationsSent";
+    public static final String EXTRA_METRICS_ITEM_CACHE_HITS = "itemCacheHits";
+    public static final String EXTRA_METRICS_ITEM_CACHE_MISSES = "itemCacheMisses";
+    public static final String EXTRA_METRICS_CALLS = "calls";
+    public static final String EXTRA_METRICS_TOTAL_NANOS = "totalNanos";
+    public static final String EXTRA_METRICS_ROWS = "rows";
+    public static final String EXTRA_METRICS_LATENCY_HISTOGRAM = "latencyHistogram";
+
     public static final class InventoryEntry implements BaseColumns{
 
         /** The content URI to access the inventory data in the provider */
         public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_INVENTORY);
 
+        /**
+         * The content URI to search items by product or supplier name
+         * Append the search text as QUERY_PARAMETER_SEARCH. Every word is prefix matched,
+         * and items whose product name matches are listed before supplier-only matches
+         */
+        public static final Uri SEARCH_URI = Uri.withAppendedPath(CONTENT_URI, PATH_SEARCH);
+
         /** The MIME type of the CONTENT_URI for a list of items */
         public static final String CONTENT_LIST_TYPE =
                 ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_INVENTORY;
@@ -32,11 +185,243 @@ public final class InventoryContract {
         /** Name of database table for items */
         public final static String TABLE_NAME = "inventory";
 
+        /**
+         * Name of the view that reads items with their supplier joined in
+         * Items are read through the view and written to TABLE_NAME
+         */
+        public final static String VIEW_NAME = "inventory_view";
+
+        /** Name of the full-text search table over product and supplier names */
+        public final static String FTS_TABLE_NAME = "inventory_fts";
+
         public final static String _ID = BaseColumns._ID;
         public final static String COLUMN_INVENTORY_PRODUCT_NAME = "productName";
+
+        /**
+         * Price in whole cents, e.g. 1250 for 12.50, see InventoryFormat
+         * Written as an Integer or Long, a String must hold whole cents too
+         */
         public final static String COLUMN_INVENTORY_PRICE = "price";
         public final static String COLUMN_INVENTORY_QUANTITY = "quantity";
         public final static String COLUMN_INVENTORY_SUPPLIER_NAME = "supplierName";
+
+        /** The supplier's SupplierEntry.COLUMN_SUPPLIER_PHONE */
         public final static String COLUMN_INVENTORY_SUPPLIER_PHONE = "supplierPhone";
+
+        /**
+         * The item's SupplierEntry._ID
+         * COLUMN_INVENTORY_SUPPLIER_NAME and COLUMN_INVENTORY_SUPPLIER_PHONE are read from that
+         * supplier. Writing them instead of the id finds the supplier with that name and phone,
+         * adding it if there is none
+         */
+        public final static String COLUMN_INVENTORY_SUPPLIER_ID = "supplierId";
+
+        /**
+         * Quantity below which the item needs reordering, see ReorderEntry
+         * Items written without one get DEFAULT_REORDER_THRESHOLD
+         */
+        public final static String COLUMN_INVENTORY_REORDER_THRESHOLD = "reorderThreshold";
+
+        /**
+         * Version of the item, 1 when it is inserted and incremented by every update, sales
+         * included. Read only, see QUERY_PARAMETER_EXPECTED_VERSION
+         */
+        public final static String COLUMN_INVENTORY_VERSION = "version";
+
+        /**
+         * 1 once the item is deleted, until the provider's purger removes the row. Only in
+         * TABLE_NAME: the view and every query leave deleted items out, and clients can't
+         * write it
+         */
+        public final static String COLUMN_INVENTORY_DELETED = "deleted";
+
+        /** Reorder threshold of a new item, the same as LOW_STOCK_THRESHOLD */
+        public static final int DEFAULT_REORDER_THRESHOLD = SummaryEntry.LOW_STOCK_THRESHOLD;
+
+        /**
+         * Columns CONTENT_URI can be sorted by. A sortOrder is one of them, optionally followed
+         * by " ASC" or " DESC", and anything else is rejected. Product names sort ignoring case
+         * Every order is read from an index, also under a SELECTION_SUPPLIER filter, so the
+         * list never sorts rows in memory
+         */
+        public static final String[] SORT_COLUMNS = {
+                _ID,
+                COLUMN_INVENTORY_PRODUCT_NAME,
+                COLUMN_INVENTORY_PRICE,
+                COLUMN_INVENTORY_QUANTITY};
+
+        /** Sort order suffix for a descending sort */
+        public static final String SORT_DESCENDING = " DESC";
+
+        /** Selection of the items of one supplier, the argument is its SupplierEntry._ID */
+        public static final String SELECTION_SUPPLIER = COLUMN_INVENTORY_SUPPLIER_ID + " = ?";
+    }
+
+    /**
+     * Suppliers, each name and phone pair stored once and referenced by its items
+     * - renaming a supplier renames it for all of its items in one row
+     * - a supplier can't be deleted while items still reference it
+     */
+    public static final class SupplierEntry implements BaseColumns {
+
+        /** The content URI to access the suppliers in the provider */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(InventoryEntry.CONTENT_URI, PATH_SUPPLIERS);
+
+        /** The MIME type of the CONTENT_URI for a list of suppliers */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SUPPLIERS;
+
+        /** The MIME type of the CONTENT_URI for a single supplier */
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SUPPLIERS;
+
+        /** Name of database table for suppliers */
+        public final static String TABLE_NAME = "suppliers";
+
+        public final static String _ID = BaseColumns._ID;
+        public final static String COLUMN_SUPPLIER_NAME = "name";
+
+        /**
+         * Phone number, stored normalized by InventoryFormat.normalizePhone(): its digits,
+         * after a + if it had one. Read it as a String, numbers don't fit an int
+         */
+        public final static String COLUMN_SUPPLIER_PHONE = "phone";
+    }
+
+    /**
+     * Items that fell below their reorder threshold since the last reorder check
+     * - the database flags an item when a write takes its quantity from at or above its
+     *   COLUMN_INVENTORY_REORDER_THRESHOLD to below it, and drops the flag when the item
+     *   is restocked or deleted
+     * - a check reads only the flagged items, never the whole inventory, then deletes the
+     *   flags it has handled so each crossing is reported once
+     */
+    public static final class ReorderEntry implements BaseColumns {
+
+        /**
+         * The content URI of the flagged items, ordered by supplier and then by when they
+         * were flagged. Each row is one flag: _ID, COLUMN_ITEM_ID and COLUMN_TIMESTAMP, with
+         * the item's product name, quantity, reorder threshold and supplier columns
+         * Deleting with the selection "_id <= ?" clears the flags up to the last one read
+         * QUERY_PARAMETER_LIMIT reads only that many of the oldest flags, the greatest _id
+         * read still clears exactly the flags read
+         */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(InventoryEntry.CONTENT_URI, PATH_REORDER);
+
+        /** The MIME type of the CONTENT_URI */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_REORDER;
+
+        /** Name of database table for the flags */
+        public final static String TABLE_NAME = "reorder_alerts";
+
+        public final static String _ID = BaseColumns._ID;
+        public final static String COLUMN_ITEM_ID = "itemId";
+        /** Milliseconds since the epoch when the item was flagged */
+        public final static String COLUMN_TIMESTAMP = "timestamp";
+    }
+
+    /**
+     * Inventory totals, a single row kept up to date by the database on every insert, update
+     * and delete of an item, so reading it never scans the inventory
+     */
+    public static final class SummaryEntry implements BaseColumns {
+
+        /** The content URI of the summary row, notified whenever any item changes */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(InventoryEntry.CONTENT_URI, PATH_SUMMARY);
+
+        /** The MIME type of the summary */
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SUMMARY;
+
+        /** Name of database table for the summary */
+        public final static String TABLE_NAME = "inventory_summary";
+
+        /**
+         * Low stock threshold of databases before version 13, now only the default of
+         * COLUMN_INVENTORY_REORDER_THRESHOLD. Each item is low on stock below its own threshold
+         */
+        public static final int LOW_STOCK_THRESHOLD = 5;
+
+        public final static String _ID = BaseColumns._ID;
+        public final static String COLUMN_ITEM_COUNT = "itemCount";
+        /** Sum of quantity */
+        public final static String COLUMN_UNITS_ON_HAND = "unitsOnHand";
+        /** Sum of price * quantity, in cents */
+        public final static String COLUMN_STOCK_VALUE = "stockValue";
+        /** Number of items with a quantity below their COLUMN_INVENTORY_REORDER_THRESHOLD */
+        public final static String COLUMN_LOW_STOCK_COUNT = "lowStockCount";
+    }
+
+    /**
+     * Append-only ledger of stock movements, one event per change of an item's quantity
+     * - a new item records its starting quantity, then every sale, edit or restock
+     *   records the change
+     * - the database writes events itself, in the same transaction as the change, so the
+     *   ledger can't miss one. It is read-only through the provider
+     * - events of deleted items are kept
+     */
+    public static final class SalesEntry implements BaseColumns {
+
+        /**
+         * The content URI for every event, ordered by _id (the order they happened in)
+         * Supports the keyset paging parameters QUERY_PARAMETER_LIMIT and QUERY_PARAMETER_AFTER_ID
+         */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(InventoryEntry.CONTENT_URI, PATH_SALES);
+
+        /** The MIME type of a list of events */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SALES;
+
+        /** The MIME type of an item's reconciliation */
+        public static final String CONTENT_RECONCILE_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_RECONCILE;
+
+        /** Name of database table for events */
+        public final static String TABLE_NAME = "sales";
+
+        /** Name of database table for the periodic quantity snapshots */
+        public final static String SNAPSHOT_TABLE_NAME = "sales_snapshots";
+
+        public final static String _ID = BaseColumns._ID;
+        public final static String COLUMN_ITEM_ID = "itemId";
+        /** Change of the quantity, negative for a sale */
+        public final static String COLUMN_DELTA = "delta";
+        public final static String COLUMN_QUANTITY_AFTER = "quantityAfter";
+        /** Milliseconds since the epoch */
+        public final static String COLUMN_TIMESTAMP = "timestamp";
+
+        /** Snapshot columns, along with COLUMN_ITEM_ID and COLUMN_TIMESTAMP */
+        public final static String COLUMN_SNAPSHOT_QUANTITY = "quantity";
+        public final static String COLUMN_LAST_EVENT_ID = "lastEventId";
+
+        /**
+         * Columns of a reconciliation, along with COLUMN_ITEM_ID
+         * - COLUMN_RECONCILE_QUANTITY: the quantity in the inventory table
+         * - COLUMN_LEDGER_QUANTITY: the quantity the ledger adds up to
+         * - COLUMN_EVENTS_SINCE_SNAPSHOT: events added up on top of the last snapshot
+         */
+        public final static String COLUMN_RECONCILE_QUANTITY = "quantity";
+        public final static String COLUMN_LEDGER_QUANTITY = "ledgerQuantity";
+        public final static String COLUMN_EVENTS_SINCE_SNAPSHOT = "eventsSinceSnapshot";
+
+        /**
+         * Returns the URI of one item's events, ordered by _id
+         * Supports the same keyset paging parameters as CONTENT_URI
+         */
+        public static Uri buildItemSalesUri(long itemId) {
+            return ContentUris.withAppendedId(InventoryEntry.CONTENT_URI, itemId).buildUpon()
+                    .appendPath(PATH_SALES).build();
+        }
+
+        /**
+         * Returns the URI that reconciles one item's quantity against its ledger
+         * Reads the item's last snapshot plus the events after it, so it stays fast
+         * however long the ledger gets
+         */
+        public static Uri buildReconcileUri(long itemId) {
+            return ContentUris.withAppendedId(InventoryEntry.CONTENT_URI, itemId).buildUpon()
+                    .appendPath(PATH_RECONCILE).build();
+        }
     }
 }
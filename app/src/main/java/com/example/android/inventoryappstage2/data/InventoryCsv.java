@@ -0,0 +1,352 @@
+package com.example.android.inventoryappstage2.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.text.TextUtils;
+
+import com.example.android.inventoryappstage2.data.InventoryContract.InventoryEntry;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Streaming CSV import and export of the inventory
+ * - the first row is a header naming the columns with the InventoryEntry column names,
+ *   in any order. Unknown columns, such as _id, are ignored on import
+ * - prices are written as units with two decimals, e.g. 12.50, not in the cents they are
+ *   stored in, and imported the same way
+ * - import reads through a fixed size buffer and inserts CHUNK_SIZE rows at a time with
+ *   bulkInsert(), one transaction per chunk, so memory use doesn't grow with the file
+ * - export writes each row straight from the cursor
+ * Call both off the main thread
+ */
+public final class InventoryCsv {
+
+    /**
+     * Reports how far an import has got, called after every committed chunk
+     */
+    public interface ProgressListener {
+        void onProgress(long rowsRead, long rowsImported, long rowsRejected);
+    }
+
+    /**
+     * Totals of a finished import
+     */
+    public static final class ImportResult {
+        public final long rowsRead;
+        public final long rowsImported;
+        public final long rowsRejected;
+
+        ImportResult(long rowsRead, long rowsImported, long rowsRejected) {
+            this.rowsRead = rowsRead;
+            this.rowsImported = rowsImported;
+            this.rowsRejected = rowsRejected;
+        }
+    }
+
+    /** Rows committed per transaction */
+    static final int CHUNK_SIZE = 500;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** Columns written by the exporter, _id first */
+    private static final String[] EXPORT_COLUMNS = {
+            InventoryEntry._ID,
+            InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME,
+            InventoryEntry.COLUMN_INVENTORY_PRICE,
+            InventoryEntry.COLUMN_INVENTORY_QUANTITY,
+            InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME,
+            InventoryEntry.COLUMN_INVENTORY_SUPPLIER_PHONE};
+
+    /** Position of the price in EXPORT_COLUMNS */
+    private static final int EXPORT_PRICE_COLUMN = 2;
+
+    /** Imported columns that must hold whole numbers */
+    private static final String[] INTEGER_COLUMNS = {
+            InventoryEntry.COLUMN_INVENTORY_QUANTITY};
+
+    private InventoryCsv() {
+    }
+
+    /**
+     * Imports every row of the CSV in, closing it when done
+     * Rows that fail validation, or are rejected by the database, are counted and skipped
+     *
+     * @throws IllegalArgumentException if the header is missing a column the inventory needs
+     */
+    public static ImportResult importCsv(ContentResolver resolver, InputStream in,
+                                         ProgressListener listener) throws IOException {
+        CsvReader reader = new CsvReader(Channels.newReader(Channels.newChannel(in),
+                UTF_8.newDecoder(), BUFFER_SIZE));
+        try {
+            ArrayList<String> fields = new ArrayList<>();
+            if (!reader.readRecord(fields)) {
+                return new ImportResult(0, 0, 0);
+            }
+
+            // Find where each inventory column is in the file
+            String[] columns = InventoryProvider.INSERT_COLUMNS;
+            int[] fieldIndexes = new int[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                fieldIndexes[i] = fields.indexOf(columns[i]);
+                if (fieldIndexes[i] == -1) {
+                    throw new IllegalArgumentException("CSV is missing column " + columns[i]);
+                }
+            }
+
+            ContentValues[] chunk = new ContentValues[CHUNK_SIZE];
+            int chunkSize = 0;
+            long rowsRead = 0;
+            long rowsImported = 0;
+            long rowsRejected = 0;
+
+            while (reader.readRecord(fields)) {
+                // Skip blank lines
+                if (fields.size() == 1 && fields.get(0).isEmpty()) {
+                    continue;
+                }
+                rowsRead++;
+                ContentValues values = toValues(fields, columns, fieldIndexes);
+                if (values == null) {
+                    rowsRejected++;
+                    continue;
+                }
+                chunk[chunkSize++] = values;
+
+                if (chunkSize == CHUNK_SIZE) {
+                    int inserted = resolver.bulkInsert(InventoryEntry.CONTENT_URI, chunk);
+                    rowsImported += inserted;
+                    rowsRejected += chunkSize - inserted;
+                    chunkSize = 0;
+                    if (listener != null) {
+                        listener.onProgress(rowsRead, rowsImported, rowsRejected);
+                    }
+                }
+            }
+
+            if (chunkSize > 0) {
+                int inserted = resolver.bulkInsert(InventoryEntry.CONTENT_URI,
+                        Arrays.copyOf(chunk, chunkSize));
+                rowsImported += inserted;
+                rowsRejected += chunkSize - inserted;
+            }
+            if (listener != null) {
+                listener.onProgress(rowsRead, rowsImported, rowsRejected);
+            }
+            return new ImportResult(rowsRead, rowsImported, rowsRejected);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Builds the values of one imported row
+     * return: the values, or null if the row is not valid
+     */
+    private static ContentValues toValues(ArrayList<String> fields, String[] columns,
+                                          int[] fieldIndexes) {
+        ContentValues values = new ContentValues(columns.length);
+        for (int i = 0; i < columns.length; i++) {
+            // Every column is NOT NULL
+            if (fieldIndexes[i] >= fields.size()) {
+                return null;
+            }
+            String field = fields.get(fieldIndexes[i]).trim();
+            if (TextUtils.isEmpty(field)) {
+                return null;
+            }
+            values.put(columns[i], field);
+        }
+
+        try {
+            for (String column : INTEGER_COLUMNS) {
+                values.put(column, Integer.parseInt(values.getAsString(column)));
+            }
+            long price = InventoryFormat.parsePrice(
+                    values.getAsString(InventoryEntry.COLUMN_INVENTORY_PRICE));
+            if (price < 0) {
+                return null;
+            }
+            values.put(InventoryEntry.COLUMN_INVENTORY_PRICE, price);
+            ItemValidator.validateInsert(values);
+        } catch (IllegalArgumentException e) {
+            // Also catches NumberFormatException
+            return null;
+        }
+        return values;
+    }
+
+    /**
+     * Writes the whole inventory to out as CSV, closing it when done
+     * return: number of rows written
+     */
+    public static long exportCsv(ContentResolver resolver, OutputStream out) throws IOException {
+        Writer writer = new BufferedWriter(Channels.newWriter(Channels.newChannel(out),
+                UTF_8.newEncoder(), BUFFER_SIZE), BUFFER_SIZE);
+        Cursor cursor = null;
+        try {
+            for (int i = 0; i < EXPORT_COLUMNS.length; i++) {
+                if (i > 0) {
+                    writer.write(',');
+                }
+                writeField(writer, EXPORT_COLUMNS[i]);
+            }
+            writer.write("\r\n");
+
+            cursor = resolver.query(InventoryEntry.CONTENT_URI, EXPORT_COLUMNS, null, null,
+                    InventoryEntry._ID);
+            long rowsWritten = 0;
+            while (cursor != null && cursor.moveToNext()) {
+                for (int i = 0; i < EXPORT_COLUMNS.length; i++) {
+                    if (i > 0) {
+                        writer.write(',');
+                    }
+                    if (i == EXPORT_PRICE_COLUMN) {
+                        writeField(writer, InventoryFormat.formatPrice(cursor.getLong(i)));
+                    } else {
+                        writeField(writer, cursor.getString(i));
+                    }
+                }
+                writer.write("\r\n");
+                rowsWritten++;
+            }
+            return rowsWritten;
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+            writer.close();
+        }
+    }
+
+    /**
+     * Writes one field, quoted if it contains a comma, quote or line break
+     */
+    private static void writeField(Writer writer, String field) throws IOException {
+        if (field == null) {
+            return;
+        }
+        boolean quote = false;
+        for (int i = 0; i < field.length() && !quote; i++) {
+            char c = field.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            writer.write(field);
+            return;
+        }
+        writer.write('"');
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (c == '"') {
+                writer.write('"');
+            }
+            writer.write(c);
+        }
+        writer.write('"');
+    }
+
+    /**
+     * Minimal RFC 4180 reader: comma separated, fields optionally quoted, "" inside quotes is
+     * a quote, and quoted fields may span lines. Reads through one fixed size char buffer
+     */
+    static final class CsvReader {
+        private final Reader mReader;
+        private final char[] mBuffer = new char[BUFFER_SIZE];
+        private final StringBuilder mField = new StringBuilder();
+        private int mLength;
+        private int mPosition;
+
+        CsvReader(Reader reader) {
+            mReader = reader;
+        }
+
+        /**
+         * Reads the next record into fields, replacing what was there
+         * return: false at the end of the input
+         */
+        boolean readRecord(ArrayList<String> fields) throws IOException {
+            fields.clear();
+            mField.setLength(0);
+            int c = read();
+            if (c == -1) {
+                return false;
+            }
+
+            boolean quoted = false;
+            while (true) {
+                if (quoted) {
+                    if (c == -1) {
+                        // Unterminated quote, keep what we have
+                        fields.add(mField.toString());
+                        return true;
+                    } else if (c == '"') {
+                        int next = read();
+                        if (next == '"') {
+                            mField.append('"');
+                        } else {
+                            quoted = false;
+                            c = next;
+                            continue;
+                        }
+                    } else {
+                        mField.append((char) c);
+                    }
+                } else if (c == '"' && mField.length() == 0) {
+                    quoted = true;
+                } else if (c == ',') {
+                    fields.add(mField.toString());
+                    mField.setLength(0);
+                } else if (c == '\r' || c == '\n' || c == -1) {
+                    if (c == '\r' && peek() == '\n') {
+                        read();
+                    }
+                    fields.add(mField.toString());
+                    return true;
+                } else {
+                    mField.append((char) c);
+                }
+                c = read();
+            }
+        }
+
+        private int read() throws IOException {
+            if (mPosition == mLength && !fill()) {
+                return -1;
+            }
+            return mBuffer[mPosition++];
+        }
+
+        private int peek() throws IOException {
+            if (mPosition == mLength && !fill()) {
+                return -1;
+            }
+            return mBuffer[mPosition];
+        }
+
+        private boolean fill() throws IOException {
+            mLength = mReader.read(mBuffer, 0, mBuffer.length);
+            mPosition = 0;
+            if (mLength <= 0) {
+                mLength = 0;
+                return false;
+            }
+            return true;
+        }
+
+        void close() throws IOException {
+            mReader.close();
+        }
+    }
+}
@@ -1,17 +1,264 @@
 package com.example.android.inventoryappstage2.data;
 
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
 import com.example.android.inventoryappstage2.data.InventoryContract.InventoryEntry;
+import com.example.android.inventoryappstage2.data.InventoryContract.ReorderEntry;
+import com.example.android.inventoryappstage2.data.InventoryContract.SalesEntry;
+import com.example.android.inventoryappstage2.data.InventoryContract.SummaryEntry;
+import com.example.android.inventoryappstage2.data.InventoryContract.SupplierEntry;
 
 public class InventoryDbHelper extends SQLiteOpenHelper {
 
     public static final String DATABASE_NAME = "Inventory.db";
-    public static final int DATABASE_VERSION = 1;
+
+    /**
+     * Current schema version, one step per version in migrate()
+     * 1 - inventory table
+     * 2 - indexes on product name, supplier name and quantity
+     * 3 - full-text search table kept in sync by triggers
+     * 4 - sales ledger and its snapshots, written by triggers
+     * 5 - inventory summary row, kept up to date by triggers
+     * 6 - suppliers moved to their own table, items reference them by supplierId
+     * 7 - per-item reorder threshold, and the items flagged for crossing it
+     * 8 - indexes for every list sort order, alone and within one supplier
+     * 9 - per-item version, for compare-and-set updates
+     * 10 - prices in whole cents, supplier phone numbers normalized
+     * 11 - deleted items kept as tombstones until purged
+     * 12 - ledger snapshots taken per item, from the item's own events
+     * 13 - the summary counts items low on stock by their own reorder threshold
+     */
+    public static final int DATABASE_VERSION = 13;
+
+    /** Index names */
+    private static final String INDEX_PRODUCT_NAME = "inventory_product_name_idx";
+    private static final String INDEX_SUPPLIER_NAME = "inventory_supplier_name_idx";
+    private static final String INDEX_QUANTITY = "inventory_quantity_idx";
+    private static final String INDEX_SALES_ITEM = "sales_item_idx";
+    private static final String INDEX_SNAPSHOTS_ITEM = "sales_snapshots_item_idx";
+    private static final String INDEX_SUPPLIER_ID = "inventory_supplier_id_idx";
+    private static final String INDEX_PRICE = "inventory_price_idx";
+    private static final String INDEX_SUPPLIER_PRODUCT_NAME = "inventory_supplier_product_name_idx";
+    private static final String INDEX_SUPPLIER_PRICE = "inventory_supplier_price_idx";
+    private static final String INDEX_SUPPLIER_QUANTITY = "inventory_supplier_quantity_idx";
+    private static final String INDEX_DELETED = "inventory_deleted_idx";
+
+    /** Trigger names */
+    private static final String TRIGGER_FTS_INSERT = "inventory_fts_insert";
+    private static final String TRIGGER_FTS_UPDATE = "inventory_fts_update";
+    private static final String TRIGGER_FTS_DELETE = "inventory_fts_delete";
+    private static final String TRIGGER_SALES_INSERT = "inventory_sales_insert";
+    private static final String TRIGGER_SALES_UPDATE = "inventory_sales_update";
+    private static final String TRIGGER_SALES_SNAPSHOT = "sales_snapshot";
+    private static final String TRIGGER_SUMMARY_INSERT = "inventory_summary_insert";
+    private static final String TRIGGER_SUMMARY_UPDATE = "inventory_summary_update";
+    private static final String TRIGGER_SUMMARY_DELETE = "inventory_summary_delete";
+    private static final String TRIGGER_FTS_SUPPLIER_UPDATE = "suppliers_fts_update";
+    private static final String TRIGGER_REORDER_INSERT = "inventory_reorder_insert";
+    private static final String TRIGGER_REORDER_FLAG = "inventory_reorder_flag";
+    private static final String TRIGGER_REORDER_RESTOCK = "inventory_reorder_restock";
+    private static final String TRIGGER_REORDER_DELETE = "inventory_reorder_delete";
+    private static final String TRIGGER_TOMBSTONE = "inventory_tombstone";
+
+    /** PRAGMA auto_vacuum value that frees pages only on PRAGMA incremental_vacuum */
+    static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    /** Inventory table being built by migrateToVersion6() */
+    private static final String INVENTORY_REBUILD_TABLE_NAME = "inventory_new";
+
+    /** _id of the only row of the summary table */
+    private static final int SUMMARY_ROW_ID = 1;
+
+    /**
+     * Every this many events the quantity of every item was snapshot, up to version 11
+     */
+    private static final int SALES_SNAPSHOT_INTERVAL = 10000;
+
+    /** Snapshot rounds kept, older ones are pruned */
+    private static final int SALES_SNAPSHOTS_KEPT = 2;
+
+    /**
+     * Every this many events of an item, that item's quantity is snapshot, so reconciling
+     * it never adds up more than this many events
+     */
+    static final int ITEM_SNAPSHOT_INTERVAL = 100;
+
+    /** Current time in milliseconds since the epoch, in SQL */
+    private static final String SQL_NOW_MILLIS =
+            "CAST((julianday('now') - 2440587.5) * 86400000 AS INTEGER)";
+
+    /** Values for PRAGMA synchronous */
+    public static final int SYNCHRONOUS_OFF = 0;
+    public static final int SYNCHRONOUS_NORMAL = 1;
+    public static final int SYNCHRONOUS_FULL = 2;
+
+    /** Checkpoint modes for checkpoint() */
+    public static final String CHECKPOINT_PASSIVE = "PASSIVE";
+    public static final String CHECKPOINT_FULL = "FULL";
+    public static final String CHECKPOINT_RESTART = "RESTART";
+
+    /**
+     * In WAL mode NORMAL survives an app crash, only a power loss can roll back the last
+     * commits, and a commit no longer waits for an fsync
+     */
+    public static final int DEFAULT_SYNCHRONOUS = SYNCHRONOUS_NORMAL;
+
+    /** WAL size, in pages, at which a commit checkpoints it back into the database */
+    public static final int DEFAULT_AUTO_CHECKPOINT_PAGES = 1000;
+
+    private final int mSynchronous;
+    private final int mAutoCheckpointPages;
+
+    /** Whether pauseCheckpoints() stopped checkpoints, guarded by "this" */
+    private boolean mCheckpointsPaused;
 
     public InventoryDbHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, DEFAULT_SYNCHRONOUS, DEFAULT_AUTO_CHECKPOINT_PAGES);
+    }
+
+    /**
+     * @param synchronous         one of the SYNCHRONOUS_ values
+     * @param autoCheckpointPages WAL size in pages that triggers a checkpoint, 0 turns
+     *                            automatic checkpoints off so only checkpoint() runs them
+     */
+    public InventoryDbHelper(Context context, int synchronous, int autoCheckpointPages) {
+        this(context, DATABASE_NAME, synchronous, autoCheckpointPages);
+    }
+
+    /**
+     * Opens another database file with this schema, e.g. a backup being restored, which
+     * is upgraded to DATABASE_VERSION on open
+     */
+    InventoryDbHelper(Context context, String name) {
+        this(context, name, DEFAULT_SYNCHRONOUS, DEFAULT_AUTO_CHECKPOINT_PAGES);
+    }
+
+    private InventoryDbHelper(Context context, String name, int synchronous,
+                              int autoCheckpointPages) {
+        super(context, name, null, DATABASE_VERSION);
+        if (synchronous < SYNCHRONOUS_OFF || synchronous > SYNCHRONOUS_FULL) {
+            throw new IllegalArgumentException("Unknown synchronous level " + synchronous);
+        }
+        if (autoCheckpointPages < 0) {
+            throw new IllegalArgumentException("Checkpoint threshold can't be negative");
+        }
+        mSynchronous = synchronous;
+        mAutoCheckpointPages = autoCheckpointPages;
+    }
+
+    /**
+     * Turns on write-ahead logging before the database is used
+     * With WAL, loaders read through the pool of read connections from a snapshot,
+     * so they never wait behind a sale being written, and the writer never waits for them
+     */
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        // The purger gives pages back with incremental_vacuum, see InventoryPurger. A new file
+        // only holds android_metadata yet, so turning that on costs nothing here. Older files
+        // are converted by the purger, in the background
+        if (!db.isReadOnly() && db.getVersion() == 0) {
+            db.execSQL("PRAGMA auto_vacuum = " + AUTO_VACUUM_INCREMENTAL);
+            db.execSQL("VACUUM");
+        }
+        // Items reference their supplier, see migrateToVersion6()
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            db.setForeignKeyConstraintsEnabled(true);
+        } else {
+            db.execSQL("PRAGMA foreign_keys = ON");
+        }
+        db.enableWriteAheadLogging();
+        // Set after enabling WAL, which resets the connection's synchronous level
+        db.execSQL("PRAGMA synchronous = " + mSynchronous);
+        runPragma(db, "PRAGMA wal_autocheckpoint = " + mAutoCheckpointPages);
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        // onConfigure() is only called from API 16, configure older devices once open
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            onConfigure(db);
+        }
+    }
+
+    /**
+     * Copies the WAL back into the database file, e.g. when the app goes idle
+     * Uses the primary connection, so it waits for any write in progress
+     *
+     * @param mode one of the CHECKPOINT_ modes
+     * @return true if the checkpoint completed, false if readers or a writer kept it from
+     * copying every frame
+     */
+    public synchronized boolean checkpoint(String mode) {
+        if (!CHECKPOINT_PASSIVE.equals(mode) && !CHECKPOINT_FULL.equals(mode)
+                && !CHECKPOINT_RESTART.equals(mode)) {
+            throw new IllegalArgumentException("Unknown checkpoint mode " + mode);
+        }
+        if (mCheckpointsPaused) {
+            return false;
+        }
+        // The first column of the result is 1 if the checkpoint was blocked
+        return runPragma(getWritableDatabase(), "PRAGMA wal_checkpoint(" + mode + ")") == 0;
+    }
+
+    /**
+     * Checkpoints the whole WAL into the database file, then stops checkpoints until
+     * resumeCheckpoints(), so the file holds one consistent snapshot while it is copied
+     * - writers keep committing to the WAL meanwhile, and only wait for the checkpoint itself
+     * - checkpoint() returns false while they are paused, and commits don't checkpoint
+     * - only with write-ahead logging: without it commits write to the file directly
+     * Can be called again while paused, to retry a checkpoint readers kept from finishing
+     * return: true if the file holds every committed transaction. Checkpoints are paused
+     * either way, call resumeCheckpoints() after
+     */
+    synchronized boolean pauseCheckpoints() {
+        SQLiteDatabase db = getWritableDatabase();
+        mCheckpointsPaused = true;
+        // Inside a transaction, so it runs on the primary connection, the one that commits
+        db.beginTransactionNonExclusive();
+        try {
+            runPragma(db, "PRAGMA wal_autocheckpoint = 0");
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        // Columns: 1 if the checkpoint was blocked, frames in the WAL, frames checkpointed
+        Cursor cursor = db.rawQuery("PRAGMA wal_checkpoint(" + CHECKPOINT_FULL + ")", null);
+        try {
+            return cursor.moveToFirst() && cursor.getLong(0) == 0
+                    && cursor.getLong(1) == cursor.getLong(2);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Lets commits checkpoint again, see pauseCheckpoints()
+     */
+    synchronized void resumeCheckpoints() {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransactionNonExclusive();
+        try {
+            runPragma(db, "PRAGMA wal_autocheckpoint = " + mAutoCheckpointPages);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        mCheckpointsPaused = false;
+    }
+
+    /**
+     * Runs a PRAGMA that returns a row, returning its first column
+     */
+    static long runPragma(SQLiteDatabase db, String pragma) {
+        Cursor cursor = db.rawQuery(pragma, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
     }
 
     @Override
@@ -25,9 +272,741 @@ public class InventoryDbHelper extends SQLiteOpenHelper {
                 + InventoryEntry.COLUMN_INVENTORY_SUPPLIER_PHONE + " TEXT NOT NULL);";
 
         db.execSQL(SQL_CREATE_INVENTORY_TABLE);
+
+        // A new database starts from the version 1 schema and then runs every migration,
+        // so fresh installs and upgraded installs always end up with the same schema
+        onUpgrade(db, 1, DATABASE_VERSION);
     }
 
+    /**
+     * Runs the migrations in order, one version at a time
+     * SQLiteOpenHelper calls this inside a transaction, so a failed step leaves
+     * the database untouched at oldVersion
+     */
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        for (int version = oldVersion + 1; version <= newVersion; version++) {
+            migrate(db, version);
+        }
+    }
+
+    /**
+     * Upgrades the schema from (version - 1) to version
+     * Steps are only ever appended - once released a step must not change,
+     * as existing databases have already run it
+     */
+    private void migrate(SQLiteDatabase db, int version) {
+        switch (version) {
+            case 2:
+                migrateToVersion2(db);
+                break;
+            case 3:
+                migrateToVersion3(db);
+                break;
+            case 4:
+                migrateToVersion4(db);
+                break;
+            case 5:
+                migrateToVersion5(db);
+                break;
+            case 6:
+                migrateToVersion6(db);
+                break;
+            case 7:
+                migrateToVersion7(db);
+                break;
+            case 8:
+                migrateToVersion8(db);
+                break;
+            case 9:
+                migrateToVersion9(db);
+                break;
+            case 10:
+                migrateToVersion10(db);
+                break;
+            case 11:
+                migrateToVersion11(db);
+                break;
+            case 12:
+                migrateToVersion12(db);
+                break;
+            case 13:
+                migrateToVersion13(db);
+                break;
+            default:
+                throw new IllegalStateException("No migration to database version " + version);
+        }
+    }
+
+    /**
+     * Version 2: index the columns the app looks up and sorts by, so those queries
+     * no longer scan the whole table. Product names are compared case-insensitively
+     */
+    private void migrateToVersion2(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX " + INDEX_PRODUCT_NAME + " ON " + InventoryEntry.TABLE_NAME
+                + " (" + InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME + " COLLATE NOCASE);");
+        db.execSQL("CREATE INDEX " + INDEX_SUPPLIER_NAME + " ON " + InventoryEntry.TABLE_NAME
+                + " (" + InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME + ");");
+        db.execSQL("CREATE INDEX " + INDEX_QUANTITY + " ON " + InventoryEntry.TABLE_NAME
+                + " (" + InventoryEntry.COLUMN_INVENTORY_QUANTITY + ");");
+    }
+
+    /**
+     * Version 3: FTS4 shadow table over the product and supplier names
+     * - the FTS docid is the inventory _id
+     * - triggers keep it in sync with every insert, rename and delete
+     * - existing rows are copied in once
+     */
+    private void migrateToVersion3(SQLiteDatabase db) {
+        db.execSQL("CREATE VIRTUAL TABLE " + InventoryEntry.FTS_TABLE_NAME + " USING fts4 ("
+                + InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME + ", "
+                + InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME + ");");
+
+        db.execSQL("CREATE TRIGGER " + TRIGGER_FTS_INSERT
+                + " AFTER INSERT ON " + InventoryEntry.TABLE_NAME + " BEGIN "
+                + "INSERT INTO " + InventoryEntry.FTS_TABLE_NAME + " (docid, "
+                + InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME + ", "
+                + InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME + ") VALUES (new." + InventoryEntry._ID
+                + ", new." + InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME
+                + ", new." + InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME + "); END;");
+
+        db.execSQL("CREATE TRIGGER " + TRIGGER_FTS_UPDATE
+                + " AFTER UPDATE OF " + InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME + ", "
+                + InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME
+                + " ON " + InventoryEntry.TABLE_NAME + " BEGIN "
+                + "UPDATE " + InventoryEntry.FTS_TABLE_NAME + " SET "
+                + InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME + " = new."
+                + InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME + ", "
+                + InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME + " = new."
+                + InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME
+                + " WHERE docid = old." + InventoryEntry._ID + "; END;");
+
+        db.execSQL("CREATE TRIGGER " + TRIGGER_FTS_DELETE
+                + " AFTER DELETE ON " + InventoryEntry.TABLE_NAME + " BEGIN "
+                + "DELETE FROM " + InventoryEntry.FTS_TABLE_NAME
+                + " WHERE docid = old." + InventoryEntry._ID + "; END;");
+
+        db.execSQL("INSERT INTO " + InventoryEntry.FTS_TABLE_NAME + " (docid, "
+                + InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME + ", "
+                + InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME + ") SELECT "
+                + InventoryEntry._ID + ", "
+                + InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME + ", "
+                + InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME
+                + " FROM " + InventoryEntry.TABLE_NAME + ";");
+    }
+
+    /**
+     * Version 4: sales ledger, see SalesEntry
+     * - triggers append an event for every new item and every quantity change, so a sale
+     *   stays one UPDATE and the event is written in its transaction
+     * - every SALES_SNAPSHOT_INTERVAL events a trigger snapshots every item's quantity and
+     *   prunes old snapshot rounds, which keeps reconciliation and the snapshot table bounded
+     * - existing items get an event for their current quantity
+     */
+    private void migrateToVersion4(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + SalesEntry.TABLE_NAME + " ("
+                + SalesEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + SalesEntry.COLUMN_ITEM_ID + " INTEGER NOT NULL, "
+                + SalesEntry.COLUMN_DELTA + " INTEGER NOT NULL, "
+                + SalesEntry.COLUMN_QUANTITY_AFTER + " INTEGER NOT NULL, "
+                + SalesEntry.COLUMN_TIMESTAMP + " INTEGER NOT NULL);");
+        db.execSQL("CREATE INDEX " + INDEX_SALES_ITEM + " ON " + SalesEntry.TABLE_NAME
+                + " (" + SalesEntry.COLUMN_ITEM_ID + ", " + SalesEntry._ID + ");");
+
+        db.execSQL("CREATE TABLE " + SalesEntry.SNAPSHOT_TABLE_NAME + " ("
+                + SalesEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + SalesEntry.COLUMN_ITEM_ID + " INTEGER NOT NULL, "
+                + SalesEntry.COLUMN_SNAPSHOT_QUANTITY + " INTEGER NOT NULL, "
+                + SalesEntry.COLUMN_LAST_EVENT_ID + " INTEGER NOT NULL, "
+                + SalesEntry.COLUMN_TIMESTAMP + " INTEGER NOT NULL);");
+        db.execSQL("CREATE INDEX " + INDEX_SNAPSHOTS_ITEM + " ON " + SalesEntry.SNAPSHOT_TABLE_NAME
+                + " (" + SalesEntry.COLUMN_ITEM_ID + ", " + SalesEntry.COLUMN_LAST_EVENT_ID + ");");
+
+        createSalesTriggers(db);
+
+        // Before the snapshot trigger, which would copy the whole table every
+        // SALES_SNAPSHOT_INTERVAL rows of this
+        db.execSQL("INSERT INTO " + SalesEntry.TABLE_NAME + " (" + SalesEntry.COLUMN_ITEM_ID + ", "
+                + SalesEntry.COLUMN_DELTA + ", " + SalesEntry.COLUMN_QUANTITY_AFTER + ", "
+                + SalesEntry.COLUMN_TIMESTAMP + ") SELECT " + InventoryEntry._ID + ", "
+                + InventoryEntry.COLUMN_INVENTORY_QUANTITY + ", "
+                + InventoryEntry.COLUMN_INVENTORY_QUANTITY + ", " + SQL_NOW_MILLIS
+                + " FROM " + InventoryEntry.TABLE_NAME + ";");
+
+        createSalesSnapshotTrigger(db);
+    }
+
+    /**
+     * Version 5: summary row with the inventory totals, see SummaryEntry
+     * - triggers add each inserted item, subtract each deleted one and apply the
+     *   difference of each update, all inside the writing transaction
+     * - the row starts from one scan of the existing items
+     */
+    private void migrateToVersion5(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + SummaryEntry.TABLE_NAME + " ("
+                + SummaryEntry._ID + " INTEGER PRIMARY KEY, "
+                + SummaryEntry.COLUMN_ITEM_COUNT + " INTEGER NOT NULL, "
+                + SummaryEntry.COLUMN_UNITS_ON_HAND + " INTEGER NOT NULL, "
+                + SummaryEntry.COLUMN_STOCK_VALUE + " INTEGER NOT NULL, "
+                + SummaryEntry.COLUMN_LOW_STOCK_COUNT + " INTEGER NOT NULL);");
+
+        db.execSQL("INSERT INTO " + SummaryEntry.TABLE_NAME + " ("
+                + SummaryEntry._ID + ", " + SummaryEntry.COLUMN_ITEM_COUNT + ", "
+                + SummaryEntry.COLUMN_UNITS_ON_HAND + ", " + SummaryEntry.COLUMN_STOCK_VALUE + ", "
+                + SummaryEntry.COLUMN_LOW_STOCK_COUNT + ") SELECT " + SUMMARY_ROW_ID + ", COUNT(*), "
+                + "IFNULL(SUM(" + InventoryEntry.COLUMN_INVENTORY_QUANTITY + "), 0), "
+                + "IFNULL(SUM(" + InventoryEntry.COLUMN_INVENTORY_PRICE + " * "
+                + InventoryEntry.COLUMN_INVENTORY_QUANTITY + "), 0), "
+                + "IFNULL(SUM(" + lowStock("", false) + "), 0)"
+                + " FROM " + InventoryEntry.TABLE_NAME + ";");
+
+        createSummaryTriggers(db, false);
+    }
+
+    /**
+     * Version 6: suppliers table, see SupplierEntry
+     * - every distinct supplier name and phone pair becomes one supplier, in the order
+     *   they first appear
+     * - the inventory table is rebuilt with a supplierId column in place of the supplier
+     *   name and phone, keeping every item's _id and the AUTOINCREMENT sequence
+     * - inventory_view joins the supplier back in by its primary key, so reads still see
+     *   supplierName and supplierPhone on every item
+     * - dropping the old table drops its indexes and triggers, they are created again here.
+     *   The FTS triggers now read the supplier name from the suppliers table, and renaming
+     *   a supplier updates the FTS rows of its items
+     */
+    private void migrateToVersion6(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + SupplierEntry.TABLE_NAME + " ("
+                + SupplierEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + SupplierEntry.COLUMN_SUPPLIER_NAME + " TEXT NOT NULL, "
+                + SupplierEntry.COLUMN_SUPPLIER_PHONE + " TEXT NOT NULL, "
+                + "UNIQUE (" + SupplierEntry.COLUMN_SUPPLIER_NAME + ", "
+                + SupplierEntry.COLUMN_SUPPLIER_PHONE + "));");
+        db.execSQL("INSERT INTO " + SupplierEntry.TABLE_NAME + " ("
+                + SupplierEntry.COLUMN_SUPPLIER_NAME + ", " + SupplierEntry.COLUMN_SUPPLIER_PHONE
+                + ") SELECT " + InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME + ", "
+                + InventoryEntry.COLUMN_INVENTORY_SUPPLIER_PHONE
+                + " FROM " + InventoryEntry.TABLE_NAME
+                + " GROUP BY " + InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME + ", "
+                + InventoryEntry.COLUMN_INVENTORY_SUPPLIER_PHONE
+                + " ORDER BY MIN(" + InventoryEntry._ID + ");");
+
+        db.execSQL("CREATE TABLE " + INVENTORY_REBUILD_TABLE_NAME + " ( "
+                + InventoryEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME + " TEXT NOT NULL, "
+                + InventoryEntry.COLUMN_INVENTORY_PRICE + " INTEGER NOT NULL, "
+                + InventoryEntry.COLUMN_INVENTORY_QUANTITY + " INTEGER NOT NULL, "
+                + InventoryEntry.COLUMN_INVENTORY_SUPPLIER_ID + " INTEGER NOT NULL REFERENCES "
+                + SupplierEntry.TABLE_NAME + " (" + SupplierEntry._ID + "));");
+        db.execSQL("INSERT INTO " + INVENTORY_REBUILD_TABLE_NAME + " ("
+                + InventoryEntry._ID + ", " + InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME + ", "
+                + InventoryEntry.COLUMN_INVENTORY_PRICE + ", " + InventoryEntry.COLUMN_INVENTORY_QUANTITY
+                + ", " + InventoryEntry.COLUMN_INVENTORY_SUPPLIER_ID + ") SELECT "
+                + InventoryEntry.TABLE_NAME + "." + InventoryEntry._ID + ", "
+                + InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME + ", "
+                + InventoryEntry.COLUMN_INVENTORY_PRICE + ", "
+                + InventoryEntry.COLUMN_INVENTORY_QUANTITY + ", "
+                + SupplierEntry.TABLE_NAME + "." + SupplierEntry._ID
+                + " FROM " + InventoryEntry.TABLE_NAME + " JOIN " + SupplierEntry.TABLE_NAME
+                + " ON " + SupplierEntry.TABLE_NAME + "." + SupplierEntry.COLUMN_SUPPLIER_NAME
+                + " = " + InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME
+                + " AND " + SupplierEntry.TABLE_NAME + "." + SupplierEntry.COLUMN_SUPPLIER_PHONE
+                + " = " + InventoryEntry.COLUMN_INVENTORY_SUPPLIER_PHONE + ";");
+
+        // Deleted items keep their ids in the ledger, so new items must never reuse them:
+        // carry the old table's AUTOINCREMENT sequence over to the new one
+        db.execSQL("DELETE FROM sqlite_sequence WHERE name = '" + INVENTORY_REBUILD_TABLE_NAME + "';");
+        db.execSQL("UPDATE sqlite_sequence SET name = '" + INVENTORY_REBUILD_TABLE_NAME + "'"
+                + " WHERE name = '" + InventoryEntry.TABLE_NAME + "';");
+
+        // Renaming fails while a trigger elsewhere refers to the missing table
+        db.execSQL("DROP TRIGGER " + TRIGGER_SALES_SNAPSHOT + ";");
+        db.execSQL("DROP TABLE " + InventoryEntry.TABLE_NAME + ";");
+        db.execSQL("ALTER TABLE " + INVENTORY_REBUILD_TABLE_NAME
+                + " RENAME TO " + InventoryEntry.TABLE_NAME + ";");
+
+        db.execSQL("CREATE INDEX " + INDEX_PRODUCT_NAME + " ON " + InventoryEntry.TABLE_NAME
+                + " (" + InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME + " COLLATE NOCASE);");
+        db.execSQL("CREATE INDEX " + INDEX_QUANTITY + " ON " + InventoryEntry.TABLE_NAME
+                + " (" + InventoryEntry.COLUMN_INVENTORY_QUANTITY + ");");
+        db.execSQL("CREATE INDEX " + INDEX_SUPPLIER_ID + " ON " + InventoryEntry.TABLE_NAME
+                + " (" + InventoryEntry.COLUMN_INVENTORY_SUPPLIER_ID + ");");
+
+        db.execSQL("CREATE VIEW " + InventoryEntry.VIEW_NAME + " AS SELECT "
+                + InventoryEntry.TABLE_NAME + "." + InventoryEntry._ID + " AS " + InventoryEntry._ID + ", "
+                + InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME + ", "
+                + InventoryEntry.COLUMN_INVENTORY_PRICE + ", "
+                + InventoryEntry.COLUMN_INVENTORY_QUANTITY + ", "
+                + InventoryEntry.COLUMN_INVENTORY_SUPPLIER_ID + ", "
+                + SupplierEntry.TABLE_NAME + "." + SupplierEntry.COLUMN_SUPPLIER_NAME
+                + " AS " + InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME + ", "
+                + SupplierEntry.TABLE_NAME + "." + SupplierEntry.COLUMN_SUPPLIER_PHONE
+                + " AS " + InventoryEntry.COLUMN_INVENTORY_SUPPLIER_PHONE
+                + " FROM " + InventoryEntry.TABLE_NAME + " JOIN " + SupplierEntry.TABLE_NAME
+                + " ON " + SupplierEntry.TABLE_NAME + "." + SupplierEntry._ID
+                + " = " + InventoryEntry.TABLE_NAME + "." + InventoryEntry.COLUMN_INVENTORY_SUPPLIER_ID + ";");
+
+        String supplierName = "(SELECT " + SupplierEntry.COLUMN_SUPPLIER_NAME
+                + " FROM " + SupplierEntry.TABLE_NAME + " WHERE " + SupplierEntry._ID
+                + " = new." + InventoryEntry.COLUMN_INVENTORY_SUPPLIER_ID + ")";
+        db.execSQL("CREATE TRIGGER " + TRIGGER_FTS_INSERT
+                + " AFTER INSERT ON " + InventoryEntry.TABLE_NAME + " BEGIN "
+                + "INSERT INTO " + InventoryEntry.FTS_TABLE_NAME + " (docid, "
+                + InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME + ", "
+                + InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME + ") VALUES (new." + InventoryEntry._ID
+                + ", new." + InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME
+                + ", " + supplierName + "); END;");
+
+        db.execSQL("CREATE TRIGGER " + TRIGGER_FTS_UPDATE
+                + " AFTER UPDATE OF " + InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME + ", "
+                + InventoryEntry.COLUMN_INVENTORY_SUPPLIER_ID
+                + " ON " + InventoryEntry.TABLE_NAME + " BEGIN "
+                + "UPDATE " + InventoryEntry.FTS_TABLE_NAME + " SET "
+                + InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME + " = new."
+                + InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME + ", "
+                + InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME + " = " + supplierName
+                + " WHERE docid = old." + InventoryEntry._ID + "; END;");
+
+        db.execSQL("CREATE TRIGGER " + TRIGGER_FTS_DELETE
+                + " AFTER DELETE ON " + InventoryEntry.TABLE_NAME + " BEGIN "
+                + "DELETE FROM " + InventoryEntry.FTS_TABLE_NAME
+                + " WHERE docid = old." + InventoryEntry._ID + "; END;");
+
+        db.execSQL("CREATE TRIGGER " + TRIGGER_FTS_SUPPLIER_UPDATE
+                + " AFTER UPDATE OF " + SupplierEntry.COLUMN_SUPPLIER_NAME
+                + " ON " + SupplierEntry.TABLE_NAME + " BEGIN "
+                + "UPDATE " + InventoryEntry.FTS_TABLE_NAME + " SET "
+                + InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME + " = new." + SupplierEntry.COLUMN_SUPPLIER_NAME
+                + " WHERE docid IN (SELECT " + InventoryEntry._ID + " FROM " + InventoryEntry.TABLE_NAME
+                + " WHERE " + InventoryEntry.COLUMN_INVENTORY_SUPPLIER_ID + " = new." + SupplierEntry._ID
+                + "); END;");
+
+        createSalesTriggers(db);
+        createSalesSnapshotTrigger(db);
+        createSummaryTriggers(db, false);
+    }
+
+    /**
+     * Version 7: reorder threshold on every item, and the flags of ReorderEntry
+     * - existing items get DEFAULT_REORDER_THRESHOLD
+     * - triggers flag an item when a write takes its quantity below its threshold, and
+     *   drop the flag when it goes back up or the item is deleted. Writes that don't
+     *   cross the threshold don't touch the flags
+     * - itemId is unique, so the flag of an item is one index lookup
+     * - items already below the threshold are flagged once, through the quantity index
+     * - inventory_view is recreated to include the threshold
+     */
+    private void migrateToVersion7(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + InventoryEntry.TABLE_NAME + " ADD COLUMN "
+                + InventoryEntry.COLUMN_INVENTORY_REORDER_THRESHOLD + " INTEGER NOT NULL DEFAULT "
+                + InventoryEntry.DEFAULT_REORDER_THRESHOLD + ";");
+
+        db.execSQL("CREATE TABLE " + ReorderEntry.TABLE_NAME + " ("
+                + ReorderEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + ReorderEntry.COLUMN_ITEM_ID + " INTEGER NOT NULL UNIQUE, "
+                + ReorderEntry.COLUMN_TIMESTAMP + " INTEGER NOT NULL);");
+
+        String flagItem = "INSERT OR REPLACE INTO " + ReorderEntry.TABLE_NAME + " ("
+                + ReorderEntry.COLUMN_ITEM_ID + ", " + ReorderEntry.COLUMN_TIMESTAMP
+                + ") VALUES (new." + InventoryEntry._ID + ", " + SQL_NOW_MILLIS + ");";
+        String unflagItem = "DELETE FROM " + ReorderEntry.TABLE_NAME
+                + " WHERE " + ReorderEntry.COLUMN_ITEM_ID + " = old." + InventoryEntry._ID + ";";
+
+        db.execSQL("CREATE TRIGGER " + TRIGGER_REORDER_INSERT
+                + " AFTER INSERT ON " + InventoryEntry.TABLE_NAME
+                + " WHEN " + belowReorderThreshold("new.") + " BEGIN " + flagItem + " END;");
+
+        db.execSQL("CREATE TRIGGER " + TRIGGER_REORDER_FLAG
+                + " AFTER UPDATE OF " + InventoryEntry.COLUMN_INVENTORY_QUANTITY + ", "
+                + InventoryEntry.COLUMN_INVENTORY_REORDER_THRESHOLD
+                + " ON " + InventoryEntry.TABLE_NAME
+                + " WHEN " + belowReorderThreshold("new.")
+                + " AND NOT " + belowReorderThreshold("old.") + " BEGIN " + flagItem + " END;");
+
+        db.execSQL("CREATE TRIGGER " + TRIGGER_REORDER_RESTOCK
+                + " AFTER UPDATE OF " + InventoryEntry.COLUMN_INVENTORY_QUANTITY + ", "
+                + InventoryEntry.COLUMN_INVENTORY_REORDER_THRESHOLD
+                + " ON " + InventoryEntry.TABLE_NAME
+                + " WHEN " + belowReorderThreshold("old.")
+                + " AND NOT " + belowReorderThreshold("new.") + " BEGIN " + unflagItem + " END;");
+
+        db.execSQL("CREATE TRIGGER " + TRIGGER_REORDER_DELETE
+                + " AFTER DELETE ON " + InventoryEntry.TABLE_NAME
+                + " WHEN " + belowReorderThreshold("old.") + " BEGIN " + unflagItem + " END;");
+
+        // Every item has the default threshold yet
+        db.execSQL("INSERT INTO " + ReorderEntry.TABLE_NAME + " (" + ReorderEntry.COLUMN_ITEM_ID
+                + ", " + ReorderEntry.COLUMN_TIMESTAMP + ") SELECT " + InventoryEntry._ID + ", "
+                + SQL_NOW_MILLIS + " FROM " + InventoryEntry.TABLE_NAME
+                + " WHERE " + InventoryEntry.COLUMN_INVENTORY_QUANTITY + " < "
+                + InventoryEntry.DEFAULT_REORDER_THRESHOLD + ";");
+
+        db.execSQL("DROP VIEW " + InventoryEntry.VIEW_NAME + ";");
+        db.execSQL("CREATE VIEW " + InventoryEntry.VIEW_NAME + " AS SELECT "
+                + InventoryEntry.TABLE_NAME + "." + InventoryEntry._ID + " AS " + InventoryEntry._ID + ", "
+                + InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME + ", "
+                + InventoryEntry.COLUMN_INVENTORY_PRICE + ", "
+                + InventoryEntry.COLUMN_INVENTORY_QUANTITY + ", "
+                + InventoryEntry.COLUMN_INVENTORY_REORDER_THRESHOLD + ", "
+                + InventoryEntry.COLUMN_INVENTORY_SUPPLIER_ID + ", "
+                + SupplierEntry.TABLE_NAME + "." + SupplierEntry.COLUMN_SUPPLIER_NAME
+                + " AS " + InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME + ", "
+                + SupplierEntry.TABLE_NAME + "." + SupplierEntry.COLUMN_SUPPLIER_PHONE
+                + " AS " + InventoryEntry.COLUMN_INVENTORY_SUPPLIER_PHONE
+                + " FROM " + InventoryEntry.TABLE_NAME + " JOIN " + SupplierEntry.TABLE_NAME
+                + " ON " + SupplierEntry.TABLE_NAME + "." + SupplierEntry._ID
+                + " = " + InventoryEntry.TABLE_NAME + "." + InventoryEntry.COLUMN_INVENTORY_SUPPLIER_ID + ";");
+    }
+
+    /**
+     * Version 8: an index for every InventoryEntry.SORT_COLUMNS order of the list
+     * - price gets its own index, product name and quantity already have one
+     * - each sort column also gets an index after supplierId, so a list filtered to one
+     *   supplier is read in order from its slice of the index. Sorting by _id under the
+     *   filter uses the supplierId index, whose rows are in rowid order
+     * - rows are read in index order and the LIMIT stops the scan, nothing is sorted
+     */
+    private void migrateToVersion8(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX " + INDEX_PRICE + " ON " + InventoryEntry.TABLE_NAME
+                + " (" + InventoryEntry.COLUMN_INVENTORY_PRICE + ");");
+        db.execSQL("CREATE INDEX " + INDEX_SUPPLIER_PRODUCT_NAME + " ON " + InventoryEntry.TABLE_NAME
+                + " (" + InventoryEntry.COLUMN_INVENTORY_SUPPLIER_ID + ", "
+                + InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME + " COLLATE NOCASE);");
+        db.execSQL("CREATE INDEX " + INDEX_SUPPLIER_PRICE + " ON " + InventoryEntry.TABLE_NAME
+                + " (" + InventoryEntry.COLUMN_INVENTORY_SUPPLIER_ID + ", "
+                + InventoryEntry.COLUMN_INVENTORY_PRICE + ");");
+        db.execSQL("CREATE INDEX " + INDEX_SUPPLIER_QUANTITY + " ON " + InventoryEntry.TABLE_NAME
+                + " (" + InventoryEntry.COLUMN_INVENTORY_SUPPLIER_ID + ", "
+                + InventoryEntry.COLUMN_INVENTORY_QUANTITY + ");");
+    }
+
+    /**
+     * Version 9: version column on every item, see InventoryEntry.COLUMN_INVENTORY_VERSION
+     * - existing items start at 1, like new ones
+     * - the provider increments it in the same UPDATE as the change, so a trigger doesn't
+     *   write every row a second time
+     * - inventory_view is recreated to include it
+     */
+    private void migrateToVersion9(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + InventoryEntry.TABLE_NAME + " ADD COLUMN "
+                + InventoryEntry.COLUMN_INVENTORY_VERSION + " INTEGER NOT NULL DEFAULT 1;");
+
+        db.execSQL("DROP VIEW " + InventoryEntry.VIEW_NAME + ";");
+        db.execSQL("CREATE VIEW " + InventoryEntry.VIEW_NAME + " AS SELECT "
+                + InventoryEntry.TABLE_NAME + "." + InventoryEntry._ID + " AS " + InventoryEntry._ID + ", "
+                + InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME + ", "
+                + InventoryEntry.COLUMN_INVENTORY_PRICE + ", "
+                + InventoryEntry.COLUMN_INVENTORY_QUANTITY + ", "
+                + InventoryEntry.COLUMN_INVENTORY_REORDER_THRESHOLD + ", "
+                + InventoryEntry.COLUMN_INVENTORY_VERSION + ", "
+                + InventoryEntry.COLUMN_INVENTORY_SUPPLIER_ID + ", "
+                + SupplierEntry.TABLE_NAME + "." + SupplierEntry.COLUMN_SUPPLIER_NAME
+                + " AS " + InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME + ", "
+                + SupplierEntry.TABLE_NAME + "." + SupplierEntry.COLUMN_SUPPLIER_PHONE
+                + " AS " + InventoryEntry.COLUMN_INVENTORY_SUPPLIER_PHONE
+                + " FROM " + InventoryEntry.TABLE_NAME + " JOIN " + SupplierEntry.TABLE_NAME
+                + " ON " + SupplierEntry.TABLE_NAME + "." + SupplierEntry._ID
+                + " = " + InventoryEntry.TABLE_NAME + "." + InventoryEntry.COLUMN_INVENTORY_SUPPLIER_ID + ";");
+    }
+
+    /**
+     * Version 10: prices in whole cents, and phone numbers in one normalized form
+     * - prices were whole units, or REAL if a client wrote decimals, and become integer
+     *   cents. The summary triggers carry the stock value over to cents as they change
+     * - separators are dropped from supplier phone numbers, like
+     *   InventoryFormat.normalizePhone() does for new ones. Suppliers that then have the
+     *   same name and phone are merged into the first of them, and its items moved over
+     */
+    private void migrateToVersion10(SQLiteDatabase db) {
+        db.execSQL("UPDATE " + InventoryEntry.TABLE_NAME + " SET "
+                + InventoryEntry.COLUMN_INVENTORY_PRICE + " = CAST(ROUND("
+                + InventoryEntry.COLUMN_INVENTORY_PRICE + " * 100) AS INTEGER);");
+
+        String supplierPhone = normalizedPhone(SupplierEntry.TABLE_NAME + "."
+                + SupplierEntry.COLUMN_SUPPLIER_PHONE);
+        String samePhone = normalizedPhone("first." + SupplierEntry.COLUMN_SUPPLIER_PHONE)
+                + " = " + supplierPhone;
+        String sameSupplier = "first." + SupplierEntry.COLUMN_SUPPLIER_NAME + " = "
+                + SupplierEntry.TABLE_NAME + "." + SupplierEntry.COLUMN_SUPPLIER_NAME
+                + " AND " + samePhone;
+        String duplicate = "EXISTS (SELECT 1 FROM " + SupplierEntry.TABLE_NAME + " first"
+                + " WHERE " + sameSupplier + " AND first." + SupplierEntry._ID + " < "
+                + SupplierEntry.TABLE_NAME + "." + SupplierEntry._ID + ")";
+        db.execSQL("UPDATE " + InventoryEntry.TABLE_NAME + " SET "
+                + InventoryEntry.COLUMN_INVENTORY_SUPPLIER_ID + " = (SELECT MIN(first." + SupplierEntry._ID
+                + ") FROM " + SupplierEntry.TABLE_NAME + " JOIN " + SupplierEntry.TABLE_NAME + " first"
+                + " ON " + sameSupplier + " WHERE " + SupplierEntry.TABLE_NAME + "." + SupplierEntry._ID
+                + " = " + InventoryEntry.TABLE_NAME + "." + InventoryEntry.COLUMN_INVENTORY_SUPPLIER_ID + ")"
+                + " WHERE " + InventoryEntry.COLUMN_INVENTORY_SUPPLIER_ID + " IN (SELECT "
+                + SupplierEntry._ID + " FROM " + SupplierEntry.TABLE_NAME + " WHERE " + duplicate + ");");
+        db.execSQL("DELETE FROM " + SupplierEntry.TABLE_NAME + " WHERE " + duplicate + ";");
+        db.execSQL("UPDATE " + SupplierEntry.TABLE_NAME + " SET "
+                + SupplierEntry.COLUMN_SUPPLIER_PHONE + " = " + supplierPhone + ";");
+    }
+
+    /**
+     * Version 11: deleted items become tombstones, see InventoryEntry.COLUMN_INVENTORY_DELETED
+     * - deleting flags the row and InventoryPurger removes it later, a chunk at a time, so
+     *   deleting many items no longer rewrites every index and the search table at once
+     * - a partial index holds only the tombstones, the purger finds them without a scan and
+     *   live rows don't pay for it
+     * - a trigger takes a tombstoned item out of the summary and its reorder flag in the
+     *   deleting transaction. Its search row stays until the purge, searches read through
+     *   the view. The summary's delete trigger skips tombstones, they are already out
+     * - inventory_view is recreated without tombstones
+     */
+    private void migrateToVersion11(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + InventoryEntry.TABLE_NAME + " ADD COLUMN "
+                + InventoryEntry.COLUMN_INVENTORY_DELETED + " INTEGER NOT NULL DEFAULT 0;");
+
+        // Partial indexes need SQLite 3.8.0, which Android ships from API 21
+        String tombstones = Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP
+                ? " WHERE " + InventoryEntry.COLUMN_INVENTORY_DELETED + " = 1" : "";
+        db.execSQL("CREATE INDEX " + INDEX_DELETED + " ON " + InventoryEntry.TABLE_NAME
+                + " (" + InventoryEntry.COLUMN_INVENTORY_DELETED + ")" + tombstones + ";");
+
+        db.execSQL("DROP TRIGGER " + TRIGGER_SUMMARY_DELETE + ";");
+        createTombstoneTriggers(db, false);
+
+        db.execSQL("DROP VIEW " + InventoryEntry.VIEW_NAME + ";");
+        db.execSQL("CREATE VIEW " + InventoryEntry.VIEW_NAME + " AS SELECT "
+                + InventoryEntry.TABLE_NAME + "." + InventoryEntry._ID + " AS " + InventoryEntry._ID + ", "
+                + InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME + ", "
+                + InventoryEntry.COLUMN_INVENTORY_PRICE + ", "
+                + InventoryEntry.COLUMN_INVENTORY_QUANTITY + ", "
+                + InventoryEntry.COLUMN_INVENTORY_REORDER_THRESHOLD + ", "
+                + InventoryEntry.COLUMN_INVENTORY_VERSION + ", "
+                + InventoryEntry.COLUMN_INVENTORY_SUPPLIER_ID + ", "
+                + SupplierEntry.TABLE_NAME + "." + SupplierEntry.COLUMN_SUPPLIER_NAME
+                + " AS " + InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME + ", "
+                + SupplierEntry.TABLE_NAME + "." + SupplierEntry.COLUMN_SUPPLIER_PHONE
+                + " AS " + InventoryEntry.COLUMN_INVENTORY_SUPPLIER_PHONE
+                + " FROM " + InventoryEntry.TABLE_NAME + " JOIN " + SupplierEntry.TABLE_NAME
+                + " ON " + SupplierEntry.TABLE_NAME + "." + SupplierEntry._ID
+                + " = " + InventoryEntry.TABLE_NAME + "." + InventoryEntry.COLUMN_INVENTORY_SUPPLIER_ID
+                + " WHERE " + InventoryEntry.COLUMN_INVENTORY_DELETED + " = 0;");
+    }
+
+    /**
+     * Version 12: the ledger snapshots each item on its own, see ITEM_SNAPSHOT_INTERVAL
+     * - the snapshot trigger of version 4 copied every item every SALES_SNAPSHOT_INTERVAL
+     *   events, in the transaction of whichever sale hit the interval. With a large table
+     *   that one sale wrote a row per item, and an import of N items wrote N / 10000 of
+     *   those rounds
+     * - now an event snapshots only its own item, once the item has ITEM_SNAPSHOT_INTERVAL
+     *   events since its last snapshot. The snapshot is the event's quantityAfter, and the
+     *   item's older snapshots beyond SALES_SNAPSHOTS_KEPT are pruned
+     * - counting those events is an index range scan of at most ITEM_SNAPSHOT_INTERVAL
+     *   entries, and a new item's first event never snapshots, so every event costs the same
+     *   whatever the table size
+     * - snapshots already taken stay valid, reconciliation reads each item's latest one
+     */
+    private void migrateToVersion12(SQLiteDatabase db) {
+        db.execSQL("DROP TRIGGER " + TRIGGER_SALES_SNAPSHOT + ";");
+
+        String itemSnapshots = " FROM " + SalesEntry.SNAPSHOT_TABLE_NAME
+                + " WHERE " + SalesEntry.COLUMN_ITEM_ID + " = new." + SalesEntry.COLUMN_ITEM_ID;
+        db.execSQL("CREATE TRIGGER " + TRIGGER_SALES_SNAPSHOT
+                + " AFTER INSERT ON " + SalesEntry.TABLE_NAME
+                + " WHEN (SELECT COUNT(*) FROM " + SalesEntry.TABLE_NAME
+                + " WHERE " + SalesEntry.COLUMN_ITEM_ID + " = new." + SalesEntry.COLUMN_ITEM_ID
+                + " AND " + SalesEntry._ID + " > IFNULL((SELECT MAX(" + SalesEntry.COLUMN_LAST_EVENT_ID
+                + ")" + itemSnapshots + "), 0)) >= " + ITEM_SNAPSHOT_INTERVAL + " BEGIN "
+                + "INSERT INTO " + SalesEntry.SNAPSHOT_TABLE_NAME + " (" + SalesEntry.COLUMN_ITEM_ID + ", "
+                + SalesEntry.COLUMN_SNAPSHOT_QUANTITY + ", " + SalesEntry.COLUMN_LAST_EVENT_ID + ", "
+                + SalesEntry.COLUMN_TIMESTAMP + ") VALUES (new." + SalesEntry.COLUMN_ITEM_ID
+                + ", new." + SalesEntry.COLUMN_QUANTITY_AFTER + ", new." + SalesEntry._ID
+                + ", new." + SalesEntry.COLUMN_TIMESTAMP + "); "
+                + "DELETE" + itemSnapshots + " AND " + SalesEntry.COLUMN_LAST_EVENT_ID + " < (SELECT "
+                + SalesEntry.COLUMN_LAST_EVENT_ID + itemSnapshots
+                + " ORDER BY " + SalesEntry.COLUMN_LAST_EVENT_ID + " DESC"
+                + " LIMIT 1 OFFSET " + (SALES_SNAPSHOTS_KEPT - 1) + "); END;");
+    }
+
+    /**
+     * Version 13: an item is low on stock when its quantity is below its own reorder
+     * threshold, the one ReorderEntry flags it by, not below LOW_STOCK_THRESHOLD
+     * - the summary triggers are recreated to count by the row's threshold, and the update
+     *   trigger also fires when only the threshold changes
+     * - lowStockCount is counted again from the live items
+     */
+    private void migrateToVersion13(SQLiteDatabase db) {
+        db.execSQL("DROP TRIGGER " + TRIGGER_SUMMARY_INSERT + ";");
+        db.execSQL("DROP TRIGGER " + TRIGGER_SUMMARY_UPDATE + ";");
+        db.execSQL("DROP TRIGGER " + TRIGGER_SUMMARY_DELETE + ";");
+        db.execSQL("DROP TRIGGER " + TRIGGER_TOMBSTONE + ";");
+        createSummaryTriggers(db, true);
+        createTombstoneTriggers(db, true);
+
+        db.execSQL("UPDATE " + SummaryEntry.TABLE_NAME + " SET "
+                + SummaryEntry.COLUMN_LOW_STOCK_COUNT + " = (SELECT COUNT(*) FROM "
+                + InventoryEntry.TABLE_NAME + " WHERE " + InventoryEntry.COLUMN_INVENTORY_DELETED
+                + " = 0 AND " + lowStock("", true) + ")"
+                + " WHERE " + SummaryEntry._ID + " = " + SUMMARY_ROW_ID + ";");
+    }
+
+    /**
+     * SQL for phone with every InventoryFormat.PHONE_SEPARATORS character removed
+     */
+    private static String normalizedPhone(String phone) {
+        String sql = phone;
+        for (int i = 0; i < InventoryFormat.PHONE_SEPARATORS.length(); i++) {
+            sql = "REPLACE(" + sql + ", '" + InventoryFormat.PHONE_SEPARATORS.charAt(i) + "', '')";
+        }
+        return sql;
+    }
+
+    /**
+     * Ledger triggers on the inventory table, see migrateToVersion4()
+     * Also recreated by migrateToVersion6() after it rebuilds the table, so this SQL must
+     * not change
+     */
+    private static void createSalesTriggers(SQLiteDatabase db) {
+        db.execSQL("CREATE TRIGGER " + TRIGGER_SALES_INSERT
+                + " AFTER INSERT ON " + InventoryEntry.TABLE_NAME + " BEGIN "
+                + "INSERT INTO " + SalesEntry.TABLE_NAME + " (" + SalesEntry.COLUMN_ITEM_ID + ", "
+                + SalesEntry.COLUMN_DELTA + ", " + SalesEntry.COLUMN_QUANTITY_AFTER + ", "
+                + SalesEntry.COLUMN_TIMESTAMP + ") VALUES (new." + InventoryEntry._ID
+                + ", new." + InventoryEntry.COLUMN_INVENTORY_QUANTITY
+                + ", new." + InventoryEntry.COLUMN_INVENTORY_QUANTITY
+                + ", " + SQL_NOW_MILLIS + "); END;");
+
+        db.execSQL("CREATE TRIGGER " + TRIGGER_SALES_UPDATE
+                + " AFTER UPDATE OF " + InventoryEntry.COLUMN_INVENTORY_QUANTITY
+                + " ON " + InventoryEntry.TABLE_NAME
+                + " WHEN new." + InventoryEntry.COLUMN_INVENTORY_QUANTITY
+                + " IS NOT old." + InventoryEntry.COLUMN_INVENTORY_QUANTITY + " BEGIN "
+                + "INSERT INTO " + SalesEntry.TABLE_NAME + " (" + SalesEntry.COLUMN_ITEM_ID + ", "
+                + SalesEntry.COLUMN_DELTA + ", " + SalesEntry.COLUMN_QUANTITY_AFTER + ", "
+                + SalesEntry.COLUMN_TIMESTAMP + ") VALUES (new." + InventoryEntry._ID
+                + ", new." + InventoryEntry.COLUMN_INVENTORY_QUANTITY
+                + " - old." + InventoryEntry.COLUMN_INVENTORY_QUANTITY
+                + ", new." + InventoryEntry.COLUMN_INVENTORY_QUANTITY
+                + ", " + SQL_NOW_MILLIS + "); END;");
+    }
+
+    /**
+     * Snapshot trigger on the sales table, see migrateToVersion4()
+     * It reads the inventory table, so migrateToVersion6() drops and recreates it around the
+     * table rebuild. This SQL must not change
+     */
+    private static void createSalesSnapshotTrigger(SQLiteDatabase db) {
+        // The inventory already holds the quantity after this event, and no later one
+        db.execSQL("CREATE TRIGGER " + TRIGGER_SALES_SNAPSHOT
+                + " AFTER INSERT ON " + SalesEntry.TABLE_NAME
+                + " WHEN new." + SalesEntry._ID + " % " + SALES_SNAPSHOT_INTERVAL + " = 0 BEGIN "
+                + "INSERT INTO " + SalesEntry.SNAPSHOT_TABLE_NAME + " (" + SalesEntry.COLUMN_ITEM_ID + ", "
+                + SalesEntry.COLUMN_SNAPSHOT_QUANTITY + ", " + SalesEntry.COLUMN_LAST_EVENT_ID + ", "
+                + SalesEntry.COLUMN_TIMESTAMP + ") SELECT " + InventoryEntry._ID + ", "
+                + InventoryEntry.COLUMN_INVENTORY_QUANTITY + ", new." + SalesEntry._ID
+                + ", new." + SalesEntry.COLUMN_TIMESTAMP
+                + " FROM " + InventoryEntry.TABLE_NAME + "; "
+                + "DELETE FROM " + SalesEntry.SNAPSHOT_TABLE_NAME
+                + " WHERE " + SalesEntry.COLUMN_LAST_EVENT_ID + " <= new." + SalesEntry._ID
+                + " - " + SALES_SNAPSHOT_INTERVAL * SALES_SNAPSHOTS_KEPT + "; END;");
+    }
+
+    /**
+     * Summary triggers on the inventory table, see migrateToVersion5()
+     * Also recreated by migrateToVersion6() after it rebuilds the table, and by
+     * migrateToVersion13() with itemThresholds. The SQL without itemThresholds must not change
+     */
+    private static void createSummaryTriggers(SQLiteDatabase db, boolean itemThresholds) {
+        db.execSQL("CREATE TRIGGER " + TRIGGER_SUMMARY_INSERT
+                + " AFTER INSERT ON " + InventoryEntry.TABLE_NAME + " BEGIN "
+                + "UPDATE " + SummaryEntry.TABLE_NAME + " SET "
+                + SummaryEntry.COLUMN_ITEM_COUNT + " = " + SummaryEntry.COLUMN_ITEM_COUNT + " + 1, "
+                + SummaryEntry.COLUMN_UNITS_ON_HAND + " = " + SummaryEntry.COLUMN_UNITS_ON_HAND
+                + " + new." + InventoryEntry.COLUMN_INVENTORY_QUANTITY + ", "
+                + SummaryEntry.COLUMN_STOCK_VALUE + " = " + SummaryEntry.COLUMN_STOCK_VALUE
+                + " + " + stockValue("new.") + ", "
+                + SummaryEntry.COLUMN_LOW_STOCK_COUNT + " = " + SummaryEntry.COLUMN_LOW_STOCK_COUNT
+                + " + " + lowStock("new.", itemThresholds)
+                + " WHERE " + SummaryEntry._ID + " = " + SUMMARY_ROW_ID + "; END;");
+
+        db.execSQL("CREATE TRIGGER " + TRIGGER_SUMMARY_UPDATE
+                + " AFTER UPDATE OF " + InventoryEntry.COLUMN_INVENTORY_PRICE + ", "
+                + InventoryEntry.COLUMN_INVENTORY_QUANTITY
+                + (itemThresholds ? ", " + InventoryEntry.COLUMN_INVENTORY_REORDER_THRESHOLD : "")
+                + " ON " + InventoryEntry.TABLE_NAME + " BEGIN "
+                + "UPDATE " + SummaryEntry.TABLE_NAME + " SET "
+                + SummaryEntry.COLUMN_UNITS_ON_HAND + " = " + SummaryEntry.COLUMN_UNITS_ON_HAND
+                + " + new." + InventoryEntry.COLUMN_INVENTORY_QUANTITY
+                + " - old." + InventoryEntry.COLUMN_INVENTORY_QUANTITY + ", "
+                + SummaryEntry.COLUMN_STOCK_VALUE + " = " + SummaryEntry.COLUMN_STOCK_VALUE
+                + " + " + stockValue("new.") + " - " + stockValue("old.") + ", "
+                + SummaryEntry.COLUMN_LOW_STOCK_COUNT + " = " + SummaryEntry.COLUMN_LOW_STOCK_COUNT
+                + " + " + lowStock("new.", itemThresholds)
+                + " - " + lowStock("old.", itemThresholds)
+                + " WHERE " + SummaryEntry._ID + " = " + SUMMARY_ROW_ID + "; END;");
+
+        db.execSQL("CREATE TRIGGER " + TRIGGER_SUMMARY_DELETE
+                + " AFTER DELETE ON " + InventoryEntry.TABLE_NAME + " BEGIN "
+                + summaryDelete(itemThresholds) + " END;");
+    }
+
+    /**
+     * Tombstone trigger, and the summary's delete trigger that skips tombstones, see
+     * migrateToVersion11(). The summary's delete trigger must be dropped first
+     * Also recreated by migrateToVersion13() with itemThresholds. The SQL without
+     * itemThresholds must not change
+     */
+    private static void createTombstoneTriggers(SQLiteDatabase db, boolean itemThresholds) {
+        db.execSQL("CREATE TRIGGER " + TRIGGER_TOMBSTONE
+                + " AFTER UPDATE OF " + InventoryEntry.COLUMN_INVENTORY_DELETED
+                + " ON " + InventoryEntry.TABLE_NAME
+                + " WHEN new." + InventoryEntry.COLUMN_INVENTORY_DELETED + " = 1"
+                + " AND old." + InventoryEntry.COLUMN_INVENTORY_DELETED + " = 0 BEGIN "
+                + summaryDelete(itemThresholds) + " "
+                + "DELETE FROM " + ReorderEntry.TABLE_NAME
+                + " WHERE " + ReorderEntry.COLUMN_ITEM_ID + " = old." + InventoryEntry._ID + "; END;");
+
+        db.execSQL("CREATE TRIGGER " + TRIGGER_SUMMARY_DELETE
+                + " AFTER DELETE ON " + InventoryEntry.TABLE_NAME
+                + " WHEN old." + InventoryEntry.COLUMN_INVENTORY_DELETED + " = 0 BEGIN "
+                + summaryDelete(itemThresholds) + " END;");
+    }
+
+    /**
+     * SQL that takes the "old." row out of the summary, for the delete trigger and the
+     * tombstone trigger of migrateToVersion11()
+     */
+    private static String summaryDelete(boolean itemThresholds) {
+        return "UPDATE " + SummaryEntry.TABLE_NAME + " SET "
+                + SummaryEntry.COLUMN_ITEM_COUNT + " = " + SummaryEntry.COLUMN_ITEM_COUNT + " - 1, "
+                + SummaryEntry.COLUMN_UNITS_ON_HAND + " = " + SummaryEntry.COLUMN_UNITS_ON_HAND
+                + " - old." + InventoryEntry.COLUMN_INVENTORY_QUANTITY + ", "
+                + SummaryEntry.COLUMN_STOCK_VALUE + " = " + SummaryEntry.COLUMN_STOCK_VALUE
+                + " - " + stockValue("old.") + ", "
+                + SummaryEntry.COLUMN_LOW_STOCK_COUNT + " = " + SummaryEntry.COLUMN_LOW_STOCK_COUNT
+                + " - " + lowStock("old.", itemThresholds)
+                + " WHERE " + SummaryEntry._ID + " = " + SUMMARY_ROW_ID + ";";
+    }
+
+    /**
+     * SQL for the stock value of a row, row being "new.", "old." or "" for the table itself
+     */
+    private static String stockValue(String row) {
+        return "(" + row + InventoryEntry.COLUMN_INVENTORY_PRICE + " * "
+                + row + InventoryEntry.COLUMN_INVENTORY_QUANTITY + ")";
+    }
+
+    /**
+     * SQL that is 1 if the row is low on stock, else 0
+     * - with itemThresholds below the row's own reorder threshold, as from version 13
+     * - without, below LOW_STOCK_THRESHOLD, for the migrations before the threshold existed
+     */
+    private static String lowStock(String row, boolean itemThresholds) {
+        return "(" + row + InventoryEntry.COLUMN_INVENTORY_QUANTITY + " < "
+                + (itemThresholds ? row + InventoryEntry.COLUMN_INVENTORY_REORDER_THRESHOLD
+                : String.valueOf(SummaryEntry.LOW_STOCK_THRESHOLD)) + ")";
+    }
+
+    /**
+     * SQL that is true if the row's quantity is below its own reorder threshold
+     */
+    private static String belowReorderThreshold(String row) {
+        return "(" + row + InventoryEntry.COLUMN_INVENTORY_QUANTITY + " < "
+                + row + InventoryEntry.COLUMN_INVENTORY_REORDER_THRESHOLD + ")";
     }
 }
@@ -0,0 +1,143 @@
+package com.example.android.inventoryappstage2.data;
+
+/**
+ * Conversions between what the user types and how prices and phone numbers are stored
+ * - prices are whole cents, see InventoryEntry.COLUMN_INVENTORY_PRICE
+ * - phone numbers are normalized, see SupplierEntry.COLUMN_SUPPLIER_PHONE
+ */
+public final class InventoryFormat {
+
+    /** Characters people write between the digits of a phone number, dropped when stored */
+    static final String PHONE_SEPARATORS = " -()./";
+
+    /** Most digits in a phone number, the E.164 limit */
+    private static final int MAX_PHONE_DIGITS = 15;
+
+    /** Most digits before the decimal point of a price, so its cents always fit an int */
+    private static final int MAX_PRICE_UNIT_DIGITS = 7;
+
+    private InventoryFormat() {
+    }
+
+    /**
+     * Parses a price typed as units with up to two decimals, e.g. "12", "12.5" or "12.50"
+     * return: the price in cents, or -1 if text is null or isn't a price
+     */
+    public static long parsePrice(String text) {
+        if (text == null) {
+            return -1;
+        }
+        int point = text.indexOf('.');
+        int unitDigits = point == -1 ? text.length() : point;
+        int centDigits = point == -1 ? 0 : text.length() - point - 1;
+        if (unitDigits > MAX_PRICE_UNIT_DIGITS || centDigits > 2
+                || (unitDigits == 0 && centDigits == 0)) {
+            return -1;
+        }
+        long cents = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (i == point) {
+                continue;
+            }
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            cents = cents * 10 + (c - '0');
+        }
+        // "12.5" is 125 so far
+        for (int i = centDigits; i < 2; i++) {
+            cents *= 10;
+        }
+        return cents;
+    }
+
+    public static String formatPrice(long cents) {
+        char[] buffer = new char[21];
+        return new String(buffer, 0, formatPrice(cents, buffer));
+    }
+
+    /**
+     * Writes cents as units with two decimals into buffer, without allocating
+     * A buffer of 21 chars holds any price, 12 any price that fits an int
+     * return: number of chars written
+     */
+    public static int formatPrice(long cents, char[] buffer) {
+        int length = 0;
+        if (cents < 0) {
+            buffer[length++] = '-';
+            cents = -cents;
+        }
+        int start = length;
+        // Cents first, then at least one unit digit, lowest first
+        buffer[length++] = (char) ('0' + cents % 10);
+        cents /= 10;
+        buffer[length++] = (char) ('0' + cents % 10);
+        cents /= 10;
+        buffer[length++] = '.';
+        do {
+            buffer[length++] = (char) ('0' + cents % 10);
+            cents /= 10;
+        } while (cents != 0);
+
+        for (int i = start, j = length - 1; i < j; i++, j--) {
+            char c = buffer[i];
+            buffer[i] = buffer[j];
+            buffer[j] = c;
+        }
+        return length;
+    }
+
+    /**
+     * Whether normalizePhone() accepts phone, without building the normalized number
+     */
+    public static boolean isPhone(String phone) {
+        return phone != null && phoneDigits(phone) != -1;
+    }
+
+    /**
+     * Returns phone as stored: its digits, after a + if it starts with one, so the same
+     * number always finds the same supplier however it was written
+     * return: the normalized number, or null if phone isn't a phone number
+     */
+    public static String normalizePhone(String phone) {
+        if (phone == null) {
+            return null;
+        }
+        int digits = phoneDigits(phone);
+        if (digits == -1) {
+            return null;
+        }
+        StringBuilder normalized = new StringBuilder(digits + 1);
+        for (int i = 0; i < phone.length(); i++) {
+            char c = phone.charAt(i);
+            if ((c >= '0' && c <= '9') || c == '+') {
+                normalized.append(c);
+            }
+        }
+        return normalized.toString();
+    }
+
+    /**
+     * Number of digits in phone, or -1 if it isn't a phone number: anything but digits and
+     * PHONE_SEPARATORS after an optional leading +, or not 1 to MAX_PHONE_DIGITS digits
+     */
+    private static int phoneDigits(String phone) {
+        int digits = 0;
+        boolean plus = false;
+        for (int i = 0; i < phone.length(); i++) {
+            char c = phone.charAt(i);
+            if (c >= '0' && c <= '9') {
+                digits++;
+            } else if (c == '+' && digits == 0 && !plus) {
+                plus = true;
+            } else if (PHONE_SEPARATORS.indexOf(c) == -1) {
+                return -1;
+            }
+        }
+        if (digits == 0 || digits > MAX_PHONE_DIGITS) {
+            return -1;
+        }
+        return digits;
+    }
+}
@@ -1,15 +1,37 @@
 package com.example.android.inventoryappstage2.data;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteConstraintException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.StrictMode;
+import android.text.TextUtils;
 import android.util.Log;
 
 import com.example.android.inventoryappstage2.data.InventoryContract.InventoryEntry;
+import com.example.android.inventoryappstage2.data.InventoryContract.ReorderEntry;
+import com.example.android.inventoryappstage2.data.InventoryContract.SalesEntry;
+import com.example.android.inventoryappstage2.data.InventoryContract.SummaryEntry;
+import com.example.android.inventoryappstage2.data.InventoryContract.SupplierEntry;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Locale;
 
 public class InventoryProvider extends ContentProvider {
 
@@ -30,6 +52,41 @@ public class InventoryProvider extends ContentProvider {
      */
     private static final int ITEM_ID = 101;
 
+    /**
+     * URI matcher code for the Content URI for a full-text search over the items
+     */
+    private static final int SEARCH = 102;
+
+    /**
+     * URI matcher codes for the sales ledger: every event, one item's events,
+     * and one item's reconciliation
+     */
+    private static final int SALES = 103;
+    private static final int ITEM_SALES = 104;
+    private static final int ITEM_RECONCILE = 105;
+
+    /**
+     * URI matcher code for the inventory summary row
+     */
+    private static final int SUMMARY = 106;
+
+    /**
+     * URI matcher codes for the suppliers table and a single supplier
+     */
+    private static final int SUPPLIERS = 107;
+    private static final int SUPPLIER_ID = 108;
+
+    /**
+     * URI matcher code for the items flagged for reordering
+     */
+    private static final int REORDER = 109;
+
+    /**
+     * Names of the URI matches in the metrics, indexed by match code - ITEMS
+     */
+    private static final String[] METRICS_MATCH_NAMES = {"items", "item", "search", "sales",
+            "itemSales", "reconcile", "summary", "suppliers", "supplier", "reorder"};
+
     /**
      * UriMatcher object to match a content URI to a corresponding code
      * The input passed into the constructor represents the code to return for the root URI
@@ -41,32 +98,325 @@ public class InventoryProvider extends ContentProvider {
     static {
         sUriMatcher.addURI(InventoryContract.CONTENT_AUTHORITY, InventoryContract.PATH_INVENTORY, ITEMS);
         sUriMatcher.addURI(InventoryContract.CONTENT_AUTHORITY, InventoryContract.PATH_INVENTORY + "/#", ITEM_ID);
+        sUriMatcher.addURI(InventoryContract.CONTENT_AUTHORITY,
+                InventoryContract.PATH_INVENTORY + "/" + InventoryContract.PATH_SEARCH, SEARCH);
+        sUriMatcher.addURI(InventoryContract.CONTENT_AUTHORITY,
+                InventoryContract.PATH_INVENTORY + "/" + InventoryContract.PATH_SALES, SALES);
+        sUriMatcher.addURI(InventoryContract.CONTENT_AUTHORITY,
+                InventoryContract.PATH_INVENTORY + "/#/" + InventoryContract.PATH_SALES, ITEM_SALES);
+        sUriMatcher.addURI(InventoryContract.CONTENT_AUTHORITY,
+                InventoryContract.PATH_INVENTORY + "/#/" + InventoryContract.PATH_RECONCILE, ITEM_RECONCILE);
+        sUriMatcher.addURI(InventoryContract.CONTENT_AUTHORITY,
+                InventoryContract.PATH_INVENTORY + "/" + InventoryContract.PATH_SUMMARY, SUMMARY);
+        sUriMatcher.addURI(InventoryContract.CONTENT_AUTHORITY,
+                InventoryContract.PATH_INVENTORY + "/" + InventoryContract.PATH_SUPPLIERS, SUPPLIERS);
+        sUriMatcher.addURI(InventoryContract.CONTENT_AUTHORITY,
+                InventoryContract.PATH_INVENTORY + "/" + InventoryContract.PATH_SUPPLIERS + "/#", SUPPLIER_ID);
+        sUriMatcher.addURI(InventoryContract.CONTENT_AUTHORITY,
+                InventoryContract.PATH_INVENTORY + "/" + InventoryContract.PATH_REORDER, REORDER);
     }
 
+    /**
+     * Columns of a bulk loaded row, in order, see InventoryCsv
+     * The supplier name and phone are resolved to a supplierId before the row is inserted
+     */
+    static final String[] INSERT_COLUMNS = {
+            InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME,
+            InventoryEntry.COLUMN_INVENTORY_PRICE,
+            InventoryEntry.COLUMN_INVENTORY_QUANTITY,
+            InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME,
+            InventoryEntry.COLUMN_INVENTORY_SUPPLIER_PHONE};
+
+    private static final String SQL_INSERT_ITEM = "INSERT INTO " + InventoryEntry.TABLE_NAME + " ("
+            + InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME + ", "
+            + InventoryEntry.COLUMN_INVENTORY_PRICE + ", "
+            + InventoryEntry.COLUMN_INVENTORY_QUANTITY + ", "
+            + InventoryEntry.COLUMN_INVENTORY_SUPPLIER_ID + ") VALUES (?, ?, ?, ?)";
+
+    private static final String SQL_FIND_SUPPLIER = "SELECT " + SupplierEntry._ID
+            + " FROM " + SupplierEntry.TABLE_NAME
+            + " WHERE " + SupplierEntry.COLUMN_SUPPLIER_NAME + " = ?"
+            + " AND " + SupplierEntry.COLUMN_SUPPLIER_PHONE + " = ?";
+
+    /**
+     * Condition that every write to items includes, so a deleted item waiting for the purge
+     * can't be changed, see InventoryEntry.COLUMN_INVENTORY_DELETED
+     */
+    private static final String SQL_LIVE_ITEM = InventoryEntry.COLUMN_INVENTORY_DELETED + " = 0";
+
+    /**
+     * Assignment that every UPDATE of items includes, see InventoryEntry.COLUMN_INVENTORY_VERSION
+     */
+    private static final String SQL_INCREMENT_VERSION = InventoryEntry.COLUMN_INVENTORY_VERSION
+            + " = " + InventoryEntry.COLUMN_INVENTORY_VERSION + " + 1";
+
+    /**
+     * Decrements stock only when enough is left, so concurrent sales can never oversell
+     * or overwrite each other
+     */
+    private static final String SQL_SELL_ITEM = "UPDATE " + InventoryEntry.TABLE_NAME
+            + " SET " + InventoryEntry.COLUMN_INVENTORY_QUANTITY + " = "
+            + InventoryEntry.COLUMN_INVENTORY_QUANTITY + " - ?, " + SQL_INCREMENT_VERSION
+            + " WHERE " + InventoryEntry._ID + " = ?"
+            + " AND " + InventoryEntry.COLUMN_INVENTORY_QUANTITY + " >= ?"
+            + " AND " + SQL_LIVE_ITEM;
+
+    /**
+     * Reconciles one item (bound twice to its _id): its latest snapshot plus the events
+     * after it, next to the quantity in the inventory table
+     * Both reads are index range scans, bounded by the snapshot interval
+     */
+    private static final String SQL_RECONCILE_ITEM = "SELECT "
+            + "item." + InventoryEntry._ID + " AS " + SalesEntry.COLUMN_ITEM_ID + ", "
+            + "item." + InventoryEntry.COLUMN_INVENTORY_QUANTITY
+            + " AS " + SalesEntry.COLUMN_RECONCILE_QUANTITY + ", "
+            + "IFNULL(snapshot." + SalesEntry.COLUMN_SNAPSHOT_QUANTITY + ", 0)"
+            + " + IFNULL(events.delta, 0) AS " + SalesEntry.COLUMN_LEDGER_QUANTITY + ", "
+            + "events.count AS " + SalesEntry.COLUMN_EVENTS_SINCE_SNAPSHOT
+            + " FROM " + InventoryEntry.TABLE_NAME + " item"
+            + " LEFT JOIN (SELECT " + SalesEntry.COLUMN_SNAPSHOT_QUANTITY + ", "
+            + SalesEntry.COLUMN_LAST_EVENT_ID + " FROM " + SalesEntry.SNAPSHOT_TABLE_NAME
+            + " WHERE " + SalesEntry.COLUMN_ITEM_ID + " = ?1"
+            + " ORDER BY " + SalesEntry.COLUMN_LAST_EVENT_ID + " DESC LIMIT 1) snapshot"
+            + " JOIN (SELECT SUM(" + SalesEntry.COLUMN_DELTA + ") AS delta, COUNT(*) AS count"
+            + " FROM " + SalesEntry.TABLE_NAME
+            + " WHERE " + SalesEntry.COLUMN_ITEM_ID + " = ?1"
+            + " AND " + SalesEntry._ID + " > IFNULL((SELECT MAX(" + SalesEntry.COLUMN_LAST_EVENT_ID
+            + ") FROM " + SalesEntry.SNAPSHOT_TABLE_NAME
+            + " WHERE " + SalesEntry.COLUMN_ITEM_ID + " = ?1), 0)) events"
+            + " WHERE item." + InventoryEntry._ID + " = ?1 AND item." + SQL_LIVE_ITEM;
+
+    /**
+     * The flagged items with their supplier, see ReorderEntry
+     * CROSS JOIN keeps the flags as the outer loop, so this reads the flags and does two
+     * primary key lookups per flag. With a plain join SQLite prefers to scan the inventory
+     * The flags are the oldest ?1, -1 for all of them, taken in the subquery so its LIMIT
+     * counts flags and the join only looks up the items of those
+     */
+    private static final String SQL_QUERY_REORDER = "SELECT "
+            + ReorderEntry.TABLE_NAME + "." + ReorderEntry._ID + " AS " + ReorderEntry._ID + ", "
+            + ReorderEntry.COLUMN_ITEM_ID + ", "
+            + ReorderEntry.TABLE_NAME + "." + ReorderEntry.COLUMN_TIMESTAMP
+            + " AS " + ReorderEntry.COLUMN_TIMESTAMP + ", "
+            + InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME + ", "
+            + InventoryEntry.COLUMN_INVENTORY_QUANTITY + ", "
+            + InventoryEntry.COLUMN_INVENTORY_REORDER_THRESHOLD + ", "
+            + InventoryEntry.COLUMN_INVENTORY_SUPPLIER_ID + ", "
+            + InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME + ", "
+            + InventoryEntry.COLUMN_INVENTORY_SUPPLIER_PHONE
+            + " FROM (SELECT * FROM " + ReorderEntry.TABLE_NAME + " ORDER BY " + ReorderEntry._ID
+            + " LIMIT ?1) AS " + ReorderEntry.TABLE_NAME + " CROSS JOIN " + InventoryEntry.VIEW_NAME
+            + " ON " + InventoryEntry.VIEW_NAME + "." + InventoryEntry._ID
+            + " = " + ReorderEntry.TABLE_NAME + "." + ReorderEntry.COLUMN_ITEM_ID
+            + " ORDER BY " + InventoryEntry.COLUMN_INVENTORY_SUPPLIER_ID + ", "
+            + ReorderEntry.TABLE_NAME + "." + ReorderEntry._ID;
+
+    private static final String SQL_QUERY_QUANTITY = "SELECT "
+            + InventoryEntry.COLUMN_INVENTORY_QUANTITY + " FROM " + InventoryEntry.TABLE_NAME
+            + " WHERE " + InventoryEntry._ID + " = ?";
+
+    private static final String SQL_UPDATE_QUANTITY = "UPDATE " + InventoryEntry.TABLE_NAME
+            + " SET " + InventoryEntry.COLUMN_INVENTORY_QUANTITY + " = ?, " + SQL_INCREMENT_VERSION
+            + " WHERE " + InventoryEntry._ID + " = ? AND " + SQL_LIVE_ITEM;
+
+    /**
+     * Deletes an item by making it a tombstone, InventoryPurger removes the row later
+     * Increments the version like every other write, so a compare-and-set update made with the
+     * version read before the delete fails
+     */
+    private static final String SQL_DELETE_ITEM = "UPDATE " + InventoryEntry.TABLE_NAME
+            + " SET " + InventoryEntry.COLUMN_INVENTORY_DELETED + " = 1, " + SQL_INCREMENT_VERSION
+            + " WHERE " + InventoryEntry._ID + " = ? AND " + SQL_LIVE_ITEM;
+
+    /**
+     * Reads the row the item cache keeps, see queryCachedItem()
+     */
+    private static final String SQL_QUERY_CACHED_ITEM = SQLiteQueryBuilder.buildQueryString(false,
+            InventoryEntry.VIEW_NAME, ItemCache.COLUMNS, InventoryEntry._ID + " = ?",
+            null, null, null, null);
+
+    /**
+     * Indexes of the fixed statements in STATEMENT_SQL, see StatementCache
+     */
+    private static final int STATEMENT_INSERT_ITEM = 0;
+    private static final int STATEMENT_SELL_ITEM = 1;
+    private static final int STATEMENT_QUERY_QUANTITY = 2;
+    private static final int STATEMENT_UPDATE_QUANTITY = 3;
+    private static final int STATEMENT_DELETE_ITEM = 4;
+    private static final int STATEMENT_FIND_SUPPLIER = 5;
+
+    private static final String[] STATEMENT_SQL = {SQL_INSERT_ITEM, SQL_SELL_ITEM,
+            SQL_QUERY_QUANTITY, SQL_UPDATE_QUANTITY, SQL_DELETE_ITEM, SQL_FIND_SUPPLIER};
+
+    /**
+     * Columns of an item row that the compiled insert writes, once the supplier is resolved
+     */
+    private static final String[] INSERT_ITEM_COLUMNS = {
+            InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME,
+            InventoryEntry.COLUMN_INVENTORY_PRICE,
+            InventoryEntry.COLUMN_INVENTORY_QUANTITY,
+            InventoryEntry.COLUMN_INVENTORY_SUPPLIER_ID};
+
+    /**
+     * Changes made by the calling thread inside applyBatch(), held back until the batch
+     * commits (and dropped if it rolls back). Null when the thread is not in a batch
+     */
+    private final ThreadLocal<ArrayList<Uri>> mBatchChanges = new ThreadLocal<>();
+
+    /**
+     * Coalesces change notifications, see ChangeNotifier
+     */
+    private ChangeNotifier mChangeNotifier;
+
+    /**
+     * Latency, row and notification counters, see ProviderMetrics
+     */
+    private final ProviderMetrics mMetrics = new ProviderMetrics(METRICS_MATCH_NAMES);
+
+    /**
+     * Recently queried single items, see ItemCache
+     */
+    private final ItemCache mItemCache = new ItemCache(ItemCache.DEFAULT_CAPACITY);
+
+    /**
+     * Compiled statements for the fixed point operations, see StatementCache
+     */
+    private final StatementCache mStatements = new StatementCache(STATEMENT_SQL);
+
+    /**
+     * Backup and restore of the database, see InventoryBackup
+     */
+    private InventoryBackup mBackup;
+
+    /**
+     * Removes deleted items in the background, see InventoryPurger
+     */
+    private InventoryPurger mPurger;
+
     @Override
     public boolean onCreate() {
         mDbHelper = new InventoryDbHelper(getContext());
+        mBackup = new InventoryBackup(getContext(), mDbHelper);
+        mPurger = new InventoryPurger(mDbHelper);
+        // Deleted items the last process didn't get to purge
+        mPurger.schedule();
+        mChangeNotifier = new ChangeNotifier(getContext().getContentResolver(), mMetrics);
         return true;
     }
 
+    /**
+     * Sets how long changes are collected before listeners are notified, in milliseconds
+     * 0 notifies every change straight away
+     */
+    public void setNotificationWindow(long windowMs) {
+        mChangeNotifier.setWindow(windowMs);
+    }
+
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
                         String sortOrder) {
+        long start = mMetrics.start();
         SQLiteDatabase database = mDbHelper.getReadableDatabase();
         Cursor cursor;
 
         int match = sUriMatcher.match(uri);
         switch (match) {
             case ITEMS:
-                // database query on table
-                cursor = database.query(InventoryEntry.TABLE_NAME, projection, selection,
-                        selectionArgs, null, null, sortOrder);
+                String pageSize = uri.getQueryParameter(InventoryContract.QUERY_PARAMETER_PAGE_SIZE);
+                String limit = uri.getQueryParameter(InventoryContract.QUERY_PARAMETER_LIMIT);
+                // Only whitelisted sort orders, see InventoryEntry.SORT_COLUMNS
+                ItemSort sort = ItemSort.parse(sortOrder);
+                if (pageSize == null && limit == null) {
+                    // database query on the view, which joins in each item's supplier
+                    cursor = database.query(InventoryEntry.VIEW_NAME, projection, selection,
+                            selectionArgs, null, null, sortOrder == null ? null : sort.orderBy());
+                    break;
+                }
+
+                if (pageSize != null && ListCursor.canServe(projection)) {
+                    // The list screen's columns, held compactly and loaded a page at a time
+                    cursor = new ListCursor(database, projection, selection, selectionArgs,
+                            sort, parsePositiveInt(pageSize, uri));
+                } else if (pageSize != null) {
+                    cursor = new PagedCursor(database, projection, selection, selectionArgs,
+                            sort, parsePositiveInt(pageSize, uri));
+                } else {
+                    // Single pages continue after an _id, so they are always ordered by _id
+                    if (sortOrder != null) {
+                        throw new IllegalArgumentException("Paged queries can't be sorted " + uri);
+                    }
+                    String afterId = uri.getQueryParameter(InventoryContract.QUERY_PARAMETER_AFTER_ID);
+                    if (afterId != null) {
+                        afterId = String.valueOf(Long.parseLong(afterId));
+                    }
+                    cursor = PagedCursor.queryPage(database, InventoryEntry.VIEW_NAME, projection,
+                            selection, selectionArgs, afterId, String.valueOf(parsePositiveInt(limit, uri)));
+                }
                 break;
             case ITEM_ID:
+                long itemId = ContentUris.parseId(uri);
+                if (ItemCache.canServe(projection)) {
+                    cursor = queryCachedItem(database, itemId, projection);
+                    break;
+                }
+                // A rowid lookup, then one primary key lookup of the supplier
                 selection = InventoryEntry._ID + "=?";
+                selectionArgs = new String[]{String.valueOf(itemId)};
+                cursor = database.query(InventoryEntry.VIEW_NAME, projection, selection,
+                        selectionArgs, null, null, sortOrder);
+                break;
+            case SEARCH:
+                cursor = searchItems(database, projection,
+                        uri.getQueryParameter(InventoryContract.QUERY_PARAMETER_SEARCH));
+                // Search results change whenever any item changes
+                uri = InventoryEntry.CONTENT_URI;
+                break;
+            case SALES:
+                cursor = querySales(database, uri, projection, selection, selectionArgs, sortOrder);
+                // A new event comes with a change to an item
+                uri = InventoryEntry.CONTENT_URI;
+                break;
+            case ITEM_SALES:
+                long salesItemId = Long.parseLong(uri.getPathSegments().get(1));
+                selection = DatabaseUtils.concatenateWhere(selection, SalesEntry.COLUMN_ITEM_ID + "=?");
+                selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs,
+                        new String[]{String.valueOf(salesItemId)});
+                cursor = querySales(database, uri, projection, selection, selectionArgs, sortOrder);
+                uri = ContentUris.withAppendedId(InventoryEntry.CONTENT_URI, salesItemId);
+                break;
+            case ITEM_RECONCILE:
+                long reconcileItemId = Long.parseLong(uri.getPathSegments().get(1));
+                cursor = database.rawQuery(SQL_RECONCILE_ITEM,
+                        new String[]{String.valueOf(reconcileItemId)});
+                uri = ContentUris.withAppendedId(InventoryEntry.CONTENT_URI, reconcileItemId);
+                break;
+            case SUMMARY:
+                // A single row, kept up to date by triggers
+                cursor = database.query(SummaryEntry.TABLE_NAME, projection, null, null,
+                        null, null, null);
+                // The totals change whenever any item changes
+                uri = InventoryEntry.CONTENT_URI;
+                break;
+            case SUPPLIERS:
+                cursor = database.query(SupplierEntry.TABLE_NAME, projection, selection,
+                        selectionArgs, null, null, sortOrder);
+                // Writing an item can add a supplier
+                uri = InventoryEntry.CONTENT_URI;
+                break;
+            case SUPPLIER_ID:
+                selection = SupplierEntry._ID + "=?";
                 selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
-                cursor = database.query(InventoryEntry.TABLE_NAME, projection, selection,
+                cursor = database.query(SupplierEntry.TABLE_NAME, projection, selection,
                         selectionArgs, null, null, sortOrder);
+                uri = InventoryEntry.CONTENT_URI;
+                break;
+            case REORDER:
+                // Fixed columns, like the reconciliation
+                String reorderLimit = uri.getQueryParameter(InventoryContract.QUERY_PARAMETER_LIMIT);
+                cursor = database.rawQuery(SQL_QUERY_REORDER, new String[]{reorderLimit == null
+                        ? "-1" : String.valueOf(parsePositiveInt(reorderLimit, uri))});
+                // Items are flagged by writes to them
+                uri = InventoryEntry.CONTENT_URI;
                 break;
             default:
                 throw new IllegalArgumentException("Cannot query unknown URI " + uri);
@@ -76,9 +426,138 @@ public class InventoryProvider extends ContentProvider {
         // If data changes at this URI, we know to update cursor
         cursor.setNotificationUri(getContext().getContentResolver(), uri);
 
+        mMetrics.recordQuery(match - ITEMS, start, cursor);
         return cursor;
     }
 
+    /**
+     * Returns the item from the item cache, reading and caching it on a miss
+     */
+    private Cursor queryCachedItem(SQLiteDatabase database, long id, String[] projection) {
+        Object[] row = mItemCache.get(id);
+        if (row != null) {
+            mMetrics.recordItemCacheHit();
+            return ItemCache.toCursor(row, projection);
+        }
+        mMetrics.recordItemCacheMiss();
+
+        long generation = mItemCache.generation();
+        Cursor cursor = database.rawQuery(SQL_QUERY_CACHED_ITEM, new String[]{String.valueOf(id)});
+        try {
+            if (!cursor.moveToFirst()) {
+                return ItemCache.toCursor(null, projection);
+            }
+            row = ItemCache.readRow(cursor);
+        } finally {
+            cursor.close();
+        }
+        mItemCache.put(id, row, generation);
+        return ItemCache.toCursor(row, projection);
+    }
+
+    /**
+     * Queries ledger events, ordered by _id unless sortOrder says otherwise
+     * Supports the same keyset paging parameters as the items
+     */
+    private Cursor querySales(SQLiteDatabase database, Uri uri, String[] projection,
+                              String selection, String[] selectionArgs, String sortOrder) {
+        String limit = uri.getQueryParameter(InventoryContract.QUERY_PARAMETER_LIMIT);
+        if (limit == null) {
+            return database.query(SalesEntry.TABLE_NAME, projection, selection, selectionArgs,
+                    null, null, sortOrder == null ? SalesEntry._ID : sortOrder);
+        }
+        if (sortOrder != null) {
+            throw new IllegalArgumentException("Paged queries can't be sorted " + uri);
+        }
+        String afterId = uri.getQueryParameter(InventoryContract.QUERY_PARAMETER_AFTER_ID);
+        if (afterId != null) {
+            afterId = String.valueOf(Long.parseLong(afterId));
+        }
+        return PagedCursor.queryPage(database, SalesEntry.TABLE_NAME, projection, selection,
+                selectionArgs, afterId, String.valueOf(parsePositiveInt(limit, uri)));
+    }
+
+    private static int parsePositiveInt(String value, Uri uri) {
+        try {
+            int number = Integer.parseInt(value);
+            if (number > 0) {
+                return number;
+            }
+        } catch (NumberFormatException e) {
+            // fall through
+        }
+        throw new IllegalArgumentException("Invalid page size " + value + " for " + uri);
+    }
+
+    /**
+     * Runs a full-text search for the given text using the FTS table
+     * - every word is prefix matched against product and supplier names
+     * - items whose product name matches come first, then by product name
+     * - text without any searchable word returns every item
+     */
+    private Cursor searchItems(SQLiteDatabase database, String[] projection, String query) {
+        String match = buildMatchExpression(query, null);
+        if (match == null) {
+            return database.query(InventoryEntry.VIEW_NAME, projection, null,
+                    null, null, null, null);
+        }
+        String productNameMatch =
+                buildMatchExpression(query, InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME);
+
+        // Qualify the projection, as the FTS table has columns of the same name
+        StringBuilder sql = new StringBuilder("SELECT ");
+        if (projection == null) {
+            sql.append(InventoryEntry.VIEW_NAME).append(".*");
+        } else {
+            for (int i = 0; i < projection.length; i++) {
+                if (i > 0) {
+                    sql.append(", ");
+                }
+                sql.append(InventoryEntry.VIEW_NAME).append('.').append(projection[i]);
+            }
+        }
+        sql.append(" FROM ").append(InventoryEntry.VIEW_NAME)
+                .append(" JOIN ").append(InventoryEntry.FTS_TABLE_NAME)
+                .append(" ON ").append(InventoryEntry.VIEW_NAME).append('.').append(InventoryEntry._ID)
+                .append(" = ").append(InventoryEntry.FTS_TABLE_NAME).append(".docid")
+                .append(" WHERE ").append(InventoryEntry.FTS_TABLE_NAME).append(" MATCH ?")
+                .append(" ORDER BY ")
+                .append(InventoryEntry.VIEW_NAME).append('.').append(InventoryEntry._ID)
+                .append(" IN (SELECT docid FROM ").append(InventoryEntry.FTS_TABLE_NAME)
+                .append(" WHERE ").append(InventoryEntry.FTS_TABLE_NAME).append(" MATCH ?) DESC, ")
+                .append(InventoryEntry.VIEW_NAME).append('.')
+                .append(InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME).append(" COLLATE NOCASE");
+
+        return database.rawQuery(sql.toString(), new String[]{match, productNameMatch});
+    }
+
+    /**
+     * Turns typed text into an FTS prefix query, e.g. "blue wid" becomes "blue* wid*"
+     * Only letters and digits are kept, so the text can never inject FTS operators
+     * return: the MATCH expression, restricted to column if it isn't null,
+     * or null if there is no word to search for
+     */
+    private static String buildMatchExpression(String query, String column) {
+        if (query == null) {
+            return null;
+        }
+        StringBuilder match = new StringBuilder();
+        for (String word : query.split("[^\\p{L}\\p{N}]+")) {
+            if (word.isEmpty()) {
+                continue;
+            }
+            if (match.length() > 0) {
+                match.append(' ');
+            }
+            if (column != null) {
+                match.append(column).append(':');
+            }
+            // Lower case, so words like "or" and "near" aren't read as operators
+            match.append(word.toLowerCase(Locale.ROOT)).append('*');
+        }
+        return match.length() == 0 ? null : match.toString();
+    }
+
     /**
      * Insert new data into the provider with the given ContentValues
      * Acts as a switch to either call:
@@ -87,80 +566,155 @@ public class InventoryProvider extends ContentProvider {
      */
     @Override
     public Uri insert(Uri uri, ContentValues values) {
-        final int match = sUriMatcher.match(uri);
+        beginWrite();
+        try {
+            long start = mMetrics.start();
+            final int match = sUriMatcher.match(uri);
 
-        switch (match) {
-            case ITEMS:
-                return insertItem(uri, values);
-            default:
-                throw new IllegalArgumentException("Insertion is not supported for " + uri);
+            switch (match) {
+                case ITEMS:
+                    Uri itemUri = insertItem(uri, values);
+                    mMetrics.record(ProviderMetrics.OP_INSERT, match - ITEMS, start, itemUri == null ? 0 : 1);
+                    return itemUri;
+                case SUPPLIERS:
+                    Uri supplierUri = insertSupplier(uri, values);
+                    mMetrics.record(ProviderMetrics.OP_INSERT, match - ITEMS, start, supplierUri == null ? 0 : 1);
+                    return supplierUri;
+                default:
+                    throw new IllegalArgumentException("Insertion is not supported for " + uri);
+            }
+        } finally {
+            endWrite();
         }
     }
 
     /**
-     * Checks that values are not null and/or not negative
-     * - use if statements to test values
-     * - call a writeable database
-     * - call a long id for database.insert
-     * - check id with an if statement to verify insertion
-     * - notify listeners that data has changed for the item content URI
-     * - return ContentUri
-     * (?) - why does this method call insert()...which calls this method???
+     * Validates and inserts an item, adding its supplier if it is new
+     * return: the new item's URI, or null if a constraint rejected the row
      */
     private Uri insertItem(Uri uri, ContentValues values) {
-        // TODO NEW CODE
+        ItemValidator.validateInsert(values);
         SQLiteDatabase db = mDbHelper.getWritableDatabase();
-        long id = db.insert(InventoryEntry.TABLE_NAME, null, values);
+        long id;
+        // The supplier is found and the item inserted under one write lock,
+        // so a concurrent writer can't add the same supplier in between
+        db.beginTransactionNonExclusive();
+        try {
+            id = insertItemValues(db, toItemValues(db, values));
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
         if (id == -1) {
             Log.e(LOG_TAG, "Failed to insert row for " + uri);
             return null;
         }
-        getContext().getContentResolver().notifyChange(uri, null);
-        return ContentUris.withAppendedId(uri, id);
-
-        // TODO OLD CODE
-//        // Check that the name is not null
-//        String name = values.getAsString(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME);
-//        if (name == null) {
-//            return null;
-//        }
-//
-//        Integer price = values.getAsInteger(InventoryEntry.COLUMN_INVENTORY_PRICE);
-//        if (price == null || price < 0) {
-//            return null;
-//        }
-//
-//        Integer quantity = values.getAsInteger(InventoryEntry.COLUMN_INVENTORY_QUANTITY);
-//        if (quantity == null || quantity < 0) {
-//            return null;
-//        }
-//
-//        String supplierName = values.getAsString(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME);
-//        if (supplierName == null) {
-//            return null;
-//        }
-//
-//        Integer supplierPhone = values.getAsInteger(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_PHONE);
-//        if (supplierPhone == null || supplierPhone < 0) {
-//            return null;
-//        }
-//
-//        SQLiteDatabase database = mDbHelper.getWritableDatabase();
-//
-//        // insert item with the given values
-//        long id = database.insert(InventoryEntry.TABLE_NAME, null, values);
-//
-//        // if ID is -1, then insertion has failed
-//        if (id == -1) {
-//            Log.e(LOG_TAG, "Failed to insert for " + uri);
-//            return null;
-//        }
-//
-//        // Notify listeners that the data has changed for the content URI
-//        getContext().getContentResolver().notifyChange(uri, null);
-//
-//        // Once we know id, return the new uri
-//        return ContentUris.withAppendedId(uri, id);
+        // Notifying the new item reaches the lists, but no editor of another item
+        Uri itemUri = ContentUris.withAppendedId(InventoryEntry.CONTENT_URI, id);
+        notifyChange(itemUri);
+        return itemUri;
+    }
+
+    /**
+     * Inserts an item row, through the compiled insert when values has exactly its columns
+     * return: the new _id, or -1 if a constraint rejected the row
+     */
+    private long insertItemValues(SQLiteDatabase database, ContentValues values) {
+        if (values.size() != INSERT_ITEM_COLUMNS.length) {
+            return database.insert(InventoryEntry.TABLE_NAME, null, values);
+        }
+        for (String column : INSERT_ITEM_COLUMNS) {
+            if (!values.containsKey(column)) {
+                return database.insert(InventoryEntry.TABLE_NAME, null, values);
+            }
+        }
+
+        SQLiteStatement statement = mStatements.acquire(database, STATEMENT_INSERT_ITEM);
+        try {
+            for (int i = 0; i < INSERT_ITEM_COLUMNS.length; i++) {
+                DatabaseUtils.bindObjectToProgram(statement, i + 1, values.get(INSERT_ITEM_COLUMNS[i]));
+            }
+            return statement.executeInsert();
+        } catch (SQLiteConstraintException e) {
+            // Like SQLiteDatabase.insert(), which logs and returns -1
+            Log.e(LOG_TAG, "Failed to insert item", e);
+            return -1;
+        } finally {
+            mStatements.release(STATEMENT_INSERT_ITEM, statement);
+        }
+    }
+
+    private Uri insertSupplier(Uri uri, ContentValues values) {
+        ContentValues supplierValues = toSupplierValues(values);
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        long id = database.insert(SupplierEntry.TABLE_NAME, null, supplierValues);
+        if (id == -1) {
+            Log.e(LOG_TAG, "Failed to insert row for " + uri);
+            return null;
+        }
+        // No item refers to a new supplier yet
+        Uri supplierUri = ContentUris.withAppendedId(SupplierEntry.CONTENT_URI, id);
+        notifyChange(supplierUri);
+        return supplierUri;
+    }
+
+    /**
+     * Returns the values to write to the inventory table: values with the supplier name and
+     * phone replaced by the supplierId of that supplier, which is added if it doesn't exist
+     * The phone is normalized first, so the same number finds the same supplier
+     * Must be called inside a write transaction
+     */
+    private ContentValues toItemValues(SQLiteDatabase database, ContentValues values) {
+        if (!values.containsKey(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME)
+                && !values.containsKey(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_PHONE)) {
+            return values;
+        }
+        String supplierName = values.getAsString(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME);
+        String supplierPhone = InventoryFormat.normalizePhone(
+                values.getAsString(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_PHONE));
+        if (supplierName == null || supplierPhone == null) {
+            throw new IllegalArgumentException("Supplier requires a name and a phone number");
+        }
+
+        ContentValues itemValues = new ContentValues(values);
+        itemValues.remove(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME);
+        itemValues.remove(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_PHONE);
+        itemValues.put(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_ID,
+                findOrCreateSupplier(database, supplierName, supplierPhone));
+        return itemValues;
+    }
+
+    /**
+     * Returns the _id of the supplier with this name and phone, adding it if there is none
+     * One lookup in the (name, phone) unique index
+     */
+    private long findOrCreateSupplier(SQLiteDatabase database, String name, String phone) {
+        SQLiteStatement find = mStatements.acquire(database, STATEMENT_FIND_SUPPLIER);
+        try {
+            find.bindString(1, name);
+            find.bindString(2, phone);
+            return find.simpleQueryForLong();
+        } catch (SQLiteDoneException e) {
+            // No such supplier yet
+        } finally {
+            mStatements.release(STATEMENT_FIND_SUPPLIER, find);
+        }
+        ContentValues supplier = new ContentValues();
+        supplier.put(SupplierEntry.COLUMN_SUPPLIER_NAME, name);
+        supplier.put(SupplierEntry.COLUMN_SUPPLIER_PHONE, phone);
+        return database.insertOrThrow(SupplierEntry.TABLE_NAME, null, supplier);
+    }
+
+    /**
+     * Selection on the inventory table matching the items that selection matches on the
+     * view, so selections on the supplier columns keep working for updates and deletes
+     */
+    private static String toTableSelection(String selection) {
+        if (selection == null) {
+            return null;
+        }
+        return InventoryEntry._ID + " IN (SELECT " + InventoryEntry._ID + " FROM "
+                + InventoryEntry.VIEW_NAME + " WHERE " + selection + ")";
     }
 
     /**
@@ -170,60 +724,127 @@ public class InventoryProvider extends ContentProvider {
      */
     @Override
     public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
-        final int match = sUriMatcher.match(uri);
-        switch (match) {
-            case ITEMS:
-                return updateItem(uri, values, selection, selectionArgs);
-            case ITEM_ID:
-                // Extract out ID from URI so we know which row to update
-                selection = InventoryEntry._ID + "=?";
-                selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
-                return updateItem(uri, values, selection, selectionArgs);
-            default:
-                throw new IllegalArgumentException("Update is not supported for " + uri);
+        beginWrite();
+        try {
+            long start = mMetrics.start();
+            int rowsUpdated;
+            final int match = sUriMatcher.match(uri);
+            switch (match) {
+                case ITEMS:
+                    // Any item may have changed
+                    rowsUpdated = updateItem(InventoryEntry.CONTENT_URI, values,
+                            toTableSelection(selection), selectionArgs);
+                    break;
+                case ITEM_ID:
+                    // Extract out ID from URI so we know which row to update
+                    long id = ContentUris.parseId(uri);
+                    String expectedVersion =
+                            uri.getQueryParameter(InventoryContract.QUERY_PARAMETER_EXPECTED_VERSION);
+                    if (expectedVersion == null && values.size() == 1
+                            && values.containsKey(InventoryEntry.COLUMN_INVENTORY_QUANTITY)) {
+                        rowsUpdated = updateQuantity(id, values);
+                        break;
+                    }
+                    selection = InventoryEntry._ID + "=?";
+                    selectionArgs = new String[]{String.valueOf(id)};
+                    if (expectedVersion != null) {
+                        // Compare-and-set: only applies if nothing wrote the item since it was read
+                        selection += " AND " + InventoryEntry.COLUMN_INVENTORY_VERSION + "=?";
+                        selectionArgs = new String[]{String.valueOf(id),
+                                String.valueOf(Long.parseLong(expectedVersion))};
+                    }
+                    rowsUpdated = updateItem(ContentUris.withAppendedId(InventoryEntry.CONTENT_URI, id),
+                            values, selection, selectionArgs);
+                    break;
+                case SUPPLIER_ID:
+                    rowsUpdated = updateSupplier(ContentUris.parseId(uri), values);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Update is not supported for " + uri);
+            }
+            mMetrics.record(ProviderMetrics.OP_UPDATE, match - ITEMS, start, rowsUpdated);
+            return rowsUpdated;
+        } finally {
+            endWrite();
         }
     }
 
-    private int updateItem(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
-        // If item name key is present, check that the value is not null
-        if (values.containsKey(InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME)) {
-            String name = values.getAsString(InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME);
-            if (name == null) {
-                throw new IllegalArgumentException("Product requires a name");
-            }
+    /**
+     * Checks the supplier values present in values, like ItemValidator.validateUpdate()
+     * return: values to write, with the phone number normalized
+     */
+    private static ContentValues toSupplierValues(ContentValues values) {
+        if (values.containsKey(SupplierEntry.COLUMN_SUPPLIER_NAME)
+                && values.getAsString(SupplierEntry.COLUMN_SUPPLIER_NAME) == null) {
+            throw new IllegalArgumentException("Supplier requires a name");
         }
-
-        // If item price key is present, check that the value is not null / >0
-        if (values.containsKey(InventoryEntry.COLUMN_INVENTORY_PRICE)) {
-            Integer price = values.getAsInteger(InventoryEntry.COLUMN_INVENTORY_PRICE);
-            if (price != null && price < 0) {
-                throw new IllegalArgumentException("Produce requires a price");
-            }
+        if (!values.containsKey(SupplierEntry.COLUMN_SUPPLIER_PHONE)) {
+            return values;
         }
-
-        // If item quantity key is present, check that the value is not null / >0
-        if (values.containsKey(InventoryEntry.COLUMN_INVENTORY_QUANTITY)) {
-            Integer quantity = values.getAsInteger(InventoryEntry.COLUMN_INVENTORY_QUANTITY);
-            if (quantity != null && quantity < 0) {
-                throw new IllegalArgumentException("Product requires a quantity");
-            }
+        String phone = InventoryFormat.normalizePhone(
+                values.getAsString(SupplierEntry.COLUMN_SUPPLIER_PHONE));
+        if (phone == null) {
+            throw new IllegalArgumentException("Supplier requires a phone number");
         }
+        ContentValues supplierValues = new ContentValues(values);
+        supplierValues.put(SupplierEntry.COLUMN_SUPPLIER_PHONE, phone);
+        return supplierValues;
+    }
 
-        // If supplier name key is present, check that value is not null
-        if (values.containsKey(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME)) {
-            String supplierName = values.getAsString(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME);
-            if (supplierName == null) {
-                throw new IllegalArgumentException("Supplier requires a name");
-            }
+    /**
+     * Sets one item's quantity through the compiled UPDATE
+     */
+    private int updateQuantity(long id, ContentValues values) {
+        ItemValidator.validateUpdate(values);
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        SQLiteStatement statement = mStatements.acquire(database, STATEMENT_UPDATE_QUANTITY);
+        int rowsUpdated;
+        try {
+            DatabaseUtils.bindObjectToProgram(statement, 1,
+                    values.get(InventoryEntry.COLUMN_INVENTORY_QUANTITY));
+            statement.bindLong(2, id);
+            rowsUpdated = statement.executeUpdateDelete();
+        } finally {
+            mStatements.release(STATEMENT_UPDATE_QUANTITY, statement);
+        }
+        if (rowsUpdated != 0) {
+            notifyChange(ContentUris.withAppendedId(InventoryEntry.CONTENT_URI, id));
         }
+        return rowsUpdated;
+    }
 
-        // If supplier phone key is present, check that value is not null
-        if (values.containsKey(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_PHONE)) {
-            Integer supplierPhone = values.getAsInteger(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_PHONE);
-            if (supplierPhone != null && supplierPhone < 0) {
-                throw new IllegalArgumentException("Supplier requires a phone number");
-            }
+    /**
+     * Renames a supplier or changes its phone, for all of its items at once
+     * Items read the supplier through the view, so every item may have changed
+     */
+    private int updateSupplier(long id, ContentValues values) {
+        ContentValues supplierValues = toSupplierValues(values);
+        if (supplierValues.size() == 0) {
+            return 0;
+        }
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        int rowsUpdated;
+        try {
+            rowsUpdated = database.update(SupplierEntry.TABLE_NAME, supplierValues,
+                    SupplierEntry._ID + "=?", new String[]{String.valueOf(id)});
+        } catch (SQLiteConstraintException e) {
+            // Another supplier already has this name and phone
+            Log.e(LOG_TAG, "Failed to update supplier " + id, e);
+            return 0;
+        }
+        if (rowsUpdated != 0) {
+            notifyChange(InventoryEntry.CONTENT_URI);
         }
+        return rowsUpdated;
+    }
+
+    /**
+     * Validates and applies an update, then notifies changedUri - the single item's URI,
+     * or the whole inventory when the selection can match any item
+     */
+    private int updateItem(Uri changedUri, ContentValues values, String selection,
+                           String[] selectionArgs) {
+        ItemValidator.validateUpdate(values);
 
         // If no values to update, do nothing
         if (values.size() == 0) {
@@ -234,49 +855,464 @@ public class InventoryProvider extends ContentProvider {
         SQLiteDatabase database = mDbHelper.getWritableDatabase();
 
         // Perform update on database and get number of rows affected
-        int rowsUpdated = database.update(InventoryEntry.TABLE_NAME, values, selection, selectionArgs);
+        int rowsUpdated;
+        database.beginTransactionNonExclusive();
+        try {
+            rowsUpdated = updateItemValues(database, toItemValues(database, values),
+                    selection, selectionArgs);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
 
         // If 1 or more rows were affected, then notify all listeners that data at given URI changed
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(changedUri);
         }
 
         // Return number of rows updated
         return rowsUpdated;
     }
 
+    /**
+     * Writes the columns in values to the items selection matches, and increments their version
+     * Like SQLiteDatabase.update(), which can't express the increment. Only the columns given
+     * are written, so an editor sending just the fields it changed keeps concurrent changes
+     * to the others
+     */
+    private static int updateItemValues(SQLiteDatabase database, ContentValues values,
+                                        String selection, String[] selectionArgs) {
+        StringBuilder sql = new StringBuilder("UPDATE " + InventoryEntry.TABLE_NAME + " SET ");
+        Object[] bindArgs = new Object[values.size()
+                + (selectionArgs == null ? 0 : selectionArgs.length)];
+        int i = 0;
+        for (String column : values.keySet()) {
+            sql.append(column).append(" = ?, ");
+            bindArgs[i++] = values.get(column);
+        }
+        sql.append(SQL_INCREMENT_VERSION).append(" WHERE ").append(SQL_LIVE_ITEM);
+        if (!TextUtils.isEmpty(selection)) {
+            sql.append(" AND (").append(selection).append(')');
+        }
+        if (selectionArgs != null) {
+            for (String arg : selectionArgs) {
+                bindArgs[i++] = arg;
+            }
+        }
+
+        SQLiteStatement statement = database.compileStatement(sql.toString());
+        try {
+            for (int j = 0; j < bindArgs.length; j++) {
+                DatabaseUtils.bindObjectToProgram(statement, j + 1, bindArgs[j]);
+            }
+            return statement.executeUpdateDelete();
+        } finally {
+            statement.close();
+        }
+    }
+
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
-        // Get writeable database
-        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        beginWrite();
+        try {
+            long start = mMetrics.start();
 
-        // Track number of rows that were deleted
-        int rowsDeleted;
+            // Get writeable database
+            SQLiteDatabase database = mDbHelper.getWritableDatabase();
 
-        // switch to direct action
-        final int match = sUriMatcher.match(uri);
-        switch (match) {
-            case ITEMS:
-                // Delete all rows that match the selection and selection args
-                rowsDeleted = database.delete(InventoryEntry.TABLE_NAME, selection, selectionArgs);
-                break;
-            case ITEM_ID:
-                // Delete a single row by the given ID
-                selection = InventoryEntry._ID + "=?";
-                selectionArgs = new String[] {String.valueOf(ContentUris.parseId(uri))};
-                rowsDeleted = database.delete(InventoryEntry.TABLE_NAME, selection, selectionArgs);
-                break;
-            default:
-                throw new IllegalArgumentException("Deletion is not supported for " + uri);
+            // Track number of rows that were deleted, and the URI whose data changed
+            int rowsDeleted;
+            Uri changedUri;
+
+            // switch to direct action
+            final int match = sUriMatcher.match(uri);
+            switch (match) {
+                case ITEMS:
+                    // Make tombstones of all rows that match the selection and selection args,
+                    // the purger removes them later
+                    ContentValues tombstone = new ContentValues();
+                    tombstone.put(InventoryEntry.COLUMN_INVENTORY_DELETED, 1);
+                    rowsDeleted = updateItemValues(database, tombstone, toTableSelection(selection),
+                            selectionArgs);
+                    changedUri = InventoryEntry.CONTENT_URI;
+                    break;
+                case ITEM_ID:
+                    // Delete a single row by the given ID, through the compiled tombstone UPDATE
+                    long id = ContentUris.parseId(uri);
+                    SQLiteStatement deleteItem = mStatements.acquire(database, STATEMENT_DELETE_ITEM);
+                    try {
+                        deleteItem.bindLong(1, id);
+                        rowsDeleted = deleteItem.executeUpdateDelete();
+                    } finally {
+                        mStatements.release(STATEMENT_DELETE_ITEM, deleteItem);
+                    }
+                    changedUri = ContentUris.withAppendedId(InventoryEntry.CONTENT_URI, id);
+                    break;
+                case SUPPLIER_ID:
+                    long supplierId = ContentUris.parseId(uri);
+                    String[] supplierArgs = {String.valueOf(supplierId)};
+                    database.beginTransactionNonExclusive();
+                    try {
+                        // Deleted items still refer to the supplier until they are purged
+                        database.delete(InventoryEntry.TABLE_NAME,
+                                InventoryEntry.COLUMN_INVENTORY_SUPPLIER_ID + "=? AND "
+                                        + InventoryEntry.COLUMN_INVENTORY_DELETED + " = 1", supplierArgs);
+                        rowsDeleted = database.delete(SupplierEntry.TABLE_NAME, SupplierEntry._ID + "=?",
+                                supplierArgs);
+                        database.setTransactionSuccessful();
+                    } catch (SQLiteConstraintException e) {
+                        // Items still refer to this supplier
+                        Log.e(LOG_TAG, "Failed to delete supplier " + supplierId, e);
+                        rowsDeleted = 0;
+                    } finally {
+                        database.endTransaction();
+                    }
+                    changedUri = ContentUris.withAppendedId(SupplierEntry.CONTENT_URI, supplierId);
+                    break;
+                case REORDER:
+                    // Clearing handled flags changes no item, so there is nothing to notify
+                    rowsDeleted = database.delete(ReorderEntry.TABLE_NAME, selection, selectionArgs);
+                    changedUri = null;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Deletion is not supported for " + uri);
+            }
+
+            // If rows were affected, notify listeners
+            if (rowsDeleted != 0 && changedUri != null) {
+                notifyChange(changedUri);
+            }
+            if (rowsDeleted != 0 && (match == ITEMS || match == ITEM_ID)) {
+                mPurger.schedule();
+            }
+            mMetrics.record(ProviderMetrics.OP_DELETE, match - ITEMS, start, rowsDeleted);
+
+            // Return number of rows deleted
+            return rowsDeleted;
+        } finally {
+            endWrite();
         }
+    }
+
+    /**
+     * Inserts all rows inside one transaction
+     * - reuses the compiled INSERT from the statement cache, rebinding it for every row
+     * - each supplier is looked up once per batch, however many of its items are in it
+     * - rows rejected by ItemValidator or a constraint are logged and skipped, the rest
+     *   are kept
+     * - listeners are notified once, after the batch has been committed, through the URI
+     *   of the last new item - that reaches the lists without reloading any open editor
+     * return: number of rows inserted
+     */
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        beginWrite();
+        try {
+            long start = mMetrics.start();
+            final int match = sUriMatcher.match(uri);
+            if (match != ITEMS) {
+                throw new IllegalArgumentException("Insertion is not supported for " + uri);
+            }
 
-        // If rows were affected, notify listeners
-        if (rowsDeleted !=0){
-            getContext().getContentResolver().notifyChange(uri, null);
+            SQLiteDatabase database = mDbHelper.getWritableDatabase();
+            SQLiteStatement statement = mStatements.acquire(database, STATEMENT_INSERT_ITEM);
+            int rowsInserted = 0;
+            long lastId = -1;
+            HashMap<String, Long> supplierIds = new HashMap<>();
+
+            database.beginTransactionNonExclusive();
+            try {
+                for (ContentValues row : values) {
+                    try {
+                        ItemValidator.validateInsert(row);
+                    } catch (IllegalArgumentException e) {
+                        Log.e(LOG_TAG, "Failed to insert row for " + uri, e);
+                        continue;
+                    }
+                    String supplierName = row.getAsString(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME);
+                    Long supplierId;
+                    if (supplierName == null) {
+                        // Validated with a supplierId instead of the name and phone
+                        supplierId = row.getAsLong(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_ID);
+                    } else {
+                        String supplierPhone = InventoryFormat.normalizePhone(
+                                row.getAsString(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_PHONE));
+                        String supplierKey = supplierName + '\u0000' + supplierPhone;
+                        supplierId = supplierIds.get(supplierKey);
+                        if (supplierId == null) {
+                            supplierId = findOrCreateSupplier(database, supplierName, supplierPhone);
+                            supplierIds.put(supplierKey, supplierId);
+                        }
+                    }
+
+                    DatabaseUtils.bindObjectToProgram(statement, 1,
+                            row.get(InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME));
+                    DatabaseUtils.bindObjectToProgram(statement, 2,
+                            row.get(InventoryEntry.COLUMN_INVENTORY_PRICE));
+                    DatabaseUtils.bindObjectToProgram(statement, 3,
+                            row.get(InventoryEntry.COLUMN_INVENTORY_QUANTITY));
+                    statement.bindLong(4, supplierId);
+                    try {
+                        lastId = statement.executeInsert();
+                        rowsInserted++;
+                    } catch (SQLiteConstraintException e) {
+                        Log.e(LOG_TAG, "Failed to insert row for " + uri, e);
+                    }
+                }
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+                mStatements.release(STATEMENT_INSERT_ITEM, statement);
+            }
+
+            // Notify listeners once for the whole batch
+            if (rowsInserted != 0) {
+                notifyChange(ContentUris.withAppendedId(InventoryEntry.CONTENT_URI, lastId));
+            }
+            mMetrics.record(ProviderMetrics.OP_BULK_INSERT, match - ITEMS, start, rowsInserted);
+            return rowsInserted;
+        } finally {
+            endWrite();
         }
+    }
+
+    /**
+     * Applies every operation inside one transaction, so either all of them are committed
+     * or none are. Notifications from the individual operations are held back until the
+     * transaction succeeds, and then coalesced with any others that are waiting
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        beginWrite();
+        try {
+            SQLiteDatabase database = mDbHelper.getWritableDatabase();
+            ContentProviderResult[] results;
+            ArrayList<Uri> changes = new ArrayList<>();
 
-        // Return number of rows deleted
-        return rowsDeleted;
+            mBatchChanges.set(changes);
+            database.beginTransactionNonExclusive();
+            try {
+                results = super.applyBatch(operations);
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+                mBatchChanges.set(null);
+            }
+
+            for (Uri uri : changes) {
+                invalidateCachedItems(uri);
+            }
+            mChangeNotifier.notifyChange(changes);
+            return results;
+        } finally {
+            endWrite();
+        }
+    }
+
+    /**
+     * Handles the provider methods declared in InventoryContract
+     * - METHOD_SELL sells from a single item
+     * - METHOD_SELL_BASKET sells from several items at once
+     * - METHOD_CHECKPOINT checkpoints the write-ahead log
+     * - METHOD_BACKUP, METHOD_RESTORE and METHOD_GET_BACKUP_PROGRESS back up and restore
+     *   the database, on the calling thread
+     * - METHOD_PURGE removes deleted items, on the calling thread
+     * - METHOD_GET_METRICS, METHOD_SET_METRICS_ENABLED and METHOD_RESET_METRICS
+     *   read and control the metrics
+     */
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (InventoryContract.METHOD_SELL.equals(method)) {
+            long[] ids = {Long.parseLong(arg)};
+            int[] counts = {extras == null ? 1 : extras.getInt(InventoryContract.EXTRA_COUNT, 1)};
+
+            Bundle result = new Bundle();
+            result.putInt(InventoryContract.EXTRA_QUANTITY, sellItems(ids, counts)[0]);
+            return result;
+        } else if (InventoryContract.METHOD_SELL_BASKET.equals(method)) {
+            if (extras == null) {
+                throw new IllegalArgumentException("Basket requires item ids and counts");
+            }
+            long[] ids = extras.getLongArray(InventoryContract.EXTRA_ITEM_IDS);
+            int[] counts = extras.getIntArray(InventoryContract.EXTRA_COUNTS);
+
+            Bundle result = new Bundle();
+            result.putIntArray(InventoryContract.EXTRA_QUANTITIES, sellItems(ids, counts));
+            return result;
+        } else if (InventoryContract.METHOD_CHECKPOINT.equals(method)) {
+            String mode = arg == null ? InventoryDbHelper.CHECKPOINT_PASSIVE : arg;
+
+            Bundle result = new Bundle();
+            result.putBoolean(InventoryContract.EXTRA_CHECKPOINT_COMPLETE, mDbHelper.checkpoint(mode));
+            return result;
+        } else if (InventoryContract.METHOD_BACKUP.equals(method)) {
+            Bundle result = new Bundle();
+            result.putBoolean(InventoryContract.EXTRA_BACKUP_COMPLETE, mBackup.backup(backupFile(arg)));
+            return result;
+        } else if (InventoryContract.METHOD_RESTORE.equals(method)) {
+            boolean restored = mBackup.restore(backupFile(arg));
+            if (restored) {
+                // Triggers were replaced, and every row may have changed
+                mStatements.invalidate();
+                mItemCache.clear();
+                notifyChange(InventoryContract.BASE_CONTENT_URI);
+                // The backup's tombstones came with it
+                mPurger.schedule();
+            }
+
+            Bundle result = new Bundle();
+            result.putBoolean(InventoryContract.EXTRA_RESTORE_COMPLETE, restored);
+            return result;
+        } else if (InventoryContract.METHOD_GET_BACKUP_PROGRESS.equals(method)) {
+            Bundle result = new Bundle();
+            result.putString(InventoryContract.EXTRA_BACKUP_STEP, mBackup.getStep());
+            result.putLong(InventoryContract.EXTRA_BACKUP_DONE, mBackup.getDone());
+            result.putLong(InventoryContract.EXTRA_BACKUP_TOTAL, mBackup.getTotal());
+            return result;
+        } else if (InventoryContract.METHOD_PURGE.equals(method)) {
+            Bundle result = new Bundle();
+            beginWrite();
+            try {
+                result.putLong(InventoryContract.EXTRA_PURGED_ROWS, mPurger.purge());
+            } finally {
+                endWrite();
+            }
+            return result;
+        } else if (InventoryContract.METHOD_GET_METRICS.equals(method)) {
+            return mMetrics.toBundle();
+        } else if (InventoryContract.METHOD_SET_METRICS_ENABLED.equals(method)) {
+            mMetrics.setEnabled(Boolean.parseBoolean(arg));
+            return null;
+        } else if (InventoryContract.METHOD_RESET_METRICS.equals(method)) {
+            mMetrics.reset();
+            return null;
+        }
+        return super.call(method, arg, extras);
+    }
+
+    /**
+     * Resolves the backup file name a caller passed under the app's files directory
+     * A path is refused, so no caller can make the provider read or replace other files
+     *
+     * @throws IllegalArgumentException if name is missing or isn't a plain file name
+     */
+    private File backupFile(String name) {
+        if (TextUtils.isEmpty(name) || name.indexOf(File.separatorChar) != -1
+                || ".".equals(name) || "..".equals(name)) {
+            throw new IllegalArgumentException("Backup needs a file name, not " + name);
+        }
+        return new File(getContext().getFilesDir(), name);
+    }
+
+    /**
+     * Sells counts[i] units of item ids[i] for every entry, inside one transaction
+     * - each decrement is a single conditional UPDATE, so it never reads a stale quantity
+     * - if any item does not have enough stock the whole basket is rolled back
+     * return: quantity left for each item, -1 where there was not enough stock
+     */
+    private int[] sellItems(long[] ids, int[] counts) {
+        beginWrite();
+        try {
+            if (ids == null || counts == null || ids.length != counts.length) {
+                throw new IllegalArgumentException("Sale requires a count for every item");
+            }
+
+            SQLiteDatabase database = mDbHelper.getWritableDatabase();
+            SQLiteStatement sell = mStatements.acquire(database, STATEMENT_SELL_ITEM);
+            SQLiteStatement queryQuantity = mStatements.acquire(database, STATEMENT_QUERY_QUANTITY);
+            int[] quantities = new int[ids.length];
+            boolean soldAll = true;
+
+            database.beginTransactionNonExclusive();
+            try {
+                for (int i = 0; i < ids.length; i++) {
+                    if (counts[i] <= 0) {
+                        throw new IllegalArgumentException("Sale requires a positive count");
+                    }
+                    sell.bindLong(1, counts[i]);
+                    sell.bindLong(2, ids[i]);
+                    sell.bindLong(3, counts[i]);
+                    if (sell.executeUpdateDelete() == 0) {
+                        // Not enough stock (or no such item)
+                        quantities[i] = -1;
+                        soldAll = false;
+                        continue;
+                    }
+                    queryQuantity.bindLong(1, ids[i]);
+                    quantities[i] = (int) queryQuantity.simpleQueryForLong();
+                }
+                if (soldAll) {
+                    database.setTransactionSuccessful();
+                }
+            } finally {
+                database.endTransaction();
+                mStatements.release(STATEMENT_SELL_ITEM, sell);
+                mStatements.release(STATEMENT_QUERY_QUANTITY, queryQuantity);
+            }
+
+            if (soldAll) {
+                for (long id : ids) {
+                    notifyChange(ContentUris.withAppendedId(InventoryEntry.CONTENT_URI, id));
+                }
+            }
+            return quantities;
+        } finally {
+            endWrite();
+        }
+    }
+
+    /**
+     * Every write starts here, call endWrite() after it
+     * - notes a custom slow call, so a StrictMode thread policy with detectCustomSlowCalls()
+     *   catches a write on the main thread. The UI writes through InventoryWriteQueue
+     * - then passes the backup's write gate, see InventoryBackup.beginWrite()
+     */
+    private void beginWrite() {
+        StrictMode.noteSlowCall(LOG_TAG + " write");
+        mBackup.beginWrite();
+    }
+
+    private void endWrite() {
+        mBackup.endWrite();
+    }
+
+    /**
+     * Notify listeners that the data at the given URI has changed, and drop the changed
+     * items from the item cache
+     * Inside applyBatch() both are held back until the batch commits
+     */
+    private void notifyChange(Uri uri) {
+        mMetrics.recordNotificationRequested();
+        ArrayList<Uri> batchChanges = mBatchChanges.get();
+        if (batchChanges != null) {
+            batchChanges.add(uri);
+            return;
+        }
+        invalidateCachedItems(uri);
+        mChangeNotifier.notifyChange(uri);
+    }
+
+    /**
+     * Drops the item of an item URI from the item cache, or every item for CONTENT_URI
+     * Other URIs (a new supplier) don't change any item
+     * Called once the change is committed, so a reader can't cache the old row again
+     */
+    private void invalidateCachedItems(Uri uri) {
+        int match = sUriMatcher.match(uri);
+        if (match == ITEM_ID) {
+            mItemCache.remove(ContentUris.parseId(uri));
+        } else if (match == ITEMS) {
+            mItemCache.clear();
+        }
+    }
+
+    /**
+     * Prints the metrics, for adb shell dumpsys activity provider
+     */
+    @Override
+    public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        mMetrics.dump(writer);
     }
 
     /** Returns the MIME type of data for the content URI */
@@ -285,9 +1321,23 @@ public class InventoryProvider extends ContentProvider {
         final int match = sUriMatcher.match(uri);
         switch (match){
             case ITEMS:
+            case SEARCH:
                 return InventoryEntry.CONTENT_LIST_TYPE;
             case ITEM_ID:
                 return InventoryEntry.CONTENT_ITEM_TYPE;
+            case SALES:
+            case ITEM_SALES:
+                return SalesEntry.CONTENT_LIST_TYPE;
+            case ITEM_RECONCILE:
+                return SalesEntry.CONTENT_RECONCILE_TYPE;
+            case SUMMARY:
+                return SummaryEntry.CONTENT_ITEM_TYPE;
+            case SUPPLIERS:
+                return SupplierEntry.CONTENT_LIST_TYPE;
+            case SUPPLIER_ID:
+                return SupplierEntry.CONTENT_ITEM_TYPE;
+            case REORDER:
+                return ReorderEntry.CONTENT_LIST_TYPE;
             default:
                 throw new IllegalStateException("Unknown URI " + uri + " with match " + match);
         }
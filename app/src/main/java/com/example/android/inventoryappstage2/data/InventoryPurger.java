@@ -0,0 +1,188 @@
+package com.example.android.inventoryappstage2.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+
+import com.example.android.inventoryappstage2.data.InventoryContract.InventoryEntry;
+
+/**
+ * Removes deleted items from the database after the provider made them tombstones
+ * - PURGE_CHUNK_ROWS tombstones per transaction, found through the partial index on
+ *   InventoryEntry.COLUMN_INVENTORY_DELETED, so no write holds the database for long and
+ *   readers and writers get in between chunks
+ * - then gives the freed pages back to the file system, VACUUM_CHUNK_PAGES per
+ *   incremental_vacuum. A file made before incremental vacuum was turned on at creation,
+ *   see InventoryDbHelper.onConfigure(), is converted with one VACUUM first
+ * - schedule() runs it on one low priority background thread for the whole process, and
+ *   purge() runs it on the calling thread. Both can run at once, every chunk is its own
+ *   transaction
+ */
+final class InventoryPurger {
+
+    private static final String LOG_TAG = InventoryPurger.class.getSimpleName();
+
+    /** Tombstones removed per transaction */
+    static final int PURGE_CHUNK_ROWS = 1000;
+
+    /** Free pages given back per transaction, 1 MB with the default page size */
+    static final int VACUUM_CHUNK_PAGES = 256;
+
+    /** Wait before a background purge, so the list reloads after a delete before it starts */
+    private static final long START_DELAY_MS = 5000;
+
+    /** Pause between background chunks, so the purge never takes the writer for long */
+    private static final long CHUNK_PAUSE_MS = 10;
+
+    private static final String SQL_PURGE_CHUNK = "DELETE FROM " + InventoryEntry.TABLE_NAME
+            + " WHERE " + InventoryEntry._ID + " IN (SELECT " + InventoryEntry._ID
+            + " FROM " + InventoryEntry.TABLE_NAME
+            + " WHERE " + InventoryEntry.COLUMN_INVENTORY_DELETED + " = 1"
+            + " LIMIT " + PURGE_CHUNK_ROWS + ")";
+
+    private static Handler sHandler;
+
+    private final InventoryDbHelper mDbHelper;
+
+    /** Whether a background purge is posted and not yet finished, guarded by "this" */
+    private boolean mScheduled;
+
+    /** Whether the file is known to free pages on incremental_vacuum */
+    private volatile boolean mIncremental;
+
+    private final Runnable mPurgeChunk = new Runnable() {
+        @Override
+        public void run() {
+            boolean more;
+            try {
+                more = purgeChunk() || vacuumChunk();
+            } catch (SQLiteException e) {
+                Log.e(LOG_TAG, "Purge failed, retried on the next delete", e);
+                more = false;
+            }
+            synchronized (InventoryPurger.this) {
+                mScheduled = more;
+            }
+            if (more) {
+                getHandler().postDelayed(this, CHUNK_PAUSE_MS);
+            }
+        }
+    };
+
+    InventoryPurger(InventoryDbHelper dbHelper) {
+        mDbHelper = dbHelper;
+    }
+
+    private static synchronized Handler getHandler() {
+        if (sHandler == null) {
+            HandlerThread thread = new HandlerThread(LOG_TAG, Process.THREAD_PRIORITY_BACKGROUND);
+            thread.start();
+            sHandler = new Handler(thread.getLooper());
+        }
+        return sHandler;
+    }
+
+    /**
+     * Starts a background purge after START_DELAY_MS, unless one is pending already
+     */
+    synchronized void schedule() {
+        if (!mScheduled) {
+            mScheduled = true;
+            getHandler().postDelayed(mPurgeChunk, START_DELAY_MS);
+        }
+    }
+
+    /**
+     * Removes every tombstone and gives the space back, on the calling thread
+     * return: number of items removed
+     */
+    long purge() {
+        long purged = 0;
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        SQLiteStatement statement = database.compileStatement(SQL_PURGE_CHUNK);
+        try {
+            int rows;
+            do {
+                rows = purgeChunk(database, statement);
+                purged += rows;
+            } while (rows == PURGE_CHUNK_ROWS);
+        } finally {
+            statement.close();
+        }
+        while (vacuumChunk()) {
+            // Until no free page is left
+        }
+        return purged;
+    }
+
+    /**
+     * Removes up to PURGE_CHUNK_ROWS tombstones
+     * return: whether there may be more
+     */
+    private boolean purgeChunk() {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        SQLiteStatement statement = database.compileStatement(SQL_PURGE_CHUNK);
+        try {
+            return purgeChunk(database, statement) == PURGE_CHUNK_ROWS;
+        } finally {
+            statement.close();
+        }
+    }
+
+    private static int purgeChunk(SQLiteDatabase database, SQLiteStatement statement) {
+        database.beginTransactionNonExclusive();
+        try {
+            int rows = statement.executeUpdateDelete();
+            database.setTransactionSuccessful();
+            return rows;
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    /**
+     * Gives up to VACUUM_CHUNK_PAGES free pages back
+     * return: whether free pages are left
+     */
+    private boolean vacuumChunk() {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        if (!mIncremental) {
+            convertToIncremental(database);
+        }
+        // Inside a transaction, so it runs on the primary connection, the one that writes
+        database.beginTransactionNonExclusive();
+        try {
+            // Each step frees one page, reading the result steps through all of them
+            Cursor cursor = database.rawQuery("PRAGMA incremental_vacuum(" + VACUUM_CHUNK_PAGES + ")",
+                    null);
+            try {
+                cursor.getCount();
+            } finally {
+                cursor.close();
+            }
+            long freePages = InventoryDbHelper.runPragma(database, "PRAGMA freelist_count");
+            database.setTransactionSuccessful();
+            return freePages > 0;
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    /**
+     * Turns on incremental vacuum if the file predates it, without it incremental_vacuum
+     * frees nothing. Takes a VACUUM, outside any transaction, once per file
+     */
+    private synchronized void convertToIncremental(SQLiteDatabase database) {
+        if (InventoryDbHelper.runPragma(database, "PRAGMA auto_vacuum")
+                != InventoryDbHelper.AUTO_VACUUM_INCREMENTAL) {
+            database.execSQL("PRAGMA auto_vacuum = " + InventoryDbHelper.AUTO_VACUUM_INCREMENTAL);
+            database.execSQL("VACUUM");
+        }
+        mIncremental = true;
+    }
+}
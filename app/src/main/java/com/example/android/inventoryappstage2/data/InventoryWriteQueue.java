@@ -0,0 +1,300 @@
+package com.example.android.inventoryappstage2.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import com.example.android.inventoryappstage2.data.InventoryContract.InventoryEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Single-writer background queue for every provider mutation made by the UI
+ * - writes run in the order they were started, on one background thread, never on the main looper
+ * - inserts, updates and deletes that are waiting in the queue together are coalesced into
+ *   one applyBatch() call, which InventoryProvider runs as a single transaction
+ * - results are posted back to the main thread through a WriteCallback, writes refused
+ *   during a restore separately from writes that failed
+ * - the queue outlives any activity, so an activity that is its own WriteCallback must call
+ *   removeCallbacks() in onDestroy(). Its writes still complete, their results are dropped.
+ *   Outcomes to show after the activity is gone need a callback that holds no activity
+ */
+public class InventoryWriteQueue {
+
+    public static final String LOG_TAG = InventoryWriteQueue.class.getSimpleName();
+
+    /**
+     * Receives the outcome of a write on the main thread
+     */
+    public interface WriteCallback {
+        /**
+         * @param token  the token passed in when the write was started
+         * @param result the Uri of an inserted row, the Integer number of rows updated or deleted,
+         *               or the Bundle returned by a provider call(). Null if the write failed
+         */
+        void onWriteComplete(int token, Object result);
+
+        /**
+         * The write was refused, and changed nothing, because a restore was replacing the
+         * inventory. It can be made again once the restore is done
+         *
+         * @param token the token passed in when the write was started
+         */
+        void onWriteRefused(int token);
+    }
+
+    private static InventoryWriteQueue sInstance;
+
+    private final ContentResolver mResolver;
+    private final Handler mWorkerHandler;
+    private final Handler mMainHandler;
+
+    /**
+     * Writes waiting for the worker thread, guarded by "this"
+     */
+    private ArrayList<PendingWrite> mPending = new ArrayList<>();
+
+    /**
+     * Writes with a callback whose result isn't delivered yet, guarded by "this"
+     */
+    private final ArrayList<PendingWrite> mUndelivered = new ArrayList<>();
+
+    /**
+     * Returns the process wide queue, so writes started by an activity that is
+     * finishing still complete in order
+     */
+    public static synchronized InventoryWriteQueue getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new InventoryWriteQueue(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Use getInstance(), a queue of its own is only for tests
+     */
+    InventoryWriteQueue(Context context) {
+        mResolver = context.getContentResolver();
+
+        HandlerThread thread = new HandlerThread(LOG_TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mWorkerHandler = new Handler(thread.getLooper());
+        mMainHandler = new Handler(Looper.getMainLooper());
+    }
+
+    /**
+     * Looper of the background thread every write runs on
+     */
+    Looper getWorkerLooper() {
+        return mWorkerHandler.getLooper();
+    }
+
+    public void startInsert(int token, WriteCallback callback, Uri uri, ContentValues values) {
+        enqueue(new PendingWrite(token, callback,
+                ContentProviderOperation.newInsert(uri).withValues(values).build()));
+    }
+
+    public void startUpdate(int token, WriteCallback callback, Uri uri, ContentValues values,
+                            String selection, String[] selectionArgs) {
+        enqueue(new PendingWrite(token, callback,
+                ContentProviderOperation.newUpdate(uri)
+                        .withValues(values)
+                        .withSelection(selection, selectionArgs)
+                        .build()));
+    }
+
+    public void startDelete(int token, WriteCallback callback, Uri uri,
+                            String selection, String[] selectionArgs) {
+        enqueue(new PendingWrite(token, callback,
+                ContentProviderOperation.newDelete(uri)
+                        .withSelection(selection, selectionArgs)
+                        .build()));
+    }
+
+    /**
+     * Queue one of the provider methods declared in InventoryContract, e.g. METHOD_SELL
+     */
+    public void startCall(int token, WriteCallback callback, String method, String arg,
+                          Bundle extras) {
+        enqueue(new PendingWrite(token, callback, method, arg, extras));
+    }
+
+    /**
+     * Drops the results still to come for callback, call from the main thread
+     * The writes themselves still run. Results already posted are dropped too
+     */
+    public synchronized void removeCallbacks(WriteCallback callback) {
+        for (PendingWrite write : mUndelivered) {
+            if (write.callback == callback) {
+                write.callback = null;
+            }
+        }
+    }
+
+    private void enqueue(PendingWrite write) {
+        synchronized (this) {
+            mPending.add(write);
+            if (write.callback != null) {
+                mUndelivered.add(write);
+            }
+        }
+        mWorkerHandler.post(mDrain);
+    }
+
+    /**
+     * Runs on the worker thread and applies everything that is waiting
+     */
+    private final Runnable mDrain = new Runnable() {
+        @Override
+        public void run() {
+            ArrayList<PendingWrite> writes;
+            synchronized (InventoryWriteQueue.this) {
+                if (mPending.isEmpty()) {
+                    return;
+                }
+                writes = mPending;
+                mPending = new ArrayList<>();
+            }
+
+            // Keep the original order: consecutive operations go out as one batch,
+            // a call() in between ends the batch
+            int start = 0;
+            while (start < writes.size()) {
+                if (writes.get(start).operation == null) {
+                    applyCall(writes.get(start));
+                    start++;
+                    continue;
+                }
+                int end = start;
+                while (end < writes.size() && writes.get(end).operation != null) {
+                    end++;
+                }
+                applyBatch(writes.subList(start, end));
+                start = end;
+            }
+        }
+    };
+
+    private void applyBatch(List<PendingWrite> writes) {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>(writes.size());
+        for (PendingWrite write : writes) {
+            operations.add(write.operation);
+        }
+
+        try {
+            ContentProviderResult[] results =
+                    mResolver.applyBatch(InventoryContract.CONTENT_AUTHORITY, operations);
+            for (int i = 0; i < writes.size(); i++) {
+                ContentProviderResult result = results[i];
+                deliver(writes.get(i), result.uri != null ? result.uri : result.count);
+            }
+        } catch (Exception e) {
+            if (e instanceof InventoryBackup.WritesRefusedException) {
+                // Refused before the batch wrote anything, and so would each write be
+                for (PendingWrite write : writes) {
+                    deliverRefused(write);
+                }
+                return;
+            }
+            if (writes.size() == 1) {
+                Log.e(LOG_TAG, "Failed to apply write to " + writes.get(0).operation.getUri(), e);
+                deliver(writes.get(0), null);
+                return;
+            }
+            // The batch was rolled back as a whole, retry each write on its own
+            // so one bad write doesn't fail the others
+            for (PendingWrite write : writes) {
+                applyBatch(Collections.singletonList(write));
+            }
+        }
+    }
+
+    private void applyCall(PendingWrite write) {
+        Bundle result;
+        try {
+            result = mResolver.call(InventoryEntry.CONTENT_URI, write.method, write.arg,
+                    write.extras);
+        } catch (InventoryBackup.WritesRefusedException e) {
+            deliverRefused(write);
+            return;
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "Failed to call " + write.method, e);
+            result = null;
+        }
+        deliver(write, result);
+    }
+
+    private void deliver(final PendingWrite write, final Object result) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                WriteCallback callback = takeCallback(write);
+                if (callback != null) {
+                    callback.onWriteComplete(write.token, result);
+                }
+            }
+        });
+    }
+
+    private void deliverRefused(final PendingWrite write) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                WriteCallback callback = takeCallback(write);
+                if (callback != null) {
+                    callback.onWriteRefused(write.token);
+                }
+            }
+        });
+    }
+
+    /**
+     * The write's callback as its result is delivered, null if it had none or it was removed
+     */
+    private synchronized WriteCallback takeCallback(PendingWrite write) {
+        mUndelivered.remove(write);
+        return write.callback;
+    }
+
+    /**
+     * A write waiting in the queue: either a ContentProviderOperation or a provider call()
+     */
+    private static final class PendingWrite {
+        final int token;
+        /** Guarded by the queue, null once removeCallbacks() dropped it */
+        WriteCallback callback;
+        final ContentProviderOperation operation;
+        final String method;
+        final String arg;
+        final Bundle extras;
+
+        PendingWrite(int token, WriteCallback callback, ContentProviderOperation operation) {
+            this.token = token;
+            this.callback = callback;
+            this.operation = operation;
+            this.method = null;
+            this.arg = null;
+            this.extras = null;
+        }
+
+        PendingWrite(int token, WriteCallback callback, String method, String arg, Bundle extras) {
+            this.token = token;
+            this.callback = callback;
+            this.operation = null;
+            this.method = method;
+            this.arg = arg;
+            this.extras = extras;
+        }
+    }
+}
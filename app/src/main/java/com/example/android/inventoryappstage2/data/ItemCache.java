@@ -0,0 +1,325 @@
+package com.example.android.inventoryappstage2.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import com.example.android.inventoryappstage2.data.InventoryContract.InventoryEntry;
+
+import java.util.Arrays;
+
+/**
+ * Bounded LRU cache of single item rows, keyed by _id, for the provider's ITEM_ID queries
+ * - keys are primitive longs in an open addressing table, so lookups don't box
+ * - a row is every column in COLUMNS, read once and never modified, so any projection
+ *   of them can be served as a MatrixCursor
+ * - every invalidation bumps a generation; a row read from the database is only cached if
+ *   no invalidation happened while it was being read, so a reader racing a writer can't
+ *   put back the row the writer just replaced
+ */
+class ItemCache {
+
+    static final int DEFAULT_CAPACITY = 64;
+
+    /**
+     * Columns of a cached row, in order
+     */
+    static final String[] COLUMNS = {
+            InventoryEntry._ID,
+            InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME,
+            InventoryEntry.COLUMN_INVENTORY_PRICE,
+            InventoryEntry.COLUMN_INVENTORY_QUANTITY,
+            InventoryEntry.COLUMN_INVENTORY_REORDER_THRESHOLD,
+            InventoryEntry.COLUMN_INVENTORY_VERSION,
+            InventoryEntry.COLUMN_INVENTORY_SUPPLIER_ID,
+            InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME,
+            InventoryEntry.COLUMN_INVENTORY_SUPPLIER_PHONE};
+
+    private static final int NONE = -1;
+
+    private final int mCapacity;
+
+    /**
+     * Entries, indexed by slot, in a doubly linked list from most (mHead) to least
+     * (mTail) recently used
+     */
+    private final long[] mIds;
+    private final Object[][] mRows;
+    private final int[] mPrevious;
+    private final int[] mNext;
+    private int mHead = NONE;
+    private int mTail = NONE;
+    private int mSize;
+
+    /**
+     * Linear probing hash table from _id to entry slot + 1, 0 for an empty bucket
+     */
+    private final int[] mTable;
+    private final int mTableMask;
+
+    private long mGeneration;
+
+    ItemCache(int capacity) {
+        mCapacity = capacity;
+        mIds = new long[capacity];
+        mRows = new Object[capacity][];
+        mPrevious = new int[capacity];
+        mNext = new int[capacity];
+
+        // At most half full, so probes stay short
+        int tableSize = Integer.highestOneBit(capacity * 2 - 1) << 1;
+        mTable = new int[tableSize];
+        mTableMask = tableSize - 1;
+    }
+
+    /**
+     * Returns whether every column of projection is in a cached row, null meaning all of them
+     */
+    static boolean canServe(String[] projection) {
+        if (projection == null) {
+            return true;
+        }
+        for (String column : projection) {
+            if (columnIndex(column) == NONE) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads the current row of a cursor queried with COLUMNS
+     */
+    static Object[] readRow(Cursor cursor) {
+        Object[] row = new Object[COLUMNS.length];
+        for (int i = 0; i < COLUMNS.length; i++) {
+            switch (cursor.getType(i)) {
+                case Cursor.FIELD_TYPE_INTEGER:
+                    row[i] = cursor.getLong(i);
+                    break;
+                case Cursor.FIELD_TYPE_FLOAT:
+                    row[i] = cursor.getDouble(i);
+                    break;
+                case Cursor.FIELD_TYPE_STRING:
+                    row[i] = cursor.getString(i);
+                    break;
+                case Cursor.FIELD_TYPE_BLOB:
+                    row[i] = cursor.getBlob(i);
+                    break;
+                default:
+                    row[i] = null;
+            }
+        }
+        return row;
+    }
+
+    /**
+     * Returns a cursor with the projection of row, or an empty cursor if row is null
+     */
+    static Cursor toCursor(Object[] row, String[] projection) {
+        String[] columns = projection == null ? COLUMNS : projection;
+        MatrixCursor cursor = new MatrixCursor(columns, 1);
+        if (row != null) {
+            Object[] values = new Object[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                values[i] = row[columnIndex(columns[i])];
+            }
+            cursor.addRow(values);
+        }
+        return cursor;
+    }
+
+    private static int columnIndex(String column) {
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (COLUMNS[i].equals(column)) {
+                return i;
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * Returns the generation to pass to put() for a row about to be read
+     */
+    synchronized long generation() {
+        return mGeneration;
+    }
+
+    /**
+     * Returns the cached row of the item, or null, marking it most recently used
+     */
+    synchronized Object[] get(long id) {
+        int slot = find(id);
+        if (slot == NONE) {
+            return null;
+        }
+        moveToHead(slot);
+        return mRows[slot];
+    }
+
+    /**
+     * Caches the row of the item, unless the cache was invalidated since generation
+     */
+    synchronized void put(long id, Object[] row, long generation) {
+        if (generation != mGeneration) {
+            return;
+        }
+        int slot = find(id);
+        if (slot != NONE) {
+            mRows[slot] = row;
+            moveToHead(slot);
+            return;
+        }
+
+        if (mSize < mCapacity) {
+            slot = mSize++;
+        } else {
+            // Reuse the least recently used entry
+            slot = mTail;
+            unlink(slot);
+            removeFromTable(mIds[slot]);
+        }
+        mIds[slot] = id;
+        mRows[slot] = row;
+        linkAtHead(slot);
+        addToTable(id, slot);
+    }
+
+    /**
+     * Drops the item, if it is cached
+     */
+    synchronized void remove(long id) {
+        mGeneration++;
+        int slot = find(id);
+        if (slot == NONE) {
+            return;
+        }
+        unlink(slot);
+        removeFromTable(id);
+        mRows[slot] = null;
+
+        // Keep entries packed in slots 0 to mSize - 1 by moving the last one into the hole
+        int last = --mSize;
+        if (slot != last) {
+            long lastId = mIds[last];
+            boolean wasHead = mHead == last;
+            boolean wasTail = mTail == last;
+            mIds[slot] = lastId;
+            mRows[slot] = mRows[last];
+            mPrevious[slot] = mPrevious[last];
+            mNext[slot] = mNext[last];
+            if (mPrevious[slot] != NONE) {
+                mNext[mPrevious[slot]] = slot;
+            }
+            if (mNext[slot] != NONE) {
+                mPrevious[mNext[slot]] = slot;
+            }
+            if (wasHead) {
+                mHead = slot;
+            }
+            if (wasTail) {
+                mTail = slot;
+            }
+            mRows[last] = null;
+            mTable[bucketOf(lastId)] = slot + 1;
+        }
+    }
+
+    /**
+     * Drops every item
+     */
+    synchronized void clear() {
+        mGeneration++;
+        Arrays.fill(mTable, 0);
+        Arrays.fill(mRows, null);
+        mHead = NONE;
+        mTail = NONE;
+        mSize = 0;
+    }
+
+    private static int hash(long id) {
+        long h = id * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private int find(long id) {
+        for (int bucket = hash(id) & mTableMask; mTable[bucket] != 0; bucket = (bucket + 1) & mTableMask) {
+            int slot = mTable[bucket] - 1;
+            if (mIds[slot] == id) {
+                return slot;
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * Returns the bucket holding id, which must be in the table
+     */
+    private int bucketOf(long id) {
+        int bucket = hash(id) & mTableMask;
+        while (mIds[mTable[bucket] - 1] != id) {
+            bucket = (bucket + 1) & mTableMask;
+        }
+        return bucket;
+    }
+
+    private void addToTable(long id, int slot) {
+        int bucket = hash(id) & mTableMask;
+        while (mTable[bucket] != 0) {
+            bucket = (bucket + 1) & mTableMask;
+        }
+        mTable[bucket] = slot + 1;
+    }
+
+    /**
+     * Removes id from the table, shifting back any later entry of the same probe run
+     * so that lookups never stop early at the hole
+     */
+    private void removeFromTable(long id) {
+        int hole = bucketOf(id);
+        mTable[hole] = 0;
+        for (int bucket = (hole + 1) & mTableMask; mTable[bucket] != 0; bucket = (bucket + 1) & mTableMask) {
+            int home = hash(mIds[mTable[bucket] - 1]) & mTableMask;
+            // Move the entry into the hole if its home bucket is not between the hole and it
+            boolean movable = hole <= bucket
+                    ? home <= hole || home > bucket
+                    : home <= hole && home > bucket;
+            if (movable) {
+                mTable[hole] = mTable[bucket];
+                mTable[bucket] = 0;
+                hole = bucket;
+            }
+        }
+    }
+
+    private void moveToHead(int slot) {
+        if (slot != mHead) {
+            unlink(slot);
+            linkAtHead(slot);
+        }
+    }
+
+    private void linkAtHead(int slot) {
+        mPrevious[slot] = NONE;
+        mNext[slot] = mHead;
+        if (mHead != NONE) {
+            mPrevious[mHead] = slot;
+        }
+        mHead = slot;
+        if (mTail == NONE) {
+            mTail = slot;
+        }
+    }
+
+    private void unlink(int slot) {
+        if (mPrevious[slot] != NONE) {
+            mNext[mPrevious[slot]] = mNext[slot];
+        } else {
+            mHead = mNext[slot];
+        }
+        if (mNext[slot] != NONE) {
+            mPrevious[mNext[slot]] = mPrevious[slot];
+        } else {
+            mTail = mPrevious[slot];
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.android.inventoryappstage2.data;
+
+import com.example.android.inventoryappstage2.data.InventoryContract.InventoryEntry;
+
+/**
+ * Sort order of an item list, parsed from a query's sortOrder
+ * - only InventoryEntry.SORT_COLUMNS, optionally followed by ASC or DESC, are accepted. The
+ *   SQL is built from the whitelisted column, never from the caller's text
+ * - _id breaks ties in the same direction, so the order is total and a page can continue
+ *   after the sort value and _id of the last row read
+ * - every order has an index, see InventoryDbHelper.migrateToVersion8()
+ */
+final class ItemSort {
+
+    /** The order of rows without a sortOrder */
+    static final ItemSort BY_ID = new ItemSort(InventoryEntry._ID, false);
+
+    private final String mColumn;
+    private final boolean mDescending;
+
+    private ItemSort(String column, boolean descending) {
+        mColumn = column;
+        mDescending = descending;
+    }
+
+    /**
+     * Returns the sort of sortOrder, BY_ID for null
+     * Throws IllegalArgumentException for anything but a whitelisted column and direction
+     */
+    static ItemSort parse(String sortOrder) {
+        if (sortOrder == null) {
+            return BY_ID;
+        }
+        String[] words = sortOrder.trim().split("\\s+");
+        boolean descending = false;
+        if (words.length == 2 && "DESC".equalsIgnoreCase(words[1])) {
+            descending = true;
+        } else if (words.length != 1 && !(words.length == 2 && "ASC".equalsIgnoreCase(words[1]))) {
+            throw new IllegalArgumentException("Items can't be sorted by " + sortOrder);
+        }
+        for (String column : InventoryEntry.SORT_COLUMNS) {
+            if (column.equals(words[0])) {
+                return new ItemSort(column, descending);
+            }
+        }
+        throw new IllegalArgumentException("Items can't be sorted by " + sortOrder);
+    }
+
+    /** The sorted column, whose value of the last row read is passed to afterArgs() */
+    String column() {
+        return mColumn;
+    }
+
+    boolean isById() {
+        return InventoryEntry._ID.equals(mColumn);
+    }
+
+    /** The ORDER BY clause */
+    String orderBy() {
+        String direction = mDescending ? " DESC" : "";
+        if (isById()) {
+            return InventoryEntry._ID + direction;
+        }
+        return key() + direction + ", " + InventoryEntry._ID + direction;
+    }
+
+    /**
+     * Selection of the rows that come after a row, with afterArgs() of its sort value and _id
+     * Written as a range on the sort column alone, narrowed by the tie break, so the index
+     * can seek straight to the first row. Row values would be simpler but need SQLite 3.15
+     */
+    String afterSelection() {
+        String after = mDescending ? " < ?" : " > ?";
+        if (isById()) {
+            return InventoryEntry._ID + after;
+        }
+        String from = mDescending ? " <= ?" : " >= ?";
+        return key() + from + " AND (" + key() + after + " OR " + InventoryEntry._ID + after + ")";
+    }
+
+    String[] afterArgs(String value, String id) {
+        if (isById()) {
+            return new String[]{id};
+        }
+        return new String[]{value, value, id};
+    }
+
+    /** The sort column as compared, product names ignore case like their indexes */
+    private String key() {
+        if (InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME.equals(mColumn)) {
+            return mColumn + " COLLATE NOCASE";
+        }
+        return mColumn;
+    }
+}
@@ -0,0 +1,186 @@
+package com.example.android.inventoryappstage2.data;
+
+import android.content.ContentValues;
+
+import com.example.android.inventoryappstage2.data.InventoryContract.InventoryEntry;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Checks item values before they are written, for insert, update, bulkInsert and the CSV
+ * import alike, throwing IllegalArgumentException for the first value that isn't valid
+ * - every writable column of InventoryEntry is described once below: its COLUMNS name, TYPES
+ *   rule and MESSAGES text, in parallel arrays. Any other column is rejected
+ * - one pass over the values given, each key mapped to its column by one lookup in INDEXES,
+ *   so the cost is that of the columns written, not of every column. The values are
+ *   checked as they are, without boxing, parsing into objects or allocating
+ * - the rules are the table's constraints and a bit more: no NULL in a NOT NULL column,
+ *   and the columns an insert needs must be there. Whole numbers can't be negative and must
+ *   be integers, or Strings of digits, so SQLite stores them as INTEGER
+ */
+public final class ItemValidator {
+
+    /** Any value but null */
+    private static final int TYPE_TEXT = 0;
+
+    /** An Integer, Long, Short or Byte of at least 0, or a String of digits holding one */
+    private static final int TYPE_WHOLE_NUMBER = 1;
+
+    /** A String InventoryFormat.isPhone() accepts, or a whole number of up to 15 digits */
+    private static final int TYPE_PHONE = 2;
+
+    /** Written by the provider only */
+    private static final int TYPE_READ_ONLY = 3;
+
+    private static final int PRODUCT_NAME = 0;
+    private static final int PRICE = 1;
+    private static final int QUANTITY = 2;
+    private static final int REORDER_THRESHOLD = 3;
+    private static final int SUPPLIER_NAME = 4;
+    private static final int SUPPLIER_PHONE = 5;
+    private static final int SUPPLIER_ID = 6;
+    private static final int VERSION = 7;
+    private static final int DELETED = 8;
+
+    private static final String[] COLUMNS = new String[9];
+    private static final int[] TYPES = new int[COLUMNS.length];
+    private static final String[] MESSAGES = new String[COLUMNS.length];
+
+    /** Index of each column of COLUMNS, by name */
+    private static final HashMap<String, Integer> INDEXES = new HashMap<>();
+
+    static {
+        describe(PRODUCT_NAME, InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME, TYPE_TEXT,
+                "Product requires a name");
+        describe(PRICE, InventoryEntry.COLUMN_INVENTORY_PRICE, TYPE_WHOLE_NUMBER,
+                "Product requires a price in whole cents");
+        describe(QUANTITY, InventoryEntry.COLUMN_INVENTORY_QUANTITY, TYPE_WHOLE_NUMBER,
+                "Product requires a quantity");
+        describe(REORDER_THRESHOLD, InventoryEntry.COLUMN_INVENTORY_REORDER_THRESHOLD,
+                TYPE_WHOLE_NUMBER, "Product requires a valid reorder threshold");
+        describe(SUPPLIER_NAME, InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME, TYPE_TEXT,
+                "Supplier requires a name");
+        describe(SUPPLIER_PHONE, InventoryEntry.COLUMN_INVENTORY_SUPPLIER_PHONE, TYPE_PHONE,
+                "Supplier requires a phone number");
+        describe(SUPPLIER_ID, InventoryEntry.COLUMN_INVENTORY_SUPPLIER_ID, TYPE_WHOLE_NUMBER,
+                "Product requires a supplier");
+        describe(VERSION, InventoryEntry.COLUMN_INVENTORY_VERSION, TYPE_READ_ONLY,
+                "Version is set by the provider");
+        describe(DELETED, InventoryEntry.COLUMN_INVENTORY_DELETED, TYPE_READ_ONLY,
+                "Items are deleted through the provider");
+    }
+
+    /** Columns an insert must have, as bits of their index */
+    private static final int REQUIRED_ON_INSERT = 1 << PRODUCT_NAME | 1 << PRICE | 1 << QUANTITY
+            | 1 << SUPPLIER_NAME | 1 << SUPPLIER_PHONE;
+
+    /** The supplier's name and phone, written together, or replaced by its id */
+    private static final int SUPPLIER = 1 << SUPPLIER_NAME | 1 << SUPPLIER_PHONE;
+
+    /** Most digits of a whole number given as a String, so it always fits a long */
+    private static final int MAX_WHOLE_NUMBER_DIGITS = 18;
+
+    /** Most digits of a phone number given as a number, the E.164 limit */
+    private static final long MAX_PHONE_NUMBER = 999999999999999L;
+
+    private ItemValidator() {
+    }
+
+    private static void describe(int index, String column, int type, String message) {
+        COLUMNS[index] = column;
+        TYPES[index] = type;
+        MESSAGES[index] = message;
+        INDEXES.put(column, index);
+    }
+
+    /**
+     * Checks the values of a new item, which must have every column REQUIRED_ON_INSERT
+     * A supplierId can stand in for the supplier name and phone
+     */
+    public static void validateInsert(ContentValues values) {
+        int present = validateColumns(values);
+        int required = (present & 1 << SUPPLIER_ID) != 0 ? REQUIRED_ON_INSERT & ~SUPPLIER
+                : REQUIRED_ON_INSERT;
+        if ((present & required) != required) {
+            throw new IllegalArgumentException(MESSAGES[Integer.numberOfTrailingZeros(
+                    required & ~present)]);
+        }
+    }
+
+    /**
+     * Checks the values of an update. Columns that are left out are not checked
+     */
+    public static void validateUpdate(ContentValues values) {
+        validateColumns(values);
+    }
+
+    /**
+     * Checks each column present in values against its type
+     * return: the columns present, as bits of their index
+     */
+    private static int validateColumns(ContentValues values) {
+        int present = 0;
+        for (Map.Entry<String, Object> value : values.valueSet()) {
+            // Returns the Integer boxed once by describe(), so the lookup allocates nothing
+            Integer index = INDEXES.get(value.getKey());
+            if (index == null) {
+                throw new IllegalArgumentException("Items have no column " + value.getKey());
+            }
+            present |= 1 << index;
+            if (!isValid(TYPES[index], value.getValue())) {
+                throw new IllegalArgumentException(MESSAGES[index]);
+            }
+        }
+        // The supplier is found by name and phone together
+        if ((present & SUPPLIER) != 0 && (present & SUPPLIER) != SUPPLIER) {
+            throw new IllegalArgumentException("Supplier requires a name and a phone number");
+        }
+        return present;
+    }
+
+    private static boolean isValid(int type, Object value) {
+        switch (type) {
+            case TYPE_TEXT:
+                return value != null;
+            case TYPE_WHOLE_NUMBER:
+                return value instanceof String ? isDigits((String) value) : wholeNumber(value) >= 0;
+            case TYPE_PHONE:
+                if (value instanceof String) {
+                    return InventoryFormat.isPhone((String) value);
+                }
+                long number = wholeNumber(value);
+                return number >= 0 && number <= MAX_PHONE_NUMBER;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Returns value if it is an integer type, read without boxing it again, or -1
+     * Floating point values would be stored as REAL, and Booleans aren't numbers
+     */
+    private static long wholeNumber(Object value) {
+        if (value instanceof Integer || value instanceof Long
+                || value instanceof Short || value instanceof Byte) {
+            return ((Number) value).longValue();
+        }
+        return -1;
+    }
+
+    /**
+     * Whether text is 1 to MAX_WHOLE_NUMBER_DIGITS digits and nothing else
+     */
+    private static boolean isDigits(String text) {
+        if (text.isEmpty() || text.length() > MAX_WHOLE_NUMBER_DIGITS) {
+            return false;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+}
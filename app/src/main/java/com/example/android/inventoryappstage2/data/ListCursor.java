@@ -0,0 +1,491 @@
+package com.example.android.inventoryappstage2.data;
+
+import android.database.AbstractCursor;
+import android.database.CharArrayBuffer;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.SparseArray;
+
+import com.example.android.inventoryappstage2.data.InventoryContract.InventoryEntry;
+
+import java.util.Arrays;
+
+/**
+ * Read-only cursor over the list screen's columns, held in primitive arrays instead of a
+ * CursorWindow
+ * - rows are read one keyset chunk at a time, in sort order, into chunk sized arrays:
+ *   _id, price and quantity are long / int arrays, one slot per row
+ * - product names are dictionary encoded: each distinct name of a chunk is stored once in
+ *   the chunk's char pool and rows hold its code
+ * - only chunks close to the current position stay loaded, like PagedCursor's pages, so
+ *   the heap used doesn't grow with the table. A jump reads only the last row's keys of
+ *   each chunk it skips, and an evicted chunk's arrays are reused for the next one
+ * - copyStringToBuffer() copies a name straight out of the pool and getInt()/getLong() read
+ *   the arrays, so binding a row allocates nothing. getString() has to build a String
+ * Inside the app's process the provider's cursor is used as is, so nothing is ever copied
+ * into a CursorWindow
+ */
+class ListCursor extends AbstractCursor {
+
+    /**
+     * Columns this cursor can hold, any projection of them can be served
+     */
+    static final String[] COLUMNS = {
+            InventoryEntry._ID,
+            InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME,
+            InventoryEntry.COLUMN_INVENTORY_PRICE,
+            InventoryEntry.COLUMN_INVENTORY_QUANTITY};
+
+    private static final int COLUMN_ID = 0;
+    private static final int COLUMN_NAME = 1;
+    private static final int COLUMN_PRICE = 2;
+    private static final int COLUMN_QUANTITY = 3;
+
+    private static final String SQL_LIVE_ITEM = InventoryEntry.COLUMN_INVENTORY_DELETED + " = 0";
+    private static final String SQL_DELETED_ITEM = InventoryEntry.COLUMN_INVENTORY_DELETED + " = 1";
+
+    /**
+     * Number of chunks kept loaded around the current one
+     */
+    private static final int MAX_RESIDENT_CHUNKS = 5;
+
+    /**
+     * Code of a null name
+     */
+    private static final int NO_NAME = -1;
+
+    private final SQLiteDatabase mDatabase;
+    private final String mTable;
+    private final String mSelection;
+    private final String[] mSelectionArgs;
+    private final ItemSort mSort;
+    private final int mChunkSize;
+
+    private final String[] mColumnNames;
+
+    /**
+     * Index into COLUMNS of each column of mColumnNames, and of the sort column
+     */
+    private final int[] mColumns;
+    private final int mSortColumn;
+
+    private final int mCount;
+
+    /**
+     * Loaded chunks, keyed by chunk number, and an evicted one to load the next into
+     */
+    private final SparseArray<Chunk> mChunks = new SparseArray<>();
+    private Chunk mSpareChunk;
+
+    /**
+     * Last _id and sort value of every chunk we have seen so far, so chunk n can be found
+     * from chunk n - 1
+     */
+    private long[] mChunkLastIds = new long[16];
+    private String[] mChunkLastValues = new String[16];
+    private int mKnownChunks;
+
+    /**
+     * The chunk holding the current position, the row's index in it, and whether the row
+     * is still there (it can be gone if the table shrank since it was counted)
+     */
+    private Chunk mCurrentChunk;
+    private int mRow;
+    private boolean mRowMissing;
+
+    /**
+     * @param projection columns of COLUMNS to return, see canServe()
+     */
+    ListCursor(SQLiteDatabase database, String[] projection, String selection,
+               String[] selectionArgs, ItemSort sort, int chunkSize) {
+        mDatabase = database;
+        // Every listed column is in the inventory table, only a selection may need the
+        // supplier columns of the view. The table still has the deleted items in it
+        mTable = selection == null ? InventoryEntry.TABLE_NAME : InventoryEntry.VIEW_NAME;
+        mSelection = selection == null ? SQL_LIVE_ITEM : selection;
+        mSelectionArgs = selectionArgs;
+        mSort = sort;
+        mSortColumn = columnIndex(sort.column());
+        mChunkSize = chunkSize;
+
+        mColumnNames = projection;
+        mColumns = new int[mColumnNames.length];
+        for (int i = 0; i < mColumnNames.length; i++) {
+            mColumns[i] = columnIndex(mColumnNames[i]);
+            if (mColumns[i] == -1) {
+                throw new IllegalArgumentException("List cursor has no column " + mColumnNames[i]);
+            }
+        }
+
+        if (selection == null) {
+            // Counts the deleted items on the index of them, rather than the others on the table
+            mCount = (int) (DatabaseUtils.queryNumEntries(database, mTable)
+                    - DatabaseUtils.queryNumEntries(database, mTable, SQL_DELETED_ITEM));
+        } else {
+            mCount = (int) DatabaseUtils.queryNumEntries(database, mTable, selection, selectionArgs);
+        }
+
+        // Load the first chunk now, on the loader thread, so the first frame doesn't wait for it
+        if (mCount > 0) {
+            getChunk(0);
+        }
+    }
+
+    /**
+     * Returns whether every column of projection is in COLUMNS
+     * A null projection asks for every column of the inventory, which this cursor doesn't hold
+     */
+    static boolean canServe(String[] projection) {
+        if (projection == null) {
+            return false;
+        }
+        for (String column : projection) {
+            if (columnIndex(column) == -1) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int columnIndex(String column) {
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (COLUMNS[i].equals(column)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the given chunk, reading it if it isn't loaded
+     */
+    private Chunk getChunk(int chunk) {
+        Chunk rows = mChunks.get(chunk);
+        if (rows == null) {
+            rows = loadChunk(chunk);
+            mChunks.put(chunk, rows);
+        }
+        return rows;
+    }
+
+    /**
+     * Reads the rows of the given chunk, an empty chunk if the table shrank and it's gone
+     */
+    private Chunk loadChunk(int chunk) {
+        // Walk forward over any chunks we haven't seen yet, reading only their last row's keys
+        while (mKnownChunks < chunk) {
+            Cursor boundary = queryChunk(mKnownChunks, new String[]{InventoryEntry._ID,
+                    mSort.column()}, (mChunkSize - 1) + ", 1");
+            try {
+                if (!boundary.moveToFirst()) {
+                    break;
+                }
+                setChunkLast(mKnownChunks, boundary.getLong(0), boundary.getString(1));
+            } finally {
+                boundary.close();
+            }
+        }
+
+        Chunk rows = mSpareChunk != null ? mSpareChunk : new Chunk(mChunkSize);
+        mSpareChunk = null;
+        rows.clear();
+        if (chunk > mKnownChunks) {
+            return rows;
+        }
+
+        // Rows added since the count are past the end, don't read them
+        int limit = Math.min(mChunkSize, mCount - chunk * mChunkSize);
+        Cursor cursor = queryChunk(chunk, COLUMNS, String.valueOf(limit));
+        try {
+            while (cursor.moveToNext()) {
+                rows.add(cursor.getLong(COLUMN_ID),
+                        cursor.isNull(COLUMN_NAME) ? null : cursor.getString(COLUMN_NAME),
+                        cursor.getInt(COLUMN_PRICE), cursor.getInt(COLUMN_QUANTITY));
+            }
+            if (chunk == mKnownChunks && cursor.moveToLast()) {
+                setChunkLast(chunk, cursor.getLong(COLUMN_ID), cursor.getString(mSortColumn));
+            }
+        } finally {
+            cursor.close();
+        }
+        return rows;
+    }
+
+    /**
+     * Queries rows from the start of the given chunk, which must follow a known chunk
+     */
+    private Cursor queryChunk(int chunk, String[] projection, String limit) {
+        String afterValue = chunk == 0 ? null : mChunkLastValues[chunk - 1];
+        String afterId = chunk == 0 ? null : String.valueOf(mChunkLastIds[chunk - 1]);
+        return PagedCursor.queryPage(mDatabase, mTable, projection, mSelection,
+                mSelectionArgs, mSort, afterValue, afterId, limit);
+    }
+
+    private void setChunkLast(int chunk, long id, String value) {
+        if (chunk >= mChunkLastIds.length) {
+            mChunkLastIds = Arrays.copyOf(mChunkLastIds, mChunkLastIds.length * 2);
+            mChunkLastValues = Arrays.copyOf(mChunkLastValues, mChunkLastValues.length * 2);
+        }
+        mChunkLastIds[chunk] = id;
+        mChunkLastValues[chunk] = value;
+        mKnownChunks = chunk + 1;
+    }
+
+    /**
+     * Drops every chunk that is not within MAX_RESIDENT_CHUNKS / 2 of the given chunk,
+     * keeping one of them to load into
+     */
+    private void evictChunksFarFrom(int chunk) {
+        for (int i = mChunks.size() - 1; i >= 0; i--) {
+            if (Math.abs(mChunks.keyAt(i) - chunk) > MAX_RESIDENT_CHUNKS / 2) {
+                mSpareChunk = mChunks.valueAt(i);
+                mChunks.removeAt(i);
+            }
+        }
+    }
+
+    @Override
+    public int getCount() {
+        return mCount;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return mColumnNames;
+    }
+
+    @Override
+    public boolean onMove(int oldPosition, int newPosition) {
+        int chunk = newPosition / mChunkSize;
+        mCurrentChunk = getChunk(chunk);
+        evictChunksFarFrom(chunk);
+        mRow = newPosition - chunk * mChunkSize;
+        // Past the end of a table that shrank since it was counted
+        mRowMissing = mRow >= mCurrentChunk.mSize;
+        return true;
+    }
+
+    /**
+     * Copies the name of the current row into buffer, without creating a String
+     */
+    @Override
+    public void copyStringToBuffer(int column, CharArrayBuffer buffer) {
+        if (mRowMissing || mColumns[column] != COLUMN_NAME) {
+            super.copyStringToBuffer(column, buffer);
+            return;
+        }
+        Chunk rows = mCurrentChunk;
+        int code = rows.mNameCodes[mRow];
+        if (code == NO_NAME) {
+            buffer.sizeCopied = 0;
+            return;
+        }
+        int length = rows.mNameLengths[code];
+        if (buffer.data == null || buffer.data.length < length) {
+            buffer.data = new char[length];
+        }
+        System.arraycopy(rows.mNameChars, rows.mNameOffsets[code], buffer.data, 0, length);
+        buffer.sizeCopied = length;
+    }
+
+    @Override
+    public String getString(int column) {
+        if (mRowMissing) {
+            return null;
+        }
+        switch (mColumns[column]) {
+            case COLUMN_NAME:
+                return mCurrentChunk.name(mRow);
+            default:
+                return String.valueOf(getLong(column));
+        }
+    }
+
+    @Override
+    public long getLong(int column) {
+        if (mRowMissing) {
+            return 0;
+        }
+        switch (mColumns[column]) {
+            case COLUMN_ID:
+                return mCurrentChunk.mIds[mRow];
+            case COLUMN_PRICE:
+                return mCurrentChunk.mPrices[mRow];
+            case COLUMN_QUANTITY:
+                return mCurrentChunk.mQuantities[mRow];
+            default:
+                String name = getString(column);
+                return name == null ? 0 : Long.parseLong(name);
+        }
+    }
+
+    @Override
+    public int getInt(int column) {
+        return (int) getLong(column);
+    }
+
+    @Override
+    public short getShort(int column) {
+        return (short) getLong(column);
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return getLong(column);
+    }
+
+    @Override
+    public double getDouble(int column) {
+        return getLong(column);
+    }
+
+    @Override
+    public int getType(int column) {
+        if (isNull(column)) {
+            return FIELD_TYPE_NULL;
+        }
+        return mColumns[column] == COLUMN_NAME ? FIELD_TYPE_STRING : FIELD_TYPE_INTEGER;
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        return mRowMissing
+                || (mColumns[column] == COLUMN_NAME && mCurrentChunk.mNameCodes[mRow] == NO_NAME);
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        mChunks.clear();
+        mSpareChunk = null;
+        mCurrentChunk = null;
+    }
+
+    /**
+     * One chunk's rows, the first mSize slots of each array
+     */
+    private static final class Chunk {
+
+        private final long[] mIds;
+        private final int[] mNameCodes;
+        private final int[] mPrices;
+        private final int[] mQuantities;
+        private int mSize;
+
+        /**
+         * Distinct names: name code i is mNameLengths[i] chars of mNameChars from mNameOffsets[i]
+         */
+        private char[] mNameChars = new char[1024];
+        private int mNameCharCount;
+        private int[] mNameOffsets = new int[64];
+        private int[] mNameLengths = new int[64];
+        private int mNameCount;
+
+        /**
+         * Linear probing hash table from a name to its code + 1, 0 for an empty bucket
+         * Compares against the pool, so no String is kept for deduplication
+         */
+        private int[] mNameTable = new int[128];
+
+        Chunk(int size) {
+            mIds = new long[size];
+            mNameCodes = new int[size];
+            mPrices = new int[size];
+            mQuantities = new int[size];
+        }
+
+        /**
+         * Empties the chunk, keeping its arrays
+         */
+        void clear() {
+            mSize = 0;
+            mNameCharCount = 0;
+            mNameCount = 0;
+            Arrays.fill(mNameTable, 0);
+        }
+
+        void add(long id, String name, int price, int quantity) {
+            mIds[mSize] = id;
+            mNameCodes[mSize] = name == null ? NO_NAME : encodeName(name);
+            mPrices[mSize] = price;
+            mQuantities[mSize] = quantity;
+            mSize++;
+        }
+
+        String name(int row) {
+            int code = mNameCodes[row];
+            return code == NO_NAME
+                    ? null : new String(mNameChars, mNameOffsets[code], mNameLengths[code]);
+        }
+
+        /**
+         * Returns the code of name, adding it to the pool if it's new
+         */
+        private int encodeName(String name) {
+            int mask = mNameTable.length - 1;
+            int bucket = name.hashCode() & mask;
+            while (mNameTable[bucket] != 0) {
+                int code = mNameTable[bucket] - 1;
+                if (nameEquals(code, name)) {
+                    return code;
+                }
+                bucket = (bucket + 1) & mask;
+            }
+
+            int code = mNameCount++;
+            if (code == mNameOffsets.length) {
+                mNameOffsets = Arrays.copyOf(mNameOffsets, code * 2);
+                mNameLengths = Arrays.copyOf(mNameLengths, code * 2);
+            }
+            int length = name.length();
+            if (mNameCharCount + length > mNameChars.length) {
+                mNameChars = Arrays.copyOf(mNameChars, Math.max(mNameChars.length * 2, mNameCharCount + length));
+            }
+            name.getChars(0, length, mNameChars, mNameCharCount);
+            mNameOffsets[code] = mNameCharCount;
+            mNameLengths[code] = length;
+            mNameCharCount += length;
+            mNameTable[bucket] = code + 1;
+
+            // At most half full, so probes stay short
+            if (mNameCount * 2 > mNameTable.length) {
+                rehashNames();
+            }
+            return code;
+        }
+
+        private boolean nameEquals(int code, String name) {
+            int length = mNameLengths[code];
+            if (length != name.length()) {
+                return false;
+            }
+            int offset = mNameOffsets[code];
+            for (int i = 0; i < length; i++) {
+                if (mNameChars[offset + i] != name.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void rehashNames() {
+            int[] table = new int[mNameTable.length * 2];
+            int mask = table.length - 1;
+            for (int code = 0; code < mNameCount; code++) {
+                // Same hash as String.hashCode(), computed from the pool
+                int hash = 0;
+                int offset = mNameOffsets[code];
+                for (int i = 0; i < mNameLengths[code]; i++) {
+                    hash = 31 * hash + mNameChars[offset + i];
+                }
+                int bucket = hash & mask;
+                while (table[bucket] != 0) {
+                    bucket = (bucket + 1) & mask;
+                }
+                table[bucket] = code + 1;
+            }
+            mNameTable = table;
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package com.example.android.inventoryappstage2.data;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.util.SparseArray;
+
+import com.example.android.inventoryappstage2.data.InventoryContract.InventoryEntry;
+
+import java.util.Arrays;
+
+/**
+ * Read-only cursor over the inventory that loads rows one keyset page at a time as it is moved,
+ * instead of copying the whole table into a CursorWindow up front
+ * - a page is the next pageSize rows, in sort order, after the last row of the page before it
+ * - only pages close to the current position stay open, pages further away are closed
+ * - getCount() is a single COUNT(*), so time to first frame doesn't depend on the table size
+ */
+class PagedCursor extends AbstractCursor {
+
+    /**
+     * Number of pages kept open around the current one
+     */
+    private static final int MAX_RESIDENT_PAGES = 5;
+
+    private final SQLiteDatabase mDatabase;
+    private final String[] mQueryProjection;
+    private final String[] mColumnNames;
+    private final String mSelection;
+    private final String[] mSelectionArgs;
+    private final ItemSort mSort;
+    private final int mPageSize;
+    private final int mCount;
+
+    /**
+     * Open pages, keyed by page number
+     */
+    private final SparseArray<Cursor> mPages = new SparseArray<>();
+
+    /**
+     * Last _id and sort value of every page we have seen so far, so page n can be found
+     * from page n - 1
+     */
+    private long[] mPageLastIds = new long[16];
+    private String[] mPageLastValues = new String[16];
+    private int mKnownPages;
+
+    /**
+     * The page holding the current position, and whether the row is still there
+     * (it can be gone if the table changed after the count was taken)
+     */
+    private Cursor mCurrentPage;
+    private boolean mRowMissing;
+
+    PagedCursor(SQLiteDatabase database, String[] projection, String selection,
+                String[] selectionArgs, ItemSort sort, int pageSize) {
+        mDatabase = database;
+        mSelection = selection;
+        mSelectionArgs = selectionArgs;
+        mSort = sort;
+        mPageSize = pageSize;
+
+        // Pages are found by _id and sort value, so make sure both are always queried
+        // Extra columns go last, so the indexes of the requested columns don't move
+        mQueryProjection = withColumn(withColumn(projection, InventoryEntry._ID), sort.column());
+
+        mCount = (int) DatabaseUtils.queryNumEntries(database, InventoryEntry.VIEW_NAME,
+                selection, selectionArgs);
+
+        // Load the first page now, on the loader thread, so the first frame doesn't wait for it
+        Cursor firstPage = loadPage(0);
+        mColumnNames = projection != null ? projection : firstPage.getColumnNames();
+    }
+
+    private static String[] withColumn(String[] projection, String column) {
+        if (projection == null || Arrays.asList(projection).contains(column)) {
+            return projection;
+        }
+        String[] columns = Arrays.copyOf(projection, projection.length + 1);
+        columns[projection.length] = column;
+        return columns;
+    }
+
+    /**
+     * Queries one keyset page of table: up to limit rows matching selection with an _id after
+     * afterId, ordered by _id. afterId may be null for the first page
+     */
+    static Cursor queryPage(SQLiteDatabase database, String table, String[] projection,
+                            String selection, String[] selectionArgs, String afterId, String limit) {
+        return queryPage(database, table, projection, selection, selectionArgs, ItemSort.BY_ID,
+                null, afterId, limit);
+    }
+
+    /**
+     * Queries one keyset page of table: up to limit rows matching selection in sort order,
+     * after the row with sort value afterValue and _id afterId. afterId is null for the first page
+     */
+    static Cursor queryPage(SQLiteDatabase database, String table, String[] projection,
+                            String selection, String[] selectionArgs, ItemSort sort,
+                            String afterValue, String afterId, String limit) {
+        if (afterId != null) {
+            selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs,
+                    sort.afterArgs(afterValue, afterId));
+        }
+        return database.rawQuery(buildPageQuery(table, projection, selection, sort,
+                afterId != null, limit), selectionArgs);
+    }
+
+    /**
+     * SQL of queryPage(), after says whether it continues after a row
+     */
+    static String buildPageQuery(String table, String[] projection, String selection,
+                                 ItemSort sort, boolean after, String limit) {
+        if (after) {
+            selection = DatabaseUtils.concatenateWhere(selection, sort.afterSelection());
+        }
+        return SQLiteQueryBuilder.buildQueryString(false, table, projection, selection,
+                null, null, sort.orderBy(), limit);
+    }
+
+    @Override
+    public int getCount() {
+        return mCount;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return mColumnNames;
+    }
+
+    @Override
+    public boolean onMove(int oldPosition, int newPosition) {
+        int page = newPosition / mPageSize;
+        mCurrentPage = loadPage(page);
+        evictPagesFarFrom(page);
+        mRowMissing = !mCurrentPage.moveToPosition(newPosition - page * mPageSize);
+        return true;
+    }
+
+    /**
+     * Returns the given page, querying it if it isn't open
+     */
+    private Cursor loadPage(int page) {
+        Cursor cursor = mPages.get(page);
+        if (cursor != null) {
+            return cursor;
+        }
+
+        // Walk forward over any pages we haven't seen yet, reading only their last row's keys
+        while (mKnownPages < page) {
+            Cursor boundary = queryPageAfter(mKnownPages, new String[]{InventoryEntry._ID,
+                    mSort.column()}, (mPageSize - 1) + ", 1");
+            try {
+                if (!boundary.moveToFirst()) {
+                    break;
+                }
+                setPageLast(mKnownPages, boundary.getLong(0), boundary.getString(1));
+            } finally {
+                boundary.close();
+            }
+        }
+
+        if (page > mKnownPages) {
+            // The table shrank since it was counted, there is nothing left this far down
+            cursor = new MatrixCursor(mColumnNames, 0);
+        } else {
+            cursor = queryPageAfter(page, mQueryProjection, String.valueOf(mPageSize));
+            if (page == mKnownPages && cursor.moveToLast()) {
+                setPageLast(page, cursor.getLong(cursor.getColumnIndexOrThrow(InventoryEntry._ID)),
+                        cursor.getString(cursor.getColumnIndexOrThrow(mSort.column())));
+            }
+        }
+        mPages.put(page, cursor);
+        return cursor;
+    }
+
+    /**
+     * Queries rows from the start of the given page, which must follow a known page
+     */
+    private Cursor queryPageAfter(int page, String[] projection, String limit) {
+        String afterValue = page == 0 ? null : mPageLastValues[page - 1];
+        String afterId = page == 0 ? null : String.valueOf(mPageLastIds[page - 1]);
+        return queryPage(mDatabase, InventoryEntry.VIEW_NAME, projection, mSelection,
+                mSelectionArgs, mSort, afterValue, afterId, limit);
+    }
+
+    private void setPageLast(int page, long id, String value) {
+        if (page >= mPageLastIds.length) {
+            mPageLastIds = Arrays.copyOf(mPageLastIds, mPageLastIds.length * 2);
+            mPageLastValues = Arrays.copyOf(mPageLastValues, mPageLastValues.length * 2);
+        }
+        mPageLastIds[page] = id;
+        mPageLastValues[page] = value;
+        mKnownPages = page + 1;
+    }
+
+    /**
+     * Closes every open page that is not within MAX_RESIDENT_PAGES / 2 of the given page
+     */
+    private void evictPagesFarFrom(int page) {
+        for (int i = mPages.size() - 1; i >= 0; i--) {
+            if (Math.abs(mPages.keyAt(i) - page) > MAX_RESIDENT_PAGES / 2) {
+                mPages.valueAt(i).close();
+                mPages.removeAt(i);
+            }
+        }
+    }
+
+    @Override
+    public String getString(int column) {
+        return mRowMissing ? null : mCurrentPage.getString(column);
+    }
+
+    @Override
+    public short getShort(int column) {
+        return mRowMissing ? 0 : mCurrentPage.getShort(column);
+    }
+
+    @Override
+    public int getInt(int column) {
+        return mRowMissing ? 0 : mCurrentPage.getInt(column);
+    }
+
+    @Override
+    public long getLong(int column) {
+        return mRowMissing ? 0 : mCurrentPage.getLong(column);
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return mRowMissing ? 0 : mCurrentPage.getFloat(column);
+    }
+
+    @Override
+    public double getDouble(int column) {
+        return mRowMissing ? 0 : mCurrentPage.getDouble(column);
+    }
+
+    @Override
+    public byte[] getBlob(int column) {
+        return mRowMissing ? null : mCurrentPage.getBlob(column);
+    }
+
+    @Override
+    public int getType(int column) {
+        return mRowMissing ? FIELD_TYPE_NULL : mCurrentPage.getType(column);
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        return mRowMissing || mCurrentPage.isNull(column);
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        for (int i = 0; i < mPages.size(); i++) {
+            mPages.valueAt(i).close();
+        }
+        mPages.clear();
+        mCurrentPage = null;
+    }
+}
@@ -0,0 +1,238 @@
+package com.example.android.inventoryappstage2.data;
+
+import android.database.Cursor;
+import android.os.Bundle;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Low overhead counters for the provider's hot paths
+ * - every operation (query, insert, ...) is counted per URI match, with the total rows it
+ *   touched and a log2 histogram of its latency
+ * - counters are fixed size atomic arrays, so recording never allocates or takes a lock
+ * - when disabled, start() returns 0 and every record call returns straight away
+ * Read through InventoryContract.METHOD_GET_METRICS, or with
+ * adb shell dumpsys activity provider com.example.android.inventoryappstage2/.data.InventoryProvider
+ */
+class ProviderMetrics {
+
+    static final int OP_QUERY = 0;
+    static final int OP_INSERT = 1;
+    static final int OP_BULK_INSERT = 2;
+    static final int OP_UPDATE = 3;
+    static final int OP_DELETE = 4;
+
+    private static final String[] OPERATION_NAMES = {"query", "insert", "bulkInsert", "update", "delete"};
+
+    /**
+     * Bucket 0 counts calls under 1 microsecond, bucket i calls of 2^(i-1) to 2^i microseconds,
+     * and the last bucket everything slower (over about 4 seconds)
+     */
+    static final int LATENCY_BUCKETS = 24;
+
+    private final String[] mMatchNames;
+
+    /**
+     * Indexed by slot: operation * number of matches + match
+     */
+    private final AtomicLongArray mCalls;
+    private final AtomicLongArray mTotalNanos;
+    private final AtomicLongArray mRows;
+
+    /**
+     * Indexed by slot * LATENCY_BUCKETS + bucket
+     */
+    private final AtomicLongArray mLatencyHistogram;
+
+    /**
+     * [0]: changes the provider asked to notify, [1]: notifications actually sent
+     * after ChangeNotifier coalesced them
+     */
+    private final AtomicLongArray mNotifications = new AtomicLongArray(2);
+
+    /**
+     * [0]: single item queries served from the item cache, [1]: queries that missed it
+     */
+    private final AtomicLongArray mItemCache = new AtomicLongArray(2);
+
+    private volatile boolean mEnabled = true;
+
+    /**
+     * @param matchNames names of the URI matches, indexed by the match passed to record()
+     */
+    ProviderMetrics(String[] matchNames) {
+        mMatchNames = matchNames;
+        int slots = OPERATION_NAMES.length * matchNames.length;
+        mCalls = new AtomicLongArray(slots);
+        mTotalNanos = new AtomicLongArray(slots);
+        mRows = new AtomicLongArray(slots);
+        mLatencyHistogram = new AtomicLongArray(slots * LATENCY_BUCKETS);
+    }
+
+    void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+    }
+
+    boolean isEnabled() {
+        return mEnabled;
+    }
+
+    /**
+     * Returns the start time to pass to record(), or 0 when disabled
+     */
+    long start() {
+        return mEnabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Records one operation that started at start and touched rows rows
+     */
+    void record(int operation, int match, long start, long rows) {
+        if (start == 0 || !mEnabled) {
+            return;
+        }
+        long nanos = System.nanoTime() - start;
+        int slot = operation * mMatchNames.length + match;
+        mCalls.incrementAndGet(slot);
+        mTotalNanos.addAndGet(slot, nanos);
+        mRows.addAndGet(slot, rows);
+        mLatencyHistogram.incrementAndGet(slot * LATENCY_BUCKETS + latencyBucket(nanos));
+    }
+
+    /**
+     * Records a query, counting the rows of the cursor it returned
+     * getCount() runs the query if it hasn't run yet, work the caller would have done anyway
+     */
+    void recordQuery(int match, long start, Cursor cursor) {
+        if (start == 0 || !mEnabled) {
+            return;
+        }
+        record(OP_QUERY, match, start, cursor.getCount());
+    }
+
+    void recordNotificationRequested() {
+        if (mEnabled) {
+            mNotifications.incrementAndGet(0);
+        }
+    }
+
+    void recordNotificationsSent(int count) {
+        if (mEnabled) {
+            mNotifications.addAndGet(1, count);
+        }
+    }
+
+    void recordItemCacheHit() {
+        if (mEnabled) {
+            mItemCache.incrementAndGet(0);
+        }
+    }
+
+    void recordItemCacheMiss() {
+        if (mEnabled) {
+            mItemCache.incrementAndGet(1);
+        }
+    }
+
+    static int latencyBucket(long nanos) {
+        long micros = nanos / 1000;
+        int bucket = 64 - Long.numberOfLeadingZeros(micros);
+        return bucket < LATENCY_BUCKETS ? bucket : LATENCY_BUCKETS - 1;
+    }
+
+    void reset() {
+        for (int i = 0; i < mCalls.length(); i++) {
+            mCalls.set(i, 0);
+            mTotalNanos.set(i, 0);
+            mRows.set(i, 0);
+        }
+        for (int i = 0; i < mLatencyHistogram.length(); i++) {
+            mLatencyHistogram.set(i, 0);
+        }
+        mNotifications.set(0, 0);
+        mNotifications.set(1, 0);
+        mItemCache.set(0, 0);
+        mItemCache.set(1, 0);
+    }
+
+    /**
+     * Copies the counters into a Bundle, see InventoryContract.METHOD_GET_METRICS
+     * Counters are read one at a time while others may be recording, so they can be
+     * off by the operations that finished during the copy
+     */
+    Bundle toBundle() {
+        Bundle result = new Bundle();
+        result.putBoolean(InventoryContract.EXTRA_METRICS_ENABLED, mEnabled);
+        result.putLong(InventoryContract.EXTRA_METRICS_NOTIFICATIONS_REQUESTED, mNotifications.get(0));
+        result.putLong(InventoryContract.EXTRA_METRICS_NOTIFICATIONS_SENT, mNotifications.get(1));
+        result.putLong(InventoryContract.EXTRA_METRICS_ITEM_CACHE_HITS, mItemCache.get(0));
+        result.putLong(InventoryContract.EXTRA_METRICS_ITEM_CACHE_MISSES, mItemCache.get(1));
+        for (int slot = 0; slot < mCalls.length(); slot++) {
+            long calls = mCalls.get(slot);
+            if (calls == 0) {
+                continue;
+            }
+            Bundle operation = new Bundle();
+            operation.putLong(InventoryContract.EXTRA_METRICS_CALLS, calls);
+            operation.putLong(InventoryContract.EXTRA_METRICS_TOTAL_NANOS, mTotalNanos.get(slot));
+            operation.putLong(InventoryContract.EXTRA_METRICS_ROWS, mRows.get(slot));
+            operation.putLongArray(InventoryContract.EXTRA_METRICS_LATENCY_HISTOGRAM, histogram(slot));
+            result.putBundle(slotName(slot), operation);
+        }
+        return result;
+    }
+
+    /**
+     * Writes the counters as text, one line per operation and URI match
+     */
+    void dump(PrintWriter writer) {
+        writer.println("Metrics " + (mEnabled ? "enabled" : "disabled"));
+        writer.println("  notifications requested=" + mNotifications.get(0)
+                + " sent=" + mNotifications.get(1));
+        long hits = mItemCache.get(0);
+        long lookups = hits + mItemCache.get(1);
+        writer.println("  itemCache hits=" + hits + " lookups=" + lookups
+                + " hitRate=" + (lookups == 0 ? 0 : hits * 100 / lookups) + "%");
+        for (int slot = 0; slot < mCalls.length(); slot++) {
+            long calls = mCalls.get(slot);
+            if (calls == 0) {
+                continue;
+            }
+            long[] histogram = histogram(slot);
+            writer.println("  " + slotName(slot)
+                    + " calls=" + calls
+                    + " rows=" + mRows.get(slot)
+                    + " meanUs=" + mTotalNanos.get(slot) / calls / 1000
+                    + " p50Us<" + percentileUpperBoundMicros(histogram, calls, 50)
+                    + " p99Us<" + percentileUpperBoundMicros(histogram, calls, 99));
+        }
+    }
+
+    private long[] histogram(int slot) {
+        long[] histogram = new long[LATENCY_BUCKETS];
+        for (int i = 0; i < LATENCY_BUCKETS; i++) {
+            histogram[i] = mLatencyHistogram.get(slot * LATENCY_BUCKETS + i);
+        }
+        return histogram;
+    }
+
+    /**
+     * Upper bound of the latency bucket holding the given percentile, in microseconds
+     */
+    private static long percentileUpperBoundMicros(long[] histogram, long calls, int percent) {
+        long target = (calls * percent + 99) / 100;
+        long seen = 0;
+        for (int i = 0; i < histogram.length; i++) {
+            seen += histogram[i];
+            if (seen >= target) {
+                return 1L << i;
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    private String slotName(int slot) {
+        return OPERATION_NAMES[slot / mMatchNames.length] + "/" + mMatchNames[slot % mMatchNames.length];
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.android.inventoryappstage2.data;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+/**
+ * Compiled statements for the provider's fixed SQL, compiled once per database and reused
+ * - statements are identified by their index in the SQL array given to the constructor
+ * - acquire() hands out the cached statement, or a new one if another thread is using it,
+ *   so bindings are never shared between threads. release() clears the bindings and gives
+ *   it back, or closes it if it wasn't the cached one
+ * - the statements belong to one SQLiteDatabase: acquiring with a different one (the helper
+ *   was closed and reopened) closes them all and compiles again. invalidate() does the same
+ *   for a schema change on the open database
+ */
+class StatementCache {
+
+    private final String[] mSql;
+
+    /**
+     * Cached statement for each SQL, null until first used
+     */
+    private final SQLiteStatement[] mStatements;
+
+    /**
+     * Whether the cached statement is acquired and not yet released
+     */
+    private final boolean[] mInUse;
+
+    private SQLiteDatabase mDatabase;
+
+    StatementCache(String[] sql) {
+        mSql = sql;
+        mStatements = new SQLiteStatement[sql.length];
+        mInUse = new boolean[sql.length];
+    }
+
+    /**
+     * Returns the compiled statement for mSql[index] with no bindings
+     * Must be given back with release(), normally in a finally block
+     */
+    SQLiteStatement acquire(SQLiteDatabase database, int index) {
+        synchronized (this) {
+            if (database != mDatabase) {
+                closeStatements();
+                mDatabase = database;
+            }
+            if (!mInUse[index]) {
+                if (mStatements[index] == null) {
+                    mStatements[index] = database.compileStatement(mSql[index]);
+                }
+                mInUse[index] = true;
+                return mStatements[index];
+            }
+        }
+        // Another thread holds the cached one
+        return database.compileStatement(mSql[index]);
+    }
+
+    /**
+     * Gives back a statement from acquire()
+     */
+    void release(int index, SQLiteStatement statement) {
+        statement.clearBindings();
+        synchronized (this) {
+            if (mStatements[index] == statement) {
+                mInUse[index] = false;
+                return;
+            }
+        }
+        // Compiled because the cached one was in use, or the cache was invalidated since
+        statement.close();
+    }
+
+    /**
+     * Drops every cached statement, call after changing the schema of the open database
+     * Statements acquired before are closed when they are released
+     */
+    synchronized void invalidate() {
+        closeStatements();
+        mDatabase = null;
+    }
+
+    private void closeStatements() {
+        for (int i = 0; i < mStatements.length; i++) {
+            // One in use is closed by release(), as it no longer matches the cached one
+            if (mStatements[i] != null && !mInUse[i]) {
+                mStatements[i].close();
+            }
+            mStatements[i] = null;
+            mInUse[i] = false;
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.example.android.inventoryappstage2;
+
+import android.content.ContentValues;
+import android.database.CharArrayBuffer;
+import android.database.Cursor;
+import android.net.Uri;
+import android.widget.FrameLayout;
+
+import com.example.android.inventoryappstage2.data.InventoryContract;
+import com.example.android.inventoryappstage2.data.InventoryContract.InventoryEntry;
+import com.example.android.inventoryappstage2.data.InventoryFormat;
+import com.example.android.inventoryappstage2.data.InventoryProvider;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Counts the bytes InventoryCursorAdapter allocates binding rows, with the list's own query
+ * - bound from the list's paged cursor, and from the plain SQLite cursor of a short list
+ * - the TextViews allocate on setText() whatever the adapter does, so the same setText()
+ *   calls with text prepared up front are measured too, and only the difference counts
+ * Uses the HotSpot per-thread allocation counter, so it needs a HotSpot based JVM
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class InventoryCursorAdapterAllocationTest {
+
+    private static final int ITEMS = 2000;
+    private static final int SHORT_LIST_ROWS = 100;
+    private static final int SCREEN_ROWS = 20;
+    private static final int WARMUP_BINDS = 20000;
+    private static final int MEASURED_BINDS = 100000;
+
+    private static final String[] LIST_PROJECTION = {
+            InventoryEntry._ID,
+            InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME,
+            InventoryEntry.COLUMN_INVENTORY_PRICE,
+            InventoryEntry.COLUMN_INVENTORY_QUANTITY};
+
+    private static final com.sun.management.ThreadMXBean THREAD_MX_BEAN =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private InventoryProvider mProvider;
+    private InventoryCursorAdapter mAdapter;
+    private InventoryCursorAdapter.ViewHolder mHolder;
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.buildContentProvider(InventoryProvider.class)
+                .create(InventoryContract.CONTENT_AUTHORITY).get();
+        mProvider.setNotificationWindow(0);
+        mProvider.call(InventoryContract.METHOD_SET_METRICS_ENABLED, "false", null);
+
+        ContentValues[] items = new ContentValues[ITEMS];
+        for (int i = 0; i < ITEMS; i++) {
+            items[i] = new ContentValues();
+            items[i].put(InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME, "Product " + i);
+            items[i].put(InventoryEntry.COLUMN_INVENTORY_PRICE, 1 + i % 500);
+            items[i].put(InventoryEntry.COLUMN_INVENTORY_QUANTITY, i % 100);
+            items[i].put(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME, "Supplier " + i % 50);
+            items[i].put(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_PHONE, 5550000 + i % 50);
+        }
+        assertEquals(ITEMS, mProvider.bulkInsert(InventoryEntry.CONTENT_URI, items));
+
+        mAdapter = new InventoryCursorAdapter(new InventoryCursorAdapter.OnItemClickListener() {
+            @Override
+            public void onItemClick(long id) {
+            }
+
+            @Override
+            public void onSaleClick(long id) {
+            }
+        });
+        mHolder = mAdapter.onCreateViewHolder(new FrameLayout(RuntimeEnvironment.application), 0);
+    }
+
+    @Test
+    public void bindingFromThePagedCursorDoesNotAllocate() {
+        Uri uri = InventoryEntry.CONTENT_URI.buildUpon()
+                .appendQueryParameter(InventoryContract.QUERY_PARAMETER_PAGE_SIZE, "100")
+                .build();
+        assertBindDoesNotAllocate(mProvider.query(uri, LIST_PROJECTION, null, null, null));
+    }
+
+    @Test
+    public void bindingAShortListDoesNotAllocate() {
+        Uri uri = InventoryEntry.CONTENT_URI.buildUpon()
+                .appendQueryParameter(InventoryContract.QUERY_PARAMETER_LIMIT,
+                        String.valueOf(SHORT_LIST_ROWS))
+                .build();
+        assertBindDoesNotAllocate(mProvider.query(uri, LIST_PROJECTION, null, null, null));
+    }
+
+    /**
+     * Binds the first screen of rows over and over, then the same setText() calls alone
+     */
+    private void assertBindDoesNotAllocate(Cursor cursor) {
+        try {
+            mAdapter.swapCursor(cursor);
+            assertTrue(mAdapter.getItemCount() >= SCREEN_ROWS);
+
+            char[][] names = new char[SCREEN_ROWS][];
+            char[][] prices = new char[SCREEN_ROWS][];
+            char[][] quantities = new char[SCREEN_ROWS][];
+            CharArrayBuffer nameBuffer = new CharArrayBuffer(32);
+            char[] buffer = new char[12];
+            for (int i = 0; i < SCREEN_ROWS; i++) {
+                cursor.moveToPosition(i);
+                cursor.copyStringToBuffer(1, nameBuffer);
+                names[i] = Arrays.copyOf(nameBuffer.data, nameBuffer.sizeCopied);
+                prices[i] = Arrays.copyOf(buffer,
+                        InventoryFormat.formatPrice(cursor.getInt(2), buffer));
+                quantities[i] = Arrays.copyOf(buffer,
+                        InventoryCursorAdapter.formatInt(cursor.getInt(3), buffer));
+            }
+
+            bind(WARMUP_BINDS);
+            setText(names, prices, quantities, WARMUP_BINDS);
+            long threadId = Thread.currentThread().getId();
+            // The first call to the counter allocates itself, make it before measuring
+            THREAD_MX_BEAN.getThreadAllocatedBytes(threadId);
+
+            long before = THREAD_MX_BEAN.getThreadAllocatedBytes(threadId);
+            bind(MEASURED_BINDS);
+            long bindBytes = THREAD_MX_BEAN.getThreadAllocatedBytes(threadId) - before;
+
+            before = THREAD_MX_BEAN.getThreadAllocatedBytes(threadId);
+            setText(names, prices, quantities, MEASURED_BINDS);
+            long setTextBytes = THREAD_MX_BEAN.getThreadAllocatedBytes(threadId) - before;
+
+            // Less than a byte per bind is counter noise, a String or a listener is 24 or more
+            assertTrue("Binding allocated " + bindBytes + " bytes, setText() alone "
+                    + setTextBytes, bindBytes - setTextBytes < MEASURED_BINDS);
+        } finally {
+            mAdapter.swapCursor(null);
+            cursor.close();
+        }
+    }
+
+    private void bind(int binds) {
+        for (int i = 0; i < binds; i++) {
+            mAdapter.onBindViewHolder(mHolder, i % SCREEN_ROWS);
+        }
+    }
+
+    private void setText(char[][] names, char[][] prices, char[][] quantities, int binds) {
+        for (int i = 0; i < binds; i++) {
+            int row = i % SCREEN_ROWS;
+            mHolder.nameTextView.setText(names[row], 0, names[row].length);
+            mHolder.priceTextView.setText(prices[row], 0, prices[row].length);
+            mHolder.quantityTextView.setText(quantities[row], 0, quantities[row].length);
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package com.example.android.inventoryappstage2;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.view.View;
+
+import com.example.android.inventoryappstage2.data.InventoryContract;
+import com.example.android.inventoryappstage2.data.InventoryContract.InventoryEntry;
+import com.example.android.inventoryappstage2.data.InventoryProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Counts the rows InventoryCursorAdapter rebinds when the list's loader delivers a new
+ * cursor, in a paged list far longer than the screen
+ * - after a sale only the sold row, scrolled down or not
+ * - after a new item every row on screen, positions after it have moved
+ * Diffs run right away here, instead of on the adapter's executor
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class InventoryCursorAdapterTest {
+
+    private static final int ITEMS = 5000;
+    private static final int WIDTH_PX = 1080;
+    private static final int HEIGHT_PX = 1920;
+
+    private static final String[] LIST_PROJECTION = {
+            InventoryEntry._ID,
+            InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME,
+            InventoryEntry.COLUMN_INVENTORY_PRICE,
+            InventoryEntry.COLUMN_INVENTORY_QUANTITY};
+
+    private InventoryProvider mProvider;
+    private RecyclerView mList;
+    private Cursor mCursor;
+    private int mBinds;
+    private InventoryCursorAdapter mAdapter;
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.buildContentProvider(InventoryProvider.class)
+                .create(InventoryContract.CONTENT_AUTHORITY).get();
+        mProvider.setNotificationWindow(0);
+
+        ContentValues[] items = new ContentValues[ITEMS];
+        for (int i = 0; i < ITEMS; i++) {
+            items[i] = item("Product " + i);
+        }
+        assertEquals(ITEMS, mProvider.bulkInsert(InventoryEntry.CONTENT_URI, items));
+
+        Executor direct = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        };
+        mAdapter = new InventoryCursorAdapter(new InventoryCursorAdapter.OnItemClickListener() {
+            @Override
+            public void onItemClick(long id) {
+            }
+
+            @Override
+            public void onSaleClick(long id) {
+            }
+        }, direct) {
+            @Override
+            public void onBindViewHolder(ViewHolder holder, int position) {
+                mBinds++;
+                super.onBindViewHolder(holder, position);
+            }
+        };
+        mList = new RecyclerView(RuntimeEnvironment.application);
+        mList.setLayoutManager(new LinearLayoutManager(RuntimeEnvironment.application));
+        // Change animations bind a second holder for the changed row
+        mList.setItemAnimator(null);
+        mList.setAdapter(mAdapter);
+
+        reload();
+        assertTrue(mList.getChildCount() > 1);
+    }
+
+    @After
+    public void tearDown() {
+        mAdapter.swapCursor(null);
+        mCursor.close();
+    }
+
+    @Test
+    public void saleRebindsOneRow() {
+        sell(mAdapter.getItemId(2));
+        mBinds = 0;
+        reload();
+        assertEquals(1, mBinds);
+        assertEquals("9", quantityShownAt(2));
+    }
+
+    @Test
+    public void saleScrolledDownRebindsOneRow() {
+        mList.scrollBy(0, HEIGHT_PX * 50);
+        layout();
+        int position = mList.getChildViewHolder(mList.getChildAt(1)).getAdapterPosition();
+        sell(mAdapter.getItemId(position));
+        mBinds = 0;
+        reload();
+        assertEquals(1, mBinds);
+        assertEquals("9", quantityShownAt(position));
+    }
+
+    @Test
+    public void newItemRebindsTheScreen() {
+        mProvider.insert(InventoryEntry.CONTENT_URI, item("New product"));
+        mBinds = 0;
+        reload();
+        assertEquals(mList.getChildCount(), mBinds);
+    }
+
+    private static ContentValues item(String name) {
+        ContentValues values = new ContentValues();
+        values.put(InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME, name);
+        values.put(InventoryEntry.COLUMN_INVENTORY_PRICE, 100);
+        values.put(InventoryEntry.COLUMN_INVENTORY_QUANTITY, 10);
+        values.put(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME, "Supplier");
+        values.put(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_PHONE, 5550000);
+        return values;
+    }
+
+    private void sell(long id) {
+        Bundle extras = new Bundle();
+        extras.putInt(InventoryContract.EXTRA_COUNT, 1);
+        mProvider.call(InventoryContract.METHOD_SELL, String.valueOf(id), extras);
+    }
+
+    /**
+     * Delivers a new cursor like the list's loader, closing the old one, and lays out
+     */
+    private void reload() {
+        Uri uri = InventoryEntry.CONTENT_URI.buildUpon()
+                .appendQueryParameter(InventoryContract.QUERY_PARAMETER_PAGE_SIZE, "100")
+                .build();
+        Cursor old = mCursor;
+        mCursor = mProvider.query(uri, LIST_PROJECTION, null, null, null);
+        mAdapter.swapCursor(mCursor);
+        if (old != null) {
+            old.close();
+        }
+        ShadowLooper.runUiThreadTasks();
+        layout();
+    }
+
+    private void layout() {
+        mList.measure(View.MeasureSpec.makeMeasureSpec(WIDTH_PX, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(HEIGHT_PX, View.MeasureSpec.EXACTLY));
+        mList.layout(0, 0, WIDTH_PX, HEIGHT_PX);
+    }
+
+    private String quantityShownAt(int position) {
+        InventoryCursorAdapter.ViewHolder holder = (InventoryCursorAdapter.ViewHolder)
+                mList.findViewHolderForAdapterPosition(position);
+        return holder.quantityTextView.getText().toString();
+    }
+}
@@ -0,0 +1,196 @@
+package com.example.android.inventoryappstage2;
+
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+
+import com.example.android.inventoryappstage2.data.InventoryContract;
+import com.example.android.inventoryappstage2.data.InventoryContract.InventoryEntry;
+import com.example.android.inventoryappstage2.data.InventoryContract.ReorderEntry;
+import com.example.android.inventoryappstage2.data.InventoryProvider;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Checks which writes flag an item for reordering, and that a check reports each
+ * crossing once, in one notification that names a bounded number of items
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class ReorderWorkerTest {
+
+    private InventoryProvider mProvider;
+    private Context mContext;
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.buildContentProvider(InventoryProvider.class)
+                .create(InventoryContract.CONTENT_AUTHORITY).get();
+        mProvider.setNotificationWindow(0);
+        mContext = RuntimeEnvironment.application;
+    }
+
+    @Test
+    public void newItemsBelowTheirThresholdAreFlagged() {
+        insertItem("Low", 2, "Supplier A");
+        insertItem("Stocked", 50, "Supplier A");
+        Uri custom = insertItem("Custom threshold", 50, "Supplier B", 100);
+
+        assertEquals(2, flagCount());
+        assertEquals(2, ReorderWorker.checkReorders(mContext));
+        assertEquals(1, notificationCount());
+        assertEquals(0, flagCount());
+
+        // Still below its threshold, but already reported
+        sell(custom, 10);
+        assertEquals(0, ReorderWorker.checkReorders(mContext));
+        assertEquals(1, notificationCount());
+    }
+
+    @Test
+    public void onlyCrossingTheThresholdFlagsAnItem() {
+        Uri item = insertItem("Product", InventoryEntry.DEFAULT_REORDER_THRESHOLD + 2, "Supplier");
+        sell(item, 1);
+        assertEquals(0, flagCount());
+        sell(item, 2);
+        assertEquals(1, flagCount());
+        sell(item, 1);
+        assertEquals(1, flagCount());
+
+        // Restocking clears the flag, so the next drop is reported again
+        setQuantity(item, 100);
+        assertEquals(0, flagCount());
+        setQuantity(item, 0);
+        assertEquals(1, flagCount());
+
+        // A deleted item isn't reported
+        mProvider.delete(item, null, null);
+        assertEquals(0, flagCount());
+        assertEquals(0, ReorderWorker.checkReorders(mContext));
+        assertEquals(0, notificationCount());
+    }
+
+    @Test
+    public void raisingTheThresholdFlagsAnItem() {
+        Uri item = insertItem("Product", 20, "Supplier");
+        ContentValues values = new ContentValues();
+        values.put(InventoryEntry.COLUMN_INVENTORY_REORDER_THRESHOLD, 25);
+        mProvider.update(item, values, null, null);
+        assertEquals(1, flagCount());
+    }
+
+    @Test
+    public void flaggedItemsAreGroupedBySupplier() {
+        insertItem("A1", 1, "Supplier A");
+        insertItem("B1", 1, "Supplier B");
+        insertItem("A2", 1, "Supplier A");
+
+        Cursor cursor = mProvider.query(ReorderEntry.CONTENT_URI, null, null, null, null);
+        try {
+            assertEquals(3, cursor.getCount());
+            String[] expected = {"A1", "A2", "B1"};
+            int nameColumn = cursor.getColumnIndexOrThrow(InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME);
+            for (String name : expected) {
+                cursor.moveToNext();
+                assertEquals(name, cursor.getString(nameColumn));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        assertEquals(3, ReorderWorker.checkReorders(mContext));
+        assertEquals(1, notificationCount());
+    }
+
+    @Test
+    public void checkReadsBoundedNumberOfFlags() {
+        int flagged = ReorderWorker.MAX_ITEMS_PER_RUN + 10;
+        for (int i = 0; i < flagged; i++) {
+            insertItem("Item " + i, 1, i % 10 == 0 ? "Supplier B" : "Supplier A");
+        }
+
+        // The oldest flags are read, the others are left for the next run
+        assertEquals(ReorderWorker.MAX_ITEMS_PER_RUN, ReorderWorker.checkReorders(mContext));
+        assertEquals(10, flagCount());
+        CharSequence[] lines = lastNotification().extras
+                .getCharSequenceArray(Notification.EXTRA_TEXT_LINES);
+        assertEquals(2, lines.length);
+        // Supplier B, added first, had 10 of the items read and Supplier A 90
+        assertTrue(lines[0].toString(), lines[0].toString().endsWith(
+                "; +" + (10 - ReorderWorker.MAX_ITEMS_PER_SUPPLIER) + " more"));
+        assertTrue(lines[1].toString(), lines[1].toString().endsWith(
+                "; +" + (90 - ReorderWorker.MAX_ITEMS_PER_SUPPLIER) + " more"));
+
+        assertEquals(10, ReorderWorker.checkReorders(mContext));
+        assertEquals(0, flagCount());
+        assertEquals(2, notificationCount());
+    }
+
+    private Uri insertItem(String name, int quantity, String supplier) {
+        return insertItem(name, quantity, supplier, -1);
+    }
+
+    private Uri insertItem(String name, int quantity, String supplier, int reorderThreshold) {
+        ContentValues values = new ContentValues();
+        values.put(InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME, name);
+        values.put(InventoryEntry.COLUMN_INVENTORY_PRICE, 10);
+        values.put(InventoryEntry.COLUMN_INVENTORY_QUANTITY, quantity);
+        if (reorderThreshold >= 0) {
+            values.put(InventoryEntry.COLUMN_INVENTORY_REORDER_THRESHOLD, reorderThreshold);
+        }
+        values.put(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME, supplier);
+        values.put(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_PHONE, 5550000);
+        return mProvider.insert(InventoryEntry.CONTENT_URI, values);
+    }
+
+    private void sell(Uri item, int count) {
+        Bundle extras = new Bundle();
+        extras.putInt(InventoryContract.EXTRA_COUNT, count);
+        mProvider.call(InventoryContract.METHOD_SELL, String.valueOf(ContentUris.parseId(item)), extras);
+    }
+
+    private void setQuantity(Uri item, int quantity) {
+        ContentValues values = new ContentValues();
+        values.put(InventoryEntry.COLUMN_INVENTORY_QUANTITY, quantity);
+        mProvider.update(item, values, null, null);
+    }
+
+    private int flagCount() {
+        Cursor cursor = mProvider.query(ReorderEntry.CONTENT_URI, null, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private Notification lastNotification() {
+        NotificationManager manager =
+                (NotificationManager) mContext.getSystemService(Context.NOTIFICATION_SERVICE);
+        List<Notification> notifications = shadowOf(manager).getAllNotifications();
+        return notifications.get(notifications.size() - 1);
+    }
+
+    private int notificationCount() {
+        NotificationManager manager =
+                (NotificationManager) mContext.getSystemService(Context.NOTIFICATION_SERVICE);
+        return shadowOf(manager).getAllNotifications().size();
+    }
+}
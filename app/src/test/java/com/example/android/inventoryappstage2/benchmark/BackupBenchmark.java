@@ -0,0 +1,166 @@
+package com.example.android.inventoryappstage2.benchmark;
+
+import android.content.ContentValues;
+import android.os.Bundle;
+
+import com.example.android.inventoryappstage2.data.InventoryContract;
+import com.example.android.inventoryappstage2.data.InventoryContract.InventoryEntry;
+import com.example.android.inventoryappstage2.data.InventoryProvider;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.util.Random;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Backup and restore of 100k items while a seller thread sells without pause
+ * - backupSellerIdle samples the seller's sales with nothing else running, backupSeller
+ *   its sales during METHOD_BACKUP. Their p99 and max are the writer stall of a backup.
+ *   backupNanos is the whole backup and backupBytes the size of the file
+ * - restoreSeller samples its sales during METHOD_RESTORE, refused ones included.
+ *   restoreNanos is the whole restore and refusedSales the sales it refused
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class BackupBenchmark {
+
+    private static final int ITEMS = 100000;
+    private static final int LOAD_CHUNK_SIZE = 10000;
+
+    /** Enough stock that no sale ever fails */
+    private static final int INITIAL_QUANTITY = 1000000;
+
+    /** How long the seller runs alone */
+    private static final long SELL_ALONE_MS = 1000;
+
+    private InventoryProvider mProvider;
+    private File mBackupFile;
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.buildContentProvider(InventoryProvider.class)
+                .create(InventoryContract.CONTENT_AUTHORITY).get();
+        mProvider.setNotificationWindow(0);
+        mProvider.call(InventoryContract.METHOD_SET_METRICS_ENABLED, "false", null);
+
+        ContentValues[] chunk = new ContentValues[LOAD_CHUNK_SIZE];
+        for (int i = 0; i < ITEMS; i++) {
+            ContentValues values = new ContentValues();
+            values.put(InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME, "Product " + i);
+            values.put(InventoryEntry.COLUMN_INVENTORY_PRICE, 1 + i % 500);
+            values.put(InventoryEntry.COLUMN_INVENTORY_QUANTITY, INITIAL_QUANTITY);
+            values.put(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME, "Supplier " + i % 50);
+            values.put(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_PHONE, 5550000 + i % 50);
+            chunk[i % LOAD_CHUNK_SIZE] = values;
+            if (i % LOAD_CHUNK_SIZE == LOAD_CHUNK_SIZE - 1) {
+                mProvider.bulkInsert(InventoryEntry.CONTENT_URI, chunk);
+            }
+        }
+
+        mBackupFile = new File(RuntimeEnvironment.application.getFilesDir(), "inventory.backup");
+        mBackupFile.delete();
+    }
+
+    @Test
+    public void backupAndRestoreWhileSelling() throws Exception {
+        Seller seller = new Seller();
+        Thread thread = new Thread(seller);
+        thread.start();
+
+        BenchmarkResults idle = new BenchmarkResults("backupSellerIdle", ITEMS);
+        seller.sampleInto(idle);
+        Thread.sleep(SELL_ALONE_MS);
+
+        BenchmarkResults backup = new BenchmarkResults("backupSeller", ITEMS);
+        seller.sampleInto(backup);
+        long start = System.nanoTime();
+        Bundle result = mProvider.call(InventoryContract.METHOD_BACKUP, mBackupFile.getName(), null);
+        backup.put("backupNanos", System.nanoTime() - start);
+        backup.put("backupBytes", mBackupFile.length());
+        assertTrue(result.getBoolean(InventoryContract.EXTRA_BACKUP_COMPLETE));
+
+        BenchmarkResults restore = new BenchmarkResults("restoreSeller", ITEMS);
+        seller.sampleInto(restore);
+        start = System.nanoTime();
+        result = mProvider.call(InventoryContract.METHOD_RESTORE, mBackupFile.getName(), null);
+        restore.put("restoreNanos", System.nanoTime() - start);
+        seller.sampleInto(null);
+        seller.stop();
+        thread.join();
+        seller.assertNoFailure();
+        assertTrue(result.getBoolean(InventoryContract.EXTRA_RESTORE_COMPLETE));
+        restore.put("refusedSales", seller.mRefused);
+
+        idle.write();
+        backup.write();
+        restore.write();
+    }
+
+    /**
+     * Sells one unit of a random item after another until stopped, adding the time of each
+     * sale to the results it samples into
+     */
+    private class Seller implements Runnable {
+
+        private final Random mRandom = new Random(42);
+        private volatile boolean mStopped;
+        private BenchmarkResults mResults;
+        private long mRefused;
+        private Throwable mFailure;
+
+        @Override
+        public void run() {
+            Bundle extras = new Bundle();
+            extras.putInt(InventoryContract.EXTRA_COUNT, 1);
+            try {
+                while (!mStopped) {
+                    long start = System.nanoTime();
+                    boolean refused = false;
+                    try {
+                        mProvider.call(InventoryContract.METHOD_SELL,
+                                String.valueOf(1 + mRandom.nextInt(ITEMS)), extras);
+                    } catch (IllegalStateException e) {
+                        // A restore is replacing the rows
+                        refused = true;
+                    }
+                    record(System.nanoTime() - start, refused);
+                }
+            } catch (Throwable t) {
+                synchronized (this) {
+                    mFailure = t;
+                }
+            }
+        }
+
+        private synchronized void record(long nanos, boolean refused) {
+            if (mResults != null) {
+                mResults.add(nanos);
+                if (refused) {
+                    mRefused++;
+                }
+            }
+        }
+
+        synchronized void sampleInto(BenchmarkResults results) {
+            mResults = results;
+        }
+
+        void stop() {
+            mStopped = true;
+        }
+
+        synchronized void assertNoFailure() {
+            if (mFailure != null) {
+                throw new AssertionError(mFailure);
+            }
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.example.android.inventoryappstage2.benchmark;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Collects the timings of one benchmark and appends them to results.jsonl, one JSON object
+ * per line, so runs from different commits can be compared with any JSON tool
+ * - the output directory and commit come from the benchmark.outputDir and benchmark.commit
+ *   system properties set by the build
+ * - every sample is the time of one operation in nanoseconds, opsPerSec is the
+ *   throughput over all of them
+ * - put() adds other measurements, e.g. bytes allocated, as extra fields of the same line
+ */
+class BenchmarkResults {
+
+    private static final String RESULTS_FILE_NAME = "results.jsonl";
+
+    private final String mBenchmark;
+    private final int mTableSize;
+    private long[] mSamples = new long[1024];
+    private int mSampleCount;
+    private final Map<String, Long> mValues = new LinkedHashMap<>();
+
+    BenchmarkResults(String benchmark, int tableSize) {
+        mBenchmark = benchmark;
+        mTableSize = tableSize;
+    }
+
+    void add(long nanos) {
+        if (mSampleCount == mSamples.length) {
+            mSamples = Arrays.copyOf(mSamples, mSamples.length * 2);
+        }
+        mSamples[mSampleCount++] = nanos;
+    }
+
+    void put(String field, long value) {
+        mValues.put(field, value);
+    }
+
+    /**
+     * Appends the summary of the samples to the results file and echoes it to stdout
+     */
+    void write() throws IOException {
+        long[] sorted = Arrays.copyOf(mSamples, mSampleCount);
+        Arrays.sort(sorted);
+        long total = 0;
+        for (long sample : sorted) {
+            total += sample;
+        }
+
+        String line = String.format(Locale.US,
+                "{\"benchmark\":\"%s\",\"tableSize\":%d,\"commit\":\"%s\",\"timestamp\":%d,"
+                        + "\"ops\":%d,\"opsPerSec\":%d,\"meanNs\":%d,\"medianNs\":%d,\"p90Ns\":%d,"
+                        + "\"p99Ns\":%d,\"minNs\":%d,\"maxNs\":%d",
+                mBenchmark, mTableSize, System.getProperty("benchmark.commit", ""),
+                System.currentTimeMillis(), mSampleCount,
+                total == 0 ? 0 : mSampleCount * 1000000000L / total,
+                mSampleCount == 0 ? 0 : total / mSampleCount,
+                percentile(sorted, 50), percentile(sorted, 90), percentile(sorted, 99),
+                percentile(sorted, 0), percentile(sorted, 100));
+        StringBuilder values = new StringBuilder();
+        for (Map.Entry<String, Long> value : mValues.entrySet()) {
+            values.append(",\"").append(value.getKey()).append("\":").append(value.getValue());
+        }
+        line = line + values + "}";
+        System.out.println(line);
+
+        String outputDir = System.getProperty("benchmark.outputDir");
+        if (outputDir == null) {
+            return;
+        }
+        File directory = new File(outputDir);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can't create " + directory);
+        }
+        Writer writer = new FileWriter(new File(directory, RESULTS_FILE_NAME), true);
+        try {
+            writer.write(line);
+            writer.write('\n');
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static long percentile(long[] sorted, int percent) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(sorted.length * percent / 100.0) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+}
@@ -0,0 +1,139 @@
+package com.example.android.inventoryappstage2.benchmark;
+
+import com.example.android.inventoryappstage2.data.InventoryContract;
+import com.example.android.inventoryappstage2.data.InventoryContract.InventoryEntry;
+import com.example.android.inventoryappstage2.data.InventoryCsv;
+import com.example.android.inventoryappstage2.data.InventoryProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Imports a 1M row CSV file into an empty inventory with InventoryCsv.importCsv()
+ * - samples are the time between two progress reports, HEAP_SAMPLE_ROWS rows each
+ * - rowsPerSec is the throughput of the whole import
+ * - peakRetainedBytes is the most heap still in use at any progress report, after a
+ *   collection, over what was used before the import. It has to stay flat as the file grows
+ * - peakHeapBytes is the peak the heap pools saw, garbage included
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class CsvImportBenchmark {
+
+    private static final int ROWS = 1000000;
+    private static final int HEAP_SAMPLE_ROWS = 50000;
+
+    /**
+     * Most heap the import may keep, a fully read 1M row file would take over 100 MB
+     */
+    private static final long MAX_RETAINED_BYTES = 16L * 1024 * 1024;
+
+    private File mCsv;
+
+    @Before
+    public void setUp() throws IOException {
+        Robolectric.buildContentProvider(InventoryProvider.class)
+                .create(InventoryContract.CONTENT_AUTHORITY).get()
+                .setNotificationWindow(0);
+
+        mCsv = File.createTempFile("inventory", ".csv");
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(mCsv),
+                "UTF-8"));
+        try {
+            writer.write(InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME + ","
+                    + InventoryEntry.COLUMN_INVENTORY_PRICE + ","
+                    + InventoryEntry.COLUMN_INVENTORY_QUANTITY + ","
+                    + InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME + ","
+                    + InventoryEntry.COLUMN_INVENTORY_SUPPLIER_PHONE + "\n");
+            for (int i = 0; i < ROWS; i++) {
+                writer.write("Product " + i + "," + (1 + i % 500) + "." + (10 + i % 90) + ","
+                        + i % 100 + ",Supplier " + i % 50 + "," + (5550000 + i % 50) + "\n");
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        mCsv.delete();
+    }
+
+    @Test
+    public void importMillionRows() throws Exception {
+        final BenchmarkResults results = new BenchmarkResults("csvImport", ROWS);
+        final long heapBefore = usedHeap();
+        final long[] peakRetained = new long[1];
+        final long[] lastReport = {0, System.nanoTime()};
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            pool.resetPeakUsage();
+        }
+
+        long start = System.nanoTime();
+        InventoryCsv.ImportResult result = InventoryCsv.importCsv(
+                RuntimeEnvironment.application.getContentResolver(), new FileInputStream(mCsv),
+                new InventoryCsv.ProgressListener() {
+                    @Override
+                    public void onProgress(long rowsRead, long rowsImported, long rowsRejected) {
+                        if (rowsRead - lastReport[0] < HEAP_SAMPLE_ROWS) {
+                            return;
+                        }
+                        results.add(System.nanoTime() - lastReport[1]);
+                        peakRetained[0] = Math.max(peakRetained[0], usedHeap() - heapBefore);
+                        lastReport[0] = rowsRead;
+                        // Not counting the collections just made
+                        lastReport[1] = System.nanoTime();
+                    }
+                });
+        long nanos = System.nanoTime() - start;
+
+        assertEquals(ROWS, result.rowsRead);
+        assertEquals(ROWS, result.rowsImported);
+        assertEquals(0, result.rowsRejected);
+
+        long peakHeap = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peakHeap += pool.getPeakUsage().getUsed();
+            }
+        }
+        results.put("rowsPerSec", ROWS * 1000000000L / nanos);
+        results.put("peakRetainedBytes", peakRetained[0]);
+        results.put("peakHeapBytes", peakHeap);
+        results.put("fileBytes", mCsv.length());
+        assertTrue("Import kept " + peakRetained[0] + " bytes",
+                peakRetained[0] < MAX_RETAINED_BYTES);
+        results.write();
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        // Several collections, so garbage from the import doesn't count as retained
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+}
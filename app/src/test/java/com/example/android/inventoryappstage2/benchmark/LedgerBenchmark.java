@@ -0,0 +1,132 @@
+package com.example.android.inventoryappstage2.benchmark;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.os.Bundle;
+
+import com.example.android.inventoryappstage2.data.InventoryContract;
+import com.example.android.inventoryappstage2.data.InventoryContract.InventoryEntry;
+import com.example.android.inventoryappstage2.data.InventoryContract.SalesEntry;
+import com.example.android.inventoryappstage2.data.InventoryDbHelper;
+import com.example.android.inventoryappstage2.data.InventoryProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Posts 1M sales to the ledger of a 1M item table through sell baskets, then reconciles
+ * - ledgerLoad samples are one bulkInsert of LOAD_CHUNK_SIZE new items, each of which
+ *   writes its first event. They stay flat however many items are already in the table
+ * - ledgerPost samples are one basket of BASKET_SIZE sales, one transaction each. Baskets
+ *   are drawn from the HOT_ITEMS best sellers, so each of those passes its snapshot
+ *   interval many times. The max is the sale that took a snapshot
+ * - ledgerReconcile samples are one item's reconciliation with the full ledger in place,
+ *   for every best seller and as many items that never sold
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class LedgerBenchmark {
+
+    private static final int ITEMS = 1000000;
+    private static final int LOAD_CHUNK_SIZE = 10000;
+    private static final int HOT_ITEMS = 1000;
+    private static final int EVENTS = 1000000;
+    private static final int BASKET_SIZE = 100;
+
+    /**
+     * Enough stock that no sale ever fails
+     */
+    private static final int INITIAL_QUANTITY = 10000000;
+
+    private final Random mRandom = new Random(42);
+    private InventoryProvider mProvider;
+    private InventoryDbHelper mDbHelper;
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.buildContentProvider(InventoryProvider.class)
+                .create(InventoryContract.CONTENT_AUTHORITY).get();
+        mProvider.setNotificationWindow(0);
+        mProvider.call(InventoryContract.METHOD_SET_METRICS_ENABLED, "false", null);
+        mDbHelper = new InventoryDbHelper(RuntimeEnvironment.application);
+    }
+
+    @After
+    public void tearDown() {
+        mDbHelper.close();
+    }
+
+    @Test
+    public void postAndReconcile() throws Exception {
+        BenchmarkResults load = new BenchmarkResults("ledgerLoad", ITEMS);
+        ContentValues[] chunk = new ContentValues[LOAD_CHUNK_SIZE];
+        for (int i = 0; i < ITEMS; i++) {
+            ContentValues values = new ContentValues();
+            values.put(InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME, "Product " + i);
+            values.put(InventoryEntry.COLUMN_INVENTORY_PRICE, 1 + i % 500);
+            values.put(InventoryEntry.COLUMN_INVENTORY_QUANTITY, INITIAL_QUANTITY);
+            values.put(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME, "Supplier " + i % 50);
+            values.put(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_PHONE, 5550000 + i % 50);
+            chunk[i % LOAD_CHUNK_SIZE] = values;
+            if (i % LOAD_CHUNK_SIZE == LOAD_CHUNK_SIZE - 1) {
+                long start = System.nanoTime();
+                assertEquals(LOAD_CHUNK_SIZE, mProvider.bulkInsert(InventoryEntry.CONTENT_URI, chunk));
+                load.add(System.nanoTime() - start);
+            }
+        }
+        load.write();
+
+        BenchmarkResults post = new BenchmarkResults("ledgerPost", ITEMS);
+        long[] basketIds = new long[BASKET_SIZE];
+        int[] counts = new int[BASKET_SIZE];
+        Arrays.fill(counts, 1);
+        Bundle extras = new Bundle();
+        for (int basket = 0; basket < EVENTS / BASKET_SIZE; basket++) {
+            // A basket holds distinct best sellers, one unit each. Ids start at 1
+            int first = mRandom.nextInt(HOT_ITEMS);
+            for (int i = 0; i < BASKET_SIZE; i++) {
+                basketIds[i] = 1 + (first + i) % HOT_ITEMS;
+            }
+            extras.putLongArray(InventoryContract.EXTRA_ITEM_IDS, basketIds);
+            extras.putIntArray(InventoryContract.EXTRA_COUNTS, counts);
+
+            long start = System.nanoTime();
+            Bundle result = mProvider.call(InventoryContract.METHOD_SELL_BASKET, null, extras);
+            post.add(System.nanoTime() - start);
+            assertTrue(result.getIntArray(InventoryContract.EXTRA_QUANTITIES)[0] >= 0);
+        }
+        // Only the best sellers were snapshot, each keeps its last few snapshots
+        post.put("snapshotRows", DatabaseUtils.queryNumEntries(mDbHelper.getReadableDatabase(),
+                SalesEntry.SNAPSHOT_TABLE_NAME));
+        post.write();
+
+        BenchmarkResults reconcile = new BenchmarkResults("ledgerReconcile", ITEMS);
+        for (int i = 0; i < 2 * HOT_ITEMS; i++) {
+            long id = i < HOT_ITEMS ? 1 + i : 1 + HOT_ITEMS + mRandom.nextInt(ITEMS - HOT_ITEMS);
+            long start = System.nanoTime();
+            Cursor cursor = mProvider.query(SalesEntry.buildReconcileUri(id), null, null, null, null);
+            try {
+                assertTrue(cursor.moveToFirst());
+                assertEquals(cursor.getLong(cursor.getColumnIndexOrThrow(SalesEntry.COLUMN_RECONCILE_QUANTITY)),
+                        cursor.getLong(cursor.getColumnIndexOrThrow(SalesEntry.COLUMN_LEDGER_QUANTITY)));
+            } finally {
+                cursor.close();
+            }
+            reconcile.add(System.nanoTime() - start);
+        }
+        reconcile.write();
+    }
+}
@@ -0,0 +1,223 @@
+package com.example.android.inventoryappstage2.benchmark;
+
+import android.content.ContentValues;
+import android.database.CharArrayBuffer;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.inventoryappstage2.data.InventoryContract;
+import com.example.android.inventoryappstage2.data.InventoryContract.InventoryEntry;
+import com.example.android.inventoryappstage2.data.InventoryProvider;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The list screen's cursor against the default SQLite cursor, over 100k rows
+ * Each cursor is scanned the way the adapter binds rows: moveToPosition(), then the _id,
+ * the name copied into a CharArrayBuffer, price and quantity. For each one it records
+ * - the time of each full scan (the first one fills the cursor)
+ * - allocatedBytes: bytes allocated by the first scan, and steadyAllocatedBytes by a later one
+ * - retainedBytes: heap still used once scanned, while the cursor is open
+ * Robolectric's CursorWindow lives on the Java heap, so the default cursor's window is
+ * part of its numbers here; on a device it is native memory, refilled as the cursor moves
+ * listCursorMillionRows grows the table to 1M rows and records
+ * - the time from the query to the first screen of rows bound, the list's first frame
+ * - firstFrameRetainedBytes: heap used by the cursor after its first frame, and
+ *   scannedRetainedBytes once every row was bound and it jumped back to the top. It has to
+ *   stay well below the 20 bytes per row a fully loaded cursor would hold
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class ListCursorBenchmark {
+
+    private static final int ITEMS = 100000;
+    private static final int MILLION_ITEMS = 1000000;
+    private static final int SCANS = 5;
+    private static final int LOAD_CHUNK_SIZE = 1000;
+
+    /**
+     * Page size the list screen asks for
+     */
+    private static final int PAGE_SIZE = 100;
+
+    /**
+     * Rows bound for the list's first frame
+     */
+    private static final int SCREEN_ROWS = 20;
+    private static final int FIRST_FRAMES = 20;
+
+    /**
+     * Most heap a 1M row list cursor may keep, a fully loaded one holds over 20 MB
+     */
+    private static final long MAX_MILLION_RETAINED_BYTES = 4L * 1024 * 1024;
+
+    private static final String[] LIST_PROJECTION = {
+            InventoryEntry._ID,
+            InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME,
+            InventoryEntry.COLUMN_INVENTORY_PRICE,
+            InventoryEntry.COLUMN_INVENTORY_QUANTITY};
+
+    private InventoryProvider mProvider;
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.buildContentProvider(InventoryProvider.class)
+                .create(InventoryContract.CONTENT_AUTHORITY).get();
+        mProvider.setNotificationWindow(0);
+        mProvider.call(InventoryContract.METHOD_SET_METRICS_ENABLED, "false", null);
+        load(0, ITEMS);
+    }
+
+    private void load(int from, int to) {
+        ContentValues[] chunk = new ContentValues[LOAD_CHUNK_SIZE];
+        for (int i = from; i < to; i++) {
+            ContentValues values = new ContentValues();
+            // A few hundred distinct names, like products stocked in several variants
+            values.put(InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME, "Product " + i % 500);
+            values.put(InventoryEntry.COLUMN_INVENTORY_PRICE, 1 + i % 500);
+            values.put(InventoryEntry.COLUMN_INVENTORY_QUANTITY, i % 100);
+            values.put(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME, "Supplier " + i % 50);
+            values.put(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_PHONE, 5550000 + i % 50);
+            chunk[i % LOAD_CHUNK_SIZE] = values;
+            if (i % LOAD_CHUNK_SIZE == LOAD_CHUNK_SIZE - 1) {
+                mProvider.bulkInsert(InventoryEntry.CONTENT_URI, chunk);
+            }
+        }
+    }
+
+    @Test
+    public void defaultCursor() throws Exception {
+        measure("defaultListCursor", InventoryEntry.CONTENT_URI);
+    }
+
+    @Test
+    public void listCursor() throws Exception {
+        measure("listCursor", pagedUri());
+    }
+
+    @Test
+    public void listCursorMillionRows() throws Exception {
+        load(ITEMS, MILLION_ITEMS);
+        Uri uri = pagedUri();
+        BenchmarkResults results = new BenchmarkResults("listCursorFirstFrame", MILLION_ITEMS);
+        CharArrayBuffer nameBuffer = new CharArrayBuffer(32);
+
+        for (int i = 0; i < FIRST_FRAMES; i++) {
+            long start = System.nanoTime();
+            Cursor cursor = mProvider.query(uri, LIST_PROJECTION, null, null, null);
+            bind(cursor, 0, SCREEN_ROWS, nameBuffer);
+            results.add(System.nanoTime() - start);
+            cursor.close();
+        }
+
+        long heapBefore = usedHeap();
+        Cursor cursor = mProvider.query(uri, LIST_PROJECTION, null, null, null);
+        try {
+            bind(cursor, 0, SCREEN_ROWS, nameBuffer);
+            results.put("firstFrameRetainedBytes", usedHeap() - heapBefore);
+            bind(cursor, 0, MILLION_ITEMS, nameBuffer);
+            bind(cursor, 0, SCREEN_ROWS, nameBuffer);
+            long retained = usedHeap() - heapBefore;
+            results.put("scannedRetainedBytes", retained);
+            assertTrue("List cursor kept " + retained + " bytes",
+                    retained < MAX_MILLION_RETAINED_BYTES);
+        } finally {
+            cursor.close();
+        }
+        results.write();
+    }
+
+    private static Uri pagedUri() {
+        return InventoryEntry.CONTENT_URI.buildUpon()
+                .appendQueryParameter(InventoryContract.QUERY_PARAMETER_PAGE_SIZE,
+                        String.valueOf(PAGE_SIZE))
+                .build();
+    }
+
+    private void measure(String benchmark, Uri uri) throws Exception {
+        BenchmarkResults results = new BenchmarkResults(benchmark, ITEMS);
+        CharArrayBuffer nameBuffer = new CharArrayBuffer(32);
+
+        long heapBefore = usedHeap();
+        long allocatedBefore = allocatedBytes();
+        long start = System.nanoTime();
+        Cursor cursor = mProvider.query(uri, LIST_PROJECTION, null, null, null);
+        long checksum = scan(cursor, nameBuffer);
+        results.add(System.nanoTime() - start);
+        results.put("allocatedBytes", allocatedBytes() - allocatedBefore);
+        try {
+            for (int i = 1; i < SCANS; i++) {
+                allocatedBefore = allocatedBytes();
+                start = System.nanoTime();
+                assertEquals(checksum, scan(cursor, nameBuffer));
+                results.add(System.nanoTime() - start);
+                results.put("steadyAllocatedBytes", allocatedBytes() - allocatedBefore);
+            }
+            results.put("retainedBytes", usedHeap() - heapBefore);
+        } finally {
+            cursor.close();
+        }
+        results.write();
+    }
+
+    /**
+     * Reads every row like the adapter binds it, returning a checksum of what was read
+     */
+    private static long scan(Cursor cursor, CharArrayBuffer nameBuffer) {
+        int idColumn = cursor.getColumnIndexOrThrow(InventoryEntry._ID);
+        int nameColumn = cursor.getColumnIndexOrThrow(InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME);
+        int priceColumn = cursor.getColumnIndexOrThrow(InventoryEntry.COLUMN_INVENTORY_PRICE);
+        int quantityColumn = cursor.getColumnIndexOrThrow(InventoryEntry.COLUMN_INVENTORY_QUANTITY);
+        assertEquals(ITEMS, cursor.getCount());
+
+        long checksum = 0;
+        for (int i = 0; i < ITEMS; i++) {
+            cursor.moveToPosition(i);
+            cursor.copyStringToBuffer(nameColumn, nameBuffer);
+            checksum += cursor.getLong(idColumn) + cursor.getInt(priceColumn)
+                    + cursor.getInt(quantityColumn) + nameBuffer.sizeCopied
+                    + nameBuffer.data[nameBuffer.sizeCopied - 1];
+        }
+        return checksum;
+    }
+
+    /**
+     * Binds rows from to to like the adapter does
+     */
+    private static long bind(Cursor cursor, int from, int to, CharArrayBuffer nameBuffer) {
+        long checksum = 0;
+        for (int i = from; i < to; i++) {
+            cursor.moveToPosition(i);
+            cursor.copyStringToBuffer(1, nameBuffer);
+            checksum += cursor.getLong(0) + cursor.getInt(2) + cursor.getInt(3)
+                    + nameBuffer.sizeCopied;
+        }
+        return checksum;
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        // Several collections, so garbage from the scan doesn't count as retained
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+}
@@ -0,0 +1,131 @@
+package com.example.android.inventoryappstage2.benchmark;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.inventoryappstage2.data.InventoryContract;
+import com.example.android.inventoryappstage2.data.InventoryContract.InventoryEntry;
+import com.example.android.inventoryappstage2.data.InventoryDbHelper;
+import com.example.android.inventoryappstage2.data.InventoryProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Lookups in a 100k item table, through the indexes and without them
+ * - lookupProductName samples find one product by name, in any case
+ * - lookupSupplier samples find the items of one supplier
+ * - lookupLowStock samples find the items with less than LOW_STOCK left
+ * The ...Scan results run the same queries with NOT INDEXED, which is what every lookup
+ * did before the indexes. Both read the table, not the view, so they differ only in that
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class LookupBenchmark {
+
+    private static final int ITEMS = 100000;
+    private static final int LOAD_CHUNK_SIZE = 10000;
+    private static final int SUPPLIERS = 500;
+    private static final int QUANTITIES = 1000;
+    private static final int LOW_STOCK = 5;
+    private static final int LOOKUPS = 200;
+
+    private static final String SQL_SELECT = "SELECT " + InventoryEntry._ID + ", "
+            + InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME + ", "
+            + InventoryEntry.COLUMN_INVENTORY_PRICE + ", "
+            + InventoryEntry.COLUMN_INVENTORY_QUANTITY + " FROM " + InventoryEntry.TABLE_NAME;
+
+    private static final String WHERE_PRODUCT_NAME = " WHERE "
+            + InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME + " = ? COLLATE NOCASE";
+    private static final String WHERE_SUPPLIER = " WHERE "
+            + InventoryEntry.COLUMN_INVENTORY_SUPPLIER_ID + " = ?";
+    private static final String WHERE_LOW_STOCK = " WHERE "
+            + InventoryEntry.COLUMN_INVENTORY_QUANTITY + " < ?";
+
+    private final Random mRandom = new Random(42);
+    private InventoryProvider mProvider;
+    private InventoryDbHelper mDbHelper;
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.buildContentProvider(InventoryProvider.class)
+                .create(InventoryContract.CONTENT_AUTHORITY).get();
+        mProvider.setNotificationWindow(0);
+        mProvider.call(InventoryContract.METHOD_SET_METRICS_ENABLED, "false", null);
+        mDbHelper = new InventoryDbHelper(RuntimeEnvironment.application);
+
+        ContentValues[] chunk = new ContentValues[LOAD_CHUNK_SIZE];
+        for (int i = 0; i < ITEMS; i++) {
+            ContentValues values = new ContentValues();
+            values.put(InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME, "Product " + i);
+            values.put(InventoryEntry.COLUMN_INVENTORY_PRICE, 1 + i % 500);
+            values.put(InventoryEntry.COLUMN_INVENTORY_QUANTITY, i % QUANTITIES);
+            values.put(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME, "Supplier " + i % SUPPLIERS);
+            values.put(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_PHONE, 5550000 + i % SUPPLIERS);
+            chunk[i % LOAD_CHUNK_SIZE] = values;
+            if (i % LOAD_CHUNK_SIZE == LOAD_CHUNK_SIZE - 1) {
+                assertEquals(LOAD_CHUNK_SIZE, mProvider.bulkInsert(InventoryEntry.CONTENT_URI, chunk));
+            }
+        }
+    }
+
+    @After
+    public void tearDown() {
+        mDbHelper.close();
+    }
+
+    @Test
+    public void lookups() throws Exception {
+        SQLiteDatabase database = mDbHelper.getReadableDatabase();
+        String[][] productNames = new String[LOOKUPS][];
+        String[][] suppliers = new String[LOOKUPS][];
+        for (int i = 0; i < LOOKUPS; i++) {
+            productNames[i] = new String[]{"PRODUCT " + mRandom.nextInt(ITEMS)};
+            // Suppliers were added in item order, so their ids are 1 to SUPPLIERS
+            suppliers[i] = new String[]{String.valueOf(1 + mRandom.nextInt(SUPPLIERS))};
+        }
+        String[][] lowStock = {{String.valueOf(LOW_STOCK)}};
+
+        lookup(database, "lookupProductName", WHERE_PRODUCT_NAME, productNames, 1);
+        lookup(database, "lookupSupplier", WHERE_SUPPLIER, suppliers, ITEMS / SUPPLIERS);
+        lookup(database, "lookupLowStock", WHERE_LOW_STOCK, lowStock, ITEMS / QUANTITIES * LOW_STOCK);
+    }
+
+    /**
+     * Runs the query once per args, LOOKUPS times in all, with and without the indexes
+     */
+    private static void lookup(SQLiteDatabase database, String name, String where, String[][] args,
+                               int rows) throws Exception {
+        BenchmarkResults indexed = new BenchmarkResults(name, ITEMS);
+        BenchmarkResults scan = new BenchmarkResults(name + "Scan", ITEMS);
+        for (int i = 0; i < LOOKUPS; i++) {
+            String[] lookupArgs = args[i % args.length];
+            indexed.add(time(database, SQL_SELECT + where, lookupArgs, rows));
+            scan.add(time(database, SQL_SELECT + " NOT INDEXED" + where, lookupArgs, rows));
+        }
+        indexed.write();
+        scan.write();
+    }
+
+    private static long time(SQLiteDatabase database, String sql, String[] args, int rows) {
+        long start = System.nanoTime();
+        Cursor cursor = database.rawQuery(sql, args);
+        try {
+            assertEquals(rows, cursor.getCount());
+        } finally {
+            cursor.close();
+        }
+        return System.nanoTime() - start;
+    }
+}
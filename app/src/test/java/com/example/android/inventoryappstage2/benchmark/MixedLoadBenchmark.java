@@ -0,0 +1,225 @@
+package com.example.android.inventoryappstage2.benchmark;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+
+import com.example.android.inventoryappstage2.data.InventoryContract;
+import com.example.android.inventoryappstage2.data.InventoryContract.InventoryEntry;
+import com.example.android.inventoryappstage2.data.InventoryProvider;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * READERS threads scanning pages of the inventory while one writer posts sales, in a
+ * 100k item table. The p50 (medianNs) and p99Ns of each result are the numbers to compare
+ * - readAlone and saleAlone samples are one page scan and one sale with nothing else running
+ * - mixedRead and mixedSale samples are the same, with the readers and the writer running
+ *   at once. With WAL the readers read a snapshot on their own connections, so mixedRead
+ *   should stay close to readAlone instead of waiting behind every sale's commit
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class MixedLoadBenchmark {
+
+    private static final int ITEMS = 100000;
+    private static final int LOAD_CHUNK_SIZE = 10000;
+    private static final int READERS = 3;
+    private static final int READS_PER_READER = 1000;
+    private static final int SALES_ALONE = 2000;
+
+    /**
+     * Rows read by one scan, a screen's worth of pages
+     */
+    private static final int SCAN_ROWS = 500;
+
+    private static final String[] LIST_PROJECTION = {
+            InventoryEntry._ID,
+            InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME,
+            InventoryEntry.COLUMN_INVENTORY_PRICE,
+            InventoryEntry.COLUMN_INVENTORY_QUANTITY};
+
+    private InventoryProvider mProvider;
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.buildContentProvider(InventoryProvider.class)
+                .create(InventoryContract.CONTENT_AUTHORITY).get();
+        mProvider.setNotificationWindow(0);
+        mProvider.call(InventoryContract.METHOD_SET_METRICS_ENABLED, "false", null);
+
+        ContentValues[] chunk = new ContentValues[LOAD_CHUNK_SIZE];
+        for (int i = 0; i < ITEMS; i++) {
+            ContentValues values = new ContentValues();
+            values.put(InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME, "Product " + i);
+            values.put(InventoryEntry.COLUMN_INVENTORY_PRICE, 1 + i % 500);
+            // Enough stock that no sale runs out
+            values.put(InventoryEntry.COLUMN_INVENTORY_QUANTITY, 100000);
+            values.put(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME, "Supplier " + i % 50);
+            values.put(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_PHONE, 5550000 + i % 50);
+            chunk[i % LOAD_CHUNK_SIZE] = values;
+            if (i % LOAD_CHUNK_SIZE == LOAD_CHUNK_SIZE - 1) {
+                assertEquals(LOAD_CHUNK_SIZE, mProvider.bulkInsert(InventoryEntry.CONTENT_URI, chunk));
+            }
+        }
+    }
+
+    @Test
+    public void readersAndWriter() throws Exception {
+        // Alone, which also warms up both paths
+        BenchmarkResults readAlone = new BenchmarkResults("readAlone", ITEMS);
+        Random random = new Random(42);
+        for (int i = 0; i < READERS * READS_PER_READER; i++) {
+            readAlone.add(scan(random));
+        }
+        BenchmarkResults saleAlone = new BenchmarkResults("saleAlone", ITEMS);
+        for (int i = 0; i < SALES_ALONE; i++) {
+            saleAlone.add(sell(random));
+        }
+
+        final long[][] readNanos = new long[READERS][READS_PER_READER];
+        final long[][] saleNanos = new long[1][];
+        final boolean[] readersDone = new boolean[1];
+        final Throwable[] failure = new Throwable[1];
+
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Random random = new Random(READERS);
+                long[] samples = new long[1024];
+                int count = 0;
+                try {
+                    while (true) {
+                        synchronized (readersDone) {
+                            if (readersDone[0]) {
+                                break;
+                            }
+                        }
+                        if (count == samples.length) {
+                            long[] grown = new long[samples.length * 2];
+                            System.arraycopy(samples, 0, grown, 0, count);
+                            samples = grown;
+                        }
+                        samples[count++] = sell(random);
+                    }
+                } catch (Throwable t) {
+                    fail(failure, t);
+                }
+                long[] done = new long[count];
+                System.arraycopy(samples, 0, done, 0, count);
+                saleNanos[0] = done;
+            }
+        });
+        Thread[] readers = new Thread[READERS];
+        for (int reader = 0; reader < READERS; reader++) {
+            final int index = reader;
+            readers[reader] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Random random = new Random(index);
+                    try {
+                        for (int i = 0; i < READS_PER_READER; i++) {
+                            readNanos[index][i] = scan(random);
+                        }
+                    } catch (Throwable t) {
+                        fail(failure, t);
+                    }
+                }
+            });
+        }
+
+        writer.start();
+        for (Thread reader : readers) {
+            reader.start();
+        }
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        synchronized (readersDone) {
+            readersDone[0] = true;
+        }
+        writer.join();
+        synchronized (failure) {
+            if (failure[0] != null) {
+                throw new AssertionError(failure[0]);
+            }
+        }
+
+        BenchmarkResults mixedRead = new BenchmarkResults("mixedRead", ITEMS);
+        for (long[] samples : readNanos) {
+            for (long sample : samples) {
+                mixedRead.add(sample);
+            }
+        }
+        BenchmarkResults mixedSale = new BenchmarkResults("mixedSale", ITEMS);
+        for (long sample : saleNanos[0]) {
+            mixedSale.add(sample);
+        }
+        assertTrue(saleNanos[0].length > 0);
+
+        readAlone.write();
+        saleAlone.write();
+        mixedRead.write();
+        mixedSale.write();
+    }
+
+    /**
+     * Reads SCAN_ROWS rows of the list from a random item on, like a loader's page
+     * return: nanoseconds taken
+     */
+    private long scan(Random random) {
+        Uri uri = InventoryEntry.CONTENT_URI.buildUpon()
+                .appendQueryParameter(InventoryContract.QUERY_PARAMETER_LIMIT,
+                        String.valueOf(SCAN_ROWS))
+                .appendQueryParameter(InventoryContract.QUERY_PARAMETER_AFTER_ID,
+                        String.valueOf(random.nextInt(ITEMS - SCAN_ROWS)))
+                .build();
+        long start = System.nanoTime();
+        Cursor cursor = mProvider.query(uri, LIST_PROJECTION, null, null, null);
+        try {
+            int rows = 0;
+            while (cursor.moveToNext()) {
+                cursor.getString(1);
+                cursor.getInt(3);
+                rows++;
+            }
+            assertEquals(SCAN_ROWS, rows);
+        } finally {
+            cursor.close();
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Sells one unit of a random item
+     * return: nanoseconds taken
+     */
+    private long sell(Random random) {
+        Bundle extras = new Bundle();
+        extras.putInt(InventoryContract.EXTRA_COUNT, 1);
+        String id = String.valueOf(1 + random.nextInt(ITEMS));
+        long start = System.nanoTime();
+        int quantity = mProvider.call(InventoryContract.METHOD_SELL, id, extras)
+                .getInt(InventoryContract.EXTRA_QUANTITY);
+        long nanos = System.nanoTime() - start;
+        assertTrue(quantity >= 0);
+        return nanos;
+    }
+
+    private static void fail(Throwable[] failure, Throwable t) {
+        synchronized (failure) {
+            failure[0] = t;
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.example.android.inventoryappstage2.benchmark;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.inventoryappstage2.data.InventoryContract;
+import com.example.android.inventoryappstage2.data.InventoryContract.InventoryEntry;
+import com.example.android.inventoryappstage2.data.InventoryProvider;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.ParameterizedRobolectricTestRunner;
+import org.robolectric.Robolectric;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Paged loading of the list, for every table size up to 1M items. The numbers of the paged
+ * queries should be the same at every size
+ * - keysetPage samples are one QUERY_PARAMETER_LIMIT page, after a random after_id
+ * - pagedFirstFrame samples are the time from a QUERY_PARAMETER_PAGE_SIZE query to the first
+ *   screen of rows bound. firstFrameRetainedBytes is the heap its cursor uses then, and
+ *   scrolledRetainedBytes once every row was bound and it went back to the top
+ * - unpagedFirstFrame samples are the same first frame from a query without paging
+ * The projection has the supplier name, so the paged query returns a PagedCursor, see
+ * ListCursorBenchmark for the list screen's own projection
+ */
+@RunWith(ParameterizedRobolectricTestRunner.class)
+@Config(sdk = 27)
+public class PagingBenchmark {
+
+    private static final int LOAD_CHUNK_SIZE = 10000;
+    private static final int PAGE_SIZE = 100;
+    private static final int SCREEN_ROWS = 20;
+    private static final int KEYSET_PAGES = 500;
+    private static final int FIRST_FRAMES = 10;
+
+    /**
+     * Most heap a paged cursor may keep after a scroll through the whole table
+     */
+    private static final long MAX_RETAINED_BYTES = 4L * 1024 * 1024;
+
+    private static final String[] PROJECTION = {
+            InventoryEntry._ID,
+            InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME,
+            InventoryEntry.COLUMN_INVENTORY_QUANTITY,
+            InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME};
+
+    @ParameterizedRobolectricTestRunner.Parameters(name = "tableSize={0}")
+    public static Collection<Object[]> tableSizes() {
+        return Arrays.asList(new Object[][]{{10000}, {100000}, {1000000}});
+    }
+
+    private final int mTableSize;
+    private final Random mRandom = new Random(42);
+    private InventoryProvider mProvider;
+
+    public PagingBenchmark(int tableSize) {
+        mTableSize = tableSize;
+    }
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.buildContentProvider(InventoryProvider.class)
+                .create(InventoryContract.CONTENT_AUTHORITY).get();
+        mProvider.setNotificationWindow(0);
+        mProvider.call(InventoryContract.METHOD_SET_METRICS_ENABLED, "false", null);
+
+        ContentValues[] chunk = new ContentValues[LOAD_CHUNK_SIZE];
+        for (int i = 0; i < mTableSize; i++) {
+            ContentValues values = new ContentValues();
+            values.put(InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME, "Product " + i);
+            values.put(InventoryEntry.COLUMN_INVENTORY_PRICE, 1 + i % 500);
+            values.put(InventoryEntry.COLUMN_INVENTORY_QUANTITY, i % 100);
+            values.put(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME, "Supplier " + i % 50);
+            values.put(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_PHONE, 5550000 + i % 50);
+            chunk[i % LOAD_CHUNK_SIZE] = values;
+            if (i % LOAD_CHUNK_SIZE == LOAD_CHUNK_SIZE - 1) {
+                assertEquals(LOAD_CHUNK_SIZE, mProvider.bulkInsert(InventoryEntry.CONTENT_URI, chunk));
+            }
+        }
+    }
+
+    @Test
+    public void keysetPage() throws Exception {
+        BenchmarkResults results = new BenchmarkResults("keysetPage", mTableSize);
+        for (int i = 0; i < KEYSET_PAGES; i++) {
+            Uri uri = InventoryEntry.CONTENT_URI.buildUpon()
+                    .appendQueryParameter(InventoryContract.QUERY_PARAMETER_LIMIT,
+                            String.valueOf(PAGE_SIZE))
+                    .appendQueryParameter(InventoryContract.QUERY_PARAMETER_AFTER_ID,
+                            String.valueOf(mRandom.nextInt(mTableSize - PAGE_SIZE)))
+                    .build();
+            long start = System.nanoTime();
+            Cursor cursor = mProvider.query(uri, PROJECTION, null, null, null);
+            try {
+                assertEquals(PAGE_SIZE, bind(cursor, 0, PAGE_SIZE));
+            } finally {
+                cursor.close();
+            }
+            results.add(System.nanoTime() - start);
+        }
+        results.write();
+    }
+
+    @Test
+    public void firstFrame() throws Exception {
+        Uri pagedUri = InventoryEntry.CONTENT_URI.buildUpon()
+                .appendQueryParameter(InventoryContract.QUERY_PARAMETER_PAGE_SIZE,
+                        String.valueOf(PAGE_SIZE))
+                .build();
+        BenchmarkResults paged = new BenchmarkResults("pagedFirstFrame", mTableSize);
+        BenchmarkResults unpaged = new BenchmarkResults("unpagedFirstFrame", mTableSize);
+        for (int i = 0; i < FIRST_FRAMES; i++) {
+            paged.add(firstFrame(pagedUri));
+            unpaged.add(firstFrame(InventoryEntry.CONTENT_URI));
+        }
+
+        long heapBefore = usedHeap();
+        Cursor cursor = mProvider.query(pagedUri, PROJECTION, null, null, null);
+        try {
+            bind(cursor, 0, SCREEN_ROWS);
+            paged.put("firstFrameRetainedBytes", usedHeap() - heapBefore);
+            assertEquals(mTableSize, bind(cursor, 0, mTableSize));
+            bind(cursor, 0, SCREEN_ROWS);
+            long retained = usedHeap() - heapBefore;
+            paged.put("scrolledRetainedBytes", retained);
+            assertTrue("Paged cursor kept " + retained + " bytes", retained < MAX_RETAINED_BYTES);
+        } finally {
+            cursor.close();
+        }
+
+        paged.write();
+        unpaged.write();
+    }
+
+    private long firstFrame(Uri uri) {
+        long start = System.nanoTime();
+        Cursor cursor = mProvider.query(uri, PROJECTION, null, null, null);
+        try {
+            // The list asks for the count to size its scroll bar
+            assertEquals(mTableSize, cursor.getCount());
+            bind(cursor, 0, SCREEN_ROWS);
+            return System.nanoTime() - start;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Binds rows from to to like the adapter does, returning how many were there
+     */
+    private static int bind(Cursor cursor, int from, int to) {
+        int rows = 0;
+        for (int i = from; i < to && cursor.moveToPosition(i); i++) {
+            cursor.getLong(0);
+            cursor.getString(1);
+            cursor.getInt(2);
+            cursor.getString(3);
+            rows++;
+        }
+        return rows;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        // Several collections, so garbage from the scroll doesn't count as retained
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+}
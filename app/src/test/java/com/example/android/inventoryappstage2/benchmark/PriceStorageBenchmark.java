@@ -0,0 +1,143 @@
+package com.example.android.inventoryappstage2.benchmark;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.inventoryappstage2.data.InventoryContract.InventoryEntry;
+import com.example.android.inventoryappstage2.data.InventoryContract.SupplierEntry;
+import com.example.android.inventoryappstage2.data.InventoryDbHelper;
+import com.example.android.inventoryappstage2.data.MigrationFixture;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * File size and price scan time of 1M items, before and after the version 10 step
+ * - before, prices with cents are what the version 9 schema stores for them: REAL values
+ *   of 8 bytes each, in the table and in both price indexes
+ * - after, the same prices are integer cents
+ * - priceScan samples are one full scan summing price * quantity, the file size of the
+ *   vacuumed database is the fileBytes field, and migrationMs is the upgrade itself
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class PriceStorageBenchmark {
+
+    private static final int ITEMS = 1000000;
+    private static final int SUPPLIERS = 50;
+    private static final int WARMUP_RUNS = 2;
+    private static final int RUNS = 10;
+
+    /** Snapshot trigger of the sales ledger, dropped while the table is loaded */
+    private static final String TRIGGER_SALES_SNAPSHOT = "sales_snapshot";
+
+    private static final String SQL_PRICE_SCAN = "SELECT SUM("
+            + InventoryEntry.COLUMN_INVENTORY_PRICE + " * " + InventoryEntry.COLUMN_INVENTORY_QUANTITY
+            + ") FROM " + InventoryEntry.TABLE_NAME;
+
+    private File mDatabaseFile;
+    private SQLiteDatabase mDatabase;
+    private InventoryDbHelper mDbHelper;
+
+    @Before
+    public void setUp() {
+        mDatabaseFile = RuntimeEnvironment.application.getDatabasePath(InventoryDbHelper.DATABASE_NAME);
+        mDatabase = MigrationFixture.createVersion1(mDatabaseFile);
+        mDbHelper = new InventoryDbHelper(RuntimeEnvironment.application);
+        MigrationFixture.upgrade(mDbHelper, mDatabase, 1, 9);
+
+        String snapshotTrigger = DatabaseUtils.stringForQuery(mDatabase,
+                "SELECT sql FROM sqlite_master WHERE type = 'trigger' AND name = ?",
+                new String[]{TRIGGER_SALES_SNAPSHOT});
+        mDatabase.execSQL("DROP TRIGGER " + TRIGGER_SALES_SNAPSHOT);
+
+        SQLiteStatement insertSupplier = mDatabase.compileStatement("INSERT INTO "
+                + SupplierEntry.TABLE_NAME + " (" + SupplierEntry.COLUMN_SUPPLIER_NAME + ", "
+                + SupplierEntry.COLUMN_SUPPLIER_PHONE + ") VALUES (?, ?)");
+        SQLiteStatement insertItem = mDatabase.compileStatement("INSERT INTO "
+                + InventoryEntry.TABLE_NAME + " (" + InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME + ", "
+                + InventoryEntry.COLUMN_INVENTORY_PRICE + ", " + InventoryEntry.COLUMN_INVENTORY_QUANTITY
+                + ", " + InventoryEntry.COLUMN_INVENTORY_SUPPLIER_ID + ") VALUES (?, ?, ?, ?)");
+        mDatabase.beginTransaction();
+        try {
+            for (int i = 0; i < SUPPLIERS; i++) {
+                insertSupplier.bindString(1, "Supplier " + i);
+                insertSupplier.bindString(2, "(555) 010-" + (1000 + i));
+                insertSupplier.executeInsert();
+            }
+            for (int i = 0; i < ITEMS; i++) {
+                insertItem.bindString(1, "Product " + i);
+                insertItem.bindDouble(2, 1 + i % 500 + i % 100 / 100.0);
+                insertItem.bindLong(3, i % 200);
+                insertItem.bindLong(4, 1 + i % SUPPLIERS);
+                insertItem.executeInsert();
+            }
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+            insertSupplier.close();
+            insertItem.close();
+        }
+
+        mDatabase.execSQL(snapshotTrigger);
+    }
+
+    @After
+    public void tearDown() {
+        mDatabase.close();
+    }
+
+    @Test
+    public void priceStorage() throws Exception {
+        BenchmarkResults before = new BenchmarkResults("priceScanVersion9", ITEMS);
+        long stockValueCents = DatabaseUtils.longForQuery(mDatabase, "SELECT SUM(CAST(ROUND("
+                + InventoryEntry.COLUMN_INVENTORY_PRICE + " * 100) AS INTEGER) * "
+                + InventoryEntry.COLUMN_INVENTORY_QUANTITY + ") FROM " + InventoryEntry.TABLE_NAME, null);
+        before.put("fileBytes", vacuumedSize());
+        scan(before);
+
+        long start = System.nanoTime();
+        MigrationFixture.upgrade(mDbHelper, mDatabase, 9, 10);
+        long migrationMs = (System.nanoTime() - start) / 1000000;
+
+        BenchmarkResults after = new BenchmarkResults("priceScanVersion10", ITEMS);
+        after.put("fileBytes", vacuumedSize());
+        after.put("migrationMs", migrationMs);
+        scan(after);
+
+        // Every price kept its cents
+        assertEquals(stockValueCents, DatabaseUtils.longForQuery(mDatabase, SQL_PRICE_SCAN, null));
+        assertEquals(0, DatabaseUtils.longForQuery(mDatabase, "SELECT COUNT(*) FROM "
+                + InventoryEntry.TABLE_NAME + " WHERE typeof(" + InventoryEntry.COLUMN_INVENTORY_PRICE
+                + ") != 'integer'", null));
+
+        before.write();
+        after.write();
+    }
+
+    private void scan(BenchmarkResults results) {
+        for (int run = 0; run < WARMUP_RUNS + RUNS; run++) {
+            long start = System.nanoTime();
+            DatabaseUtils.longForQuery(mDatabase, SQL_PRICE_SCAN, null);
+            long nanos = System.nanoTime() - start;
+            if (run >= WARMUP_RUNS) {
+                results.add(nanos);
+            }
+        }
+    }
+
+    private long vacuumedSize() {
+        mDatabase.execSQL("VACUUM");
+        return mDatabaseFile.length();
+    }
+}
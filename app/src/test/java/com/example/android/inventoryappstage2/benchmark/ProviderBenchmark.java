@@ -0,0 +1,265 @@
+package com.example.android.inventoryappstage2.benchmark;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.os.Bundle;
+
+import com.example.android.inventoryappstage2.data.InventoryContract;
+import com.example.android.inventoryappstage2.data.InventoryContract.InventoryEntry;
+import com.example.android.inventoryappstage2.data.InventoryProvider;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.ParameterizedRobolectricTestRunner;
+import org.robolectric.Robolectric;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Data layer benchmarks, run on the JVM against Robolectric's SQLite
+ * Each access pattern runs for every table size, calling InventoryProvider directly so the
+ * numbers are the provider and database cost without any IPC. Results go to
+ * build/benchmark-results/results.jsonl, see BenchmarkResults
+ * bulkLoad and rowByRowLoad fill the table through bulkInsert() and through one insert()
+ * per row, the load before and after the transactional bulkInsert. Both record rowsPerSec
+ */
+@RunWith(ParameterizedRobolectricTestRunner.class)
+@Config(sdk = 27)
+public class ProviderBenchmark {
+
+    private static final int WARMUP_OPS = 200;
+    private static final int POINT_LOOKUPS = 2000;
+    private static final int SALES = 1000;
+    private static final int FULL_SCANS = 10;
+    private static final int BULK_LOADS = 3;
+    private static final int EDITOR_OPENS = 2000;
+
+    /**
+     * Editor opens cycle through this many items, like a user going back and forth
+     */
+    private static final int EDITOR_ITEMS = 10;
+
+    /**
+     * Rows are loaded in chunks of this size, like the CSV import does
+     */
+    private static final int LOAD_CHUNK_SIZE = 500;
+
+    /**
+     * Every item starts with enough stock that no sale ever fails
+     */
+    private static final int INITIAL_QUANTITY = 1000000;
+
+    private static final String[] ITEM_PROJECTION = {
+            InventoryEntry._ID,
+            InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME,
+            InventoryEntry.COLUMN_INVENTORY_PRICE,
+            InventoryEntry.COLUMN_INVENTORY_QUANTITY,
+            InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME,
+            InventoryEntry.COLUMN_INVENTORY_SUPPLIER_PHONE};
+
+    @ParameterizedRobolectricTestRunner.Parameters(name = "tableSize={0}")
+    public static Collection<Object[]> tableSizes() {
+        return Arrays.asList(new Object[][]{{1000}, {10000}, {100000}});
+    }
+
+    private final int mTableSize;
+    private final Random mRandom = new Random(42);
+    private InventoryProvider mProvider;
+    private long[] mIds;
+
+    public ProviderBenchmark(int tableSize) {
+        mTableSize = tableSize;
+    }
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.buildContentProvider(InventoryProvider.class)
+                .create(InventoryContract.CONTENT_AUTHORITY).get();
+        // Notify straight away, nothing runs the main looper while we measure
+        mProvider.setNotificationWindow(0);
+    }
+
+    @Test
+    public void pointLookup() throws Exception {
+        loadTable();
+        BenchmarkResults results = new BenchmarkResults("pointLookup", mTableSize);
+        for (int i = 0; i < WARMUP_OPS + POINT_LOOKUPS; i++) {
+            long id = mIds[mRandom.nextInt(mIds.length)];
+            long start = System.nanoTime();
+            Cursor cursor = mProvider.query(ContentUris.withAppendedId(InventoryEntry.CONTENT_URI, id),
+                    ITEM_PROJECTION, null, null, null);
+            try {
+                assertTrue(cursor.moveToFirst());
+                cursor.getString(1);
+                cursor.getInt(2);
+                cursor.getInt(3);
+            } finally {
+                cursor.close();
+            }
+            if (i >= WARMUP_OPS) {
+                results.add(System.nanoTime() - start);
+            }
+        }
+        results.write();
+    }
+
+    /**
+     * Opening the editor queries a single item with the editor's projection, and re-opening
+     * or rotating queries the same item again
+     */
+    @Test
+    public void editorReopen() throws Exception {
+        loadTable();
+        BenchmarkResults results = new BenchmarkResults("editorReopen", mTableSize);
+        long[] editorIds = new long[EDITOR_ITEMS];
+        for (int i = 0; i < EDITOR_ITEMS; i++) {
+            editorIds[i] = mIds[mRandom.nextInt(mIds.length)];
+        }
+        for (int i = 0; i < WARMUP_OPS + EDITOR_OPENS; i++) {
+            long id = editorIds[i % EDITOR_ITEMS];
+            long start = System.nanoTime();
+            Cursor cursor = mProvider.query(ContentUris.withAppendedId(InventoryEntry.CONTENT_URI, id),
+                    ITEM_PROJECTION, null, null, null);
+            try {
+                assertTrue(cursor.moveToFirst());
+                cursor.getString(1);
+                cursor.getInt(2);
+                cursor.getInt(3);
+                cursor.getString(4);
+                cursor.getInt(5);
+            } finally {
+                cursor.close();
+            }
+            if (i >= WARMUP_OPS) {
+                results.add(System.nanoTime() - start);
+            }
+        }
+        results.write();
+    }
+
+    @Test
+    public void fullScan() throws Exception {
+        loadTable();
+        BenchmarkResults results = new BenchmarkResults("fullScan", mTableSize);
+        for (int i = 0; i < 1 + FULL_SCANS; i++) {
+            long start = System.nanoTime();
+            Cursor cursor = mProvider.query(InventoryEntry.CONTENT_URI, ITEM_PROJECTION,
+                    null, null, null);
+            int rows = 0;
+            try {
+                while (cursor.moveToNext()) {
+                    cursor.getString(1);
+                    cursor.getInt(3);
+                    rows++;
+                }
+            } finally {
+                cursor.close();
+            }
+            assertEquals(mTableSize, rows);
+            // The first scan only warms up
+            if (i > 0) {
+                results.add(System.nanoTime() - start);
+            }
+        }
+        results.write();
+    }
+
+    @Test
+    public void salesBurst() throws Exception {
+        loadTable();
+        BenchmarkResults results = new BenchmarkResults("salesBurst", mTableSize);
+        Bundle extras = new Bundle();
+        extras.putInt(InventoryContract.EXTRA_COUNT, 1);
+        for (int i = 0; i < WARMUP_OPS + SALES; i++) {
+            long id = mIds[mRandom.nextInt(mIds.length)];
+            long start = System.nanoTime();
+            Bundle result = mProvider.call(InventoryContract.METHOD_SELL, String.valueOf(id), extras);
+            if (i >= WARMUP_OPS) {
+                results.add(System.nanoTime() - start);
+            }
+            assertTrue(result.getInt(InventoryContract.EXTRA_QUANTITY) >= 0);
+        }
+        results.write();
+    }
+
+    @Test
+    public void bulkLoad() throws Exception {
+        BenchmarkResults results = new BenchmarkResults("bulkLoad", mTableSize);
+        long total = 0;
+        // One extra load to warm up
+        for (int i = 0; i < 1 + BULK_LOADS; i++) {
+            mProvider.delete(InventoryEntry.CONTENT_URI, null, null);
+            long start = System.nanoTime();
+            loadTable();
+            long nanos = System.nanoTime() - start;
+            if (i > 0) {
+                results.add(nanos);
+                total += nanos;
+            }
+        }
+        results.put("rowsPerSec", (long) mTableSize * BULK_LOADS * 1000000000L / total);
+        results.write();
+    }
+
+    /**
+     * The same load through insert(), each row its own transaction and notification, which is
+     * what ContentProvider's default bulkInsert() does. A single load, it is the slow one
+     */
+    @Test
+    public void rowByRowLoad() throws Exception {
+        BenchmarkResults results = new BenchmarkResults("rowByRowLoad", mTableSize);
+        long start = System.nanoTime();
+        for (int i = 0; i < mTableSize; i++) {
+            mProvider.insert(InventoryEntry.CONTENT_URI, item(i));
+        }
+        long nanos = System.nanoTime() - start;
+        results.add(nanos);
+        results.put("rowsPerSec", mTableSize * 1000000000L / nanos);
+        results.write();
+    }
+
+    /**
+     * Fills the table with mTableSize items through bulkInsert and remembers their ids
+     */
+    private void loadTable() {
+        ContentValues[] chunk = new ContentValues[LOAD_CHUNK_SIZE];
+        int chunkSize = 0;
+        for (int i = 0; i < mTableSize; i++) {
+            chunk[chunkSize++] = item(i);
+            if (chunkSize == LOAD_CHUNK_SIZE || i == mTableSize - 1) {
+                mProvider.bulkInsert(InventoryEntry.CONTENT_URI, Arrays.copyOf(chunk, chunkSize));
+                chunkSize = 0;
+            }
+        }
+
+        Cursor cursor = mProvider.query(InventoryEntry.CONTENT_URI,
+                new String[]{InventoryEntry._ID}, null, null, null);
+        try {
+            mIds = new long[cursor.getCount()];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                mIds[i] = cursor.getLong(0);
+            }
+        } finally {
+            cursor.close();
+        }
+        assertEquals(mTableSize, mIds.length);
+    }
+
+    private static ContentValues item(int i) {
+        ContentValues values = new ContentValues();
+        values.put(InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME, "Product " + i);
+        values.put(InventoryEntry.COLUMN_INVENTORY_PRICE, 1 + i % 500);
+        values.put(InventoryEntry.COLUMN_INVENTORY_QUANTITY, INITIAL_QUANTITY);
+        values.put(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME, "Supplier " + i % 50);
+        values.put(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_PHONE, 5550000 + i % 50);
+        return values;
+    }
+}
@@ -0,0 +1,176 @@
+package com.example.android.inventoryappstage2.benchmark;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Bundle;
+
+import com.example.android.inventoryappstage2.data.InventoryContract;
+import com.example.android.inventoryappstage2.data.InventoryContract.InventoryEntry;
+import com.example.android.inventoryappstage2.data.InventoryDbHelper;
+import com.example.android.inventoryappstage2.data.InventoryProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Deleting every item of 1M, and removing them afterwards
+ * - deleteAllItems is the one delete(CONTENT_URI) the list screen's "delete all" makes,
+ *   which now only marks the items deleted. hardDeleteNanos is the DELETE it used to run,
+ *   timed on the same rows once the purge is done
+ * - purgeReaderIdle samples are list page queries right after the delete, with nothing
+ *   else running, and purgeReader samples the same queries while METHOD_PURGE removes the
+ *   items on another thread. Their p99 and max are the reader stall. purgeNanos is the
+ *   whole purge, with the vacuum
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class PurgeBenchmark {
+
+    private static final int ITEMS = 1000000;
+    private static final int LOAD_CHUNK_SIZE = 10000;
+    private static final int IDLE_QUERIES = 200;
+
+    /**
+     * Page the list screen asks for first
+     */
+    private static final Uri FIRST_PAGE_URI = InventoryEntry.CONTENT_URI.buildUpon()
+            .appendQueryParameter(InventoryContract.QUERY_PARAMETER_LIMIT, "100").build();
+
+    private InventoryProvider mProvider;
+    private InventoryDbHelper mDbHelper;
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.buildContentProvider(InventoryProvider.class)
+                .create(InventoryContract.CONTENT_AUTHORITY).get();
+        mProvider.setNotificationWindow(0);
+        mProvider.call(InventoryContract.METHOD_SET_METRICS_ENABLED, "false", null);
+
+        mDbHelper = new InventoryDbHelper(RuntimeEnvironment.application);
+        load();
+    }
+
+    @After
+    public void tearDown() {
+        mDbHelper.close();
+    }
+
+    @Test
+    public void deleteAllThenPurge() throws Exception {
+        BenchmarkResults deleteAll = new BenchmarkResults("deleteAllItems", ITEMS);
+        long start = System.nanoTime();
+        assertEquals(ITEMS, mProvider.delete(InventoryEntry.CONTENT_URI, null, null));
+        deleteAll.add(System.nanoTime() - start);
+        assertEquals(0, firstPage());
+
+        BenchmarkResults idle = new BenchmarkResults("purgeReaderIdle", ITEMS);
+        for (int i = 0; i < IDLE_QUERIES; i++) {
+            start = System.nanoTime();
+            firstPage();
+            idle.add(System.nanoTime() - start);
+        }
+
+        BenchmarkResults reader = new BenchmarkResults("purgeReader", ITEMS);
+        Purge purge = new Purge();
+        Thread thread = new Thread(purge);
+        thread.start();
+        while (!purge.isDone()) {
+            start = System.nanoTime();
+            firstPage();
+            reader.add(System.nanoTime() - start);
+        }
+        thread.join();
+        purge.assertNoFailure();
+        assertEquals(ITEMS, purge.mPurgedRows);
+        SQLiteDatabase database = mDbHelper.getReadableDatabase();
+        assertEquals(0, DatabaseUtils.queryNumEntries(database, InventoryEntry.TABLE_NAME));
+        assertEquals(0, DatabaseUtils.longForQuery(database, "PRAGMA freelist_count", null));
+        reader.put("purgeNanos", purge.mNanos);
+        reader.put("purgedRows", purge.mPurgedRows);
+
+        // The same rows again, deleted the way delete-all used to
+        load();
+        start = System.nanoTime();
+        assertEquals(ITEMS, mDbHelper.getWritableDatabase().delete(InventoryEntry.TABLE_NAME, null, null));
+        deleteAll.put("hardDeleteNanos", System.nanoTime() - start);
+
+        deleteAll.write();
+        idle.write();
+        reader.write();
+    }
+
+    private void load() {
+        ContentValues[] chunk = new ContentValues[LOAD_CHUNK_SIZE];
+        for (int i = 0; i < ITEMS; i++) {
+            ContentValues values = new ContentValues();
+            values.put(InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME, "Product " + i);
+            values.put(InventoryEntry.COLUMN_INVENTORY_PRICE, 1 + i % 500);
+            values.put(InventoryEntry.COLUMN_INVENTORY_QUANTITY, 100);
+            values.put(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME, "Supplier " + i % 50);
+            values.put(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_PHONE, 5550000 + i % 50);
+            chunk[i % LOAD_CHUNK_SIZE] = values;
+            if (i % LOAD_CHUNK_SIZE == LOAD_CHUNK_SIZE - 1) {
+                assertEquals(LOAD_CHUNK_SIZE, mProvider.bulkInsert(InventoryEntry.CONTENT_URI, chunk));
+            }
+        }
+    }
+
+    /**
+     * Rows of the list's first page
+     */
+    private int firstPage() {
+        Cursor cursor = mProvider.query(FIRST_PAGE_URI, new String[]{InventoryEntry._ID,
+                InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME}, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Runs METHOD_PURGE once, timing it
+     */
+    private class Purge implements Runnable {
+
+        private volatile boolean mDone;
+        private long mNanos;
+        private long mPurgedRows;
+        private Throwable mFailure;
+
+        @Override
+        public void run() {
+            try {
+                long start = System.nanoTime();
+                Bundle result = mProvider.call(InventoryContract.METHOD_PURGE, null, null);
+                mNanos = System.nanoTime() - start;
+                mPurgedRows = result.getLong(InventoryContract.EXTRA_PURGED_ROWS);
+            } catch (Throwable t) {
+                mFailure = t;
+            } finally {
+                mDone = true;
+            }
+        }
+
+        boolean isDone() {
+            return mDone;
+        }
+
+        void assertNoFailure() {
+            if (mFailure != null) {
+                throw new AssertionError(mFailure);
+            }
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.example.android.inventoryappstage2.benchmark;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.inventoryappstage2.ReorderWorker;
+import com.example.android.inventoryappstage2.data.InventoryContract;
+import com.example.android.inventoryappstage2.data.InventoryContract.InventoryEntry;
+import com.example.android.inventoryappstage2.data.InventoryContract.ReorderEntry;
+import com.example.android.inventoryappstage2.data.InventoryDbHelper;
+import com.example.android.inventoryappstage2.data.InventoryProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Runtime of the reorder check with 1M items
+ * - reorderCheck samples are one check: read the flagged items, post the notification and
+ *   clear the flags. Before each one FLAGGED_PER_RUN random items drop below their threshold
+ * - reorderFullScan samples find the same items by scanning the inventory for quantities
+ *   below the threshold, which is what the check would cost without the flags
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class ReorderBenchmark {
+
+    private static final int ITEMS = 1000000;
+    private static final int LOAD_CHUNK_SIZE = 10000;
+    private static final int WARMUP_RUNS = 3;
+    private static final int RUNS = 20;
+    private static final int FLAGGED_PER_RUN = 200;
+
+    private static final String SQL_FULL_SCAN = "SELECT " + InventoryEntry._ID + " FROM "
+            + InventoryEntry.TABLE_NAME + " WHERE " + InventoryEntry.COLUMN_INVENTORY_QUANTITY
+            + " < " + InventoryEntry.COLUMN_INVENTORY_REORDER_THRESHOLD;
+
+    private final Random mRandom = new Random(42);
+    private final boolean[] mDropped = new boolean[ITEMS + 1];
+    private Context mContext;
+    private InventoryProvider mProvider;
+    private InventoryDbHelper mDbHelper;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        mProvider = Robolectric.buildContentProvider(InventoryProvider.class)
+                .create(InventoryContract.CONTENT_AUTHORITY).get();
+        mProvider.setNotificationWindow(0);
+        mProvider.call(InventoryContract.METHOD_SET_METRICS_ENABLED, "false", null);
+
+        mDbHelper = new InventoryDbHelper(mContext);
+
+        // Every item starts well above its threshold
+        ContentValues[] chunk = new ContentValues[LOAD_CHUNK_SIZE];
+        for (int i = 0; i < ITEMS; i++) {
+            ContentValues values = new ContentValues();
+            values.put(InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME, "Product " + i);
+            values.put(InventoryEntry.COLUMN_INVENTORY_PRICE, 1 + i % 500);
+            values.put(InventoryEntry.COLUMN_INVENTORY_QUANTITY, 100);
+            values.put(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME, "Supplier " + i % 50);
+            values.put(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_PHONE, 5550000 + i % 50);
+            chunk[i % LOAD_CHUNK_SIZE] = values;
+            if (i % LOAD_CHUNK_SIZE == LOAD_CHUNK_SIZE - 1) {
+                assertEquals(LOAD_CHUNK_SIZE, mProvider.bulkInsert(InventoryEntry.CONTENT_URI, chunk));
+            }
+        }
+    }
+
+    @After
+    public void tearDown() {
+        mDbHelper.close();
+    }
+
+    @Test
+    public void reorderCheck() throws Exception {
+        BenchmarkResults check = new BenchmarkResults("reorderCheck", ITEMS);
+        BenchmarkResults fullScan = new BenchmarkResults("reorderFullScan", ITEMS);
+        SQLiteDatabase database = mDbHelper.getReadableDatabase();
+
+        for (int run = 0; run < WARMUP_RUNS + RUNS; run++) {
+            int flagged = dropBelowThreshold();
+
+            long start = System.nanoTime();
+            assertEquals(flagged, ReorderWorker.checkReorders(mContext));
+            long checkNanos = System.nanoTime() - start;
+            assertEquals(0, DatabaseUtils.queryNumEntries(database, ReorderEntry.TABLE_NAME));
+
+            start = System.nanoTime();
+            Cursor cursor = database.rawQuery(SQL_FULL_SCAN, null);
+            try {
+                // Every item dropped so far is still below its threshold
+                assertEquals(FLAGGED_PER_RUN * (run + 1), cursor.getCount());
+            } finally {
+                cursor.close();
+            }
+            long fullScanNanos = System.nanoTime() - start;
+
+            if (run >= WARMUP_RUNS) {
+                check.add(checkNanos);
+                fullScan.add(fullScanNanos);
+            }
+        }
+        check.write();
+        fullScan.write();
+    }
+
+    /**
+     * Drops FLAGGED_PER_RUN items that are still fully stocked to below their threshold
+     * return: number of items flagged
+     */
+    private int dropBelowThreshold() {
+        ContentValues values = new ContentValues();
+        values.put(InventoryEntry.COLUMN_INVENTORY_QUANTITY, 1);
+        int flagged = 0;
+        while (flagged < FLAGGED_PER_RUN) {
+            int id = 1 + mRandom.nextInt(ITEMS);
+            if (mDropped[id]) {
+                continue;
+            }
+            mDropped[id] = true;
+            assertEquals(1, mProvider.update(ContentUris.withAppendedId(InventoryEntry.CONTENT_URI, id),
+                    values, null, null));
+            flagged++;
+        }
+        return flagged;
+    }
+}
@@ -0,0 +1,193 @@
+package com.example.android.inventoryappstage2.benchmark;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.view.View;
+
+import com.example.android.inventoryappstage2.InventoryCursorAdapter;
+import com.example.android.inventoryappstage2.data.InventoryContract;
+import com.example.android.inventoryappstage2.data.InventoryContract.InventoryEntry;
+import com.example.android.inventoryappstage2.data.InventoryProvider;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Scrolls the list screen's RecyclerView and adapter through 100k items, a frame at a time
+ * - scrollFrame samples are one frame of a steady fling, SCROLL_STEP_PX down: the rows
+ *   scrolled in are bound, from cursor pages loaded as needed
+ * - saleFrame samples are the frame after a sale, its re-query and swapCursor(). The rows
+ *   on screen are diffed in the background, and only the sold one is rebound once the
+ *   diff is posted back
+ * - jankyFrames counts the frames of each over FRAME_BUDGET_NANOS, allocatedBytesPerFrame
+ *   what a scroll frame allocates on average
+ * Robolectric doesn't draw, so the numbers are the bind and layout part of a frame only
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class ScrollBenchmark {
+
+    private static final int ITEMS = 100000;
+    private static final int LOAD_CHUNK_SIZE = 10000;
+    private static final int PAGE_SIZE = 100;
+    private static final int WIDTH_PX = 1080;
+    private static final int HEIGHT_PX = 1920;
+    private static final int SCROLL_STEP_PX = 300;
+    private static final int WARMUP_FRAMES = 200;
+    private static final int SCROLL_FRAMES = 5000;
+    private static final int SALE_FRAMES = 200;
+
+    /**
+     * One frame at 60 fps
+     */
+    private static final long FRAME_BUDGET_NANOS = 16666667;
+
+    private static final String[] LIST_PROJECTION = {
+            InventoryEntry._ID,
+            InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME,
+            InventoryEntry.COLUMN_INVENTORY_PRICE,
+            InventoryEntry.COLUMN_INVENTORY_QUANTITY};
+
+    private InventoryProvider mProvider;
+    private InventoryCursorAdapter mAdapter;
+    private RecyclerView mList;
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.buildContentProvider(InventoryProvider.class)
+                .create(InventoryContract.CONTENT_AUTHORITY).get();
+        mProvider.setNotificationWindow(0);
+        mProvider.call(InventoryContract.METHOD_SET_METRICS_ENABLED, "false", null);
+
+        ContentValues[] chunk = new ContentValues[LOAD_CHUNK_SIZE];
+        for (int i = 0; i < ITEMS; i++) {
+            ContentValues values = new ContentValues();
+            values.put(InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME, "Product " + i);
+            values.put(InventoryEntry.COLUMN_INVENTORY_PRICE, 1 + i % 500);
+            values.put(InventoryEntry.COLUMN_INVENTORY_QUANTITY, 1000);
+            values.put(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME, "Supplier " + i % 50);
+            values.put(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_PHONE, 5550000 + i % 50);
+            chunk[i % LOAD_CHUNK_SIZE] = values;
+            if (i % LOAD_CHUNK_SIZE == LOAD_CHUNK_SIZE - 1) {
+                mProvider.bulkInsert(InventoryEntry.CONTENT_URI, chunk);
+            }
+        }
+
+        mAdapter = new InventoryCursorAdapter(new InventoryCursorAdapter.OnItemClickListener() {
+            @Override
+            public void onItemClick(long id) {
+            }
+
+            @Override
+            public void onSaleClick(long id) {
+            }
+        });
+        mList = new RecyclerView(RuntimeEnvironment.application);
+        mList.setLayoutManager(new LinearLayoutManager(RuntimeEnvironment.application));
+        mList.setAdapter(mAdapter);
+    }
+
+    @Test
+    public void scroll() throws Exception {
+        Cursor cursor = query();
+        mAdapter.swapCursor(cursor);
+        layout();
+        LinearLayoutManager layoutManager = (LinearLayoutManager) mList.getLayoutManager();
+        int firstScreenRows = layoutManager.findLastVisibleItemPosition() + 1;
+
+        BenchmarkResults results = new BenchmarkResults("scrollFrame", ITEMS);
+        for (int i = 0; i < WARMUP_FRAMES; i++) {
+            mList.scrollBy(0, SCROLL_STEP_PX);
+        }
+        int janky = 0;
+        long allocatedBefore = allocatedBytes();
+        for (int i = 0; i < SCROLL_FRAMES; i++) {
+            long start = System.nanoTime();
+            mList.scrollBy(0, SCROLL_STEP_PX);
+            long nanos = System.nanoTime() - start;
+            results.add(nanos);
+            if (nanos > FRAME_BUDGET_NANOS) {
+                janky++;
+            }
+        }
+        results.put("allocatedBytesPerFrame", (allocatedBytes() - allocatedBefore) / SCROLL_FRAMES);
+        results.put("jankyFrames", janky);
+
+        int lastPosition = layoutManager.findLastVisibleItemPosition();
+        assertTrue("Scrolled to " + lastPosition, lastPosition > firstScreenRows);
+        results.put("rowsScrolled", lastPosition);
+        mAdapter.swapCursor(null);
+        cursor.close();
+        results.write();
+    }
+
+    @Test
+    public void sale() throws Exception {
+        Cursor cursor = query();
+        mAdapter.swapCursor(cursor);
+        layout();
+
+        BenchmarkResults results = new BenchmarkResults("saleFrame", ITEMS);
+        Bundle extras = new Bundle();
+        extras.putInt(InventoryContract.EXTRA_COUNT, 1);
+        int janky = 0;
+        for (int i = 0; i < SALE_FRAMES; i++) {
+            // Always an item on screen, the list is at the top
+            long id = mAdapter.getItemId(i % mList.getChildCount());
+            mProvider.call(InventoryContract.METHOD_SELL, String.valueOf(id), extras);
+
+            long start = System.nanoTime();
+            Cursor requeried = query();
+            mAdapter.swapCursor(requeried);
+            layout();
+            long nanos = System.nanoTime() - start;
+            // The loader closes the old cursor once the new one is delivered
+            cursor.close();
+            cursor = requeried;
+
+            results.add(nanos);
+            if (nanos > FRAME_BUDGET_NANOS) {
+                janky++;
+            }
+        }
+        results.put("jankyFrames", janky);
+        mAdapter.swapCursor(null);
+        cursor.close();
+        results.write();
+    }
+
+    private Cursor query() {
+        Uri uri = InventoryEntry.CONTENT_URI.buildUpon()
+                .appendQueryParameter(InventoryContract.QUERY_PARAMETER_PAGE_SIZE,
+                        String.valueOf(PAGE_SIZE))
+                .build();
+        return mProvider.query(uri, LIST_PROJECTION, null, null, null);
+    }
+
+    /**
+     * Measures and lays out the list at a phone's screen size, like a frame's traversal
+     */
+    private void layout() {
+        mList.measure(View.MeasureSpec.makeMeasureSpec(WIDTH_PX, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(HEIGHT_PX, View.MeasureSpec.EXACTLY));
+        mList.layout(0, 0, WIDTH_PX, HEIGHT_PX);
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
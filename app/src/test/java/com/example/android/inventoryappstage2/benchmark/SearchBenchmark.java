@@ -0,0 +1,141 @@
+package com.example.android.inventoryappstage2.benchmark;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.inventoryappstage2.data.InventoryContract;
+import com.example.android.inventoryappstage2.data.InventoryContract.InventoryEntry;
+import com.example.android.inventoryappstage2.data.InventoryDbHelper;
+import com.example.android.inventoryappstage2.data.InventoryProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.ParameterizedRobolectricTestRunner;
+import org.robolectric.Robolectric;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Search by typed text, for every table size
+ * - searchMatch samples are one SEARCH_URI query, the FTS prefix MATCH, read to the end
+ * - searchLike samples find the same items with LIKE '%text%' on product and supplier name,
+ *   which scans every item
+ * Every product name has a word of its own, "sku" and its number, and the text typed is
+ * one of those words, so each search finds a handful of items
+ */
+@RunWith(ParameterizedRobolectricTestRunner.class)
+@Config(sdk = 27)
+public class SearchBenchmark {
+
+    private static final int LOAD_CHUNK_SIZE = 10000;
+    private static final int WARMUP_SEARCHES = 5;
+    private static final int SEARCHES = 50;
+
+    private static final String[] PROJECTION = {
+            InventoryEntry._ID,
+            InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME,
+            InventoryEntry.COLUMN_INVENTORY_PRICE,
+            InventoryEntry.COLUMN_INVENTORY_QUANTITY};
+
+    private static final String SQL_LIKE = "SELECT " + InventoryEntry._ID + ", "
+            + InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME + ", "
+            + InventoryEntry.COLUMN_INVENTORY_PRICE + ", "
+            + InventoryEntry.COLUMN_INVENTORY_QUANTITY + " FROM " + InventoryEntry.VIEW_NAME
+            + " WHERE " + InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME + " LIKE ?1"
+            + " OR " + InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME + " LIKE ?1";
+
+    @ParameterizedRobolectricTestRunner.Parameters(name = "tableSize={0}")
+    public static Collection<Object[]> tableSizes() {
+        return Arrays.asList(new Object[][]{{10000}, {100000}, {1000000}});
+    }
+
+    private final int mTableSize;
+    private final Random mRandom = new Random(42);
+    private InventoryProvider mProvider;
+    private InventoryDbHelper mDbHelper;
+
+    public SearchBenchmark(int tableSize) {
+        mTableSize = tableSize;
+    }
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.buildContentProvider(InventoryProvider.class)
+                .create(InventoryContract.CONTENT_AUTHORITY).get();
+        mProvider.setNotificationWindow(0);
+        mProvider.call(InventoryContract.METHOD_SET_METRICS_ENABLED, "false", null);
+        mDbHelper = new InventoryDbHelper(RuntimeEnvironment.application);
+
+        ContentValues[] chunk = new ContentValues[Math.min(LOAD_CHUNK_SIZE, mTableSize)];
+        for (int i = 0; i < mTableSize; i++) {
+            ContentValues values = new ContentValues();
+            values.put(InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME, "Blue widget sku" + i);
+            values.put(InventoryEntry.COLUMN_INVENTORY_PRICE, 1 + i % 500);
+            values.put(InventoryEntry.COLUMN_INVENTORY_QUANTITY, 100);
+            values.put(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME, "Supplier " + i % 50);
+            values.put(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_PHONE, 5550000 + i % 50);
+            chunk[i % chunk.length] = values;
+            if (i % chunk.length == chunk.length - 1) {
+                assertEquals(chunk.length, mProvider.bulkInsert(InventoryEntry.CONTENT_URI, chunk));
+            }
+        }
+    }
+
+    @After
+    public void tearDown() {
+        mDbHelper.close();
+    }
+
+    @Test
+    public void matchAgainstLike() throws Exception {
+        BenchmarkResults match = new BenchmarkResults("searchMatch", mTableSize);
+        BenchmarkResults like = new BenchmarkResults("searchLike", mTableSize);
+        for (int i = 0; i < WARMUP_SEARCHES + SEARCHES; i++) {
+            String text = "sku" + mRandom.nextInt(mTableSize);
+
+            Uri uri = InventoryEntry.SEARCH_URI.buildUpon()
+                    .appendQueryParameter(InventoryContract.QUERY_PARAMETER_SEARCH, text).build();
+            long start = System.nanoTime();
+            int matchRows = rows(mProvider.query(uri, PROJECTION, null, null, null));
+            long matchNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            int likeRows = rows(mDbHelper.getReadableDatabase().rawQuery(SQL_LIKE,
+                    new String[]{"%" + text + "%"}));
+            long likeNanos = System.nanoTime() - start;
+
+            assertEquals(text, likeRows, matchRows);
+            if (i >= WARMUP_SEARCHES) {
+                match.add(matchNanos);
+                like.add(likeNanos);
+            }
+        }
+        match.write();
+        like.write();
+    }
+
+    /**
+     * Reads every row, like the list does as it is scrolled to the end
+     */
+    private static int rows(Cursor cursor) {
+        try {
+            int rows = 0;
+            while (cursor.moveToNext()) {
+                cursor.getString(1);
+                rows++;
+            }
+            return rows;
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package com.example.android.inventoryappstage2.benchmark;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+
+import com.example.android.inventoryappstage2.data.InventoryContract;
+import com.example.android.inventoryappstage2.data.InventoryContract.InventoryEntry;
+import com.example.android.inventoryappstage2.data.InventoryDbHelper;
+import com.example.android.inventoryappstage2.data.InventoryProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Point operations per second: get by id, update quantity, delete by id and insert
+ * - provider* samples go through InventoryProvider, which runs them on its compiled
+ *   statements, see StatementCache
+ * - sqliteApi* samples run the same operation through SQLiteDatabase.query/update/delete/insert,
+ *   which build and compile the SQL on every call, as the provider used to
+ * Get by id reads ids at random from the whole table, so almost every one misses the item cache
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class StatementBenchmark {
+
+    private static final int ITEMS = 10000;
+    private static final int WARMUP_OPS = 500;
+    private static final int OPS = 5000;
+
+    private static final String[] ITEM_PROJECTION = {
+            InventoryEntry._ID,
+            InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME,
+            InventoryEntry.COLUMN_INVENTORY_PRICE,
+            InventoryEntry.COLUMN_INVENTORY_QUANTITY,
+            InventoryEntry.COLUMN_INVENTORY_SUPPLIER_ID,
+            InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME,
+            InventoryEntry.COLUMN_INVENTORY_SUPPLIER_PHONE};
+
+    private final Random mRandom = new Random(42);
+    private InventoryProvider mProvider;
+    private InventoryDbHelper mDbHelper;
+    private SQLiteDatabase mDatabase;
+    private long mSupplierId;
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.buildContentProvider(InventoryProvider.class)
+                .create(InventoryContract.CONTENT_AUTHORITY).get();
+        mProvider.setNotificationWindow(0);
+        mProvider.call(InventoryContract.METHOD_SET_METRICS_ENABLED, "false", null);
+
+        ContentValues[] items = new ContentValues[ITEMS];
+        for (int i = 0; i < ITEMS; i++) {
+            items[i] = item(i);
+        }
+        assertEquals(ITEMS, mProvider.bulkInsert(InventoryEntry.CONTENT_URI, items));
+
+        mDbHelper = new InventoryDbHelper(RuntimeEnvironment.application);
+        mDatabase = mDbHelper.getWritableDatabase();
+        Cursor cursor = mDatabase.query(InventoryEntry.TABLE_NAME,
+                new String[]{InventoryEntry.COLUMN_INVENTORY_SUPPLIER_ID}, null, null, null, null, null, "1");
+        try {
+            assertTrue(cursor.moveToFirst());
+            mSupplierId = cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        mDbHelper.close();
+    }
+
+    @Test
+    public void getById() throws Exception {
+        BenchmarkResults provider = new BenchmarkResults("providerGetById", ITEMS);
+        BenchmarkResults sqliteApi = new BenchmarkResults("sqliteApiGetById", ITEMS);
+        for (int i = 0; i < WARMUP_OPS + OPS; i++) {
+            long id = 1 + mRandom.nextInt(ITEMS);
+
+            long start = System.nanoTime();
+            Cursor cursor = mProvider.query(ContentUris.withAppendedId(InventoryEntry.CONTENT_URI, id),
+                    ITEM_PROJECTION, null, null, null);
+            readAndClose(cursor);
+            long providerNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            cursor = mDatabase.query(InventoryEntry.VIEW_NAME, ITEM_PROJECTION,
+                    InventoryEntry._ID + "=?", new String[]{String.valueOf(id)}, null, null, null);
+            readAndClose(cursor);
+            long sqliteApiNanos = System.nanoTime() - start;
+
+            if (i >= WARMUP_OPS) {
+                provider.add(providerNanos);
+                sqliteApi.add(sqliteApiNanos);
+            }
+        }
+        provider.write();
+        sqliteApi.write();
+    }
+
+    @Test
+    public void updateQuantity() throws Exception {
+        BenchmarkResults provider = new BenchmarkResults("providerUpdateQuantity", ITEMS);
+        BenchmarkResults sqliteApi = new BenchmarkResults("sqliteApiUpdateQuantity", ITEMS);
+        ContentValues values = new ContentValues();
+        for (int i = 0; i < WARMUP_OPS + OPS; i++) {
+            long id = 1 + mRandom.nextInt(ITEMS);
+            values.put(InventoryEntry.COLUMN_INVENTORY_QUANTITY, mRandom.nextInt(100));
+
+            long start = System.nanoTime();
+            assertEquals(1, mProvider.update(ContentUris.withAppendedId(InventoryEntry.CONTENT_URI, id),
+                    values, null, null));
+            long providerNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            assertEquals(1, mDatabase.update(InventoryEntry.TABLE_NAME, values,
+                    InventoryEntry._ID + "=?", new String[]{String.valueOf(id)}));
+            long sqliteApiNanos = System.nanoTime() - start;
+
+            if (i >= WARMUP_OPS) {
+                provider.add(providerNanos);
+                sqliteApi.add(sqliteApiNanos);
+            }
+        }
+        provider.write();
+        sqliteApi.write();
+    }
+
+    /**
+     * Inserts and deletes alternate, so the table stays the same size
+     */
+    @Test
+    public void insertAndDelete() throws Exception {
+        BenchmarkResults providerInsert = new BenchmarkResults("providerInsert", ITEMS);
+        BenchmarkResults sqliteApiInsert = new BenchmarkResults("sqliteApiInsert", ITEMS);
+        BenchmarkResults providerDelete = new BenchmarkResults("providerDeleteById", ITEMS);
+        BenchmarkResults sqliteApiDelete = new BenchmarkResults("sqliteApiDeleteById", ITEMS);
+        for (int i = 0; i < WARMUP_OPS + OPS; i++) {
+            ContentValues values = item(ITEMS + i);
+
+            long start = System.nanoTime();
+            Uri itemUri = mProvider.insert(InventoryEntry.CONTENT_URI, values);
+            long providerInsertNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            assertEquals(1, mProvider.delete(itemUri, null, null));
+            long providerDeleteNanos = System.nanoTime() - start;
+
+            // The SQLite API writes the table directly, so it gets the resolved supplier
+            ContentValues row = new ContentValues();
+            row.put(InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME,
+                    values.getAsString(InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME));
+            row.put(InventoryEntry.COLUMN_INVENTORY_PRICE,
+                    values.getAsInteger(InventoryEntry.COLUMN_INVENTORY_PRICE));
+            row.put(InventoryEntry.COLUMN_INVENTORY_QUANTITY,
+                    values.getAsInteger(InventoryEntry.COLUMN_INVENTORY_QUANTITY));
+            row.put(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_ID, mSupplierId);
+
+            start = System.nanoTime();
+            long id = mDatabase.insert(InventoryEntry.TABLE_NAME, null, row);
+            long sqliteApiInsertNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            assertEquals(1, mDatabase.delete(InventoryEntry.TABLE_NAME,
+                    InventoryEntry._ID + "=?", new String[]{String.valueOf(id)}));
+            long sqliteApiDeleteNanos = System.nanoTime() - start;
+
+            if (i >= WARMUP_OPS) {
+                providerInsert.add(providerInsertNanos);
+                providerDelete.add(providerDeleteNanos);
+                sqliteApiInsert.add(sqliteApiInsertNanos);
+                sqliteApiDelete.add(sqliteApiDeleteNanos);
+            }
+        }
+        providerInsert.write();
+        sqliteApiInsert.write();
+        providerDelete.write();
+        sqliteApiDelete.write();
+    }
+
+    private static ContentValues item(int i) {
+        ContentValues values = new ContentValues();
+        values.put(InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME, "Product " + i);
+        values.put(InventoryEntry.COLUMN_INVENTORY_PRICE, 1 + i % 500);
+        values.put(InventoryEntry.COLUMN_INVENTORY_QUANTITY, 100);
+        values.put(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME, "Supplier " + i % 50);
+        values.put(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_PHONE, 5550000 + i % 50);
+        return values;
+    }
+
+    private static void readAndClose(Cursor cursor) {
+        try {
+            assertTrue(cursor.moveToFirst());
+            cursor.getString(1);
+            cursor.getInt(3);
+            cursor.getString(5);
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.android.inventoryappstage2.benchmark;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.inventoryappstage2.data.InventoryContract.SupplierEntry;
+import com.example.android.inventoryappstage2.data.InventoryDbHelper;
+import com.example.android.inventoryappstage2.data.MigrationFixture;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The version 6 step, which moves the suppliers of 100k items to their own table
+ * - the one sample is the step itself
+ * - fileBytesBefore and fileBytesAfter are the vacuumed file around it
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class SupplierMigrationBenchmark {
+
+    private static final int ITEMS = 100000;
+    private static final int SUPPLIERS = 500;
+
+    private File mDatabaseFile;
+    private SQLiteDatabase mDatabase;
+    private InventoryDbHelper mDbHelper;
+
+    @Before
+    public void setUp() {
+        mDatabaseFile = RuntimeEnvironment.application.getDatabasePath(InventoryDbHelper.DATABASE_NAME);
+        mDatabase = MigrationFixture.createVersion1(mDatabaseFile);
+        MigrationFixture.insertVersion1Items(mDatabase, ITEMS, SUPPLIERS);
+        mDbHelper = new InventoryDbHelper(RuntimeEnvironment.application);
+        MigrationFixture.upgrade(mDbHelper, mDatabase, 1, 5);
+    }
+
+    @After
+    public void tearDown() {
+        mDatabase.close();
+    }
+
+    @Test
+    public void supplierMigration() throws Exception {
+        BenchmarkResults results = new BenchmarkResults("supplierMigration", ITEMS);
+        results.put("fileBytesBefore", vacuumedSize());
+
+        long start = System.nanoTime();
+        MigrationFixture.upgrade(mDbHelper, mDatabase, 5, 6);
+        results.add(System.nanoTime() - start);
+
+        results.put("fileBytesAfter", vacuumedSize());
+        assertEquals(SUPPLIERS, DatabaseUtils.queryNumEntries(mDatabase, SupplierEntry.TABLE_NAME));
+        results.write();
+    }
+
+    private long vacuumedSize() {
+        mDatabase.execSQL("VACUUM");
+        return mDatabaseFile.length();
+    }
+}
@@ -0,0 +1,137 @@
+package com.example.android.inventoryappstage2.benchmark;
+
+import android.content.ContentValues;
+
+import com.example.android.inventoryappstage2.data.InventoryContract.InventoryEntry;
+import com.example.android.inventoryappstage2.data.InventoryFormat;
+import com.example.android.inventoryappstage2.data.ItemValidator;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Validations per second of new items, as the editor and the CSV import write them
+ * - itemValidator samples go through ItemValidator.validateInsert()
+ * - keyByKey samples make the checks the provider used to, with containsKey() and then
+ *   getAsString() or getAsInteger() per column, which parse Strings and box the result
+ * Each sample is the mean time of one validation over a batch of BATCH_SIZE rows, as one
+ * takes about as long as reading the clock. allocatedBytes is what the measured batches
+ * allocated in all
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class ValidationBenchmark {
+
+    private static final int BATCH_SIZE = 1000;
+    private static final int WARMUP_BATCHES = 200;
+    private static final int BATCHES = 2000;
+
+    @Test
+    public void validateInsert() throws Exception {
+        ContentValues[] rows = new ContentValues[BATCH_SIZE];
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            rows[i] = item(i);
+        }
+
+        BenchmarkResults itemValidator = new BenchmarkResults("itemValidatorValidateInsert", BATCH_SIZE);
+        BenchmarkResults keyByKey = new BenchmarkResults("keyByKeyValidateInsert", BATCH_SIZE);
+        long itemValidatorBytes = 0;
+        long keyByKeyBytes = 0;
+        for (int batch = 0; batch < WARMUP_BATCHES + BATCHES; batch++) {
+            long bytes = allocatedBytes();
+            long start = System.nanoTime();
+            for (ContentValues row : rows) {
+                ItemValidator.validateInsert(row);
+            }
+            long itemValidatorNanos = System.nanoTime() - start;
+            long itemValidatorBatchBytes = allocatedBytes() - bytes;
+
+            bytes = allocatedBytes();
+            start = System.nanoTime();
+            for (ContentValues row : rows) {
+                validateKeyByKey(row);
+            }
+            long keyByKeyNanos = System.nanoTime() - start;
+            long keyByKeyBatchBytes = allocatedBytes() - bytes;
+
+            if (batch >= WARMUP_BATCHES) {
+                itemValidator.add(itemValidatorNanos / BATCH_SIZE);
+                keyByKey.add(keyByKeyNanos / BATCH_SIZE);
+                itemValidatorBytes += itemValidatorBatchBytes;
+                keyByKeyBytes += keyByKeyBatchBytes;
+            }
+        }
+        itemValidator.put("allocatedBytes", itemValidatorBytes);
+        keyByKey.put("allocatedBytes", keyByKeyBytes);
+        itemValidator.write();
+        keyByKey.write();
+    }
+
+    /**
+     * Every other row as the CSV import writes it, with the quantity parsed and the rest
+     * Strings, the others as the editor does, with the price in cents
+     */
+    private static ContentValues item(int i) {
+        ContentValues values = new ContentValues();
+        values.put(InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME, "Product " + i);
+        values.put(InventoryEntry.COLUMN_INVENTORY_QUANTITY, i % 200);
+        values.put(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME, "Supplier " + i % 50);
+        values.put(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_PHONE, "(555) 010-" + (1000 + i % 50));
+        if (i % 2 == 0) {
+            values.put(InventoryEntry.COLUMN_INVENTORY_PRICE, String.valueOf(100 + i));
+        } else {
+            values.put(InventoryEntry.COLUMN_INVENTORY_PRICE, 100L + i);
+            values.put(InventoryEntry.COLUMN_INVENTORY_REORDER_THRESHOLD, "5");
+        }
+        return values;
+    }
+
+    /**
+     * The provider's checks before ItemValidator
+     */
+    private static void validateKeyByKey(ContentValues values) {
+        if (values.containsKey(InventoryEntry.COLUMN_INVENTORY_VERSION)) {
+            throw new IllegalArgumentException("Version is set by the provider");
+        }
+        if (values.containsKey(InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME)
+                && values.getAsString(InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME) == null) {
+            throw new IllegalArgumentException("Product requires a name");
+        }
+        if (values.containsKey(InventoryEntry.COLUMN_INVENTORY_PRICE)) {
+            Long price = values.getAsLong(InventoryEntry.COLUMN_INVENTORY_PRICE);
+            if (price == null || price < 0) {
+                throw new IllegalArgumentException("Product requires a price in whole cents");
+            }
+        }
+        if (values.containsKey(InventoryEntry.COLUMN_INVENTORY_QUANTITY)) {
+            Integer quantity = values.getAsInteger(InventoryEntry.COLUMN_INVENTORY_QUANTITY);
+            if (quantity == null || quantity < 0) {
+                throw new IllegalArgumentException("Product requires a quantity");
+            }
+        }
+        if (values.containsKey(InventoryEntry.COLUMN_INVENTORY_REORDER_THRESHOLD)) {
+            Integer threshold = values.getAsInteger(InventoryEntry.COLUMN_INVENTORY_REORDER_THRESHOLD);
+            if (threshold == null || threshold < 0) {
+                throw new IllegalArgumentException("Product requires a valid reorder threshold");
+            }
+        }
+        if (values.containsKey(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME)
+                && values.getAsString(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME) == null) {
+            throw new IllegalArgumentException("Supplier requires a name");
+        }
+        if (values.containsKey(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_PHONE)
+                && InventoryFormat.normalizePhone(
+                values.getAsString(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_PHONE)) == null) {
+            throw new IllegalArgumentException("Supplier requires a phone number");
+        }
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
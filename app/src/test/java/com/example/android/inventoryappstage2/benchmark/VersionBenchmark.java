@@ -0,0 +1,190 @@
+package com.example.android.inventoryappstage2.benchmark;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.inventoryappstage2.data.InventoryContract;
+import com.example.android.inventoryappstage2.data.InventoryContract.InventoryEntry;
+import com.example.android.inventoryappstage2.data.InventoryProvider;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * WRITERS threads incrementing the price of a few items, read then write
+ * - versionOptimistic samples are one increment through a compare-and-set update, retried
+ *   on a conflict. retries counts the conflicts
+ * - versionLocked samples are one increment with one lock held around the read and the
+ *   write, the way writers had to serialize before items had versions
+ * wallNanos is the time until every writer is done, its inverse is the throughput
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class VersionBenchmark {
+
+    private static final int WRITERS = 8;
+    private static final int ITEMS = 4;
+    private static final int INCREMENTS_PER_WRITER = 1000;
+
+    private static final String[] VERSIONED_PRICE = {
+            InventoryEntry.COLUMN_INVENTORY_PRICE,
+            InventoryEntry.COLUMN_INVENTORY_VERSION};
+
+    private InventoryProvider mProvider;
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.buildContentProvider(InventoryProvider.class)
+                .create(InventoryContract.CONTENT_AUTHORITY).get();
+        mProvider.setNotificationWindow(0);
+        mProvider.call(InventoryContract.METHOD_SET_METRICS_ENABLED, "false", null);
+    }
+
+    @Test
+    public void optimisticAgainstLockedWriters() throws Exception {
+        final Uri[] items = new Uri[ITEMS];
+        for (int i = 0; i < ITEMS; i++) {
+            items[i] = insertItem();
+        }
+        final AtomicLong retries = new AtomicLong();
+        BenchmarkResults optimistic = new BenchmarkResults("versionOptimistic", ITEMS);
+        optimistic.put("wallNanos", runWriters(optimistic, new Increment() {
+            @Override
+            public void run(Uri item) {
+                while (true) {
+                    long[] row = read(item);
+                    Uri expecting = item.buildUpon()
+                            .appendQueryParameter(InventoryContract.QUERY_PARAMETER_EXPECTED_VERSION,
+                                    String.valueOf(row[1]))
+                            .build();
+                    if (mProvider.update(expecting, price(row[0] + 1), null, null) == 1) {
+                        return;
+                    }
+                    retries.incrementAndGet();
+                }
+            }
+        }, items));
+        optimistic.put("retries", retries.get());
+        assertIncremented(items);
+
+        for (int i = 0; i < ITEMS; i++) {
+            items[i] = insertItem();
+        }
+        final Object lock = new Object();
+        BenchmarkResults locked = new BenchmarkResults("versionLocked", ITEMS);
+        locked.put("wallNanos", runWriters(locked, new Increment() {
+            @Override
+            public void run(Uri item) {
+                // Every writer waits for every other, whichever item they write
+                synchronized (lock) {
+                    long[] row = read(item);
+                    mProvider.update(item, price(row[0] + 1), null, null);
+                }
+            }
+        }, items));
+        assertIncremented(items);
+
+        optimistic.write();
+        locked.write();
+    }
+
+    /**
+     * Runs INCREMENTS_PER_WRITER increments on each of WRITERS threads at once, adding the
+     * time of each to results, and returns the nanoseconds until all are done
+     */
+    private static long runWriters(final BenchmarkResults results, final Increment increment,
+                                   final Uri[] items) throws Exception {
+        final long[][] samples = new long[WRITERS][INCREMENTS_PER_WRITER];
+        final Throwable[] failure = new Throwable[1];
+        Thread[] threads = new Thread[WRITERS];
+        for (int writer = 0; writer < WRITERS; writer++) {
+            final long[] writerSamples = samples[writer];
+            threads[writer] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < INCREMENTS_PER_WRITER; i++) {
+                            long start = System.nanoTime();
+                            increment.run(items[i % ITEMS]);
+                            writerSamples[i] = System.nanoTime() - start;
+                        }
+                    } catch (Throwable t) {
+                        synchronized (failure) {
+                            failure[0] = t;
+                        }
+                    }
+                }
+            });
+        }
+        long start = System.nanoTime();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long nanos = System.nanoTime() - start;
+        synchronized (failure) {
+            if (failure[0] != null) {
+                throw new AssertionError(failure[0]);
+            }
+        }
+        for (long[] writerSamples : samples) {
+            for (long sample : writerSamples) {
+                results.add(sample);
+            }
+        }
+        return nanos;
+    }
+
+    private void assertIncremented(Uri[] items) {
+        for (Uri item : items) {
+            assertEquals(WRITERS * INCREMENTS_PER_WRITER / ITEMS, read(item)[0]);
+        }
+    }
+
+    private Uri insertItem() {
+        ContentValues values = new ContentValues();
+        values.put(InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME, "Product");
+        values.put(InventoryEntry.COLUMN_INVENTORY_PRICE, 0);
+        values.put(InventoryEntry.COLUMN_INVENTORY_QUANTITY, 20);
+        values.put(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME, "Supplier");
+        values.put(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_PHONE, 5550000);
+        return mProvider.insert(InventoryEntry.CONTENT_URI, values);
+    }
+
+    private static ContentValues price(long price) {
+        ContentValues values = new ContentValues();
+        values.put(InventoryEntry.COLUMN_INVENTORY_PRICE, price);
+        return values;
+    }
+
+    /**
+     * Returns the item's price and version
+     */
+    private long[] read(Uri item) {
+        Cursor cursor = mProvider.query(item, VERSIONED_PRICE, null, null, null);
+        try {
+            cursor.moveToFirst();
+            return new long[]{cursor.getLong(0), cursor.getLong(1)};
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * One read and write of an item's price
+     */
+    private interface Increment {
+        void run(Uri item);
+    }
+}
@@ -0,0 +1,160 @@
+package com.example.android.inventoryappstage2.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.os.Bundle;
+
+import com.example.android.inventoryappstage2.data.InventoryContract.InventoryEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Counts the re-queries a burst of BURST sales causes in the loaders of the app
+ * - the list's loader observes the whole inventory, an open editor only its item
+ * - without a window every sale re-queries the list, which is how the provider notified
+ *   before changes were coalesced
+ * - with ChangeNotifier's window the burst re-queries the list and the sold item's editor
+ *   once, and never the editor of another item. Inside applyBatch() it is once per batch
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class ChangeNotificationTest {
+
+    private static final int ITEMS = 50;
+    private static final int BURST = 50;
+    private static final long SOLD_ID = 7;
+    private static final long OTHER_ID = 42;
+
+    private InventoryProvider mProvider;
+    private ContentResolver mResolver;
+    private final Requeries mList = new Requeries();
+    private final Requeries mSoldEditor = new Requeries();
+    private final Requeries mOtherEditor = new Requeries();
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.buildContentProvider(InventoryProvider.class)
+                .create(InventoryContract.CONTENT_AUTHORITY).get();
+        mProvider.setNotificationWindow(0);
+
+        ContentValues[] items = new ContentValues[ITEMS];
+        for (int i = 0; i < ITEMS; i++) {
+            items[i] = new ContentValues();
+            items[i].put(InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME, "Product " + i);
+            items[i].put(InventoryEntry.COLUMN_INVENTORY_PRICE, 100);
+            items[i].put(InventoryEntry.COLUMN_INVENTORY_QUANTITY, 1000);
+            items[i].put(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME, "Supplier");
+            items[i].put(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_PHONE, 5550000);
+        }
+        assertEquals(ITEMS, mProvider.bulkInsert(InventoryEntry.CONTENT_URI, items));
+
+        // Registered like CursorLoader's cursors, after the load
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+        mResolver.registerContentObserver(InventoryEntry.CONTENT_URI, true, mList);
+        mResolver.registerContentObserver(item(SOLD_ID), false, mSoldEditor);
+        mResolver.registerContentObserver(item(OTHER_ID), false, mOtherEditor);
+    }
+
+    @After
+    public void tearDown() {
+        mResolver.unregisterContentObserver(mList);
+        mResolver.unregisterContentObserver(mSoldEditor);
+        mResolver.unregisterContentObserver(mOtherEditor);
+    }
+
+    @Test
+    public void burstWithoutWindowRequeriesPerSale() {
+        for (int i = 0; i < BURST; i++) {
+            sell(SOLD_ID);
+        }
+        assertEquals(BURST, mList.mCount);
+        assertEquals(BURST, mSoldEditor.mCount);
+        assertEquals(0, mOtherEditor.mCount);
+    }
+
+    @Test
+    public void burstRequeriesOnce() {
+        mProvider.setNotificationWindow(ChangeNotifier.DEFAULT_WINDOW_MS);
+        for (int i = 0; i < BURST; i++) {
+            sell(SOLD_ID);
+        }
+        assertEquals(0, mList.mCount);
+
+        endWindow();
+        assertEquals(1, mList.mCount);
+        assertEquals(1, mSoldEditor.mCount);
+        assertEquals(0, mOtherEditor.mCount);
+    }
+
+    @Test
+    public void burstAcrossItemsRequeriesTheListOnce() {
+        mProvider.setNotificationWindow(ChangeNotifier.DEFAULT_WINDOW_MS);
+        for (int i = 0; i < BURST; i++) {
+            sell(1 + i % ITEMS);
+        }
+        endWindow();
+        assertEquals(1, mList.mCount);
+    }
+
+    @Test
+    public void batchRequeriesOnce() throws Exception {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        for (int i = 0; i < BURST; i++) {
+            operations.add(ContentProviderOperation.newUpdate(item(SOLD_ID))
+                    .withValue(InventoryEntry.COLUMN_INVENTORY_QUANTITY, i)
+                    .build());
+        }
+        mProvider.applyBatch(operations);
+        assertEquals(1, mList.mCount);
+        assertEquals(1, mSoldEditor.mCount);
+        assertEquals(0, mOtherEditor.mCount);
+    }
+
+    private static Uri item(long id) {
+        return ContentUris.withAppendedId(InventoryEntry.CONTENT_URI, id);
+    }
+
+    private void sell(long id) {
+        Bundle extras = new Bundle();
+        extras.putInt(InventoryContract.EXTRA_COUNT, 1);
+        mProvider.call(InventoryContract.METHOD_SELL, String.valueOf(id), extras);
+    }
+
+    private static void endWindow() {
+        Robolectric.getForegroundThreadScheduler().advanceBy(ChangeNotifier.DEFAULT_WINDOW_MS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Counts the changes a loader would re-query for
+     */
+    private static class Requeries extends ContentObserver {
+
+        private int mCount;
+
+        Requeries() {
+            super(null);
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            mCount++;
+        }
+    }
+}
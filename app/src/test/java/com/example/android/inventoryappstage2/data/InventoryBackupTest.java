@@ -0,0 +1,417 @@
+package com.example.android.inventoryappstage2.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Bundle;
+
+import com.example.android.inventoryappstage2.data.InventoryContract.InventoryEntry;
+import com.example.android.inventoryappstage2.data.InventoryContract.SalesEntry;
+import com.example.android.inventoryappstage2.data.InventoryContract.SummaryEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Backs up the database while a seller thread sells without pause, and restores it
+ * - the backup must be one consistent snapshot: its ledger, summary and items agree
+ * - the seller keeps selling during the backup, BackupBenchmark times its sales
+ * - a restore brings back the backup's rows, ids and search index, and no cached item
+ *   survives it
+ * - a restore refuses the seller's sales while it replaces the rows instead of holding
+ *   them: no sale waits longer than MAX_RESTORE_STALL_MS, and ledger and items still agree
+ * - InventoryWriteQueue reports the writes refused during a restore to onWriteRefused()
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class InventoryBackupTest {
+
+    private static final int ITEMS = 20000;
+
+    /** Enough stock that no sale ever fails */
+    private static final int INITIAL_QUANTITY = 1000000;
+
+    /** How long the seller runs before and after the backup */
+    private static final long SELL_ALONE_MS = 500;
+
+    /** Longest a sale may take while a restore runs, far below the time the restore takes */
+    private static final long MAX_RESTORE_STALL_MS = 100;
+
+    private InventoryProvider mProvider;
+    private File mBackupFile;
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.buildContentProvider(InventoryProvider.class)
+                .create(InventoryContract.CONTENT_AUTHORITY).get();
+        mProvider.setNotificationWindow(0);
+
+        ContentValues[] items = new ContentValues[ITEMS];
+        for (int i = 0; i < ITEMS; i++) {
+            items[i] = new ContentValues();
+            items[i].put(InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME, "Product " + i);
+            items[i].put(InventoryEntry.COLUMN_INVENTORY_PRICE, 1 + i % 500);
+            items[i].put(InventoryEntry.COLUMN_INVENTORY_QUANTITY, INITIAL_QUANTITY);
+            items[i].put(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME, "Supplier " + i % 50);
+            items[i].put(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_PHONE, 5550000 + i % 50);
+        }
+        assertEquals(ITEMS, mProvider.bulkInsert(InventoryEntry.CONTENT_URI, items));
+
+        mBackupFile = new File(RuntimeEnvironment.application.getFilesDir(), "inventory.backup");
+        mBackupFile.delete();
+    }
+
+    @Test
+    public void backupIsConsistentSnapshotWhileSelling() throws Exception {
+        Seller seller = new Seller();
+        Thread thread = new Thread(seller);
+        thread.start();
+        Thread.sleep(SELL_ALONE_MS);
+        seller.takeSales();
+
+        boolean complete = backup();
+        long salesDuringBackup = seller.takeSales();
+
+        Thread.sleep(SELL_ALONE_MS);
+        seller.stop();
+        thread.join();
+        seller.assertNoFailure();
+
+        assertTrue(complete);
+        assertTrue(salesDuringBackup > 0);
+        assertTrue(mBackupFile.exists());
+        assertFalse(new File(mBackupFile.getPath() + ".tmp").exists());
+        SQLiteDatabase backup = openBackup();
+        try {
+            assertEquals("ok", DatabaseUtils.stringForQuery(backup, "PRAGMA quick_check", null));
+            assertEquals(InventoryDbHelper.DATABASE_VERSION, backup.getVersion());
+            assertEquals(ITEMS, DatabaseUtils.queryNumEntries(backup, InventoryEntry.TABLE_NAME));
+            // Each sale writes its item, ledger and summary in one transaction
+            long unitsOnHand = DatabaseUtils.longForQuery(backup, "SELECT SUM("
+                    + InventoryEntry.COLUMN_INVENTORY_QUANTITY + ") FROM " + InventoryEntry.TABLE_NAME, null);
+            assertEquals(unitsOnHand, DatabaseUtils.longForQuery(backup, "SELECT SUM("
+                    + SalesEntry.COLUMN_DELTA + ") FROM " + SalesEntry.TABLE_NAME, null));
+            assertEquals(unitsOnHand, DatabaseUtils.longForQuery(backup, "SELECT "
+                    + SummaryEntry.COLUMN_UNITS_ON_HAND + " FROM " + SummaryEntry.TABLE_NAME, null));
+        } finally {
+            backup.close();
+        }
+    }
+
+    @Test
+    public void restoreBringsBackBackup() {
+        Uri item = ContentUris.withAppendedId(InventoryEntry.CONTENT_URI, 1);
+        sell(1, 10);
+        assertTrue(backup());
+
+        // Changes after the backup, with item 1 in the item cache
+        sell(1, 5);
+        assertEquals(INITIAL_QUANTITY - 15, quantity(item));
+        mProvider.delete(ContentUris.withAppendedId(InventoryEntry.CONTENT_URI, 2), null, null);
+        ContentValues values = new ContentValues();
+        values.put(InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME, "Gadget");
+        values.put(InventoryEntry.COLUMN_INVENTORY_PRICE, 100);
+        values.put(InventoryEntry.COLUMN_INVENTORY_QUANTITY, 3);
+        values.put(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME, "Supplier 0");
+        values.put(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_PHONE, 5550000);
+        long gadgetId = ContentUris.parseId(mProvider.insert(InventoryEntry.CONTENT_URI, values));
+
+        Bundle result = mProvider.call(InventoryContract.METHOD_RESTORE, mBackupFile.getName(), null);
+        assertTrue(result.getBoolean(InventoryContract.EXTRA_RESTORE_COMPLETE));
+
+        assertEquals(INITIAL_QUANTITY - 10, quantity(item));
+        assertEquals(INITIAL_QUANTITY, quantity(ContentUris.withAppendedId(InventoryEntry.CONTENT_URI, 2)));
+        assertEquals(-1, quantity(ContentUris.withAppendedId(InventoryEntry.CONTENT_URI, gadgetId)));
+        assertEquals(0, count(InventoryEntry.SEARCH_URI.buildUpon()
+                .appendQueryParameter(InventoryContract.QUERY_PARAMETER_SEARCH, "Gadget").build()));
+        assertEquals(1, count(InventoryEntry.SEARCH_URI.buildUpon()
+                .appendQueryParameter(InventoryContract.QUERY_PARAMETER_SEARCH, "Product 19999").build()));
+
+        // The triggers are back, and ids go on from the backup's sequence
+        sell(1, 1);
+        long newId = ContentUris.parseId(mProvider.insert(InventoryEntry.CONTENT_URI, values));
+        assertEquals(ITEMS + 1, newId);
+        assertEquals(1, count(InventoryEntry.SEARCH_URI.buildUpon()
+                .appendQueryParameter(InventoryContract.QUERY_PARAMETER_SEARCH, "Gadget").build()));
+        Cursor summary = mProvider.query(SummaryEntry.CONTENT_URI, null, null, null, null);
+        try {
+            assertTrue(summary.moveToFirst());
+            assertEquals((long) ITEMS * INITIAL_QUANTITY - 11 + 3, summary.getLong(
+                    summary.getColumnIndexOrThrow(SummaryEntry.COLUMN_UNITS_ON_HAND)));
+        } finally {
+            summary.close();
+        }
+        assertNull(mProvider.call(InventoryContract.METHOD_GET_BACKUP_PROGRESS, null, null)
+                .getString(InventoryContract.EXTRA_BACKUP_STEP));
+    }
+
+    @Test
+    public void restoreRefusesWritesWithoutStalling() throws Exception {
+        assertTrue(backup());
+        Seller seller = new Seller();
+        Thread thread = new Thread(seller);
+        thread.start();
+        Thread.sleep(SELL_ALONE_MS);
+        seller.takeMaxNanos();
+        seller.takeRefused();
+
+        long start = System.nanoTime();
+        Bundle result = mProvider.call(InventoryContract.METHOD_RESTORE, mBackupFile.getName(), null);
+        long restoreNanos = System.nanoTime() - start;
+        long restoreMaxNanos = seller.takeMaxNanos();
+        long refused = seller.takeRefused();
+
+        Thread.sleep(SELL_ALONE_MS);
+        seller.stop();
+        thread.join();
+        seller.assertNoFailure();
+
+        assertTrue(result.getBoolean(InventoryContract.EXTRA_RESTORE_COMPLETE));
+        assertTrue(refused > 0);
+        assertEquals(0, seller.takeRefused());
+        assertTrue("Longest sale " + restoreMaxNanos / 1000000 + " ms during a restore of "
+                        + restoreNanos / 1000000 + " ms",
+                restoreMaxNanos < TimeUnit.MILLISECONDS.toNanos(MAX_RESTORE_STALL_MS));
+        InventoryDbHelper dbHelper = new InventoryDbHelper(RuntimeEnvironment.application);
+        try {
+            SQLiteDatabase database = dbHelper.getReadableDatabase();
+            long unitsOnHand = DatabaseUtils.longForQuery(database, "SELECT SUM("
+                    + InventoryEntry.COLUMN_INVENTORY_QUANTITY + ") FROM " + InventoryEntry.TABLE_NAME, null);
+            assertEquals(unitsOnHand, DatabaseUtils.longForQuery(database, "SELECT SUM("
+                    + SalesEntry.COLUMN_DELTA + ") FROM " + SalesEntry.TABLE_NAME, null));
+        } finally {
+            dbHelper.close();
+        }
+    }
+
+    @Test
+    public void restoreRejectsOtherFiles() throws Exception {
+        FileOutputStream out = new FileOutputStream(mBackupFile);
+        try {
+            out.write(new byte[8192]);
+        } finally {
+            out.close();
+        }
+        Bundle result = mProvider.call(InventoryContract.METHOD_RESTORE, mBackupFile.getName(), null);
+        assertFalse(result.getBoolean(InventoryContract.EXTRA_RESTORE_COMPLETE));
+        assertEquals(ITEMS, count(InventoryEntry.CONTENT_URI));
+        assertFalse(RuntimeEnvironment.application.getDatabasePath(
+                InventoryBackup.RESTORE_DATABASE_NAME).exists());
+    }
+
+    @Test
+    public void writeQueueReportsRefusedWrites() throws Exception {
+        assertTrue(backup());
+        InventoryWriteQueue queue = new InventoryWriteQueue(RuntimeEnvironment.application);
+        final List<Integer> refused = new ArrayList<>();
+        final List<Integer> completed = new ArrayList<>();
+        InventoryWriteQueue.WriteCallback callback = new InventoryWriteQueue.WriteCallback() {
+            @Override
+            public void onWriteComplete(int token, Object result) {
+                completed.add(token);
+            }
+
+            @Override
+            public void onWriteRefused(int token) {
+                refused.add(token);
+            }
+        };
+
+        final Bundle[] restored = new Bundle[1];
+        Thread restore = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                restored[0] = mProvider.call(InventoryContract.METHOD_RESTORE,
+                        mBackupFile.getName(), null);
+            }
+        });
+        restore.start();
+        // The worker runs each write right away, on this thread
+        Bundle extras = new Bundle();
+        extras.putInt(InventoryContract.EXTRA_COUNT, 1);
+        ContentValues quantity = new ContentValues();
+        quantity.put(InventoryEntry.COLUMN_INVENTORY_QUANTITY, INITIAL_QUANTITY);
+        int writes = 0;
+        while (restore.isAlive()) {
+            if (writes % 2 == 0) {
+                queue.startCall(writes, callback, InventoryContract.METHOD_SELL, "1", extras);
+            } else {
+                queue.startUpdate(writes, callback,
+                        ContentUris.withAppendedId(InventoryEntry.CONTENT_URI, 2), quantity,
+                        null, null);
+            }
+            writes++;
+            ShadowLooper.runUiThreadTasks();
+        }
+        restore.join();
+        ShadowLooper.runUiThreadTasks();
+
+        assertTrue(restored[0].getBoolean(InventoryContract.EXTRA_RESTORE_COMPLETE));
+        assertFalse(refused.isEmpty());
+        // Every write is either made or refused, none is lost or reported as failed
+        assertEquals(writes, refused.size() + completed.size());
+
+        // Made again once the restore is done
+        completed.clear();
+        queue.startCall(writes, callback, InventoryContract.METHOD_SELL, "1", extras);
+        ShadowLooper.runUiThreadTasks();
+        assertEquals(Collections.singletonList(writes), completed);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void backupRequiresFileName() {
+        mProvider.call(InventoryContract.METHOD_BACKUP, null, null);
+    }
+
+    @Test
+    public void backupAndRestoreRefusePaths() {
+        String database = RuntimeEnvironment.application.getDatabasePath(
+                InventoryDbHelper.DATABASE_NAME).getPath();
+        String[] paths = {database, "../databases/" + InventoryDbHelper.DATABASE_NAME, ".."};
+        for (String path : paths) {
+            for (String method : new String[]{InventoryContract.METHOD_BACKUP,
+                    InventoryContract.METHOD_RESTORE}) {
+                try {
+                    mProvider.call(method, path, null);
+                    fail(method + " took " + path);
+                } catch (IllegalArgumentException expected) {
+                }
+            }
+        }
+        assertEquals(ITEMS, count(InventoryEntry.CONTENT_URI));
+    }
+
+    private boolean backup() {
+        Bundle result = mProvider.call(InventoryContract.METHOD_BACKUP, mBackupFile.getName(), null);
+        return result.getBoolean(InventoryContract.EXTRA_BACKUP_COMPLETE);
+    }
+
+    private SQLiteDatabase openBackup() {
+        return SQLiteDatabase.openDatabase(mBackupFile.getPath(), null, SQLiteDatabase.OPEN_READWRITE);
+    }
+
+    private void sell(long id, int count) {
+        Bundle extras = new Bundle();
+        extras.putInt(InventoryContract.EXTRA_COUNT, count);
+        mProvider.call(InventoryContract.METHOD_SELL, String.valueOf(id), extras);
+    }
+
+    /**
+     * The item's quantity, or -1 if there is no such item
+     */
+    private long quantity(Uri item) {
+        Cursor cursor = mProvider.query(item,
+                new String[]{InventoryEntry.COLUMN_INVENTORY_QUANTITY}, null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private int count(Uri uri) {
+        Cursor cursor = mProvider.query(uri, new String[]{InventoryEntry._ID}, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Sells one unit of a random item after another until stopped, timing each sale
+     * A sale refused during a restore is timed and counted, not a failure
+     */
+    private class Seller implements Runnable {
+
+        private final Random mRandom = new Random(42);
+        private volatile boolean mStopped;
+        private long mMaxNanos;
+        private long mSales;
+        private long mRefused;
+        private Throwable mFailure;
+
+        @Override
+        public void run() {
+            try {
+                while (!mStopped) {
+                    long start = System.nanoTime();
+                    boolean refused = false;
+                    try {
+                        sell(1 + mRandom.nextInt(ITEMS), 1);
+                    } catch (IllegalStateException e) {
+                        refused = true;
+                    }
+                    record(System.nanoTime() - start, refused);
+                }
+            } catch (Throwable t) {
+                synchronized (this) {
+                    mFailure = t;
+                }
+            }
+        }
+
+        private synchronized void record(long nanos, boolean refused) {
+            mMaxNanos = Math.max(mMaxNanos, nanos);
+            if (refused) {
+                mRefused++;
+            } else {
+                mSales++;
+            }
+        }
+
+        /** The longest sale since the last call */
+        synchronized long takeMaxNanos() {
+            long maxNanos = mMaxNanos;
+            mMaxNanos = 0;
+            return maxNanos;
+        }
+
+        /** The sales refused since the last call */
+        synchronized long takeRefused() {
+            long refused = mRefused;
+            mRefused = 0;
+            return refused;
+        }
+
+        /** The sales since the last call */
+        synchronized long takeSales() {
+            long sales = mSales;
+            mSales = 0;
+            return sales;
+        }
+
+        void stop() {
+            mStopped = true;
+        }
+
+        synchronized void assertNoFailure() {
+            if (mFailure != null) {
+                throw new AssertionError(mFailure);
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.example.android.inventoryappstage2.data;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that prices typed by the user are read as whole cents and shown back the same way,
+ * and that phone numbers are normalized to one form
+ */
+public class InventoryFormatTest {
+
+    @Test
+    public void pricesAreParsedToCents() {
+        assertEquals(1200, InventoryFormat.parsePrice("12"));
+        assertEquals(1250, InventoryFormat.parsePrice("12.5"));
+        assertEquals(1250, InventoryFormat.parsePrice("12.50"));
+        assertEquals(1200, InventoryFormat.parsePrice("12."));
+        assertEquals(5, InventoryFormat.parsePrice(".05"));
+        assertEquals(0, InventoryFormat.parsePrice("0"));
+        assertEquals(999999999, InventoryFormat.parsePrice("9999999.99"));
+
+        String[] rejected = {null, "", ".", "12.505", "1.2.3", "-1", "12,50", "1e3", " 12",
+                "12345678"};
+        for (String text : rejected) {
+            assertEquals(text, -1, InventoryFormat.parsePrice(text));
+        }
+    }
+
+    @Test
+    public void pricesAreFormattedWithTwoDecimals() {
+        assertEquals("0.00", InventoryFormat.formatPrice(0));
+        assertEquals("0.05", InventoryFormat.formatPrice(5));
+        assertEquals("12.50", InventoryFormat.formatPrice(1250));
+        assertEquals("-1.10", InventoryFormat.formatPrice(-110));
+        assertEquals("21474836.47", InventoryFormat.formatPrice(Integer.MAX_VALUE));
+
+        // The list formats into a buffer sized for any int
+        char[] buffer = new char[12];
+        int length = InventoryFormat.formatPrice(Integer.MIN_VALUE, buffer);
+        assertEquals("-21474836.48", new String(buffer, 0, length));
+
+        for (long cents = 0; cents < 100000; cents += 7) {
+            assertEquals(cents, InventoryFormat.parsePrice(InventoryFormat.formatPrice(cents)));
+        }
+    }
+
+    @Test
+    public void phoneNumbersAreNormalized() {
+        assertEquals("5551234567", InventoryFormat.normalizePhone("(555) 123-4567"));
+        assertEquals("5551234567", InventoryFormat.normalizePhone("555.123.4567"));
+        assertEquals("+442079460000", InventoryFormat.normalizePhone("+44 20 7946 0000"));
+        assertEquals("0201234567", InventoryFormat.normalizePhone("020/123 4567"));
+        assertEquals("1234", InventoryFormat.normalizePhone("1234"));
+        assertTrue(InventoryFormat.isPhone("(555) 123-4567"));
+
+        String[] rejected = {null, "", " - ", "+", "555-CALL-NOW", "555+1234", "1234567890123456"};
+        for (String phone : rejected) {
+            assertNull(phone, InventoryFormat.normalizePhone(phone));
+            assertFalse(phone, InventoryFormat.isPhone(phone));
+        }
+    }
+}
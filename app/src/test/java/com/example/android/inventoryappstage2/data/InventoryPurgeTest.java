@@ -0,0 +1,183 @@
+package com.example.android.inventoryappstage2.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Bundle;
+
+import com.example.android.inventoryappstage2.data.InventoryContract.InventoryEntry;
+import com.example.android.inventoryappstage2.data.InventoryContract.SummaryEntry;
+import com.example.android.inventoryappstage2.data.InventoryContract.SupplierEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Deleted items are tombstones until purged
+ * - no query, search, count or summary sees them, and they can't be sold, updated or
+ *   deleted again
+ * - METHOD_PURGE removes them with their search rows and gives the freed pages back,
+ *   turning on incremental vacuum first in a file that predates it
+ * - a supplier whose items are all deleted can be deleted, tombstones or not
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class InventoryPurgeTest {
+
+    private static final int ITEMS = 3000;
+
+    private static final String[] LIST_PROJECTION = {
+            InventoryEntry._ID,
+            InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME,
+            InventoryEntry.COLUMN_INVENTORY_PRICE,
+            InventoryEntry.COLUMN_INVENTORY_QUANTITY};
+
+    private InventoryProvider mProvider;
+    private InventoryDbHelper mDbHelper;
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.buildContentProvider(InventoryProvider.class)
+                .create(InventoryContract.CONTENT_AUTHORITY).get();
+        mProvider.setNotificationWindow(0);
+        mDbHelper = new InventoryDbHelper(RuntimeEnvironment.application);
+
+        ContentValues[] items = new ContentValues[ITEMS];
+        for (int i = 0; i < ITEMS; i++) {
+            items[i] = new ContentValues();
+            items[i].put(InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME, "Product " + i);
+            items[i].put(InventoryEntry.COLUMN_INVENTORY_PRICE, 100);
+            items[i].put(InventoryEntry.COLUMN_INVENTORY_QUANTITY, 10);
+            // Item 1 is the only one of its supplier
+            items[i].put(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME, i == 0 ? "Acme" : "Supplier");
+            items[i].put(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_PHONE, i == 0 ? 5550001 : 5550000);
+        }
+        assertEquals(ITEMS, mProvider.bulkInsert(InventoryEntry.CONTENT_URI, items));
+    }
+
+    @After
+    public void tearDown() {
+        mDbHelper.close();
+    }
+
+    @Test
+    public void deletedItemsAreHidden() {
+        Uri item = ContentUris.withAppendedId(InventoryEntry.CONTENT_URI, ITEMS);
+        assertEquals(1, mProvider.delete(item, null, null));
+        assertEquals(0, mProvider.delete(item, null, null));
+
+        assertEquals(0, count(item));
+        assertEquals(ITEMS - 1, count(InventoryEntry.CONTENT_URI));
+        assertEquals(ITEMS - 1, count(pagedUri()));
+        assertEquals(0, count(searchUri("Product " + (ITEMS - 1))));
+        assertEquals(ITEMS - 1, summaryItemCount());
+
+        ContentValues values = new ContentValues();
+        values.put(InventoryEntry.COLUMN_INVENTORY_QUANTITY, 3);
+        assertEquals(0, mProvider.update(item, values, null, null));
+        assertEquals(ITEMS - 1, mProvider.update(InventoryEntry.CONTENT_URI, values, null, null));
+        assertEquals(ITEMS - 1, DatabaseUtils.longForQuery(mDbHelper.getReadableDatabase(),
+                "SELECT COUNT(*) FROM " + InventoryEntry.TABLE_NAME + " WHERE "
+                        + InventoryEntry.COLUMN_INVENTORY_QUANTITY + " = 3", null));
+    }
+
+    @Test
+    public void purgeRemovesTombstones() {
+        assertEquals(ITEMS - 1, mProvider.delete(InventoryEntry.CONTENT_URI,
+                InventoryEntry._ID + " > ?", new String[]{"1"}));
+        assertEquals(1, count(pagedUri()));
+        assertEquals(1, summaryItemCount());
+        SQLiteDatabase database = mDbHelper.getReadableDatabase();
+        assertEquals(ITEMS, DatabaseUtils.queryNumEntries(database, InventoryEntry.TABLE_NAME));
+
+        Bundle result = mProvider.call(InventoryContract.METHOD_PURGE, null, null);
+        assertEquals(ITEMS - 1, result.getLong(InventoryContract.EXTRA_PURGED_ROWS));
+        assertEquals(1, DatabaseUtils.queryNumEntries(database, InventoryEntry.TABLE_NAME));
+        assertEquals(1, DatabaseUtils.queryNumEntries(database, InventoryEntry.FTS_TABLE_NAME));
+        assertEquals(0, DatabaseUtils.longForQuery(database, "PRAGMA freelist_count", null));
+        assertEquals(1, summaryItemCount());
+        assertEquals(1, count(searchUri("Product 0")));
+
+        assertEquals(0, mProvider.call(InventoryContract.METHOD_PURGE, null, null)
+                .getLong(InventoryContract.EXTRA_PURGED_ROWS));
+    }
+
+    @Test
+    public void purgeConvertsOlderFiles() {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        assertEquals(2, DatabaseUtils.longForQuery(database, "PRAGMA auto_vacuum", null));
+        // A file made before incremental vacuum was turned on at creation
+        database.execSQL("PRAGMA auto_vacuum = 0");
+        database.execSQL("VACUUM");
+        assertEquals(0, DatabaseUtils.longForQuery(database, "PRAGMA auto_vacuum", null));
+
+        assertEquals(ITEMS, mProvider.delete(InventoryEntry.CONTENT_URI, null, null));
+        assertEquals(ITEMS, mProvider.call(InventoryContract.METHOD_PURGE, null, null)
+                .getLong(InventoryContract.EXTRA_PURGED_ROWS));
+        assertEquals(2, DatabaseUtils.longForQuery(database, "PRAGMA auto_vacuum", null));
+        assertEquals(0, DatabaseUtils.longForQuery(database, "PRAGMA freelist_count", null));
+    }
+
+    @Test
+    public void supplierOfDeletedItemsCanBeDeleted() {
+        Uri supplier = ContentUris.withAppendedId(SupplierEntry.CONTENT_URI, supplierId(1));
+        assertEquals(0, mProvider.delete(supplier, null, null));
+
+        assertEquals(1, mProvider.delete(ContentUris.withAppendedId(InventoryEntry.CONTENT_URI, 1),
+                null, null));
+        assertEquals(1, mProvider.delete(supplier, null, null));
+        assertEquals(ITEMS - 1, DatabaseUtils.queryNumEntries(mDbHelper.getReadableDatabase(),
+                InventoryEntry.TABLE_NAME));
+    }
+
+    private static Uri pagedUri() {
+        return InventoryEntry.CONTENT_URI.buildUpon()
+                .appendQueryParameter(InventoryContract.QUERY_PARAMETER_PAGE_SIZE, "100").build();
+    }
+
+    private static Uri searchUri(String text) {
+        return InventoryEntry.SEARCH_URI.buildUpon()
+                .appendQueryParameter(InventoryContract.QUERY_PARAMETER_SEARCH, text).build();
+    }
+
+    private long supplierId(long itemId) {
+        Cursor cursor = mProvider.query(ContentUris.withAppendedId(InventoryEntry.CONTENT_URI, itemId),
+                new String[]{InventoryEntry.COLUMN_INVENTORY_SUPPLIER_ID}, null, null, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private long summaryItemCount() {
+        Cursor cursor = mProvider.query(SummaryEntry.CONTENT_URI, null, null, null, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getLong(cursor.getColumnIndexOrThrow(SummaryEntry.COLUMN_ITEM_COUNT));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private int count(Uri uri) {
+        Cursor cursor = mProvider.query(uri, LIST_PROJECTION, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+}
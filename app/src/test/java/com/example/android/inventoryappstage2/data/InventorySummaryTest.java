@@ -0,0 +1,186 @@
+package com.example.android.inventoryappstage2.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+
+import com.example.android.inventoryappstage2.data.InventoryContract.InventoryEntry;
+import com.example.android.inventoryappstage2.data.InventoryContract.SummaryEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the trigger maintained summary row against a full scan of the inventory after
+ * randomized sequences of inserts, edits, sales and deletes
+ * - items get random reorder thresholds, and edits change them alone too, so an item is
+ *   low on stock by its own threshold
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class InventorySummaryTest {
+
+    private static final int SEQUENCES = 20;
+    private static final int STEPS_PER_SEQUENCE = 200;
+
+    private InventoryProvider mProvider;
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.buildContentProvider(InventoryProvider.class)
+                .create(InventoryContract.CONTENT_AUTHORITY).get();
+        mProvider.setNotificationWindow(0);
+    }
+
+    @Test
+    public void emptyInventoryHasZeroTotals() {
+        assertSummaryMatchesFullScan();
+    }
+
+    @Test
+    public void summaryMatchesFullScanAfterRandomMutations() {
+        for (int sequence = 0; sequence < SEQUENCES; sequence++) {
+            Random random = new Random(sequence);
+            ArrayList<Long> ids = new ArrayList<>();
+            for (int step = 0; step < STEPS_PER_SEQUENCE; step++) {
+                mutate(random, ids);
+                if (step % 10 == 0) {
+                    assertSummaryMatchesFullScan();
+                }
+            }
+            assertSummaryMatchesFullScan();
+        }
+    }
+
+    /**
+     * Applies one random change through the provider, keeping ids in step with the table
+     */
+    private void mutate(Random random, ArrayList<Long> ids) {
+        int action = ids.isEmpty() ? 0 : random.nextInt(10);
+        if (action <= 2) {
+            // Insert, quantities and thresholds around the low stock threshold
+            Uri itemUri = mProvider.insert(InventoryEntry.CONTENT_URI, randomItem(random));
+            ids.add(ContentUris.parseId(itemUri));
+        } else if (action <= 4) {
+            // Edit price and/or quantity, or only the reorder threshold
+            long id = ids.get(random.nextInt(ids.size()));
+            ContentValues values = new ContentValues();
+            if (random.nextInt(3) == 0) {
+                values.put(InventoryEntry.COLUMN_INVENTORY_REORDER_THRESHOLD,
+                        randomThreshold(random));
+            } else {
+                if (random.nextBoolean()) {
+                    values.put(InventoryEntry.COLUMN_INVENTORY_PRICE, random.nextInt(1000));
+                }
+                values.put(InventoryEntry.COLUMN_INVENTORY_QUANTITY,
+                        random.nextInt(SummaryEntry.LOW_STOCK_THRESHOLD * 3));
+            }
+            mProvider.update(ContentUris.withAppendedId(InventoryEntry.CONTENT_URI, id),
+                    values, null, null);
+        } else if (action <= 6) {
+            // Sell, which may fail for lack of stock
+            long id = ids.get(random.nextInt(ids.size()));
+            Bundle extras = new Bundle();
+            extras.putInt(InventoryContract.EXTRA_COUNT, 1 + random.nextInt(3));
+            mProvider.call(InventoryContract.METHOD_SELL, String.valueOf(id), extras);
+        } else if (action <= 7) {
+            // Bulk insert
+            ContentValues[] rows = new ContentValues[1 + random.nextInt(5)];
+            for (int i = 0; i < rows.length; i++) {
+                rows[i] = randomItem(random);
+            }
+            mProvider.bulkInsert(InventoryEntry.CONTENT_URI, rows);
+            reloadIds(ids);
+        } else if (action <= 8) {
+            long id = ids.remove(random.nextInt(ids.size()));
+            mProvider.delete(ContentUris.withAppendedId(InventoryEntry.CONTENT_URI, id), null, null);
+        } else if (random.nextInt(5) == 0) {
+            mProvider.delete(InventoryEntry.CONTENT_URI, null, null);
+            ids.clear();
+        }
+    }
+
+    private static ContentValues randomItem(Random random) {
+        ContentValues values = new ContentValues();
+        values.put(InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME, "Product " + random.nextInt());
+        values.put(InventoryEntry.COLUMN_INVENTORY_PRICE, random.nextInt(1000));
+        values.put(InventoryEntry.COLUMN_INVENTORY_QUANTITY,
+                random.nextInt(SummaryEntry.LOW_STOCK_THRESHOLD * 3));
+        // Some left out, they get DEFAULT_REORDER_THRESHOLD
+        if (random.nextInt(4) != 0) {
+            values.put(InventoryEntry.COLUMN_INVENTORY_REORDER_THRESHOLD, randomThreshold(random));
+        }
+        values.put(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME, "Supplier");
+        values.put(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_PHONE, 5550000);
+        return values;
+    }
+
+    private static int randomThreshold(Random random) {
+        return random.nextInt(SummaryEntry.LOW_STOCK_THRESHOLD * 2 + 1);
+    }
+
+    private void reloadIds(ArrayList<Long> ids) {
+        ids.clear();
+        Cursor cursor = mProvider.query(InventoryEntry.CONTENT_URI,
+                new String[]{InventoryEntry._ID}, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void assertSummaryMatchesFullScan() {
+        long itemCount = 0;
+        long unitsOnHand = 0;
+        long stockValue = 0;
+        long lowStockCount = 0;
+        Cursor items = mProvider.query(InventoryEntry.CONTENT_URI, new String[]{
+                InventoryEntry.COLUMN_INVENTORY_PRICE,
+                InventoryEntry.COLUMN_INVENTORY_QUANTITY,
+                InventoryEntry.COLUMN_INVENTORY_REORDER_THRESHOLD}, null, null, null);
+        try {
+            while (items.moveToNext()) {
+                long price = items.getLong(0);
+                long quantity = items.getLong(1);
+                itemCount++;
+                unitsOnHand += quantity;
+                stockValue += price * quantity;
+                if (quantity < items.getLong(2)) {
+                    lowStockCount++;
+                }
+            }
+        } finally {
+            items.close();
+        }
+
+        Cursor summary = mProvider.query(SummaryEntry.CONTENT_URI, null, null, null, null);
+        try {
+            assertTrue(summary.moveToFirst());
+            assertEquals(itemCount, getLong(summary, SummaryEntry.COLUMN_ITEM_COUNT));
+            assertEquals(unitsOnHand, getLong(summary, SummaryEntry.COLUMN_UNITS_ON_HAND));
+            assertEquals(stockValue, getLong(summary, SummaryEntry.COLUMN_STOCK_VALUE));
+            assertEquals(lowStockCount, getLong(summary, SummaryEntry.COLUMN_LOW_STOCK_COUNT));
+        } finally {
+            summary.close();
+        }
+    }
+
+    private static long getLong(Cursor cursor, String column) {
+        return cursor.getLong(cursor.getColumnIndexOrThrow(column));
+    }
+}
@@ -0,0 +1,230 @@
+package com.example.android.inventoryappstage2.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.text.TextUtils;
+
+import com.example.android.inventoryappstage2.data.InventoryContract.InventoryEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that every sort order and the supplier filter of the list read rows from an index,
+ * page through every row in order, and that no other sort order is accepted
+ * Lookups by product name, supplier and quantity read an index too
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class ItemSortTest {
+
+    private static final int ITEMS = 250;
+    private static final int PAGE_SIZE = 10;
+
+    /** A projection the list cursor can't serve, so it pages with PagedCursor */
+    private static final String[] PAGED_PROJECTION = {
+            InventoryEntry._ID,
+            InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME,
+            InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME};
+
+    private InventoryProvider mProvider;
+    private InventoryDbHelper mDbHelper;
+    private String mSupplierId;
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.buildContentProvider(InventoryProvider.class)
+                .create(InventoryContract.CONTENT_AUTHORITY).get();
+        mProvider.setNotificationWindow(0);
+
+        ContentValues[] items = new ContentValues[ITEMS];
+        for (int i = 0; i < ITEMS; i++) {
+            items[i] = new ContentValues();
+            // Few distinct values, so ties cross page boundaries. Names differ only in case
+            items[i].put(InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME, i % 2 == 0 ? "apple " + i % 4 : "Apple " + i % 4);
+            items[i].put(InventoryEntry.COLUMN_INVENTORY_PRICE, i % 7);
+            items[i].put(InventoryEntry.COLUMN_INVENTORY_QUANTITY, i % 5);
+            items[i].put(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME, "Supplier " + i % 3);
+            items[i].put(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_PHONE, 5550000 + i % 3);
+        }
+        assertEquals(ITEMS, mProvider.bulkInsert(InventoryEntry.CONTENT_URI, items));
+
+        mDbHelper = new InventoryDbHelper(RuntimeEnvironment.application);
+        Cursor cursor = mDbHelper.getReadableDatabase().rawQuery("SELECT "
+                + InventoryEntry.COLUMN_INVENTORY_SUPPLIER_ID + " FROM " + InventoryEntry.TABLE_NAME
+                + " LIMIT 1", null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            mSupplierId = cursor.getString(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        mDbHelper.close();
+    }
+
+    @Test
+    public void everySortAndFilterReadsAnIndex() {
+        SQLiteDatabase database = mDbHelper.getReadableDatabase();
+        for (String sortOrder : sortOrders()) {
+            ItemSort sort = ItemSort.parse(sortOrder);
+            for (String table : new String[]{InventoryEntry.TABLE_NAME, InventoryEntry.VIEW_NAME}) {
+                for (boolean after : new boolean[]{false, true}) {
+                    String[] afterArgs = after ? sort.afterArgs("1", "1") : new String[0];
+
+                    assertPlanUsesIndex(database, PagedCursor.buildPageQuery(table, ListCursor.COLUMNS,
+                            null, sort, after, String.valueOf(PAGE_SIZE)), afterArgs,
+                            sort.isById() && !after);
+
+                    String[] filterArgs = new String[afterArgs.length + 1];
+                    filterArgs[0] = mSupplierId;
+                    System.arraycopy(afterArgs, 0, filterArgs, 1, afterArgs.length);
+                    assertPlanUsesIndex(database, PagedCursor.buildPageQuery(table, ListCursor.COLUMNS,
+                            InventoryEntry.SELECTION_SUPPLIER, sort, after, String.valueOf(PAGE_SIZE)),
+                            filterArgs, false);
+                }
+            }
+        }
+
+        // The filtered list's count
+        assertPlanUsesIndex(database, "SELECT COUNT(*) FROM " + InventoryEntry.VIEW_NAME
+                + " WHERE " + InventoryEntry.SELECTION_SUPPLIER, new String[]{mSupplierId}, false);
+    }
+
+    @Test
+    public void lookupsReadAnIndex() {
+        SQLiteDatabase database = mDbHelper.getReadableDatabase();
+        String select = "SELECT " + TextUtils.join(", ", ListCursor.COLUMNS) + " FROM "
+                + InventoryEntry.VIEW_NAME + " WHERE ";
+        assertPlanUsesIndex(database, select + InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME
+                + " = ? COLLATE NOCASE", new String[]{"APPLE 1"}, false);
+        assertPlanUsesIndex(database, select + InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME
+                + " = ?", new String[]{"Supplier 1"}, false);
+        assertPlanUsesIndex(database, select + InventoryEntry.COLUMN_INVENTORY_QUANTITY
+                + " < ?", new String[]{"2"}, false);
+    }
+
+    @Test
+    public void pagedCursorsReadEveryRowInOrder() {
+        for (String sortOrder : sortOrders()) {
+            assertPagedInOrder(ListCursor.COLUMNS, null, null, sortOrder);
+            assertPagedInOrder(ListCursor.COLUMNS, InventoryEntry.SELECTION_SUPPLIER,
+                    new String[]{mSupplierId}, sortOrder);
+            assertPagedInOrder(PAGED_PROJECTION, null, null, sortOrder);
+            assertPagedInOrder(PAGED_PROJECTION, InventoryEntry.SELECTION_SUPPLIER,
+                    new String[]{mSupplierId}, sortOrder);
+        }
+    }
+
+    @Test
+    public void onlyWhitelistedSortOrdersAreAccepted() {
+        String[] rejected = {
+                "",
+                InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME,
+                InventoryEntry.COLUMN_INVENTORY_PRICE + " DESC, " + InventoryEntry._ID,
+                InventoryEntry.COLUMN_INVENTORY_PRICE + " SIDEWAYS",
+                InventoryEntry.COLUMN_INVENTORY_PRICE + "; DROP TABLE " + InventoryEntry.TABLE_NAME,
+                "(SELECT 1)"};
+        for (String sortOrder : rejected) {
+            try {
+                mProvider.query(InventoryEntry.CONTENT_URI, null, null, null, sortOrder);
+                fail("Sorted by " + sortOrder);
+            } catch (IllegalArgumentException expected) {
+                // Rejected
+            }
+        }
+        assertEquals(InventoryEntry.COLUMN_INVENTORY_PRICE + " DESC, " + InventoryEntry._ID + " DESC",
+                ItemSort.parse(" price   desc ").orderBy());
+    }
+
+    /**
+     * Asserts the plan of sql reads the inventory from an index and never sorts
+     * rowidScan allows a plain scan of the table, which reads it in _id order
+     */
+    private static void assertPlanUsesIndex(SQLiteDatabase database, String sql, String[] args,
+                                            boolean rowidScan) {
+        ArrayList<String> plan = new ArrayList<>();
+        Cursor cursor = database.rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+        try {
+            int detailColumn = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                plan.add(cursor.getString(detailColumn));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        boolean readsInventory = false;
+        for (String step : plan) {
+            assertFalse(sql + " sorts " + plan, step.contains("TEMP B-TREE"));
+            if (!step.matches(".* " + InventoryEntry.TABLE_NAME + "\\b.*")) {
+                continue;
+            }
+            readsInventory = true;
+            boolean indexed = step.contains(" INDEX ") || step.contains("PRIMARY KEY");
+            assertTrue(sql + " scans " + plan, indexed || rowidScan);
+        }
+        assertTrue(sql + " " + plan, readsInventory);
+    }
+
+    /**
+     * Asserts a paged query returns the rows of an unpaged one, in the same order
+     */
+    private void assertPagedInOrder(String[] projection, String selection, String[] selectionArgs,
+                                    String sortOrder) {
+        Uri pagedUri = InventoryEntry.CONTENT_URI.buildUpon()
+                .appendQueryParameter(InventoryContract.QUERY_PARAMETER_PAGE_SIZE, String.valueOf(PAGE_SIZE))
+                .build();
+        long[] expected = ids(mProvider.query(InventoryEntry.CONTENT_URI, projection, selection,
+                selectionArgs, sortOrder));
+        long[] paged = ids(mProvider.query(pagedUri, projection, selection, selectionArgs, sortOrder));
+        assertTrue(sortOrder + " " + selection, expected.length > PAGE_SIZE);
+        assertTrue(sortOrder + " " + selection, Arrays.equals(expected, paged));
+    }
+
+    private static long[] ids(Cursor cursor) {
+        try {
+            int idColumn = cursor.getColumnIndexOrThrow(InventoryEntry._ID);
+            long[] ids = new long[cursor.getCount()];
+            for (int i = 0; i < ids.length; i++) {
+                assertTrue(cursor.moveToPosition(i));
+                ids[i] = cursor.getLong(idColumn);
+            }
+            return ids;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Every sort order of InventoryEntry.SORT_COLUMNS, both ways, and no sort order
+     */
+    private static ArrayList<String> sortOrders() {
+        ArrayList<String> sortOrders = new ArrayList<>();
+        sortOrders.add(null);
+        for (String column : InventoryEntry.SORT_COLUMNS) {
+            sortOrders.add(column);
+            sortOrders.add(column + InventoryEntry.SORT_DESCENDING);
+        }
+        return sortOrders;
+    }
+}
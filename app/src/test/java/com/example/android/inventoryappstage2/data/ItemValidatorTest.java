@@ -0,0 +1,351 @@
+package com.example.android.inventoryappstage2.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.inventoryappstage2.data.InventoryContract.InventoryEntry;
+import com.example.android.inventoryappstage2.data.InventoryContract.SupplierEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Fuzzes ItemValidator against the real schema: random item values are validated, and
+ * written straight to the inventory and suppliers tables of a database made by
+ * InventoryDbHelper, past the provider. Whatever the validator accepts the schema must
+ * take, for inserts and updates
+ * - the write must succeed: the NOT NULL columns an insert needs are there, no column is
+ *   unknown, and the supplier name and phone make a supplier row for the item to refer to
+ * - every column the schema declares INTEGER must hold an integer afterwards, so no REAL,
+ *   BLOB or text value got past the validator into one
+ * The validator is stricter than the schema where the schema has no constraint. Those
+ * validator-only rules are checked on their own below: whole numbers can't be negative,
+ * phone numbers must read as one, version and deleted are the provider's, and the
+ * supplier name and phone go together
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class ItemValidatorTest {
+
+    private static final int ROWS = 20000;
+
+    /**
+     * Columns fuzzed. The supplier's id is left out: whether it exists is for the foreign
+     * key to check, not the validator
+     */
+    private static final String[] COLUMNS = {
+            InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME,
+            InventoryEntry.COLUMN_INVENTORY_PRICE,
+            InventoryEntry.COLUMN_INVENTORY_QUANTITY,
+            InventoryEntry.COLUMN_INVENTORY_REORDER_THRESHOLD,
+            InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME,
+            InventoryEntry.COLUMN_INVENTORY_SUPPLIER_PHONE,
+            InventoryEntry.COLUMN_INVENTORY_VERSION,
+            InventoryEntry.COLUMN_INVENTORY_DELETED,
+            "unknownColumn"};
+
+    /**
+     * Values that are wrong somewhere, or close to it. No Booleans: SQLite would store
+     * them as 1 or 0, ItemValidator doesn't take them as numbers
+     */
+    private static final Object[] EDGE_VALUES = {null, "", "0", "12", "007", "-1", "12.5",
+            " 12", "1e3", "999999999999999999", "9999999999999999999", "abc", "(555) 123-4567",
+            "+44 20 7946 0000", "555-CALL-NOW", "555+1234", "++1", "+", "1234567890123456",
+            0, 5, -3, Integer.MAX_VALUE, Long.MAX_VALUE, 999999999999999L, 1000000000000000L,
+            (short) 3, (byte) -1, 1.5, 2.0, 1.5f, new byte[]{1}};
+
+    private final Random mRandom = new Random(42);
+    private InventoryDbHelper mDbHelper;
+    private SQLiteDatabase mDatabase;
+
+    /** SQL that is 1 if every INTEGER column of the inventory table holds an integer */
+    private String mIntegerColumnsSql;
+
+    /** The item every update is applied to, and its supplier */
+    private long mItemId;
+    private long mSupplierId;
+
+    @Before
+    public void setUp() {
+        mDbHelper = new InventoryDbHelper(RuntimeEnvironment.application);
+        mDatabase = mDbHelper.getWritableDatabase();
+
+        StringBuilder integerColumns = new StringBuilder("1");
+        Cursor cursor = mDatabase.rawQuery("PRAGMA table_info(" + InventoryEntry.TABLE_NAME + ")", null);
+        try {
+            int name = cursor.getColumnIndexOrThrow("name");
+            int type = cursor.getColumnIndexOrThrow("type");
+            while (cursor.moveToNext()) {
+                if ("INTEGER".equalsIgnoreCase(cursor.getString(type))) {
+                    integerColumns.append(" AND typeof(").append(cursor.getString(name))
+                            .append(") = 'integer'");
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        mIntegerColumnsSql = integerColumns.toString();
+
+        ContentValues supplier = new ContentValues();
+        supplier.put(SupplierEntry.COLUMN_SUPPLIER_NAME, "Acme");
+        supplier.put(SupplierEntry.COLUMN_SUPPLIER_PHONE, "1");
+        mSupplierId = mDatabase.insertOrThrow(SupplierEntry.TABLE_NAME, null, supplier);
+        ContentValues item = new ContentValues();
+        item.put(InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME, "Bolt");
+        item.put(InventoryEntry.COLUMN_INVENTORY_PRICE, 1);
+        item.put(InventoryEntry.COLUMN_INVENTORY_QUANTITY, 1);
+        item.put(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_ID, mSupplierId);
+        mItemId = mDatabase.insertOrThrow(InventoryEntry.TABLE_NAME, null, item);
+    }
+
+    @After
+    public void tearDown() {
+        mDbHelper.close();
+    }
+
+    @Test
+    public void schemaTakesValidatedInserts() {
+        int accepted = 0;
+        int rejectedBySchema = 0;
+        for (int i = 0; i < ROWS; i++) {
+            ContentValues values = randomValues();
+            boolean valid = isValid(values, true);
+            boolean written = write(values, true);
+            if (valid && !written) {
+                fail("Validated but not written: " + values);
+            }
+            accepted += valid ? 1 : 0;
+            rejectedBySchema += written ? 0 : 1;
+        }
+        // Both outcomes were tried often
+        assertAtLeast(ROWS / 20, accepted);
+        assertAtLeast(ROWS / 20, rejectedBySchema);
+    }
+
+    @Test
+    public void schemaTakesValidatedUpdates() {
+        int accepted = 0;
+        int rejectedBySchema = 0;
+        int rows = 0;
+        while (rows < ROWS) {
+            ContentValues values = randomValues();
+            if (values.size() == 0
+                    || values.containsKey(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME)
+                    != values.containsKey(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_PHONE)) {
+                continue;
+            }
+            rows++;
+            boolean valid = isValid(values, false);
+            boolean written = write(values, false);
+            if (valid && !written) {
+                fail("Validated but not written: " + values);
+            }
+            accepted += valid ? 1 : 0;
+            rejectedBySchema += written ? 0 : 1;
+        }
+        assertAtLeast(ROWS / 20, accepted);
+        assertAtLeast(ROWS / 20, rejectedBySchema);
+    }
+
+    @Test
+    public void wholeNumbersAreNotNegative() {
+        // INTEGER columns take all of these
+        for (Object value : new Object[]{-1, -3L, (short) -3, (byte) -1, "-1"}) {
+            assertEquals(String.valueOf(value), false,
+                    isValid(column(InventoryEntry.COLUMN_INVENTORY_QUANTITY, value), false));
+        }
+        // SQLite converts these to integers, the validator only takes digits
+        for (Object value : new Object[]{2.0, " 12", "1e3", "1000000000000000000"}) {
+            assertEquals(String.valueOf(value), false,
+                    isValid(column(InventoryEntry.COLUMN_INVENTORY_PRICE, value), false));
+        }
+        for (Object value : new Object[]{0, Long.MAX_VALUE, "007", "999999999999999999"}) {
+            assertEquals(String.valueOf(value), true,
+                    isValid(column(InventoryEntry.COLUMN_INVENTORY_PRICE, value), false));
+        }
+    }
+
+    @Test
+    public void phoneNumbersReadAsOne() {
+        for (Object value : new Object[]{"555-0142", "(555) 123-4567", "+44 20 7946 0000",
+                999999999999999L, 0}) {
+            assertEquals(String.valueOf(value), true, isValid(supplier(value), false));
+        }
+        // The phone column is TEXT NOT NULL, it takes all of these
+        for (Object value : new Object[]{"", "abc", "555-CALL-NOW", "555+1234", "++1", "+",
+                "1234567890123456", 1000000000000000L, -3, 1.5, new byte[]{1}}) {
+            assertEquals(String.valueOf(value), false, isValid(supplier(value), false));
+        }
+    }
+
+    @Test
+    public void versionAndDeletedAreReadOnly() {
+        assertEquals(false, isValid(column(InventoryEntry.COLUMN_INVENTORY_VERSION, 2), false));
+        assertEquals(false, isValid(column(InventoryEntry.COLUMN_INVENTORY_DELETED, 1), false));
+        assertEquals(false, isValid(column(InventoryEntry.COLUMN_INVENTORY_DELETED, 0), false));
+    }
+
+    @Test
+    public void supplierNameAndPhoneGoTogether() {
+        ContentValues values = new ContentValues();
+        values.put(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME, "Acme");
+        assertEquals(false, isValid(values, false));
+        values.put(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_PHONE, "555 123 4567");
+        assertEquals(true, isValid(values, false));
+
+        // An insert may give the supplier's id instead
+        ContentValues item = new ContentValues();
+        item.put(InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME, "Bolt");
+        item.put(InventoryEntry.COLUMN_INVENTORY_PRICE, 1250);
+        item.put(InventoryEntry.COLUMN_INVENTORY_QUANTITY, 3);
+        assertEquals(false, isValid(item, true));
+        item.put(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_ID, 1);
+        assertEquals(true, isValid(item, true));
+    }
+
+    /**
+     * Writes values the way the provider lays them out: the supplier name and phone as a
+     * row of the suppliers table, the item's columns as they are. Rolled back, so every
+     * write starts from the same database
+     * return: whether the schema took them, with an integer in every INTEGER column
+     */
+    private boolean write(ContentValues values, boolean insert) {
+        ContentValues item = new ContentValues(values);
+        ContentValues supplier = new ContentValues();
+        move(item, InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME, supplier,
+                SupplierEntry.COLUMN_SUPPLIER_NAME);
+        move(item, InventoryEntry.COLUMN_INVENTORY_SUPPLIER_PHONE, supplier,
+                SupplierEntry.COLUMN_SUPPLIER_PHONE);
+
+        mDatabase.beginTransaction();
+        try {
+            long id = mItemId;
+            if (insert) {
+                if (supplier.size() != 0) {
+                    item.put(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_ID,
+                            mDatabase.insertOrThrow(SupplierEntry.TABLE_NAME, null, supplier));
+                }
+                id = mDatabase.insertOrThrow(InventoryEntry.TABLE_NAME, null, item);
+            } else {
+                if (supplier.size() != 0) {
+                    mDatabase.update(SupplierEntry.TABLE_NAME, supplier,
+                            SupplierEntry._ID + " = " + mSupplierId, null);
+                }
+                if (item.size() != 0) {
+                    mDatabase.update(InventoryEntry.TABLE_NAME, item,
+                            InventoryEntry._ID + " = " + id, null);
+                }
+            }
+            return DatabaseUtils.longForQuery(mDatabase, "SELECT " + mIntegerColumnsSql
+                    + " FROM " + InventoryEntry.TABLE_NAME + " WHERE " + InventoryEntry._ID
+                    + " = " + id, null) == 1;
+        } catch (SQLException e) {
+            return false;
+        } finally {
+            mDatabase.endTransaction();
+        }
+    }
+
+    private static void move(ContentValues from, String fromColumn, ContentValues to,
+                             String toColumn) {
+        if (from.containsKey(fromColumn)) {
+            put(to, toColumn, from.get(fromColumn));
+            from.remove(fromColumn);
+        }
+    }
+
+    private static ContentValues column(String column, Object value) {
+        ContentValues values = new ContentValues();
+        put(values, column, value);
+        return values;
+    }
+
+    private static ContentValues supplier(Object phone) {
+        ContentValues values = column(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_PHONE, phone);
+        values.put(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME, "Acme");
+        return values;
+    }
+
+    /**
+     * Each column is left out, a valid value, or one of EDGE_VALUES
+     */
+    private ContentValues randomValues() {
+        ContentValues values = new ContentValues();
+        for (int i = 0; i < COLUMNS.length; i++) {
+            // Version, deleted and the unknown column are rare, or almost every row would
+            // fail on them
+            if (mRandom.nextInt(100) >= (i < 6 ? 75 : 3)) {
+                continue;
+            }
+            Object value = mRandom.nextInt(4) == 0 ? EDGE_VALUES[mRandom.nextInt(EDGE_VALUES.length)]
+                    : validValue(COLUMNS[i]);
+            put(values, COLUMNS[i], value);
+        }
+        return values;
+    }
+
+    private Object validValue(String column) {
+        if (InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME.equals(column)
+                || InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME.equals(column)) {
+            return "Name " + mRandom.nextInt(10);
+        }
+        if (InventoryEntry.COLUMN_INVENTORY_SUPPLIER_PHONE.equals(column)) {
+            return mRandom.nextBoolean() ? "555-01" + mRandom.nextInt(100) : 5550000 + mRandom.nextInt(10);
+        }
+        return mRandom.nextBoolean() ? mRandom.nextInt(1000) : String.valueOf(mRandom.nextInt(1000));
+    }
+
+    private static void put(ContentValues values, String column, Object value) {
+        if (value == null) {
+            values.putNull(column);
+        } else if (value instanceof String) {
+            values.put(column, (String) value);
+        } else if (value instanceof Integer) {
+            values.put(column, (Integer) value);
+        } else if (value instanceof Long) {
+            values.put(column, (Long) value);
+        } else if (value instanceof Short) {
+            values.put(column, (Short) value);
+        } else if (value instanceof Byte) {
+            values.put(column, (Byte) value);
+        } else if (value instanceof Double) {
+            values.put(column, (Double) value);
+        } else if (value instanceof Float) {
+            values.put(column, (Float) value);
+        } else {
+            values.put(column, (byte[]) value);
+        }
+    }
+
+    private static boolean isValid(ContentValues values, boolean insert) {
+        try {
+            if (insert) {
+                ItemValidator.validateInsert(values);
+            } else {
+                ItemValidator.validateUpdate(values);
+            }
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private static void assertAtLeast(int expected, int actual) {
+        if (actual < expected) {
+            fail("Expected at least " + expected + " but was " + actual);
+        }
+    }
+}
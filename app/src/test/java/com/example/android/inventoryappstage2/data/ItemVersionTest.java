@@ -0,0 +1,233 @@
+package com.example.android.inventoryappstage2.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Bundle;
+
+import com.example.android.inventoryappstage2.data.InventoryContract.InventoryEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that every write increments an item's version, deletes included, and that
+ * compare-and-set updates never lose a concurrent write
+ * Their throughput against writers that hold one lock is timed in VersionBenchmark
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class ItemVersionTest {
+
+    private static final int WRITERS = 8;
+    private static final int ITEMS = 4;
+    private static final int INCREMENTS_PER_WRITER = 100;
+
+    private static final String[] VERSIONED_PRICE = {
+            InventoryEntry.COLUMN_INVENTORY_PRICE,
+            InventoryEntry.COLUMN_INVENTORY_VERSION};
+
+    private InventoryProvider mProvider;
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.buildContentProvider(InventoryProvider.class)
+                .create(InventoryContract.CONTENT_AUTHORITY).get();
+        mProvider.setNotificationWindow(0);
+    }
+
+    @Test
+    public void everyWriteIncrementsTheVersion() {
+        Uri item = insertItem(0);
+        assertEquals(1, read(item)[1]);
+
+        ContentValues name = new ContentValues();
+        name.put(InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME, "Renamed");
+        assertEquals(1, mProvider.update(item, name, null, null));
+        assertEquals(2, read(item)[1]);
+
+        sell(item);
+        assertEquals(3, read(item)[1]);
+
+        ContentValues quantity = new ContentValues();
+        quantity.put(InventoryEntry.COLUMN_INVENTORY_QUANTITY, 50);
+        assertEquals(1, mProvider.update(item, quantity, null, null));
+        assertEquals(4, read(item)[1]);
+
+        // The version can't be written
+        ContentValues version = new ContentValues();
+        version.put(InventoryEntry.COLUMN_INVENTORY_VERSION, 1);
+        try {
+            mProvider.update(item, version, null, null);
+            fail("Version written");
+        } catch (IllegalArgumentException expected) {
+            // Rejected
+        }
+    }
+
+    @Test
+    public void deleteIncrementsTheVersion() {
+        Uri one = insertItem(0);
+        Uri selected = insertItem(1);
+        Uri all = insertItem(2);
+
+        assertEquals(1, mProvider.delete(one, null, null));
+        assertEquals(1, mProvider.delete(InventoryEntry.CONTENT_URI,
+                InventoryEntry.COLUMN_INVENTORY_PRICE + " = ?", new String[]{"1"}));
+        assertEquals(1, mProvider.delete(InventoryEntry.CONTENT_URI, null, null));
+
+        // Tombstones are hidden from queries, read the table itself
+        SQLiteDatabase database = new InventoryDbHelper(RuntimeEnvironment.application)
+                .getReadableDatabase();
+        for (Uri item : new Uri[]{one, selected, all}) {
+            assertEquals(2, DatabaseUtils.longForQuery(database, "SELECT "
+                    + InventoryEntry.COLUMN_INVENTORY_VERSION + " FROM " + InventoryEntry.TABLE_NAME
+                    + " WHERE " + InventoryEntry._ID + " = " + ContentUris.parseId(item), null));
+        }
+    }
+
+    @Test
+    public void staleVersionIsRejected() {
+        Uri item = insertItem(10);
+        long loadedVersion = read(item)[1];
+
+        // A sale lands while the item is being edited
+        sell(item);
+
+        ContentValues values = new ContentValues();
+        values.put(InventoryEntry.COLUMN_INVENTORY_QUANTITY, 99);
+        assertEquals(0, mProvider.update(expectingVersion(item, loadedVersion), values, null, null));
+        assertEquals(19, quantity(item));
+
+        // Only the columns sent are written, so the sale survives a save of another field
+        ContentValues price = new ContentValues();
+        price.put(InventoryEntry.COLUMN_INVENTORY_PRICE, 25);
+        assertEquals(1, mProvider.update(expectingVersion(item, read(item)[1]), price, null, null));
+        assertEquals(25, read(item)[0]);
+        assertEquals(19, quantity(item));
+    }
+
+    @Test
+    public void concurrentWritersLoseNoUpdates() throws Exception {
+        final Uri[] items = new Uri[ITEMS];
+        for (int i = 0; i < ITEMS; i++) {
+            items[i] = insertItem(0);
+        }
+        runWriters(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < INCREMENTS_PER_WRITER; i++) {
+                    Uri item = items[i % ITEMS];
+                    // Read, then write only if nothing else wrote in between, else read again
+                    while (true) {
+                        long[] row = read(item);
+                        if (mProvider.update(expectingVersion(item, row[1]), price(row[0] + 1),
+                                null, null) == 1) {
+                            break;
+                        }
+                    }
+                }
+            }
+        });
+        for (Uri item : items) {
+            assertEquals(WRITERS * INCREMENTS_PER_WRITER / ITEMS, read(item)[0]);
+        }
+    }
+
+    /**
+     * Runs writer on WRITERS threads at once, until all are done
+     */
+    private static void runWriters(final Runnable writer) throws Exception {
+        final Throwable[] failure = new Throwable[1];
+        Thread[] threads = new Thread[WRITERS];
+        for (int i = 0; i < WRITERS; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        writer.run();
+                    } catch (Throwable t) {
+                        synchronized (failure) {
+                            failure[0] = t;
+                        }
+                    }
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        synchronized (failure) {
+            if (failure[0] != null) {
+                throw new AssertionError(failure[0]);
+            }
+        }
+    }
+
+    private Uri insertItem(int price) {
+        ContentValues values = new ContentValues();
+        values.put(InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME, "Product");
+        values.put(InventoryEntry.COLUMN_INVENTORY_PRICE, price);
+        values.put(InventoryEntry.COLUMN_INVENTORY_QUANTITY, 20);
+        values.put(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME, "Supplier");
+        values.put(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_PHONE, 5550000);
+        return mProvider.insert(InventoryEntry.CONTENT_URI, values);
+    }
+
+    private static ContentValues price(long price) {
+        ContentValues values = new ContentValues();
+        values.put(InventoryEntry.COLUMN_INVENTORY_PRICE, price);
+        return values;
+    }
+
+    private static Uri expectingVersion(Uri item, long version) {
+        return item.buildUpon()
+                .appendQueryParameter(InventoryContract.QUERY_PARAMETER_EXPECTED_VERSION,
+                        String.valueOf(version))
+                .build();
+    }
+
+    private void sell(Uri item) {
+        Bundle extras = new Bundle();
+        extras.putInt(InventoryContract.EXTRA_COUNT, 1);
+        mProvider.call(InventoryContract.METHOD_SELL, String.valueOf(ContentUris.parseId(item)), extras);
+    }
+
+    /**
+     * Returns the item's price and version
+     */
+    private long[] read(Uri item) {
+        Cursor cursor = mProvider.query(item, VERSIONED_PRICE, null, null, null);
+        try {
+            cursor.moveToFirst();
+            return new long[]{cursor.getLong(0), cursor.getLong(1)};
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private int quantity(Uri item) {
+        Cursor cursor = mProvider.query(item,
+                new String[]{InventoryEntry.COLUMN_INVENTORY_QUANTITY}, null, null, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.example.android.inventoryappstage2.data;
+
+import android.content.ContentValues;
+import android.database.CharArrayBuffer;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.inventoryappstage2.data.InventoryContract.InventoryEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the list screen's cursor against the default SQLite cursor over the same rows
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class ListCursorTest {
+
+    private static final int ITEMS = 2500;
+    private static final int PAGE_SIZE = 100;
+
+    private static final String[] PROJECTION = {
+            InventoryEntry.COLUMN_INVENTORY_QUANTITY,
+            InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME,
+            InventoryEntry._ID,
+            InventoryEntry.COLUMN_INVENTORY_PRICE};
+
+    private InventoryProvider mProvider;
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.buildContentProvider(InventoryProvider.class)
+                .create(InventoryContract.CONTENT_AUTHORITY).get();
+        mProvider.setNotificationWindow(0);
+
+        ContentValues[] items = new ContentValues[ITEMS];
+        for (int i = 0; i < ITEMS; i++) {
+            items[i] = new ContentValues();
+            // Repeated names, some of them colliding in the name pool's hash table
+            items[i].put(InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME, i % 3 == 0 ? "Aa" + i % 7 : "BB" + i % 7);
+            items[i].put(InventoryEntry.COLUMN_INVENTORY_PRICE, i);
+            items[i].put(InventoryEntry.COLUMN_INVENTORY_QUANTITY, ITEMS - i);
+            items[i].put(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME, "Supplier " + i % 3);
+            items[i].put(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_PHONE, 5550000 + i % 3);
+        }
+        assertEquals(ITEMS, mProvider.bulkInsert(InventoryEntry.CONTENT_URI, items));
+    }
+
+    @Test
+    public void matchesDefaultCursor() {
+        assertSameRows(null, null);
+    }
+
+    @Test
+    public void matchesDefaultCursorWithSupplierSelection() {
+        assertSameRows(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME + " = ?", new String[]{"Supplier 1"});
+    }
+
+    @Test
+    public void rowsDeletedAfterCountReadAsMissing() {
+        Cursor cursor = mProvider.query(pagedUri(), PROJECTION, null, null, null);
+        try {
+            assertEquals(ITEMS, cursor.getCount());
+            mProvider.delete(InventoryEntry.CONTENT_URI, InventoryEntry.COLUMN_INVENTORY_PRICE + " >= ?",
+                    new String[]{String.valueOf(ITEMS - 10)});
+            assertTrue(cursor.moveToPosition(ITEMS - 11));
+            assertEquals(ITEMS - 11, cursor.getInt(3));
+            assertTrue(cursor.moveToPosition(ITEMS - 1));
+            assertTrue(cursor.isNull(1));
+            assertEquals(0, cursor.getLong(2));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void assertSameRows(String selection, String[] selectionArgs) {
+        Cursor expected = mProvider.query(InventoryEntry.CONTENT_URI, PROJECTION, selection,
+                selectionArgs, InventoryEntry._ID);
+        Cursor actual = mProvider.query(pagedUri(), PROJECTION, selection, selectionArgs, null);
+        try {
+            assertTrue(actual instanceof ListCursor);
+            assertEquals(expected.getCount(), actual.getCount());
+            CharArrayBuffer buffer = new CharArrayBuffer(0);
+            // Backwards, so chunks are loaded by a jump to the end
+            for (int i = expected.getCount() - 1; i >= 0; i--) {
+                assertTrue(expected.moveToPosition(i));
+                assertTrue(actual.moveToPosition(i));
+                for (int column = 0; column < PROJECTION.length; column++) {
+                    assertEquals(expected.getType(column), actual.getType(column));
+                    assertEquals(expected.getString(column), actual.getString(column));
+                }
+                assertEquals(expected.getLong(2), actual.getLong(2));
+                assertEquals(expected.getInt(0), actual.getInt(0));
+                actual.copyStringToBuffer(1, buffer);
+                assertEquals(expected.getString(1), new String(buffer.data, 0, buffer.sizeCopied));
+            }
+            assertFalse(actual.moveToPosition(actual.getCount()));
+        } finally {
+            expected.close();
+            actual.close();
+        }
+    }
+
+    private static Uri pagedUri() {
+        return InventoryEntry.CONTENT_URI.buildUpon()
+                .appendQueryParameter(InventoryContract.QUERY_PARAMETER_PAGE_SIZE, String.valueOf(PAGE_SIZE))
+                .build();
+    }
+}
@@ -0,0 +1,77 @@
+package com.example.android.inventoryappstage2.data;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.inventoryappstage2.data.InventoryContract.InventoryEntry;
+import com.example.android.inventoryappstage2.data.InventoryContract.SummaryEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Upgrades a version 12 database whose items have their own reorder thresholds, and checks
+ * that the summary then counts items low on stock by those thresholds, also as they change
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class LowStockMigrationTest {
+
+    private static final int ITEMS = 1000;
+    private static final int SUPPLIERS = 10;
+
+    private File mDatabaseFile;
+
+    @Before
+    public void setUp() {
+        mDatabaseFile = RuntimeEnvironment.application.getDatabasePath(InventoryDbHelper.DATABASE_NAME);
+    }
+
+    @Test
+    public void upgradeCountsLowStockByItemThreshold() {
+        SQLiteDatabase db = MigrationFixture.createVersion1(mDatabaseFile);
+        MigrationFixture.insertVersion1Items(db, ITEMS, SUPPLIERS);
+        InventoryDbHelper helper = new InventoryDbHelper(RuntimeEnvironment.application);
+        MigrationFixture.upgrade(helper, db, 1, 12);
+
+        // Quantities are id % 20, thresholds from 0 to 14. Version 12 still counts below
+        // LOW_STOCK_THRESHOLD
+        db.execSQL("UPDATE " + InventoryEntry.TABLE_NAME + " SET "
+                + InventoryEntry.COLUMN_INVENTORY_REORDER_THRESHOLD + " = _id % 15");
+        assertTrue(summaryLowStock(db) != fullScanLowStock(db));
+
+        MigrationFixture.upgrade(helper, db, 12, 13);
+        db.setVersion(InventoryDbHelper.DATABASE_VERSION);
+        assertEquals(fullScanLowStock(db), summaryLowStock(db));
+
+        // Raising or lowering a threshold alone moves the item in and out of the count
+        db.execSQL("UPDATE " + InventoryEntry.TABLE_NAME + " SET "
+                + InventoryEntry.COLUMN_INVENTORY_REORDER_THRESHOLD + " = 100 WHERE _id <= 100");
+        assertEquals(fullScanLowStock(db), summaryLowStock(db));
+        db.execSQL("UPDATE " + InventoryEntry.TABLE_NAME + " SET "
+                + InventoryEntry.COLUMN_INVENTORY_REORDER_THRESHOLD + " = 0 WHERE _id > 900");
+        assertEquals(fullScanLowStock(db), summaryLowStock(db));
+        assertTrue(summaryLowStock(db) >= 100);
+        db.close();
+    }
+
+    private static long summaryLowStock(SQLiteDatabase db) {
+        return DatabaseUtils.longForQuery(db, "SELECT " + SummaryEntry.COLUMN_LOW_STOCK_COUNT
+                + " FROM " + SummaryEntry.TABLE_NAME, null);
+    }
+
+    private static long fullScanLowStock(SQLiteDatabase db) {
+        return DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM " + InventoryEntry.VIEW_NAME
+                + " WHERE " + InventoryEntry.COLUMN_INVENTORY_QUANTITY + " < "
+                + InventoryEntry.COLUMN_INVENTORY_REORDER_THRESHOLD, null);
+    }
+}
@@ -0,0 +1,285 @@
+package com.example.android.inventoryappstage2.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.StrictMode;
+
+import com.example.android.inventoryappstage2.data.InventoryContract.InventoryEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+import org.robolectric.util.Scheduler;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Runs with a StrictMode thread policy on the main thread that kills it on a provider write
+ * - every kind of provider write fails there, and leaves the database as it was
+ * - the same writes pass on any other thread, the policy is the main thread's
+ * - writes started through InventoryWriteQueue from the main thread all run on its worker
+ * - a callback removed from the queue gets no result, its writes are still made
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class MainThreadWriteTest {
+
+    private static final int TOKEN_UPDATE = 1;
+    private static final int TOKEN_SELL = 2;
+    private static final int TOKEN_INSERT = 3;
+    private static final int TOKEN_DELETE = 4;
+
+    private InventoryProvider mProvider;
+    private InventoryDbHelper mDbHelper;
+    private Uri mItem;
+    private StrictMode.ThreadPolicy mOldPolicy;
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.buildContentProvider(InventoryProvider.class)
+                .create(InventoryContract.CONTENT_AUTHORITY).get();
+        mProvider.setNotificationWindow(0);
+        mDbHelper = new InventoryDbHelper(RuntimeEnvironment.application);
+        mItem = mProvider.insert(InventoryEntry.CONTENT_URI, item());
+
+        mOldPolicy = StrictMode.getThreadPolicy();
+        StrictMode.setThreadPolicy(new StrictMode.ThreadPolicy.Builder()
+                .detectCustomSlowCalls()
+                .penaltyDeath()
+                .build());
+    }
+
+    @After
+    public void tearDown() {
+        StrictMode.setThreadPolicy(mOldPolicy);
+        mDbHelper.close();
+    }
+
+    @Test
+    public void writesOnTheMainThreadFail() {
+        for (Runnable write : writes()) {
+            try {
+                write.run();
+                fail("Wrote on the main thread");
+            } catch (RuntimeException expected) {
+                assertTrue(expected.toString(), expected.getClass().getName().contains("StrictMode"));
+            }
+        }
+        assertEquals(1, DatabaseUtils.queryNumEntries(mDbHelper.getReadableDatabase(),
+                InventoryEntry.TABLE_NAME));
+        assertEquals(10, quantity());
+    }
+
+    @Test
+    public void writesOffTheMainThreadPass() throws Exception {
+        final Throwable[] failure = new Throwable[1];
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (Runnable write : writes()) {
+                        write.run();
+                    }
+                } catch (Throwable t) {
+                    failure[0] = t;
+                }
+            }
+        });
+        thread.start();
+        thread.join();
+        if (failure[0] != null) {
+            throw new AssertionError(failure[0]);
+        }
+    }
+
+    @Test
+    public void writeQueueWritesOffTheMainThread() throws Exception {
+        InventoryWriteQueue queue = new InventoryWriteQueue(RuntimeEnvironment.application);
+        // Writes wait until the worker's scheduler is run, below on a thread of its own
+        final Scheduler worker = shadowOf(queue.getWorkerLooper()).getScheduler();
+        worker.pause();
+
+        final List<Integer> tokens = new ArrayList<>();
+        final List<Object> results = new ArrayList<>();
+        InventoryWriteQueue.WriteCallback callback = new InventoryWriteQueue.WriteCallback() {
+            @Override
+            public void onWriteComplete(int token, Object result) {
+                tokens.add(token);
+                results.add(result);
+            }
+
+            @Override
+            public void onWriteRefused(int token) {
+                fail("Refused write " + token);
+            }
+        };
+        ContentValues quantity = new ContentValues();
+        quantity.put(InventoryEntry.COLUMN_INVENTORY_QUANTITY, 20);
+        queue.startUpdate(TOKEN_UPDATE, callback, mItem, quantity, null, null);
+        Bundle extras = new Bundle();
+        extras.putInt(InventoryContract.EXTRA_COUNT, 1);
+        queue.startCall(TOKEN_SELL, callback, InventoryContract.METHOD_SELL,
+                String.valueOf(ContentUris.parseId(mItem)), extras);
+        queue.startInsert(TOKEN_INSERT, callback, InventoryEntry.CONTENT_URI, item());
+        queue.startDelete(TOKEN_DELETE, callback, mItem, null, null);
+
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                worker.advanceToLastPostedRunnable();
+            }
+        });
+        thread.start();
+        thread.join();
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+
+        // No write failed, the main thread would have been killed and the result null
+        assertEquals(4, tokens.size());
+        assertEquals(TOKEN_UPDATE, (int) tokens.get(0));
+        assertEquals(1, results.get(0));
+        assertEquals(TOKEN_SELL, (int) tokens.get(1));
+        assertEquals(19, ((Bundle) results.get(1)).getInt(InventoryContract.EXTRA_QUANTITY));
+        assertEquals(TOKEN_INSERT, (int) tokens.get(2));
+        assertNotNull(results.get(2));
+        assertEquals(TOKEN_DELETE, (int) tokens.get(3));
+        assertEquals(1, results.get(3));
+    }
+
+    @Test
+    public void writeQueueDropsRemovedCallbacks() throws Exception {
+        InventoryWriteQueue queue = new InventoryWriteQueue(RuntimeEnvironment.application);
+        final Scheduler worker = shadowOf(queue.getWorkerLooper()).getScheduler();
+        worker.pause();
+        ShadowLooper.pauseMainLooper();
+
+        final List<Integer> kept = new ArrayList<>();
+        InventoryWriteQueue.WriteCallback keptCallback = new InventoryWriteQueue.WriteCallback() {
+            @Override
+            public void onWriteComplete(int token, Object result) {
+                kept.add(token);
+            }
+
+            @Override
+            public void onWriteRefused(int token) {
+                fail("Refused write " + token);
+            }
+        };
+        // Stands in for a destroyed activity
+        InventoryWriteQueue.WriteCallback removed = new InventoryWriteQueue.WriteCallback() {
+            @Override
+            public void onWriteComplete(int token, Object result) {
+                fail("Delivered write " + token);
+            }
+
+            @Override
+            public void onWriteRefused(int token) {
+                fail("Delivered refused write " + token);
+            }
+        };
+        Bundle extras = new Bundle();
+        extras.putInt(InventoryContract.EXTRA_COUNT, 1);
+        String id = String.valueOf(ContentUris.parseId(mItem));
+        queue.startCall(TOKEN_SELL, removed, InventoryContract.METHOD_SELL, id, extras);
+        queue.startCall(TOKEN_SELL, keptCallback, InventoryContract.METHOD_SELL, id, extras);
+        queue.removeCallbacks(removed);
+        queue.startCall(TOKEN_SELL, removed, InventoryContract.METHOD_SELL, id, extras);
+
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                worker.advanceToLastPostedRunnable();
+            }
+        });
+        thread.start();
+        thread.join();
+        // Results already posted to the main thread are dropped too
+        queue.removeCallbacks(removed);
+        ShadowLooper.unPauseMainLooper();
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+
+        assertEquals(1, kept.size());
+        assertEquals(7, quantity());
+    }
+
+    /**
+     * One of each provider write, to the item inserted in setUp()
+     */
+    private List<Runnable> writes() {
+        final ContentValues quantity = new ContentValues();
+        quantity.put(InventoryEntry.COLUMN_INVENTORY_QUANTITY, 20);
+        final Bundle extras = new Bundle();
+        extras.putInt(InventoryContract.EXTRA_COUNT, 1);
+
+        List<Runnable> writes = new ArrayList<>();
+        writes.add(new Runnable() {
+            @Override
+            public void run() {
+                mProvider.insert(InventoryEntry.CONTENT_URI, item());
+            }
+        });
+        writes.add(new Runnable() {
+            @Override
+            public void run() {
+                mProvider.bulkInsert(InventoryEntry.CONTENT_URI, new ContentValues[]{item()});
+            }
+        });
+        writes.add(new Runnable() {
+            @Override
+            public void run() {
+                mProvider.update(mItem, quantity, null, null);
+            }
+        });
+        writes.add(new Runnable() {
+            @Override
+            public void run() {
+                mProvider.call(InventoryContract.METHOD_SELL,
+                        String.valueOf(ContentUris.parseId(mItem)), extras);
+            }
+        });
+        writes.add(new Runnable() {
+            @Override
+            public void run() {
+                mProvider.delete(mItem, null, null);
+            }
+        });
+        return writes;
+    }
+
+    private static ContentValues item() {
+        ContentValues values = new ContentValues();
+        values.put(InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME, "Product");
+        values.put(InventoryEntry.COLUMN_INVENTORY_PRICE, 100);
+        values.put(InventoryEntry.COLUMN_INVENTORY_QUANTITY, 10);
+        values.put(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME, "Supplier");
+        values.put(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_PHONE, 5550000);
+        return values;
+    }
+
+    private int quantity() {
+        Cursor cursor = mProvider.query(mItem,
+                new String[]{InventoryEntry.COLUMN_INVENTORY_QUANTITY}, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.example.android.inventoryappstage2.data;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.io.File;
+
+/**
+ * Old databases for the migration tests and benchmarks
+ * - createVersion1() makes a fresh file with the schema the app first shipped, and
+ *   insertVersion1Items() fills it
+ * - upgrade() then runs InventoryDbHelper's steps between any two versions
+ */
+public final class MigrationFixture {
+
+    /** The inventory table of version 1, suppliers were columns of each item */
+    public static final String SQL_CREATE_VERSION_1 = "CREATE TABLE inventory ("
+            + "_id INTEGER PRIMARY KEY AUTOINCREMENT, productName TEXT NOT NULL, "
+            + "price INTEGER NOT NULL, quantity INTEGER NOT NULL, "
+            + "supplierName TEXT NOT NULL, supplierPhone TEXT NOT NULL);";
+
+    private MigrationFixture() {
+    }
+
+    /**
+     * Replaces the file with an empty version 1 database, foreign keys on like the helper
+     * opens it
+     */
+    public static SQLiteDatabase createVersion1(File databaseFile) {
+        databaseFile.getParentFile().mkdirs();
+        SQLiteDatabase.deleteDatabase(databaseFile);
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(databaseFile, null);
+        db.setForeignKeyConstraintsEnabled(true);
+        db.execSQL(SQL_CREATE_VERSION_1);
+        db.setVersion(1);
+        return db;
+    }
+
+    /**
+     * Inserts items with _id 1 to items into a version 1 database, in one transaction
+     * Item id has supplier versionOneSupplierName(id, suppliers), with its phone
+     */
+    public static void insertVersion1Items(SQLiteDatabase db, int items, int suppliers) {
+        SQLiteStatement insert = db.compileStatement("INSERT INTO inventory (productName, price, "
+                + "quantity, supplierName, supplierPhone) VALUES (?, ?, ?, ?, ?)");
+        db.beginTransaction();
+        try {
+            for (long id = 1; id <= items; id++) {
+                insert.bindString(1, "Product " + id);
+                insert.bindLong(2, 1 + id % 500);
+                insert.bindLong(3, id % 20);
+                insert.bindString(4, versionOneSupplierName(id, suppliers));
+                insert.bindString(5, versionOneSupplierPhone(id, suppliers));
+                insert.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            insert.close();
+        }
+    }
+
+    public static String versionOneSupplierName(long id, int suppliers) {
+        return "Supplier " + (id - 1) % suppliers;
+    }
+
+    public static String versionOneSupplierPhone(long id, int suppliers) {
+        return String.valueOf(5550000 + (id - 1) % suppliers);
+    }
+
+    /**
+     * Runs the migrations inside a transaction, like SQLiteOpenHelper does
+     */
+    public static void upgrade(InventoryDbHelper helper, SQLiteDatabase db, int from, int to) {
+        db.beginTransaction();
+        try {
+            helper.onUpgrade(db, from, to);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.example.android.inventoryappstage2.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.inventoryappstage2.data.InventoryContract.InventoryEntry;
+import com.example.android.inventoryappstage2.data.InventoryContract.SummaryEntry;
+import com.example.android.inventoryappstage2.data.InventoryContract.SupplierEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Upgrades a version 9 database to prices in cents and normalized phone numbers, and checks
+ * that suppliers differing only in how their number was written are merged
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class PriceMigrationTest {
+
+    private File mDatabaseFile;
+
+    @Before
+    public void setUp() {
+        mDatabaseFile = RuntimeEnvironment.application.getDatabasePath(InventoryDbHelper.DATABASE_NAME);
+    }
+
+    @Test
+    public void upgradeStoresCentsAndNormalizedPhones() {
+        SQLiteDatabase db = MigrationFixture.createVersion1(mDatabaseFile);
+        InventoryDbHelper helper = new InventoryDbHelper(RuntimeEnvironment.application);
+        MigrationFixture.upgrade(helper, db, 1, 9);
+
+        // Whole unit prices, as the editor saved them, and one number written three ways
+        db.execSQL("INSERT INTO suppliers (name, phone) VALUES ('Acme', '(555) 123-4567'), "
+                + "('Acme', '555-123-4567'), ('Other', '555.123.4567'), ('Acme', '+44 20 7946 0000')");
+        db.execSQL("INSERT INTO inventory (productName, price, quantity, supplierId) VALUES "
+                + "('Bolt', 10, 3, 1), ('Nut', 2, 5, 2), ('Washer', 1, 7, 3), ('Gear', 12, 1, 4)");
+        long stockValue = 10 * 3 + 2 * 5 + 7 + 12;
+        assertEquals(stockValue, stockValue(db));
+
+        MigrationFixture.upgrade(helper, db, 9, 10);
+        db.setVersion(InventoryDbHelper.DATABASE_VERSION);
+
+        assertEquals(stockValue * 100, stockValue(db));
+        assertEquals(1000, itemLong(db, 1, InventoryEntry.COLUMN_INVENTORY_PRICE));
+        assertEquals(200, itemLong(db, 2, InventoryEntry.COLUMN_INVENTORY_PRICE));
+
+        // The two ways of writing Acme's number are one supplier now
+        assertEquals(3, DatabaseUtils.queryNumEntries(db, SupplierEntry.TABLE_NAME));
+        assertEquals(1, itemLong(db, 2, InventoryEntry.COLUMN_INVENTORY_SUPPLIER_ID));
+        assertEquals("5551234567", DatabaseUtils.stringForQuery(db, "SELECT phone FROM suppliers"
+                + " WHERE _id = 3", null));
+        assertEquals("+442079460000", DatabaseUtils.stringForQuery(db, "SELECT phone FROM suppliers"
+                + " WHERE _id = 4", null));
+        db.close();
+
+        // New items find the supplier however the number is typed
+        InventoryProvider provider = Robolectric.buildContentProvider(InventoryProvider.class)
+                .create(InventoryContract.CONTENT_AUTHORITY).get();
+        provider.setNotificationWindow(0);
+        ContentValues item = new ContentValues();
+        item.put(InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME, "Spring");
+        item.put(InventoryEntry.COLUMN_INVENTORY_PRICE, 1999);
+        item.put(InventoryEntry.COLUMN_INVENTORY_QUANTITY, 4);
+        item.put(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME, "Acme");
+        item.put(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_PHONE, "555 123 4567");
+        long id = ContentUris.parseId(provider.insert(InventoryEntry.CONTENT_URI, item));
+        Cursor cursor = provider.query(ContentUris.withAppendedId(InventoryEntry.CONTENT_URI, id),
+                new String[]{InventoryEntry.COLUMN_INVENTORY_PRICE,
+                        InventoryEntry.COLUMN_INVENTORY_SUPPLIER_ID,
+                        InventoryEntry.COLUMN_INVENTORY_SUPPLIER_PHONE}, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(1999, cursor.getLong(0));
+            assertEquals(1, cursor.getLong(1));
+            assertEquals("5551234567", cursor.getString(2));
+        } finally {
+            cursor.close();
+        }
+
+        // Prices that aren't whole cents, and numbers that aren't phone numbers, are rejected
+        ContentValues price = new ContentValues();
+        price.put(InventoryEntry.COLUMN_INVENTORY_PRICE, 19.99);
+        assertRejected(provider, id, price);
+        price.put(InventoryEntry.COLUMN_INVENTORY_PRICE, "19.99");
+        assertRejected(provider, id, price);
+        ContentValues phone = new ContentValues();
+        phone.put(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME, "Acme");
+        phone.put(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_PHONE, "555-CALL-NOW");
+        assertRejected(provider, id, phone);
+    }
+
+    private static long stockValue(SQLiteDatabase db) {
+        return DatabaseUtils.longForQuery(db, "SELECT " + SummaryEntry.COLUMN_STOCK_VALUE
+                + " FROM " + SummaryEntry.TABLE_NAME, null);
+    }
+
+    private static long itemLong(SQLiteDatabase db, long id, String column) {
+        return DatabaseUtils.longForQuery(db, "SELECT " + column + " FROM "
+                + InventoryEntry.TABLE_NAME + " WHERE _id = " + id, null);
+    }
+
+    private static void assertRejected(InventoryProvider provider, long id, ContentValues values) {
+        try {
+            provider.update(ContentUris.withAppendedId(InventoryEntry.CONTENT_URI, id), values,
+                    null, null);
+            fail("Updated with " + values);
+        } catch (IllegalArgumentException expected) {
+            // Rejected
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.example.android.inventoryappstage2.data;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Microbenchmark checking that recording metrics doesn't allocate, switched on or off
+ * Uses the HotSpot per-thread allocation counter, so it needs a HotSpot based JVM
+ */
+public class ProviderMetricsAllocationTest {
+
+    private static final int WARMUP_OPS = 100000;
+    private static final int MEASURED_OPS = 1000000;
+
+    private static final com.sun.management.ThreadMXBean THREAD_MX_BEAN =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    @Test
+    public void recordingWhenDisabledDoesNotAllocate() {
+        ProviderMetrics metrics = new ProviderMetrics(new String[]{"items", "item"});
+        metrics.setEnabled(false);
+        assertEquals(0, allocatedBytesRecording(metrics));
+    }
+
+    @Test
+    public void recordingWhenEnabledDoesNotAllocate() {
+        ProviderMetrics metrics = new ProviderMetrics(new String[]{"items", "item"});
+        metrics.setEnabled(true);
+        assertEquals(0, allocatedBytesRecording(metrics));
+    }
+
+    /**
+     * Records MEASURED_OPS operations after a warmup, so the JIT has compiled the path
+     * return: bytes allocated by this thread while measuring
+     */
+    private static long allocatedBytesRecording(ProviderMetrics metrics) {
+        recordOps(metrics, WARMUP_OPS);
+        long threadId = Thread.currentThread().getId();
+        // The first call to the counter allocates itself, make it before measuring
+        THREAD_MX_BEAN.getThreadAllocatedBytes(threadId);
+
+        long before = THREAD_MX_BEAN.getThreadAllocatedBytes(threadId);
+        recordOps(metrics, MEASURED_OPS);
+        long after = THREAD_MX_BEAN.getThreadAllocatedBytes(threadId);
+        return after - before;
+    }
+
+    private static void recordOps(ProviderMetrics metrics, int ops) {
+        for (int i = 0; i < ops; i++) {
+            long start = metrics.start();
+            metrics.record(ProviderMetrics.OP_UPDATE, i & 1, start, 1);
+            metrics.recordNotificationRequested();
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.example.android.inventoryappstage2.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.os.Bundle;
+
+import com.example.android.inventoryappstage2.data.InventoryContract.InventoryEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * SELLERS threads selling from the same few items at once, more than they have in stock
+ * - single sales and two item baskets, one unit of each item, so every sale that
+ *   succeeds must leave its item one unit lower than any sale before it
+ * - no quantity is returned twice, none is below zero, and what is left is the initial
+ *   stock less the units sold
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class SellContentionTest {
+
+    private static final int SELLERS = 8;
+    private static final int SALES_PER_SELLER = 500;
+    private static final int ITEMS = 4;
+
+    /** Less than the sales ask for, so the last sales find no stock */
+    private static final int INITIAL_QUANTITY = 1200;
+
+    private InventoryProvider mProvider;
+    private final long[] mIds = new long[ITEMS];
+
+    /** Quantities returned by successful sales and units sold, per item, guarded by mReturned */
+    private final boolean[][] mReturned = new boolean[ITEMS][INITIAL_QUANTITY];
+    private final int[] mSold = new int[ITEMS];
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.buildContentProvider(InventoryProvider.class)
+                .create(InventoryContract.CONTENT_AUTHORITY).get();
+        mProvider.setNotificationWindow(0);
+        for (int i = 0; i < ITEMS; i++) {
+            ContentValues values = new ContentValues();
+            values.put(InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME, "Product " + i);
+            values.put(InventoryEntry.COLUMN_INVENTORY_PRICE, 100);
+            values.put(InventoryEntry.COLUMN_INVENTORY_QUANTITY, INITIAL_QUANTITY);
+            values.put(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME, "Supplier");
+            values.put(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_PHONE, 5550000);
+            mIds[i] = ContentUris.parseId(mProvider.insert(InventoryEntry.CONTENT_URI, values));
+        }
+    }
+
+    @Test
+    public void concurrentSalesLoseNoDecrement() throws Exception {
+        final Throwable[] failure = new Throwable[1];
+        Thread[] threads = new Thread[SELLERS];
+        for (int seller = 0; seller < SELLERS; seller++) {
+            final Random random = new Random(seller);
+            threads[seller] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < SALES_PER_SELLER; i++) {
+                            int first = random.nextInt(ITEMS);
+                            if (random.nextBoolean()) {
+                                sell(first);
+                            } else {
+                                sellBasket(first, (first + 1 + random.nextInt(ITEMS - 1)) % ITEMS);
+                            }
+                        }
+                    } catch (Throwable t) {
+                        synchronized (failure) {
+                            failure[0] = t;
+                        }
+                    }
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        synchronized (failure) {
+            if (failure[0] != null) {
+                throw new AssertionError(failure[0]);
+            }
+        }
+
+        int soldOut = 0;
+        for (int i = 0; i < ITEMS; i++) {
+            int quantity = quantity(mIds[i]);
+            assertTrue(quantity >= 0);
+            assertEquals(INITIAL_QUANTITY - mSold[i], quantity);
+            // Every quantity between the initial stock and what is left was returned once
+            for (int q = quantity; q < INITIAL_QUANTITY; q++) {
+                assertTrue("Quantity " + q + " of item " + i + " never returned", mReturned[i][q]);
+            }
+            if (quantity == 0) {
+                soldOut++;
+            }
+        }
+        assertTrue(soldOut > 0);
+    }
+
+    private void sell(int item) {
+        Bundle extras = new Bundle();
+        extras.putInt(InventoryContract.EXTRA_COUNT, 1);
+        int quantity = mProvider.call(InventoryContract.METHOD_SELL, String.valueOf(mIds[item]),
+                extras).getInt(InventoryContract.EXTRA_QUANTITY);
+        if (quantity >= 0) {
+            recordSale(item, quantity);
+        }
+    }
+
+    private void sellBasket(int first, int second) {
+        Bundle extras = new Bundle();
+        extras.putLongArray(InventoryContract.EXTRA_ITEM_IDS, new long[]{mIds[first], mIds[second]});
+        extras.putIntArray(InventoryContract.EXTRA_COUNTS, new int[]{1, 1});
+        int[] quantities = mProvider.call(InventoryContract.METHOD_SELL_BASKET, null, extras)
+                .getIntArray(InventoryContract.EXTRA_QUANTITIES);
+        // A basket with an item out of stock was rolled back, its other quantities too
+        if (quantities[0] >= 0 && quantities[1] >= 0) {
+            recordSale(first, quantities[0]);
+            recordSale(second, quantities[1]);
+        }
+    }
+
+    private void recordSale(int item, int quantity) {
+        synchronized (mReturned) {
+            assertTrue("Quantity " + quantity + " of item " + item + " returned twice",
+                    !mReturned[item][quantity]);
+            mReturned[item][quantity] = true;
+            mSold[item]++;
+        }
+    }
+
+    private int quantity(long id) {
+        Cursor cursor = mProvider.query(ContentUris.withAppendedId(InventoryEntry.CONTENT_URI, id),
+                new String[]{InventoryEntry.COLUMN_INVENTORY_QUANTITY}, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
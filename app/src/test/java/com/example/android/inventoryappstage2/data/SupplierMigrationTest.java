@@ -0,0 +1,141 @@
+package com.example.android.inventoryappstage2.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.inventoryappstage2.data.InventoryContract.InventoryEntry;
+import com.example.android.inventoryappstage2.data.InventoryContract.SupplierEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Upgrades a 100k item version 1 database to the suppliers schema and checks that every
+ * item keeps its supplier, in a smaller file
+ * The step's time and file sizes are recorded by SupplierMigrationBenchmark
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class SupplierMigrationTest {
+
+    private static final int ITEMS = 100000;
+    private static final int SUPPLIERS = 500;
+
+    private File mDatabaseFile;
+
+    @Before
+    public void setUp() {
+        mDatabaseFile = RuntimeEnvironment.application.getDatabasePath(InventoryDbHelper.DATABASE_NAME);
+    }
+
+    @Test
+    public void upgradeMovesSuppliersToTheirOwnTable() {
+        SQLiteDatabase db = MigrationFixture.createVersion1(mDatabaseFile);
+        MigrationFixture.insertVersion1Items(db, ITEMS, SUPPLIERS);
+
+        InventoryDbHelper helper = new InventoryDbHelper(RuntimeEnvironment.application);
+        MigrationFixture.upgrade(helper, db, 1, 5);
+        long sizeBefore = vacuumedSize(db);
+
+        MigrationFixture.upgrade(helper, db, 5, 6);
+        long sizeAfter = vacuumedSize(db);
+
+        // The later steps, so the provider finds the current schema
+        MigrationFixture.upgrade(helper, db, 6, InventoryDbHelper.DATABASE_VERSION);
+        db.setVersion(InventoryDbHelper.DATABASE_VERSION);
+
+        assertEquals(ITEMS, DatabaseUtils.queryNumEntries(db, InventoryEntry.TABLE_NAME));
+        assertEquals(SUPPLIERS, DatabaseUtils.queryNumEntries(db, SupplierEntry.TABLE_NAME));
+        assertEquals(0, DatabaseUtils.queryNumEntries(db, InventoryEntry.VIEW_NAME,
+                InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME + " != 'Supplier ' || ((_id - 1) % "
+                        + SUPPLIERS + ")"));
+        assertTrue(sizeAfter < sizeBefore);
+        db.close();
+
+        // The provider opens the upgraded file and reads items with their supplier
+        InventoryProvider provider = Robolectric.buildContentProvider(InventoryProvider.class)
+                .create(InventoryContract.CONTENT_AUTHORITY).get();
+        provider.setNotificationWindow(0);
+        long id = ITEMS / 2;
+        assertItemSupplier(provider, id, supplierName(id), supplierPhone(id));
+
+        // Renaming a supplier renames it for every one of its items
+        ContentValues rename = new ContentValues();
+        rename.put(SupplierEntry.COLUMN_SUPPLIER_NAME, "Renamed");
+        long supplierId = supplierId(provider, id);
+        assertEquals(1, provider.update(ContentUris.withAppendedId(SupplierEntry.CONTENT_URI, supplierId),
+                rename, null, null));
+        assertItemSupplier(provider, id, "Renamed", supplierPhone(id));
+        assertItemSupplier(provider, id + SUPPLIERS, "Renamed", supplierPhone(id));
+
+        // A supplier with items can't be deleted
+        assertEquals(0, provider.delete(ContentUris.withAppendedId(SupplierEntry.CONTENT_URI, supplierId),
+                null, null));
+
+        // A new item continues the old sequence, and finds its existing supplier
+        ContentValues item = new ContentValues();
+        item.put(InventoryEntry.COLUMN_INVENTORY_PRODUCT_NAME, "New product");
+        item.put(InventoryEntry.COLUMN_INVENTORY_PRICE, 1);
+        item.put(InventoryEntry.COLUMN_INVENTORY_QUANTITY, 1);
+        item.put(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME, supplierName(1));
+        item.put(InventoryEntry.COLUMN_INVENTORY_SUPPLIER_PHONE, supplierPhone(1));
+        assertEquals(ITEMS + 1, ContentUris.parseId(provider.insert(InventoryEntry.CONTENT_URI, item)));
+        Cursor suppliers = provider.query(SupplierEntry.CONTENT_URI, null, null, null, null);
+        try {
+            assertEquals(SUPPLIERS, suppliers.getCount());
+        } finally {
+            suppliers.close();
+        }
+    }
+
+    private long vacuumedSize(SQLiteDatabase db) {
+        db.execSQL("VACUUM");
+        return mDatabaseFile.length();
+    }
+
+    private static String supplierName(long id) {
+        return MigrationFixture.versionOneSupplierName(id, SUPPLIERS);
+    }
+
+    private static String supplierPhone(long id) {
+        return MigrationFixture.versionOneSupplierPhone(id, SUPPLIERS);
+    }
+
+    private static long supplierId(InventoryProvider provider, long itemId) {
+        Cursor cursor = provider.query(ContentUris.withAppendedId(InventoryEntry.CONTENT_URI, itemId),
+                new String[]{InventoryEntry.COLUMN_INVENTORY_SUPPLIER_ID}, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static void assertItemSupplier(InventoryProvider provider, long itemId,
+                                           String supplierName, String supplierPhone) {
+        Cursor cursor = provider.query(ContentUris.withAppendedId(InventoryEntry.CONTENT_URI, itemId),
+                new String[]{InventoryEntry.COLUMN_INVENTORY_SUPPLIER_NAME,
+                        InventoryEntry.COLUMN_INVENTORY_SUPPLIER_PHONE}, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(supplierName, cursor.getString(0));
+            assertEquals(supplierPhone, cursor.getString(1));
+        } finally {
+            cursor.close();
+        }
+    }
+}